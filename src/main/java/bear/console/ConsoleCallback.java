@@ -22,6 +22,10 @@ import javax.annotation.Nonnull;
 * @author Andrey Chaschev chaschev@gmail.com
 */
 public interface ConsoleCallback {
+    /**
+     * @param buffer text added since the previous call
+     * @param wholeText a trailing window of the output since the last start mark, see {@link bear.core.MarkedBuffer#DEFAULT_WINDOW}
+     */
     @Nonnull
     ConsoleCallbackResult progress(AbstractConsole.Terminal console, String buffer, String wholeText);
 }
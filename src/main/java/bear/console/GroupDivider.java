@@ -36,10 +36,12 @@ public class GroupDivider<ENTRY> {
     protected List<ArrivedEntry<ENTRY>> arrivedEntries = new ArrayList<ArrivedEntry<ENTRY>>();
 
     protected String[] convertedEntries;
+    protected String[] entryKeys;
 
     protected Function<ENTRY, String> entryAsText;
     protected Function<ENTRY, String> entryId;     // i.e. taskId
     protected Function<ENTRY, String> groupById;   // i.e. sessionId, used to find index in an entries array
+    protected Function<ENTRY, String> entryKey;    // optional, entries with different keys never share a group
 
     protected double thresholdDistancePct = 5;
 
@@ -53,6 +55,7 @@ public class GroupDivider<ENTRY> {
         this.entries = entries;
 
         convertedEntries = new String[entries.size()];
+        entryKeys = new String[entries.size()];
         arrivedEntries = Lists2.newFilledArrayList(entries.size(), null);
     }
 
@@ -60,6 +63,11 @@ public class GroupDivider<ENTRY> {
         this(entryId, entryId, entryAsText);
     }
 
+    public GroupDivider<ENTRY> setEntryKey(Function<ENTRY, String> entryKey) {
+        this.entryKey = entryKey;
+        return this;
+    }
+
     public void addArrival(int i, ENTRY entry) {
         Preconditions.checkNotNull(entries, "GroupDivider not initialized, call init()");
 
@@ -67,8 +75,10 @@ public class GroupDivider<ENTRY> {
 
         if(entry == null){
             convertedEntries[i] = null;
+            entryKeys[i] = null;
         } else{
             convertedEntries[i] = entryAsText.apply(entry);
+            entryKeys[i] = entryKey == null ? null : entryKey.apply(entry);
         }
     }
 
@@ -121,6 +131,10 @@ public class GroupDivider<ENTRY> {
             double distance = 0;
 
             for (EqualityGroup group : groups) {
+                if (!Objects.equal(group.key, entryKeys[i])) {
+                    continue;
+                }
+
                 distance = group.distancePct(entryText);
                 if (group.sameGroup(distance)) {
                     group.add(arrivedEntries.get(i).entryId);
@@ -151,9 +165,13 @@ public class GroupDivider<ENTRY> {
         ArrivedEntry<ENTRY> arrivedEntry = arrivedEntries.get(index);
         ENTRY input = arrivedEntry == null ? null : arrivedEntry.entry;
 
-        return new EqualityGroup(
+        EqualityGroup group = new EqualityGroup(
             input == null ? null : arrivedEntry.entryId,
             convertedEntries[index], index, thresholdDistancePct);
+
+        group.key = entryKeys[index];
+
+        return group;
     }
 
     public List<ENTRY> getEntries() {
@@ -194,6 +212,7 @@ public class GroupDivider<ENTRY> {
         public final double thresholdDistancePct;
         public List<String> entriesIds = new ArrayList<String>();
         public int distance;
+        transient String key;
 
         private EqualityGroup(String id, String text, int firstEntry, double thresholdDistancePct) {
             this.id = id;
@@ -275,7 +275,7 @@ public abstract class AbstractContext {
     }
 
     public AbstractContext setParent(AbstractContext context){
-        layer.fallbackVariablesLayer = context.layer;
+        layer.setFallbackVariablesLayer(context.layer);
 
         this.parent = context;
 
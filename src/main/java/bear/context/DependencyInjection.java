@@ -16,17 +16,12 @@
 
 package bear.context;
 
-import bear.core.Bear;
 import bear.core.GlobalContext;
 import bear.core.SessionContext;
 import bear.plugins.Plugin;
-import bear.plugins.Plugins;
-import bear.plugins.sh.SystemEnvironmentPlugin;
 import bear.session.DynamicVariable;
 import bear.task.TaskDef;
 import bear.task.TaskResult;
-import bear.task.Tasks;
-import chaschev.lang.OpenBean;
 import com.google.common.base.Preconditions;
 
 import javax.annotation.Nullable;
@@ -37,31 +32,30 @@ import java.lang.reflect.Field;
  */
 public class DependencyInjection {
     public static void nameVars(Object obj, AppGlobalContext global) {
-        final Class<?> aClass = obj.getClass();
-        final String className = Plugin.shortenName(aClass.getSimpleName());
-        final Field[] fields = OpenBean.getClassDesc(aClass).fields;
-        final boolean isPlugin = Plugin.class.isAssignableFrom(aClass);
+        final InjectionPlan plan = InjectionPlan.of(obj.getClass());
 
         try {
-            for (Field field : fields) {
-                if (TaskDef.class.isAssignableFrom(field.getType())) {
-                    TaskDef<Object, TaskResult<?>> taskDef = (TaskDef<Object, TaskResult<?>>) field.get(obj);
+            for (int i = 0; i < plan.taskDefFields.length; i++) {
+                TaskDef<Object, TaskResult<?>> taskDef = (TaskDef<Object, TaskResult<?>>) plan.taskDefFields[i].get(obj);
 
-                    if (taskDef != null && !taskDef.isNamed()) {
-                        taskDef.setName(shortName(aClass, className, field) + "." + field.getName());
-                    }
-
-                    continue;
+                if (taskDef != null && !taskDef.isNamed()) {
+                    taskDef.setName(plan.taskDefNames[i]);
                 }
+            }
 
+            for (int i = 0; i < plan.varFields.length; i++) {
+                Field field = plan.varFields[i];
+                String name = plan.varNames[i];
 
-                if (!DynamicVariable.class.isAssignableFrom(field.getType())) {
+                final DynamicVariable var = (DynamicVariable) field.get(obj);
+                Preconditions.checkNotNull(var, field.getName() + " is null!");
+
+                // objects are wired for each session, registering again would reset cached lookups
+                if (name.equals(var.name()) && global.variableRegistry.isRegistered(var)) {
                     continue;
                 }
 
-                final DynamicVariable var = (DynamicVariable) field.get(obj);
-                Preconditions.checkNotNull(var, field.getName() + " is null!");
-                var.setName(shortName(aClass, className, field) + "." + field.getName());
+                var.setName(name);
 
                 global.registerVariable(var, field);
             }
@@ -86,41 +80,33 @@ public class DependencyInjection {
     }
 
     public static void inject(Object obj, GlobalContext global, @Nullable SessionContext $) {
-        Field[] fields = OpenBean.getClassDesc(obj.getClass()).fields;
         try {
-            for (Field field : fields) {
-                Class fieldClass = field.getType();
-
-                if (GlobalContext.class == fieldClass) {
-                    field.set(obj, global);
-                } else if (Tasks.class == fieldClass) {
-                    field.set(obj, global.tasks);
-                } else if (Bear.class == fieldClass) {
-                    field.set(obj, global.bear);
-                } else if (Plugins.class == fieldClass) {
-                    field.set(obj, global.plugins);
-                } else if (Plugins.class == fieldClass) {
-                    field.set(obj, global.plugins);
-                } else if (Plugin.class.isAssignableFrom(fieldClass)) {
-                    field.set(obj, global.plugin(fieldClass));
-                } else {
-                    String fieldName = field.getName();
-
-                    if (SystemEnvironmentPlugin.class.isAssignableFrom(fieldClass)) {
-                        if ("local".equals(fieldName)) {
-                            field.set(obj, global.local);
-                        } else {
-                            if ($ != null) field.set(obj, $.getSys());
-                        }
-                    } else if (SessionContext.class.isAssignableFrom(fieldClass)) {
-                        if ("localCtx".equals(fieldName)) {
-                            field.set(obj, global.localCtx);
-                        } else if ("$".equals(fieldName)) {
-                            field.set(obj, $);
-                        }
-                    }
+            for (InjectionPlan.Injection injection : InjectionPlan.of(obj.getClass()).injections) {
+                Field field = injection.field;
+
+                switch (injection.kind) {
+                    case GLOBAL:
+                        field.set(obj, global);
+                        break;
+                    case TASKS:
+                        field.set(obj, global.tasks);
+                        break;
+                    case BEAR:
+                        field.set(obj, global.bear);
+                        break;
+                    case PLUGINS:
+                        field.set(obj, global.plugins);
+                        break;
+                    case PLUGIN:
+                        field.set(obj, global.plugin((Class) field.getType()));
+                        break;
+                    case LOCAL_CTX:
+                        field.set(obj, global.localCtx);
+                        break;
+                    case SESSION:
+                        field.set(obj, $);
+                        break;
                 }
-
             }
         } catch (IllegalAccessException e) {
             throw new RuntimeException(e);
@@ -17,7 +17,6 @@
 package bear.context;
 
 import bear.context.inject.InjectingVariable;
-import bear.plugins.Plugin;
 import bear.session.DynamicVariable;
 import chaschev.lang.OpenBean;
 import chaschev.lang.reflect.ClassDesc;
@@ -38,8 +37,20 @@ import static bear.context.Fun.UNDEFINED;
 public class InjectingContext<CONTEXT extends AbstractContext> extends AbstractContext {
     private static final Logger logger = LoggerFactory.getLogger(InjectingContext.class);
 
-    Object obj;
-    protected Field field;
+    private static final class Target {
+        final Object obj;
+        final Field field;
+
+        Target(Object obj, Field field) {
+            this.obj = obj;
+            this.field = field;
+        }
+    }
+
+    /**
+     * The field being injected, sessions are wired concurrently.
+     */
+    private final ThreadLocal<Target> target = new ThreadLocal<Target>();
 
     public InjectingContext(CONTEXT context) {
         super(context, context.name + ":inject");
@@ -49,15 +60,20 @@ public class InjectingContext<CONTEXT extends AbstractContext> extends AbstractC
     private boolean inject(Object o, Field field, DynamicVariable<?> variable, String aCase) {
         Object result;
 
+        Target prev = target.get();
+
         try {
-            synchronized (this){
-                this.field = field;
-                obj = o;
+            target.set(new Target(o, field));
 
-                result = this.var(variable);
-            }
+            result = this.var(variable);
         } catch (Fun.UndefinedException e) {
             result = UNDEFINED;
+        } finally {
+            if (prev == null) {
+                target.remove();
+            } else {
+                target.set(prev);
+            }
         }
 
         if(result == UNDEFINED) return false;
@@ -67,47 +83,44 @@ public class InjectingContext<CONTEXT extends AbstractContext> extends AbstractC
         return true;
     }
 
+    /**
+     * @return the field being injected by the current thread
+     */
+    public Field getField() {
+        return target.get().field;
+    }
+
+    /**
+     * @return the object being injected by the current thread
+     */
+    public Object getObject() {
+        return target.get().obj;
+    }
+
     @Override
     public <T> T wire(T object) {
         try {
             Class<?> objClass = object.getClass();
 
-            boolean autowire = true;
-            Class scopeClass = null;
-
-            {
-                final WireFields a = objClass.getAnnotation(WireFields.class);
-
-                if (a != null) {
-                    autowire = a.autowire();
-                    scopeClass = a.value() == Void.class ? null : a.value();
-                }
-            }
-
-            Field[] fields = OpenBean.getClassDesc(objClass).fields;
-
-            String scope = scopeClass == null ? "" : Plugin.shortenName(scopeClass.getSimpleName()) + ".";
+            InjectionPlan plan = InjectionPlan.of(objClass);
 
             Class<? extends AbstractContext> myClass = parent.getClass();
 
             Field[] contextFields = null;
 
-
-            for (Field field : fields) {
-                Var varAnnotation = field.getAnnotation(Var.class);
-
-                if(varAnnotation != null && varAnnotation.skipWiring()){
+            for (InjectionPlan.Wiring wiring : plan.wirings) {
+                if(wiring.skip){
                     continue;
                 }
 
-                Class<?> fieldClass = field.getType();
+                Field field = wiring.field;
 
-                String probableVarName = getProbableVarName(scope, field, varAnnotation);
+                Class<?> fieldClass = field.getType();
 
-                VariableInfo info = global.variableRegistry.get(probableVarName);
+                VariableInfo info = global.variableRegistry.get(wiring.varName);
 
                 if(info != null){
-                    Object o = var(probableVarName, UNDEFINED);
+                    Object o = var(wiring.varName, UNDEFINED);
 
                     if(o != UNDEFINED){
                         setField(field, object, o, "variable");
@@ -115,9 +128,7 @@ public class InjectingContext<CONTEXT extends AbstractContext> extends AbstractC
                     }
                 }
 
-                boolean autoImplThis = varAnnotation == null || varAnnotation.autoWireImpl();
-
-                if (autoImplThis) {
+                if (wiring.autoImpl) {
                     for (InjectingVariable var : global.injectors.findForDeclaredType(fieldClass)) {
                         if(inject(object, field, var, "type injection")){
                             continue;
@@ -125,7 +136,7 @@ public class InjectingContext<CONTEXT extends AbstractContext> extends AbstractC
                     }
                 }
 
-                if (autowire) {
+                if (plan.autowire) {
                     if(myClass == fieldClass){
                         setField(field, object, parent, "this");
                         continue;
@@ -185,30 +196,8 @@ public class InjectingContext<CONTEXT extends AbstractContext> extends AbstractC
         }
     }
 
-    private static String concatBlank(String s1, String s2) {
-        return "".equals(s1) ? s2 : s1 + s2;
-    }
-
     @Override
     public CONTEXT getParent() {
         return (CONTEXT) parent;
     }
-
-    private static String getProbableVarName(String scope, Field field, Var varAnnotation) {
-        String varName;
-        if(varAnnotation != null){
-            String value = varAnnotation.value();
-            if("".equals(value)){
-                varName = concatBlank(scope, field.getName());
-            }else
-            if(value.indexOf('.') != -1){
-                varName = value;
-            }else{
-                varName = concatBlank(scope, value);
-            }
-        }else{
-            varName = concatBlank(scope, field.getName());
-        }
-        return varName;
-    }
 }
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.context;
+
+import bear.core.Bear;
+import bear.core.GlobalContext;
+import bear.core.SessionContext;
+import bear.plugins.Plugin;
+import bear.plugins.Plugins;
+import bear.session.DynamicVariable;
+import bear.task.TaskDef;
+import bear.task.Tasks;
+import chaschev.lang.OpenBean;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What naming, injection and wiring do with the fields of a class, found once per class. Objects are wired for every
+ * session, so this saves walking all fields, reading their annotations and building variable names each time.
+ *
+ * Plans are kept for the lifetime of the classes, the same way as {@link chaschev.lang.reflect.ClassDesc}.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public final class InjectionPlan {
+    private static final ConcurrentHashMap<Class<?>, InjectionPlan> plans = new ConcurrentHashMap<Class<?>, InjectionPlan>();
+
+    enum Kind {
+        GLOBAL, TASKS, BEAR, PLUGINS, PLUGIN, LOCAL_CTX, SESSION
+    }
+
+    static final class Injection {
+        final Field field;
+        final Kind kind;
+
+        Injection(Field field, Kind kind) {
+            this.field = field;
+            this.kind = kind;
+        }
+    }
+
+    static final class Wiring {
+        final Field field;
+
+        @Nullable
+        final Var var;
+
+        /**
+         * A variable which is likely to hold the value for the field.
+         */
+        final String varName;
+
+        final boolean skip;
+        final boolean autoImpl;
+
+        Wiring(Field field, @Nullable Var var, String scope) {
+            this.field = field;
+            this.var = var;
+            this.varName = probableVarName(scope, field, var);
+            this.skip = var != null && var.skipWiring();
+            this.autoImpl = var == null || var.autoWireImpl();
+        }
+    }
+
+    final Class<?> aClass;
+
+    final Field[] taskDefFields;
+    final String[] taskDefNames;
+
+    final Field[] varFields;
+    final String[] varNames;
+
+    /**
+     * Fields of plugin types, which are the dependencies of a plugin.
+     */
+    public final Field[] pluginFields;
+
+    final Injection[] injections;
+
+    final boolean autowire;
+
+    /**
+     * Prefix of variable names from {@link WireFields}, i.e. "plugin.".
+     */
+    final String scope;
+
+    final Wiring[] wirings;
+
+    private InjectionPlan(Class<?> aClass) {
+        this.aClass = aClass;
+
+        Field[] fields = OpenBean.getClassDesc(aClass).fields;
+
+        String prefix = Plugin.shortenName(aClass.getSimpleName()) + ".";
+
+        List<Field> taskDefs = new ArrayList<Field>();
+        List<Field> vars = new ArrayList<Field>();
+        List<Field> plugins = new ArrayList<Field>();
+        List<Injection> injections = new ArrayList<Injection>();
+
+        for (Field field : fields) {
+            Class<?> type = field.getType();
+
+            if (TaskDef.class.isAssignableFrom(type)) {
+                taskDefs.add(field);
+            } else if (DynamicVariable.class.isAssignableFrom(type)) {
+                vars.add(field);
+            }
+
+            if (Plugin.class.isAssignableFrom(type)) {
+                plugins.add(field);
+            }
+
+            Kind kind = kindOf(field);
+
+            if (kind != null) {
+                injections.add(new Injection(field, kind));
+            }
+        }
+
+        taskDefFields = taskDefs.toArray(new Field[taskDefs.size()]);
+        taskDefNames = names(prefix, taskDefFields);
+
+        varFields = vars.toArray(new Field[vars.size()]);
+        varNames = names(prefix, varFields);
+
+        pluginFields = plugins.toArray(new Field[plugins.size()]);
+
+        this.injections = injections.toArray(new Injection[injections.size()]);
+
+        {
+            boolean autowire = true;
+            Class scopeClass = null;
+
+            final WireFields a = aClass.getAnnotation(WireFields.class);
+
+            if (a != null) {
+                autowire = a.autowire();
+                scopeClass = a.value() == Void.class ? null : a.value();
+            }
+
+            this.autowire = autowire;
+            this.scope = scopeClass == null ? "" : Plugin.shortenName(scopeClass.getSimpleName()) + ".";
+        }
+
+        wirings = new Wiring[fields.length];
+
+        for (int i = 0; i < fields.length; i++) {
+            Field field = fields[i];
+
+            wirings[i] = new Wiring(field, field.getAnnotation(Var.class), scope);
+        }
+    }
+
+    public static InjectionPlan of(Class<?> aClass) {
+        InjectionPlan plan = plans.get(aClass);
+
+        if (plan == null) {
+            // two threads may build a plan for the same class, this is harmless
+            InjectionPlan prev = plans.putIfAbsent(aClass, plan = new InjectionPlan(aClass));
+
+            if (prev != null) {
+                plan = prev;
+            }
+        }
+
+        return plan;
+    }
+
+    @Nullable
+    private static Kind kindOf(Field field) {
+        Class<?> type = field.getType();
+
+        if (GlobalContext.class == type) return Kind.GLOBAL;
+        if (Tasks.class == type) return Kind.TASKS;
+        if (Bear.class == type) return Kind.BEAR;
+        if (Plugins.class == type) return Kind.PLUGINS;
+        if (Plugin.class.isAssignableFrom(type)) return Kind.PLUGIN;
+
+        if (SessionContext.class.isAssignableFrom(type)) {
+            String name = field.getName();
+
+            if ("localCtx".equals(name)) return Kind.LOCAL_CTX;
+            if ("$".equals(name)) return Kind.SESSION;
+        }
+
+        return null;
+    }
+
+    private static String[] names(String prefix, Field[] fields) {
+        String[] names = new String[fields.length];
+
+        for (int i = 0; i < fields.length; i++) {
+            names[i] = prefix + fields[i].getName();
+        }
+
+        return names;
+    }
+
+    private static String probableVarName(String scope, Field field, @Nullable Var varAnnotation) {
+        String varName;
+        if(varAnnotation != null){
+            String value = varAnnotation.value();
+            if("".equals(value)){
+                varName = concatBlank(scope, field.getName());
+            }else
+            if(value.indexOf('.') != -1){
+                varName = value;
+            }else{
+                varName = concatBlank(scope, value);
+            }
+        }else{
+            varName = concatBlank(scope, field.getName());
+        }
+        return varName;
+    }
+
+    static String concatBlank(String s1, String s2) {
+        return "".equals(s1) ? s2 : s1 + s2;
+    }
+}
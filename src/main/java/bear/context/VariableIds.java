@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.context;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Dense ids of variable names, used as indexes in layer slots. Names are never unregistered, so ids are stable for
+ * the life of the VM.
+ *
+ * Each name also has the time of its last write, taken from a global clock. A value computed at time <code>t</code>
+ * is still valid when none of the names it was computed from has been written after <code>t</code>.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public final class VariableIds {
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    private static final int CHUNK = 1024;
+
+    private static final AtomicLong clock = new AtomicLong();
+
+    /**
+     * Write times by id. Chunks are never replaced, so a write can't be lost while the array grows.
+     */
+    private static volatile AtomicLongArray[] writes = new AtomicLongArray[0];
+
+    /**
+     * Time of the last change which can affect any name, i.e. a new layer in a chain.
+     */
+    private static volatile long allWritten;
+
+    private VariableIds() {
+    }
+
+    public static int of(String name) {
+        Integer id = ids.get(name);
+
+        if (id != null) {
+            return id;
+        }
+
+        Integer newId = nextId.getAndIncrement();
+
+        id = ids.putIfAbsent(name, newId);
+
+        return id == null ? newId : id;
+    }
+
+    public static int count() {
+        return nextId.get();
+    }
+
+    public static long now() {
+        return clock.get();
+    }
+
+    public static void written(String name) {
+        written(of(name));
+    }
+
+    public static void written(int id) {
+        chunk(id).set(id % CHUNK, clock.incrementAndGet());
+    }
+
+    public static void allWritten() {
+        allWritten = clock.incrementAndGet();
+    }
+
+    /**
+     * @return true when none of the names has been written after <code>time</code>
+     */
+    public static boolean unchangedSince(int[] ids, long time) {
+        if (allWritten > time) {
+            return false;
+        }
+
+        AtomicLongArray[] writes = VariableIds.writes;
+
+        for (int id : ids) {
+            int chunk = id / CHUNK;
+
+            if (chunk < writes.length && writes[chunk].get(id % CHUNK) > time) {
+                return false;
+            }
+        }
+
+        // a chunk which isn't there has no writes
+        return true;
+    }
+
+    private static AtomicLongArray chunk(int id) {
+        int chunk = id / CHUNK;
+
+        AtomicLongArray[] writes = VariableIds.writes;
+
+        if (chunk < writes.length) {
+            return writes[chunk];
+        }
+
+        synchronized (VariableIds.class) {
+            writes = VariableIds.writes;
+
+            if (chunk >= writes.length) {
+                AtomicLongArray[] copy = new AtomicLongArray[chunk + 1];
+
+                System.arraycopy(writes, 0, copy, 0, writes.length);
+
+                for (int i = writes.length; i < copy.length; i++) {
+                    copy[i] = new AtomicLongArray(CHUNK);
+                }
+
+                VariableIds.writes = writes = copy;
+            }
+
+            return writes[chunk];
+        }
+    }
+}
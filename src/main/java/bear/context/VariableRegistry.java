@@ -19,15 +19,20 @@ package bear.context;
 import bear.session.DynamicVariable;
 
 import java.lang.reflect.Field;
-import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
 * @author Andrey Chaschev chaschev@gmail.com
 */
 public class VariableRegistry {
     protected final AppGlobalContext global;
-    protected final Map<String, VariableInfo> variableMap = new LinkedHashMap<String, VariableInfo>();
+    protected final Map<String, VariableInfo> variableMap = new ConcurrentHashMap<String, VariableInfo>();
+
+    /**
+     * Incremented on each registration, layers don't trust lookups cached before.
+     */
+    volatile int version;
 
     public Class<?> getType(String key) {
         VariableInfo info = variableMap.get(key);
@@ -43,8 +48,16 @@ public class VariableRegistry {
         this.global = global;
     }
 
-    public void register(DynamicVariable var, Field field) {
+    public synchronized void register(DynamicVariable var, Field field) {
         variableMap.put(var.name(), new VariableInfo(var, field));
+        version++;
+        VariableIds.written(var.name());
+    }
+
+    public boolean isRegistered(DynamicVariable var) {
+        VariableInfo info = variableMap.get(var.name());
+
+        return info != null && info.var == var;
     }
 
     public VariableInfo get(String key) {
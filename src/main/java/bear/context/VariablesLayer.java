@@ -17,7 +17,6 @@
 package bear.context;
 
 import bear.main.phaser.SettableFuture;
-import bear.plugins.Plugin;
 import bear.session.DynamicVariable;
 import bear.session.Variables;
 import chaschev.lang.OpenBean;
@@ -28,9 +27,11 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.lang.reflect.Field;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static bear.context.Fun.UNDEFINED;
 
@@ -49,6 +50,17 @@ import static bear.context.Fun.UNDEFINED;
  * Some of the implementation concepts:
  *
  * initialLayer: a var can be evaluated from $, but applied in global, so initialLayer is passed to global layer to apply var in global layer
+ *
+ * Lookups are cached in a slot array indexed by {@link VariableIds}. A slot keeps where the variable was found and
+ * the stamp of the layer chain at that moment, a sum of the generations of the layers, which only grow on changes,
+ * and of the registry version. A slot with a different stamp is stale. Sums of different chains can't be compared, so
+ * when any layer gets another fallback, slots of all layers, including its descendants, become stale. Memoized and
+ * temporary variables are not cached.
+ *
+ * Values of pure variables, see {@link DynamicVariable#pure()}, are cached as well. While a pure variable is evaluated,
+ * the names it reads are tracked, so its value is dropped only when one of these names is written, see
+ * {@link VariableIds#unchangedSince(int[], long)}. A pure variable which reads a dynamic variable which is not pure is
+ * not cached.
  */
 public class VariablesLayer extends HavingContext<Variables, AbstractContext> {
     private static final Logger logger = LoggerFactory.getLogger(VariablesLayer.class);
@@ -59,6 +71,104 @@ public class VariablesLayer extends HavingContext<Variables, AbstractContext> {
     protected ConcurrentHashMap<Object, Object> constants = new ConcurrentHashMap<Object, Object>();
     protected ConcurrentHashMap<String, DynamicVariable> variables = new ConcurrentHashMap<String, DynamicVariable>();
 
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Incremented on each change of a fallback layer.
+     */
+    private static final AtomicLong relinks = new AtomicLong();
+    private volatile Resolved[] slots = new Resolved[0];
+    private volatile Derived[] derived = new Derived[0];
+
+    private static final ThreadLocal<Tracker> tracker = new ThreadLocal<Tracker>();
+
+    static boolean cacheLookups = true;
+
+    private static final int CONSTANT = 0, VARIABLE = 1, GLOBAL = 2;
+
+    private static final class Resolved {
+        final long relink;
+        final long stamp;
+        final int kind;
+        final Object value;
+
+        /**
+         * For the global kind, null when the variable is not in the registry.
+         */
+        final DynamicVariable<?> var;
+
+        final VariablesLayer layer;
+
+        Resolved(long relink, long stamp, int kind, Object value, DynamicVariable<?> var, VariablesLayer layer) {
+            this.relink = relink;
+            this.stamp = stamp;
+            this.kind = kind;
+            this.value = value;
+            this.var = var;
+            this.layer = layer;
+        }
+    }
+
+    private static final class Derived {
+        /**
+         * The clock before the evaluation.
+         */
+        final long time;
+
+        final int[] dependencies;
+
+        /**
+         * The value returned by the variable, can be UNDEFINED.
+         */
+        final Object value;
+
+        final boolean local;
+
+        /**
+         * Not null when the value was computed by the variable passed to the lookup.
+         */
+        final DynamicVariable<?> var;
+
+        Derived(long time, int[] dependencies, Object value, boolean local, DynamicVariable<?> var) {
+            this.time = time;
+            this.dependencies = dependencies;
+            this.value = value;
+            this.local = local;
+            this.var = var;
+        }
+    }
+
+    /**
+     * Names read during an evaluation of a pure variable.
+     */
+    private static final class Tracker {
+        int[] ids = new int[8];
+        int size;
+        boolean impure;
+
+        void add(int id) {
+            if(size == ids.length){
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+
+            ids[size++] = id;
+        }
+
+        void addAll(int[] ids) {
+            for (int id : ids) {
+                add(id);
+            }
+        }
+
+        void addAll(Tracker nested) {
+            for (int i = 0; i < nested.size; i++) {
+                add(nested.ids[i]);
+            }
+
+            impure |= nested.impure;
+        }
+    }
+
     public VariablesLayer(String name, VariablesLayer fallbackVariablesLayer) {
         super(null);
 
@@ -75,6 +185,7 @@ public class VariablesLayer extends HavingContext<Variables, AbstractContext> {
             throwFrozen(varName);
         } else {
             variables.put(varName, val);
+            changed(varName);
         }
     }
 
@@ -113,6 +224,7 @@ public class VariablesLayer extends HavingContext<Variables, AbstractContext> {
         logger.debug("{}: {} <- {}", name, key, value);
         Preconditions.checkArgument(!(key instanceof DynamicVariable || value instanceof DynamicVariable), "dynamic variables are not constants!");
         constants.put(key, value);
+        changed(key);
         return this;
     }
 
@@ -144,6 +256,7 @@ public class VariablesLayer extends HavingContext<Variables, AbstractContext> {
     public VariablesLayer removeConst(String name) {
         Object remove = constants.remove(name);
         if(remove != null){
+            changed(name);
             logger.debug("{}: removed :{} ({})", this.name, name, remove);
         }
         return this;
@@ -194,6 +307,10 @@ public class VariablesLayer extends HavingContext<Variables, AbstractContext> {
             future = new SettableFuture<T>();
             o = constants.putIfAbsent(var.name(), future);
             iAmTheOwner = o == null;
+
+            if(iAmTheOwner){
+                changed(var.name());
+            }
         }
 
         if(iAmTheOwner){
@@ -262,10 +379,44 @@ public class VariablesLayer extends HavingContext<Variables, AbstractContext> {
         Preconditions.checkArgument(var != null || varName != null, "they can't both be null!");
         Preconditions.checkArgument(var == null || var.isNameSet(), "var must have a name set or declared temporary");
 
+        Tracker tracker = VariablesLayer.tracker.get();
+
+        int id = -1;
+
+        if(cacheLookups && !memoization && varName != null && (var == null || !var.isTemporal())){
+            id = var == null ? VariableIds.of(varName) : var.id();
+
+            if(tracker != null){
+                tracker.add(id);
+            }
+        }
+
         if(!memoization && var != null && var.memoizeIn() == $.getClass()){
             return atomicMemoize(var, varName, _default, initialLayer);
         }
 
+        if(id != -1 && (var == null || var.memoizeIn() == null)){
+            if(initialLayer == this){
+                Derived[] derived = this.derived;
+
+                Derived d = id < derived.length ? derived[id] : null;
+
+                if(d != null && (d.var == null || d.var == var) && VariableIds.unchangedSince(d.dependencies, d.time)){
+                    if(tracker != null){
+                        tracker.addAll(d.dependencies);
+                    }
+
+                    return defined(chooseDefined(d.value, d.local ? _default : UNDEFINED), varName);
+                }
+            }
+
+            Resolved resolved = resolve(id, varName);
+
+            if(resolved != null){
+                return evaluate(resolved, id, var, varName, _default, initialLayer, tracker);
+            }
+        }
+
 //        if(this == initialLayer){
 //            logger.debug("{}: evaluating :{}...", name, varName);
 //        }
@@ -307,6 +458,8 @@ public class VariablesLayer extends HavingContext<Variables, AbstractContext> {
                 if (var != null) {
                     Object temp;
 
+                    applying(var);
+
                     try {
                         temp = var.apply(initialLayer.$);
                     } catch (Exception e) {
@@ -324,6 +477,8 @@ public class VariablesLayer extends HavingContext<Variables, AbstractContext> {
         } else {
             //overridden in the variables layer
 
+            applying(r);
+
             thisLayerResult = chooseDefined(r.apply($), _default);
             logger.debug("{}: :{} <- {} (overridden var)", name, varName, thisLayerResult);
         }
@@ -335,6 +490,211 @@ public class VariablesLayer extends HavingContext<Variables, AbstractContext> {
         return thisLayerResult;
     }
 
+    private Resolved resolve(int id, String varName) {
+        // the stamp is taken before the lookup and changes are counted after they are made,
+        // so a lookup racing with a change is stored with an old stamp
+        long relink = relinks.get();
+        long stamp = chainStamp();
+
+        Resolved[] slots = this.slots;
+
+        if(id < slots.length){
+            Resolved resolved = slots[id];
+
+            if(resolved != null && resolved.relink == relink && resolved.stamp == stamp){
+                return resolved;
+            }
+        }
+
+        Resolved resolved = lookup(varName, relink, stamp);
+
+        if(resolved != null){
+            if(id >= slots.length){
+                slots = Arrays.copyOf(slots, Math.max(id + 1, VariableIds.count()));
+            }
+
+            slots[id] = resolved;
+
+            this.slots = slots;
+        }
+
+        return resolved;
+    }
+
+    /**
+     * @return null when the value is being memoized
+     */
+    @Nullable
+    private Resolved lookup(String varName, long relink, long stamp) {
+        for (VariablesLayer layer = this; ; layer = layer.fallbackVariablesLayer) {
+            Object o = layer.constants.get(varName);
+
+            if(o != null){
+                return o instanceof Future ? null : new Resolved(relink, stamp, CONSTANT, o, null, layer);
+            }
+
+            DynamicVariable<?> r = layer.variables.get(varName);
+
+            if(r != null){
+                return new Resolved(relink, stamp, VARIABLE, null, r, layer);
+            }
+
+            if(layer.fallbackVariablesLayer == null){
+                AppGlobalContext global = layer.$.getGlobal();
+
+                VariableInfo info = global == null ? null : global.variableRegistry.get(varName);
+
+                return new Resolved(relink, stamp, GLOBAL, null, info == null ? null : info.var, layer);
+            }
+        }
+    }
+
+    /**
+     * Same as the walk in {@link #getByVarName}: the default is used only when a variable is found in this layer.
+     */
+    private Object evaluate(Resolved resolved, int id, @Nullable DynamicVariable<?> var, String varName, Object _default,
+                            VariablesLayer initialLayer, @Nullable Tracker tracker) {
+        if(resolved.kind == CONSTANT){
+            return resolved.value;
+        }
+
+        DynamicVariable<?> applied;
+        AbstractContext $;
+
+        if(resolved.kind == VARIABLE){
+            applied = resolved.var;
+            $ = resolved.layer.$;
+        } else {
+            applied = resolved.var == null ? var : resolved.var;
+            $ = initialLayer.$;
+        }
+
+        if(applied == null){
+            throw new Fun.UndefinedException(":"+varName+ " is not defined");
+        }
+
+        boolean local = resolved.layer == this;
+
+        Object result;
+
+        if(resolved.kind == VARIABLE){
+            result = apply(applied, $, id, initialLayer, local, null, tracker);
+        } else {
+            try {
+                result = apply(applied, $, id, initialLayer, local, resolved.var == null ? var : null, tracker);
+            } catch (Exception e) {
+                throw Exceptions.runtime(e);
+            }
+        }
+
+        return defined(chooseDefined(result, local ? _default : UNDEFINED), varName);
+    }
+
+    private Object apply(DynamicVariable<?> applied, AbstractContext $, int id, VariablesLayer initialLayer, boolean local,
+                         @Nullable DynamicVariable<?> var, @Nullable Tracker tracker) {
+        if(initialLayer != this || !applied.isPure()){
+            applying(applied);
+
+            return applied.apply($);
+        }
+
+        Tracker nested = new Tracker();
+
+        long time = VariableIds.now();
+
+        Object result;
+
+        VariablesLayer.tracker.set(nested);
+
+        try {
+            result = applied.apply($);
+        } finally {
+            VariablesLayer.tracker.set(tracker);
+        }
+
+        if(tracker != null){
+            tracker.addAll(nested);
+        }
+
+        if(!nested.impure){
+            nested.add(id);
+
+            Derived[] derived = this.derived;
+
+            if(id >= derived.length){
+                derived = Arrays.copyOf(derived, Math.max(id + 1, VariableIds.count()));
+            }
+
+            derived[id] = new Derived(time, Arrays.copyOf(nested.ids, nested.size), result, local, var);
+
+            this.derived = derived;
+        }
+
+        return result;
+    }
+
+    /**
+     * A value read from a dynamic variable which is not pure can't be cached.
+     */
+    private static void applying(DynamicVariable<?> var) {
+        if(var.isDynamic() && !var.isPure() && var.memoizeIn() == null){
+            Tracker t = tracker.get();
+
+            if(t != null){
+                t.impure = true;
+            }
+        }
+    }
+
+    private static Object defined(Object result, String varName) {
+        if(result == UNDEFINED){
+            throw new Fun.UndefinedException(":"+varName+ " is not defined");
+        }
+
+        return result;
+    }
+
+    private long chainStamp() {
+        long stamp = 0;
+
+        VariablesLayer layer = this;
+
+        while (true) {
+            stamp += layer.generation.get();
+
+            if(layer.fallbackVariablesLayer == null) break;
+
+            layer = layer.fallbackVariablesLayer;
+        }
+
+        AppGlobalContext global = layer.$ == null ? null : layer.$.getGlobal();
+
+        return global == null ? stamp : stamp + global.variableRegistry.version;
+    }
+
+    private void changed() {
+        generation.incrementAndGet();
+    }
+
+    private void changed(Object key) {
+        changed();
+
+        if(key instanceof String){
+            VariableIds.written((String) key);
+        }
+    }
+
+    void setFallbackVariablesLayer(VariablesLayer fallbackVariablesLayer) {
+        this.fallbackVariablesLayer = fallbackVariablesLayer;
+
+        // stamps of different chains can't be compared, descendants of this layer have slots too
+        slots = new Resolved[0];
+        derived = new Derived[0];
+        relinks.incrementAndGet();
+        changed();
+        VariableIds.allWritten();
+    }
+
     private static Object chooseDefined(Object x, Object _default) {
         Object temp  = x;
 
@@ -391,26 +751,16 @@ public class VariablesLayer extends HavingContext<Variables, AbstractContext> {
     }
 
     public static void wire(VariablesLayer layer, Object object) {
-        Class<?> aClass = object.getClass();
-
-        boolean autowire = true;
-        Class scopeClass = null;
+        InjectionPlan plan = InjectionPlan.of(object.getClass());
 
-        {
-            final WireFields a = aClass.getAnnotation(WireFields.class);
+        boolean autowire = plan.autowire;
 
-            if (a != null) {
-                autowire = a.autowire();
-                scopeClass = a.value() == Void.class ? null : a.value();
-            }
-        }
-
-        Field[] fields = OpenBean.getClassDesc(aClass).fields;
+        String scope = plan.scope;
 
-        String scope = scopeClass == null ? "" : Plugin.shortenName(scopeClass.getSimpleName()) + ".";
+        for (InjectionPlan.Wiring wiring : plan.wirings) {
+            Field field = wiring.field;
 
-        for (Field field : fields) {
-            Var varAnnotation = field.getAnnotation(Var.class);
+            Var varAnnotation = wiring.var;
 
             Class<?> fieldClass = field.getType();
 
@@ -562,11 +912,14 @@ public class VariablesLayer extends HavingContext<Variables, AbstractContext> {
 
 
                 DynamicVariable oldValue = variables.put(stringKey, variable);
+                VariableIds.written(stringKey);
                 if(returnOldValues){
                     oldValues.put(stringKey, oldValue);
                 }
             }else{
                 Object oldValue;
+                VariableIds.written(stringKey);
+
                 if(value == null){
                     oldValue = constants.remove(stringKey);
                 }else{
@@ -578,6 +931,8 @@ public class VariablesLayer extends HavingContext<Variables, AbstractContext> {
             }
         }
 
+        changed();
+
         return oldValues;
     }
 
@@ -20,9 +20,11 @@ import bear.console.ConsoleCallbackResult;
 import bear.console.ConsoleCallbackResultType;
 import bear.plugins.sh.GenericUnixRemoteEnvironmentPlugin;
 import bear.ssh.MyStreamCopier;
+import bear.ssh.StreamMultiplexer;
 import chaschev.util.Exceptions;
 import com.google.common.base.Optional;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,7 +40,7 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 /**
- *  Generally, this is a big mess. What could be improved? Copiers could be run in a single thread.
+ *  Generally, this is a big mess. Copiers can either run in own threads or be drained by a shared {@link StreamMultiplexer}.
  *
  * @author Andrey Chaschev chaschev@gmail.com
  */
@@ -65,6 +67,21 @@ public abstract class AbstractConsole extends bear.console.AbstractConsole.Termi
     List<MarkedBuffer> buffers = new ArrayList<MarkedBuffer>();
     List<Future> futures = new ArrayList<Future>();
 
+    /**
+     * Output of all copiers in arrival order.
+     */
+    final ChunkJournal journal = new ChunkJournal();
+
+    /**
+     * Journal position of the last start mark of the buffers, the output begins there.
+     */
+    volatile long journalStart;
+
+    /**
+     * Set when copiers are drained by a shared multiplexer instead of own threads.
+     */
+    StreamMultiplexer multiplexer;
+
     protected volatile boolean finished = false;
 
     protected volatile transient ConsoleCallbackResult lastCallbackResult;
@@ -105,9 +122,9 @@ public abstract class AbstractConsole extends bear.console.AbstractConsole.Termi
     }
 
     public AbstractConsole addInputStream(InputStream is, boolean stdErr) {
-        final OpenBAOS baos = new OpenBAOS();
-        final MyStreamCopier copier = new MyStreamCopier(is, baos, stdErr);
         final MarkedBuffer buffer = new MarkedBuffer(stdErr);
+        final MyStreamCopier copier = new MyStreamCopier(is,
+            new TeeOutputStream(buffer.asOutputStream(), journal.asOutputStream(stdErr)), stdErr);
 
         copiers.add(copier);
         buffers.add(buffer);
@@ -115,13 +132,18 @@ public abstract class AbstractConsole extends bear.console.AbstractConsole.Termi
         copier.listener(new MyStreamCopier.Listener() {
             @Override
             public void reportProgress(long transferred, byte[] buf, int read) throws Exception {
-                synchronized (baos){
-                    buffer.progress(baos.getBuffer(), baos.getLength());
-                }
+                final String interimText = buffer.interimText();
+
+                LoggerFactory.getLogger("log").trace("appended to buffer: {}", interimText);
+
+                int startBefore = buffer.startPosition;
 
-                LoggerFactory.getLogger("log").trace("appended to buffer: {}", buffer.interimText());
+                lastCallbackResult = listener.textAdded(interimText, buffer);
 
-                lastCallbackResult = listener.textAdded(buffer.interimText(), buffer);
+                // text before the mark, i.e. a sudo prompt, is not a part of the output
+                if (buffer.startPosition != startBefore) {
+                    journalStart = journal.mark();
+                }
 
                 if(lastCallbackResult.type == ConsoleCallbackResultType.EXCEPTION){
                     lastError = lastCallbackResult;
@@ -207,8 +229,13 @@ public abstract class AbstractConsole extends bear.console.AbstractConsole.Termi
 
         while (true) {
             try {
-                for (MyStreamCopier copier : copiers) {
-                    copier.triggerCopy();
+                if (multiplexer != null) {
+                    // copying from this thread would race with the I/O thread
+                    multiplexer.wakeUp();
+                } else {
+                    for (MyStreamCopier copier : copiers) {
+                        copier.triggerCopy();
+                    }
                 }
 
                 final long now = System.currentTimeMillis();
@@ -272,22 +299,53 @@ public abstract class AbstractConsole extends bear.console.AbstractConsole.Termi
         return this;
     }
 
+    public AbstractConsole spawn(StreamMultiplexer multiplexer, int timeout, TimeUnit unit) {
+        this.multiplexer = multiplexer;
+
+        for (MyStreamCopier copier : copiers) {
+            futures.add(copier.spawn(multiplexer, System.currentTimeMillis() + unit.toMillis(timeout)));
+        }
+
+        return this;
+    }
+
+    /**
+     * @return outputs of all streams since their start marks, interleaved in arrival order. When the journal has dropped
+     * its beginning, streams are concatenated one after another.
+     */
     public StringBuilder concatOutputs() {
+        long start = journalStart;
+
+        if (journal.hasFrom(start)) {
+            return new StringBuilder(journal.text(start, false));
+        }
+
         StringBuilder sb = new StringBuilder(buffers.get(0).length() + 20);
 
         for (int i = 0; i < buffers.size(); i++) {
             MarkedBuffer buffer = buffers.get(i);
 
-            sb.append(buffer.wholeText());
+            sb.append(buffer.wholeView());
 
             if (i != buffers.size() - 1) {
-                return sb.append("\n");
+                sb.append("\n");
             }
         }
 
         return sb;
     }
 
+    public ChunkJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Releases the journal's buffers, to be called when the command completes.
+     */
+    public void releaseJournal() {
+        journal.close();
+    }
+
     public Optional<ConsoleCallbackResult> getLastCallbackResult() {
         return Optional.fromNullable(lastCallbackResult);
     }
@@ -19,6 +19,9 @@ package bear.core;
 import bear.context.AbstractContext;
 import bear.context.Fun;
 import bear.context.VarFun;
+import bear.main.phaser.RolloutScheduler;
+import bear.plugins.sh.HostFacts;
+import bear.plugins.sh.HostFactsCache;
 import bear.session.Address;
 import bear.session.BearVariables;
 import bear.session.DynamicVariable;
@@ -174,13 +177,19 @@ public final DynamicVariable<String>
         internalInteractiveRun = newVar(false).desc("disables dependencies checks, verifications and installations"),
         interactiveRun = equalTo(internalInteractiveRun).desc("use it to override interactiveRun"),
         checkDependencies = not(interactiveRun).desc("checks dependencies for tasks"),
+        batchDependencyChecks = newVar(true).desc("runs dependency checks of a session in one script and caches their results"),
         verifyPlugins = equalTo(checkDependencies).desc("checks plugins deps before running tasks"),
         autoInstallPlugins = newVar(false),
         installationInProgress = newVar(false),
         quiet = newVar(false),
         verbose = newVar(false),
         printHostsToConsole = not(quiet),
-        printHostsToBearLog = newVar(true)
+        printHostsToBearLog = newVar(true),
+        sshPersistentShell = newVar(false).desc("send commands over one long-lived shell per host instead of a channel per command"),
+        useArtifactCache = newVar(true).desc("keep downloads in a content-addressed cache under downloadDirPath"),
+        verifyCachedArtifacts = newVar(true).desc("check sha-256 of cached downloads before using them"),
+        sftpTransfers = newVar(false).desc("transfer files with pipelined SFTP instead of one by one with SCP"),
+        useHostFacts = newVar(true).desc("probe OS, tools, disk and memory of a host in one command and cache them in factsDir")
     ;
 
     public final DynamicVariable<Integer>
@@ -190,9 +199,26 @@ public final DynamicVariable<String>
         installationTimeoutMs = newVar((int) MINUTES.toMillis(60)),
         defaultTimeout = equalTo(buildTimeoutMs),
         appStartTimeoutSec = newVar(240),
-        appWaitOthersTimeoutSec = newVar(120)
+        appWaitOthersTimeoutSec = newVar(120),
+        sshMaxConnectionsPerHost = newVar(2).desc("transport connections kept per host"),
+        sshMaxChannelsPerConnection = newVar(8).desc("concurrent sessions per connection, keep below sshd's MaxSessions"),
+        sshIdleTimeoutSec = newVar(300).desc("idle connections are closed after this timeout"),
+        sshKeepAliveSec = newVar(30).desc("transport heartbeat interval, 0 to disable"),
+        artifactCacheBudgetMb = newVar(4096).desc("disk budget of the download cache, least recently used downloads are removed over it, 0 for no limit"),
+        sftpRequestsInFlight = newVar(16).desc("outstanding read or write requests per transferred file"),
+        sftpParallelFiles = newVar(4).desc("files transferred at once over one connection"),
+        transferBandwidthKbPerSec = newVar(0).desc("bandwidth budget shared by all transfers, 0 for no limit"),
+        hostFactsTtlSec = newVar((int) MINUTES.toSeconds(60)).desc("how long gathered host facts are reused, 0 to probe in each run")
     ;
 
+    public final DynamicVariable<PartyExecution> partyExecution = newVar(PartyExecution.THREAD_PER_PARTY)
+        .desc("how grid parties get threads, see PartyExecution");
+
+    public final DynamicVariable<Integer> partyConcurrency = newVar(64)
+        .desc("max parties running at once for PartyExecution.BOUNDED");
+
+    public final DynamicVariable<RolloutScheduler> rollout = undefined("rolling rollout: how many parties enter a phase at once");
+
     public final DynamicVariable<Stages> stages = new DynamicVariable<Stages>("List of stages. Stage is collection of servers with roles and auth defined for each of the server.");
     public final DynamicVariable<Stage> getStage = dynamic(new Fun<GlobalContext, Stage>() {
         public Stage apply(GlobalContext $) {
@@ -269,8 +295,42 @@ public final DynamicVariable<String>
             public File apply(SessionContext $) {
                 return new File($.var(scriptsDir), "global.properties");
             }
+        }),
+        factsDir = dynamic(new Fun<SessionContext, File>() {
+            public File apply(SessionContext $) {
+                return new File($.var(scriptsDir), "facts");
+            }
         });
 
+    public final DynamicVariable<HostFactsCache> hostFactsCache = dynamic(new Fun<SessionContext, HostFactsCache>() {
+        public HostFactsCache apply(SessionContext $) {
+            return new HostFactsCache($.var(factsDir), SECONDS.toMillis($.var(hostFactsTtlSec)));
+        }
+    }).memoizeIn(GlobalContext.class);
+
+    public final DynamicVariable<HostFacts> hostFacts = dynamic(new Fun<SessionContext, HostFacts>() {
+        public HostFacts apply(SessionContext $) {
+            return $.sys.getFacts();
+        }
+    }).desc("OS, tools, disk and memory of the current host");
+
+    public final DynamicVariable<Integer>
+        hostCpuCount = dynamic(new Fun<SessionContext, Integer>() {
+            public Integer apply(SessionContext $) {
+                return $.var(hostFacts).getCpus();
+            }
+        }),
+        hostMemoryMb = dynamic(new Fun<SessionContext, Integer>() {
+            public Integer apply(SessionContext $) {
+                return $.var(hostFacts).getMemTotalMb();
+            }
+        }),
+        hostFreeDiskMb = dynamic(new Fun<SessionContext, Integer>() {
+            public Integer apply(SessionContext $) {
+                return $.var(hostFacts).getDiskFreeMb();
+            }
+        }).desc("free space on the root partition when facts were gathered");
+
     public class FileNameGenerator{
         final SessionContext $;
 
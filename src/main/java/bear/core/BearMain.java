@@ -95,9 +95,13 @@ public class BearMain extends AppCli<GlobalContext, Bear, BearMain.AppOptions2>
             HOSTS = parser.accepts("hosts", "remote hosts").requiredIf(CREATE_NEW).withRequiredArg().describedAs("hosts").withValuesSeparatedBy(",").ofType(String.class),
             TEMPLATE = parser.accepts("template", "template, i.e. java.basic or nodejs").withRequiredArg().describedAs("template").withValuesSeparatedBy(".").ofType(String.class),
             ORACLE_USER = parser.accepts("oracleUser", "(optional) user to download JDK from Oracle.com").withRequiredArg().describedAs("username").ofType(String.class),
-            ORACLE_PASSWORD = parser.accepts("oraclePassword", "(optional) password to download JDK from Oracle.com").withRequiredArg().describedAs("password").ofType(String.class)
+            ORACLE_PASSWORD = parser.accepts("oraclePassword", "(optional) password to download JDK from Oracle.com").withRequiredArg().describedAs("password").ofType(String.class),
+            EVENTS_FILE = parser.accepts("events-file", "write run events to a file, one JSON object per line").withRequiredArg().describedAs("path").ofType(String.class)
         ;
 
+        public final static OptionSpec<Integer>
+            EVENTS_PORT = parser.accepts("events-port", "stream run events as JSON lines to clients of a local port").withRequiredArg().describedAs("port").ofType(Integer.class);
+
         public final static OptionSpec<Void>
             USE_UI = parser.accepts("ui", "start UI (override project default)"),
             NO_UI = parser.accepts("no-ui", "don't run UI (override project default)"),
@@ -371,6 +375,22 @@ public class BearMain extends AppCli<GlobalContext, Bear, BearMain.AppOptions2>
         compileManager.compileWithAll();
     }
 
+    private static void installEventSinks(AppOptions2 options2) throws IOException {
+        List<EventSink> sinks = new ArrayList<EventSink>();
+
+        if(options2.has(AppOptions2.EVENTS_FILE)){
+            sinks.add(new NdjsonFileEventSink(new File(options2.get(AppOptions2.EVENTS_FILE)), 100 * 1024 * 1024, 5));
+        }
+
+        if(options2.has(AppOptions2.EVENTS_PORT)){
+            sinks.add(new SocketEventSink(options2.get(AppOptions2.EVENTS_PORT)));
+        }
+
+        if(!sinks.isEmpty()){
+            EventSinkAppender.install(64 * 1024, sinks.toArray(new EventSink[sinks.size()]));
+        }
+    }
+
     /**
      * -VbearMain.appConfigDir=src/main/groovy/examples -VbearMain.buildDir=.bear/classes -VbearMain.script=dumpSampleGrid -VbearMain.projectClass=SecureSocialDemoProject -VbearMain.propertiesFile=.bear/test.properties
      */
@@ -490,6 +510,8 @@ public class BearMain extends AppCli<GlobalContext, Bear, BearMain.AppOptions2>
             global.put(bear.useUI, false);
         }
 
+        installEventSinks(options2);
+
         List<?> list = options2.getOptionSet().nonOptionArguments();
 
         if (list.size() > 1) {
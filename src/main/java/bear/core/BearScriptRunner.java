@@ -98,7 +98,7 @@ public class BearScriptRunner {
 
         ui.info(new RMIEventToUI("terminals", "onScriptStart", getHosts($s)));
 
-        globalTaskRunner.startParties(global.sessionsExecutor);
+        globalTaskRunner.startParties(global.getPartiesExecutor());
 
         RunResponse runResponse = new RunResponse(globalTaskRunner, getHosts(preparationResult.getSessions()));
 
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.core;
+
+import com.google.common.base.Preconditions;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Arrival-ordered journal of the raw output of a console's streams. Each write becomes a {@link Chunk} with a sequence
+ * number, a timestamp and the stream it came from, so stdout and stderr can be interleaved back as they arrived.
+ *
+ * Chunk bytes are kept in blocks taken from a shared pool. When the journal grows over <code>maxBytes</code>, the oldest
+ * blocks are dropped. Blocks go back to the pool on {@link #close()}, chunks must not be used after that.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class ChunkJournal {
+    public static final int BLOCK_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormat.forPattern("HH:mm:ss.SSS");
+
+    static final BlockPool POOL = new BlockPool(64);
+
+    private final int maxBytes;
+
+    private final ArrayDeque<Chunk> chunks = new ArrayDeque<Chunk>();
+    private final List<byte[]> blocks = new ArrayList<byte[]>();
+
+    private byte[] block;
+    private int blockPosition;
+
+    private long nextSeq;
+    private long bytes;
+    private long droppedChunks;
+
+    private boolean closed;
+
+    public ChunkJournal() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    public ChunkJournal(int maxBytes) {
+        Preconditions.checkArgument(maxBytes >= BLOCK_SIZE, "maxBytes must be at least %s", BLOCK_SIZE);
+        this.maxBytes = maxBytes;
+    }
+
+    public static final class Chunk {
+        public final long seq;
+        public final long timeMs;
+        public final boolean stdErr;
+
+        final byte[] block;
+        final int offset;
+        final int length;
+
+        Chunk(long seq, long timeMs, boolean stdErr, byte[] block, int offset, int length) {
+            this.seq = seq;
+            this.timeMs = timeMs;
+            this.stdErr = stdErr;
+            this.block = block;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * @return a read-only view of the chunk's bytes, no copying
+         */
+        public ByteBuffer bytes() {
+            return ByteBuffer.wrap(block, offset, length).asReadOnlyBuffer();
+        }
+
+        public int length() {
+            return length;
+        }
+    }
+
+    public synchronized void append(boolean stdErr, byte[] bytes, int offset, int length) {
+        if (closed) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        while (length > 0) {
+            if (block == null || blockPosition == block.length) {
+                block = POOL.take();
+                blocks.add(block);
+                blockPosition = 0;
+            }
+
+            int count = Math.min(length, block.length - blockPosition);
+
+            System.arraycopy(bytes, offset, block, blockPosition, count);
+
+            chunks.add(new Chunk(nextSeq++, now, stdErr, block, blockPosition, count));
+
+            blockPosition += count;
+            this.bytes += count;
+            offset += count;
+            length -= count;
+        }
+
+        trim();
+    }
+
+    private void trim() {
+        while ((long) blocks.size() * BLOCK_SIZE > maxBytes && blocks.size() > 1) {
+            byte[] oldest = blocks.remove(0);
+
+            while (!chunks.isEmpty() && chunks.peek().block == oldest) {
+                Chunk chunk = chunks.poll();
+                bytes -= chunk.length;
+                droppedChunks++;
+            }
+
+            // views might still be read, so it's not returned to the pool
+        }
+    }
+
+    /**
+     * @return a stream which journals everything written as coming from one of the console's streams.
+     */
+    public OutputStream asOutputStream(final boolean stdErr) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+                append(stdErr, new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                append(stdErr, b, off, len);
+            }
+        };
+    }
+
+    /**
+     * @return chunks in arrival order, a snapshot
+     */
+    public synchronized Iterator<Chunk> iterator() {
+        return new ArrayList<Chunk>(chunks).iterator();
+    }
+
+    /**
+     * @return the sequence number of the next chunk, to get the text written after this point
+     */
+    public synchronized long mark() {
+        return nextSeq;
+    }
+
+    /**
+     * @return true when no chunks since the mark have been dropped or released
+     */
+    public synchronized boolean hasFrom(long mark) {
+        return !closed && (chunks.isEmpty() || chunks.peek().seq <= mark);
+    }
+
+    public synchronized long getDroppedChunks() {
+        return droppedChunks;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public String text() {
+        return text(false);
+    }
+
+    /**
+     * Decodes the streams interleaved in arrival order. With timestamps, each line is prefixed with its arrival time and
+     * the stream name.
+     */
+    public String text(boolean timestamps) {
+        return text(0, timestamps);
+    }
+
+    /**
+     * @param mark chunks before the {@link #mark()} are skipped
+     */
+    public String text(long mark, boolean timestamps) {
+        Iterator<Chunk> it = iterator();
+
+        StringBuilder sb = new StringBuilder();
+
+        StreamDecoder out = new StreamDecoder("out");
+        StreamDecoder err = new StreamDecoder("err");
+
+        while (it.hasNext()) {
+            Chunk chunk = it.next();
+
+            if (chunk.seq < mark) continue;
+
+            (chunk.stdErr ? err : out).decode(chunk, sb, timestamps);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns the pooled blocks. Chunk views can't be used after this.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        chunks.clear();
+
+        for (byte[] b : blocks) {
+            POOL.give(b);
+        }
+
+        blocks.clear();
+        block = null;
+    }
+
+    private static final class StreamDecoder {
+        final String name;
+
+        final CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        final CharBuffer chars = CharBuffer.allocate(BLOCK_SIZE);
+
+        ByteBuffer carry = ByteBuffer.allocate(0);
+        boolean atLineStart = true;
+
+        StreamDecoder(String name) {
+            this.name = name;
+        }
+
+        void decode(Chunk chunk, StringBuilder sb, boolean timestamps) {
+            ByteBuffer in = chunk.bytes();
+
+            if (carry.hasRemaining()) {
+                ByteBuffer joined = ByteBuffer.allocate(carry.remaining() + in.remaining());
+                joined.put(carry).put(in).flip();
+                in = joined;
+            }
+
+            String prefix = timestamps ? TIME_FORMATTER.print(chunk.timeMs) + " " + name + "| " : null;
+
+            while (true) {
+                boolean overflow = decoder.decode(in, chars, false).isOverflow();
+
+                chars.flip();
+
+                while (chars.hasRemaining()) {
+                    char ch = chars.get();
+
+                    if (atLineStart && prefix != null) {
+                        sb.append(prefix);
+                    }
+
+                    sb.append(ch);
+
+                    atLineStart = ch == '\n';
+                }
+
+                chars.clear();
+
+                if (!overflow) {
+                    break;
+                }
+            }
+
+            carry = in.hasRemaining() ? ByteBuffer.allocate(in.remaining()).put(in) : ByteBuffer.allocate(0);
+            carry.flip();
+        }
+    }
+
+    static final class BlockPool {
+        private final int maxFree;
+        private final ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<byte[]>();
+        private final AtomicInteger freeCount = new AtomicInteger();
+
+        BlockPool(int maxFree) {
+            this.maxFree = maxFree;
+        }
+
+        byte[] take() {
+            byte[] b = free.poll();
+
+            if (b == null) {
+                return new byte[BLOCK_SIZE];
+            }
+
+            freeCount.decrementAndGet();
+
+            return b;
+        }
+
+        void give(byte[] b) {
+            if (freeCount.incrementAndGet() <= maxFree) {
+                free.add(b);
+            } else {
+                freeCount.decrementAndGet();
+            }
+        }
+
+        int freeCount() {
+            return freeCount.get();
+        }
+    }
+}
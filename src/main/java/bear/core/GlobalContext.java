@@ -27,6 +27,9 @@ import bear.plugins.sh.GenericUnixLocalEnvironmentPlugin;
 import bear.plugins.sh.GenericUnixRemoteEnvironmentPlugin;
 import bear.plugins.sh.SystemSession;
 import bear.session.LocalAddress;
+import bear.ssh.SftpTransfers;
+import bear.ssh.SshConnectionPool;
+import bear.ssh.StreamMultiplexer;
 import bear.task.*;
 import chaschev.util.Exceptions;
 import com.google.common.base.Optional;
@@ -110,6 +113,10 @@ public class GlobalContext extends AppGlobalContext<GlobalContext, Bear> {
             super(target, name);
         }
 
+        public AwareThread(Runnable target, String name, long stackSize) {
+            super(null, target, name, stackSize);
+        }
+
         @Override
         public void interrupt() {
             interruptedAt = new Exception();
@@ -136,6 +143,14 @@ public class GlobalContext extends AppGlobalContext<GlobalContext, Bear> {
 
     protected ListeningScheduledExecutorService scheduler;
 
+    protected ListeningExecutorService partiesExecutor;
+
+    protected StreamMultiplexer streamMultiplexer;
+
+    protected SshConnectionPool sshPool;
+
+    protected SftpTransfers sftpTransfers;
+
     public final SystemSession local;
 
     public final SessionContext localCtx;
@@ -193,6 +208,9 @@ public class GlobalContext extends AppGlobalContext<GlobalContext, Bear> {
             }));
 
         scheduler = MoreExecutors.listeningDecorator(Executors.newScheduledThreadPool(3));
+
+        streamMultiplexer = new StreamMultiplexer(
+            Math.max(2, Runtime.getRuntime().availableProcessors() / 2), 5, TimeUnit.MILLISECONDS);
     }
 
     public Console console() {
@@ -208,6 +226,26 @@ public class GlobalContext extends AppGlobalContext<GlobalContext, Bear> {
     }
 
     public void shutdown() throws InterruptedException {
+        synchronized (this) {
+            if (sftpTransfers != null) {
+                sftpTransfers.close();
+                sftpTransfers = null;
+            }
+
+            if (sshPool != null) {
+                sshPool.close();
+                sshPool = null;
+            }
+        }
+
+        synchronized (this) {
+            if (partiesExecutor != null) {
+                partiesExecutor.shutdownNow();
+                partiesExecutor = null;
+            }
+        }
+
+        streamMultiplexer.shutdown();
         scheduler.shutdown();
         sessionsExecutor.shutdown();
         localExecutor.shutdown();
@@ -276,6 +314,28 @@ public class GlobalContext extends AppGlobalContext<GlobalContext, Bear> {
         return scheduler;
     }
 
+    /**
+     * @return executor for grid parties, created by <code>bear.partyExecution</code> on the first use.
+     */
+    public synchronized ListeningExecutorService getPartiesExecutor() {
+        if (partiesExecutor == null) {
+            partiesExecutor = var(bear.partyExecution).newExecutor(var(bear.partyConcurrency));
+        }
+
+        return partiesExecutor;
+    }
+
+    /**
+     * Plugs in a custom executor for grid parties. The previous one is shut down when idle.
+     */
+    public synchronized void setPartiesExecutor(ListeningExecutorService executor) {
+        if (partiesExecutor != null) {
+            partiesExecutor.shutdown();
+        }
+
+        partiesExecutor = executor;
+    }
+
     public ListeningExecutorService getSessionsExecutor() {
         return sessionsExecutor;
     }
@@ -283,4 +343,36 @@ public class GlobalContext extends AppGlobalContext<GlobalContext, Bear> {
     public ListeningExecutorService getLocalExecutor() {
         return localExecutor;
     }
+
+    public StreamMultiplexer getStreamMultiplexer() {
+        return streamMultiplexer;
+    }
+
+    /**
+     * Created on first use, so that pool settings can be set in a project before connecting.
+     */
+    public synchronized SshConnectionPool getSshPool() {
+        if (sshPool == null) {
+            sshPool = new SshConnectionPool(
+                var(bear.sshMaxConnectionsPerHost),
+                var(bear.sshMaxChannelsPerConnection),
+                TimeUnit.SECONDS.toMillis(var(bear.sshIdleTimeoutSec)),
+                var(bear.sshKeepAliveSec)
+            ).scheduleEviction(scheduler);
+        }
+
+        return sshPool;
+    }
+
+    public synchronized SftpTransfers getSftpTransfers() {
+        if (sftpTransfers == null) {
+            sftpTransfers = new SftpTransfers(
+                var(bear.sftpRequestsInFlight),
+                var(bear.sftpParallelFiles),
+                var(bear.transferBandwidthKbPerSec) * 1024L
+            );
+        }
+
+        return sftpTransfers;
+    }
 }
@@ -8,6 +8,7 @@ import bear.main.event.TaskConsoleEventToUI;
 import bear.main.phaser.ComputingGrid;
 import bear.main.phaser.Phase;
 import bear.main.phaser.PhaseParty;
+import bear.main.phaser.RolloutScheduler;
 import bear.main.phaser.SettableFuture;
 import bear.session.DynamicVariable;
 import bear.session.Variables;
@@ -18,6 +19,7 @@ import bear.task.TaskResult;
 import chaschev.lang.LangUtils;
 import chaschev.util.Exceptions;
 import com.google.common.base.Function;
+import com.google.common.base.Predicate;
 import com.google.common.base.Throwables;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import org.slf4j.Logger;
@@ -111,6 +113,27 @@ public class GlobalTaskRunner {
             }
         });
 
+        if (global.isSet(bear.rollout)) {
+            // waves of the previous runs are not reused
+            RolloutScheduler<SessionContext, BearScriptPhase<Object, TaskResult<?>>> rollout = global.var(bear.rollout).newRun();
+
+            rollout
+                .setFailurePredicate(new Predicate<Object>() {
+                    @Override
+                    public boolean apply(Object input) {
+                        return input instanceof TaskResult && ((TaskResult<?>) input).nok();
+                    }
+                })
+                .setListener(new RolloutScheduler.WaveListener() {
+                    @Override
+                    public void onProgress(RolloutScheduler.WaveProgress progress) {
+                        ui.info(new GlobalStatusEventToUI(stats.getDefaultValue(), progress));
+                    }
+                });
+
+            grid.setRollout(rollout);
+        }
+
         grid.setWhenAllFinished(new ComputingGrid.WhenAllFinished() {
             @Override
             public void run(final int failedParties, final int okParties) {
@@ -141,7 +164,14 @@ public class GlobalTaskRunner {
         }, new Function<SessionContext, String>() {
             @Override
             public String apply(SessionContext $) {
-                return $.getExecutionContext().phaseText.getDefaultValue().toString();
+                return $.getExecutionContext().phaseText.getDefaultValue().tail();
+            }
+        }).setEntryKey(new Function<SessionContext, String>() {
+            @Override
+            public String apply(SessionContext $) {
+                // the tail is compared fuzzily, longer transcripts must also match as a whole
+                Transcript phaseText = $.getExecutionContext().phaseText.getDefaultValue();
+                return phaseText.isTailComplete() ? null : phaseText.digest();
             }
         });
     }
@@ -16,21 +16,58 @@
 
 package bear.core;
 
+import com.google.common.base.Preconditions;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
+ * Append-only console text. Bytes are decoded once, as they arrive, into fixed-size char segments, so positions
+ * and marks are plain char offsets and texts are lazy {@link CharSequence} views over the segments.
+ *
+ * Single writer (the stream copier), views may be read from any thread: chars are published by the volatile length.
+ *
  * @author Andrey Chaschev chaschev@gmail.com
  */
 public class MarkedBuffer {
+    /**
+     * Default amount of trailing text given to console callbacks.
+     */
+    public static final int DEFAULT_WINDOW = 16 * 1024;
+
+    private static final int SEGMENT_BITS = 13;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
     private final boolean stdErr;
-    byte[] bytes;
+
+    private volatile char[][] segments = new char[4][];
+    private volatile int length;
+
     int startPosition = 0;
     int interimPosition = 0;
-    int length;
 
     Map<String, Integer> marks = new HashMap<String, Integer>();
 
+    private final CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private final CharBuffer decoded = CharBuffer.allocate(4096);
+
+    /**
+     * Bytes of a multibyte char which was split between two appends.
+     */
+    private byte[] carry = new byte[0];
+
     public MarkedBuffer(boolean stdErr) {
         this.stdErr = stdErr;
     }
@@ -43,23 +80,123 @@ public class MarkedBuffer {
         interimPosition = length;
     }
 
-    void setBytes(byte[] bytes) {
-        this.bytes = bytes;
+    public synchronized void append(byte[] bytes, int offset, int len) {
+        ByteBuffer in;
+
+        if (carry.length == 0) {
+            in = ByteBuffer.wrap(bytes, offset, len);
+        } else {
+            byte[] joined = Arrays.copyOf(carry, carry.length + len);
+            System.arraycopy(bytes, offset, joined, carry.length, len);
+            in = ByteBuffer.wrap(joined);
+        }
+
+        while (true) {
+            CoderResult result = decoder.decode(in, decoded, false);
+
+            flushDecoded();
+
+            if (!result.isOverflow()) {
+                break;
+            }
+        }
+
+        if (in.hasRemaining()) {
+            carry = new byte[in.remaining()];
+            in.get(carry);
+        } else {
+            carry = new byte[0];
+        }
+    }
+
+    /**
+     * @return a stream which appends to this buffer, to be used as a copier destination.
+     */
+    public OutputStream asOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+                append(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                append(b, off, len);
+            }
+        };
+    }
+
+    private void flushDecoded() {
+        decoded.flip();
+
+        if (decoded.hasRemaining()) {
+            appendChars(decoded.array(), decoded.arrayOffset() + decoded.position(), decoded.remaining());
+        }
+
+        decoded.clear();
+    }
+
+    private void appendChars(char[] chars, int offset, int len) {
+        char[][] segs = segments;
+        int pos = length;
+
+        while (len > 0) {
+            int segIndex = pos >>> SEGMENT_BITS;
+
+            if (segIndex >= segs.length) {
+                segs = Arrays.copyOf(segs, segs.length * 2);
+            }
+
+            if (segs[segIndex] == null) {
+                segs[segIndex] = new char[SEGMENT_SIZE];
+            }
+
+            int segOffset = pos & SEGMENT_MASK;
+            int count = Math.min(len, SEGMENT_SIZE - segOffset);
+
+            System.arraycopy(chars, offset, segs[segIndex], segOffset, count);
+
+            pos += count;
+            offset += count;
+            len -= count;
+        }
+
+        segments = segs;
+        length = pos;
+    }
+
+    public CharSequence view(int from, int to) {
+        Preconditions.checkArgument(0 <= from && from <= to && to <= length, "wrong range: [%s, %s), length: %s", from, to, length);
+
+        return new TextView(segments, from, to);
     }
 
-    public void progress(byte[] bytes, int length) {
-        this.bytes = bytes;
-        this.length = length;
+    public CharSequence interimView() {
+        return view(interimPosition, length);
+    }
+
+    public CharSequence wholeView() {
+        return view(startPosition, length);
     }
 
     public String interimText() {
-        if(bytes == null) return "";
-        return new String(bytes, interimPosition, length - interimPosition);
+        return interimView().toString();
     }
 
     public String wholeText() {
-        if(bytes == null) return "";
-        return new String(bytes, startPosition, length - startPosition);
+        return wholeView().toString();
+    }
+
+    /**
+     * @return at most <code>maxChars</code> trailing chars of the text since the start mark.
+     */
+    public String window(int maxChars) {
+        int to = length;
+        return view(Math.max(startPosition, to - maxChars), to).toString();
+    }
+
+    public String window() {
+        return window(DEFAULT_WINDOW);
     }
 
     public void putMark(String name) {
@@ -67,7 +204,7 @@ public class MarkedBuffer {
     }
 
     public String subText(String mark1, String mark2) {
-        return new String(bytes, markToPosition(mark1), markToPosition(mark2));
+        return view(markToPosition(mark1), markToPosition(mark2)).toString();
     }
 
     private int markToPosition(String mark) {
@@ -86,10 +223,67 @@ public class MarkedBuffer {
     }
 
     public int length() {
-        return bytes == null ? 0 : bytes.length;
+        return length;
     }
 
     public boolean isStdErr() {
         return stdErr;
     }
+
+    static final class TextView implements CharSequence {
+        private final char[][] segments;
+        private final int from;
+        private final int to;
+
+        private String string;
+
+        TextView(char[][] segments, int from, int to) {
+            this.segments = segments;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public int length() {
+            return to - from;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= to - from) {
+                throw new IndexOutOfBoundsException("index: " + index + ", length: " + (to - from));
+            }
+
+            int pos = from + index;
+
+            return segments[pos >>> SEGMENT_BITS][pos & SEGMENT_MASK];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || start > end || end > to - from) {
+                throw new IndexOutOfBoundsException("[" + start + ", " + end + "), length: " + (to - from));
+            }
+
+            return new TextView(segments, from + start, from + end);
+        }
+
+        @Override
+        public String toString() {
+            if (string == null) {
+                char[] chars = new char[to - from];
+
+                for (int pos = from, i = 0; pos < to; ) {
+                    int count = Math.min(to - pos, SEGMENT_SIZE - (pos & SEGMENT_MASK));
+                    System.arraycopy(segments[pos >>> SEGMENT_BITS], pos & SEGMENT_MASK, chars, i, count);
+                    pos += count;
+                    i += count;
+                }
+
+                string = new String(chars);
+            }
+
+            return string;
+        }
+    }
 }
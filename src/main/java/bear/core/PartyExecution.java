@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.core;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
+
+/**
+ * How grid parties (one per host) are given threads. A party holds its thread for the whole script, mostly blocked
+ * on remote commands.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public enum PartyExecution {
+    /**
+     * A thread per party, threads are reused between runs. Threads get a smaller stack, so a thousand hosts is fine.
+     */
+    THREAD_PER_PARTY {
+        @Override
+        ThreadPoolExecutor newPool(int concurrency, ThreadFactory factory) {
+            return new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                30L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(),
+                factory);
+        }
+    },
+    /**
+     * At most <code>concurrency</code> parties run at once, others wait in a queue. Parties must not wait for each
+     * other (i.e. via <code>$.future(...)</code>) as a queued party could never start.
+     */
+    BOUNDED {
+        @Override
+        ThreadPoolExecutor newPool(int concurrency, ThreadFactory factory) {
+            Preconditions.checkArgument(concurrency > 0, "concurrency must be positive");
+
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(concurrency, concurrency,
+                30L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                factory);
+
+            pool.allowCoreThreadTimeOut(true);
+
+            return pool;
+        }
+    };
+
+    public static final long PARTY_STACK_SIZE = 512 * 1024;
+
+    abstract ThreadPoolExecutor newPool(int concurrency, ThreadFactory factory);
+
+    public ListeningExecutorService newExecutor(int concurrency) {
+        return listeningDecorator(newPool(concurrency, new ThreadFactory() {
+            final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                GlobalContext.AwareThread thread = new GlobalContext.AwareThread(
+                    r, "party-" + count.incrementAndGet(), PARTY_STACK_SIZE);
+                thread.setDaemon(true);
+                return thread;
+            }
+        }));
+    }
+}
@@ -42,6 +42,7 @@ import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 import org.slf4j.MDC;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
@@ -182,8 +183,7 @@ public class SessionContext extends AbstractContext {
     }
 
     public void whenPhaseStarts(BearScriptPhase<Object, TaskResult<?>> phase, BearScriptRunner.ShellSessionContext shellSessionContext) {
-        StringBuilder phaseSB = executionContext.phaseText.getDefaultValue();
-        phaseSB.setLength(0);
+        executionContext.phaseText.getDefaultValue().clear();
         executionContext.phaseText.fireExternalModification();
 
         executionContext.phaseName = phase.getName();
@@ -193,6 +193,8 @@ public class SessionContext extends AbstractContext {
     public void whenSessionComplete(GlobalTaskRunner globalTaskRunner) {
         thread = null;
 
+        sys.releaseResources();
+
         DynamicVariable<TaskExecutionContext> execCtx = executionContext.rootExecutionContext;
 
         TaskExecutionContext execCtx2 = execCtx.getDefaultValue();
@@ -276,11 +278,15 @@ public class SessionContext extends AbstractContext {
 
     }
 
+    private File transcriptFile(String kind) {
+        return new File(".bear/logs/transcripts", name.replaceAll("[^\\w.-]", "_") + "." + kind + ".log");
+    }
+
     public class ExecutionContext {
         public final DateTime startedAt = new DateTime();
         public final DynamicVariable<String> phaseId = undefined();
-        public final DynamicVariable<StringBuilder> text = newVar(new StringBuilder(8192)).desc("text appended in session");
-        public final DynamicVariable<StringBuilder> phaseText = newVar(new StringBuilder(8192)).desc("text appended in session");
+        public final DynamicVariable<Transcript> text = newVar(new Transcript(transcriptFile("session"))).desc("text appended in session");
+        public final DynamicVariable<Transcript> phaseText = newVar(new Transcript(transcriptFile("phase"))).desc("text appended in phase");
         public final DynamicVariable<String> textAppended = dynamic(String.class).desc("text appended in session").defaultTo("");
         public final DynamicVariable<TaskExecutionContext> rootExecutionContext = dynamic(TaskExecutionContext.class);
         public final DynamicVariable<Task> currentTask = dynamic(Task.class);
@@ -293,10 +299,10 @@ public class SessionContext extends AbstractContext {
             textAppended.defaultTo(textAdded);
         }
 
-        private void updateBuffer(String textAdded, DynamicVariable<StringBuilder> sbVar) {
-            StringBuilder sb = sbVar.apply(SessionContext.this);
-            sb.append(textAdded);
-            sbVar.fireExternalModification(null, sb);
+        private void updateBuffer(String textAdded, DynamicVariable<Transcript> transcriptVar) {
+            Transcript transcript = transcriptVar.apply(SessionContext.this);
+            transcript.append(textAdded);
+            transcriptVar.fireExternalModification(null, transcript);
         }
 
         public boolean isRunning() {
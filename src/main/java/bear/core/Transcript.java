@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.core;
+
+import chaschev.util.Exceptions;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Session output with a bounded in-memory tail. When the tail grows over twice its size, the older half is appended
+ * to a spill file, so the whole transcript stays readable through {@link Cursor} while the heap use is fixed.
+ *
+ * Positions are absolute char offsets from the beginning of the transcript.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class Transcript {
+    public static final int DEFAULT_TAIL_CHARS = 64 * 1024;
+
+    private final File spillFile;
+    private final int tailChars;
+
+    private final StringBuilder tail;
+
+    /**
+     * Position of the first char in the tail.
+     */
+    private long tailStart;
+
+    /**
+     * One entry per spilled block: char position and byte offset in the spill file.
+     */
+    private final List<long[]> spillIndex = new ArrayList<long[]>();
+    private long spillFileLength;
+
+    /**
+     * 64-bit FNV-1a over all chars appended since the last clear, including the spilled ones.
+     */
+    private long hash = FNV_OFFSET;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    public Transcript(File spillFile) {
+        this(spillFile, DEFAULT_TAIL_CHARS);
+    }
+
+    public Transcript(File spillFile, int tailChars) {
+        Preconditions.checkArgument(tailChars > 0, "tailChars must be positive");
+
+        this.spillFile = spillFile;
+        this.tailChars = tailChars;
+        this.tail = new StringBuilder(Math.min(tailChars, 8192));
+    }
+
+    public synchronized Transcript append(CharSequence s) {
+        long h = hash;
+
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * FNV_PRIME;
+        }
+
+        hash = h;
+
+        tail.append(s);
+
+        if (tail.length() > 2 * tailChars) {
+            spill(tail.length() - tailChars);
+        }
+
+        return this;
+    }
+
+    private void spill(int chars) {
+        byte[] bytes = tail.substring(0, chars).getBytes(Charsets.UTF_8);
+
+        FileOutputStream fos = null;
+
+        try {
+            if (spillFileLength == 0) {
+                spillFile.getParentFile().mkdirs();
+            }
+
+            fos = new FileOutputStream(spillFile, spillFileLength != 0);
+            fos.write(bytes);
+        } catch (IOException e) {
+            throw Exceptions.runtime(e);
+        } finally {
+            IOUtils.closeQuietly(fos);
+        }
+
+        spillIndex.add(new long[]{tailStart, spillFileLength});
+
+        spillFileLength += bytes.length;
+        tailStart += chars;
+
+        tail.delete(0, chars);
+    }
+
+    /**
+     * Clears the transcript, i.e. when a new phase starts.
+     */
+    public synchronized void clear() {
+        tail.setLength(0);
+        tailStart = 0;
+        spillIndex.clear();
+        spillFileLength = 0;
+        hash = FNV_OFFSET;
+
+        if (spillFile.exists()) {
+            spillFile.delete();
+        }
+    }
+
+    public synchronized long length() {
+        return tailStart + tail.length();
+    }
+
+    /**
+     * @return length and hash of the whole transcript, spilled part included. Two transcripts with the same
+     * tail but a different beginning have different digests.
+     */
+    public synchronized String digest() {
+        return length() + ":" + Long.toHexString(hash);
+    }
+
+    /**
+     * @return true when {@link #tail()} returns the whole transcript.
+     */
+    public synchronized boolean isTailComplete() {
+        return length() <= tailChars;
+    }
+
+    /**
+     * Reads at most <code>maxChars</code> starting from <code>from</code>. May return less when crossing a spilled block,
+     * returns an empty string at the end.
+     */
+    public synchronized String read(long from, int maxChars) {
+        Preconditions.checkArgument(from >= 0 && from <= length(), "position out of range: %s", from);
+
+        if (from >= tailStart) {
+            int start = (int) (from - tailStart);
+            return tail.substring(start, Math.min(tail.length(), start + maxChars));
+        }
+
+        int block = spillIndex.size() - 1;
+
+        while (spillIndex.get(block)[0] > from) {
+            block--;
+        }
+
+        long blockStart = spillIndex.get(block)[0];
+        long byteStart = spillIndex.get(block)[1];
+        long byteEnd = block + 1 < spillIndex.size() ? spillIndex.get(block + 1)[1] : spillFileLength;
+
+        String text = readSpilled(byteStart, (int) (byteEnd - byteStart));
+
+        int start = (int) (from - blockStart);
+
+        return text.substring(start, Math.min(text.length(), start + maxChars));
+    }
+
+    private String readSpilled(long offset, int length) {
+        RandomAccessFile raf = null;
+
+        try {
+            raf = new RandomAccessFile(spillFile, "r");
+            byte[] bytes = new byte[length];
+            raf.seek(offset);
+            raf.readFully(bytes);
+            return new String(bytes, Charsets.UTF_8);
+        } catch (IOException e) {
+            throw Exceptions.runtime(e);
+        } finally {
+            IOUtils.closeQuietly(raf);
+        }
+    }
+
+    public String tail() {
+        return tail(tailChars);
+    }
+
+    /**
+     * @return at most <code>maxChars</code> last chars, capped by the in-memory tail size.
+     */
+    public synchronized String tail(int maxChars) {
+        return tail.substring(Math.max(0, tail.length() - maxChars));
+    }
+
+    public Cursor cursor() {
+        return new Cursor(this, 0);
+    }
+
+    public Cursor cursor(long from) {
+        return new Cursor(this, from);
+    }
+
+    public File getSpillFile() {
+        return spillFile;
+    }
+
+    /**
+     * Sequential reader, positions survive spills. Not thread-safe.
+     */
+    public static class Cursor {
+        private final Transcript transcript;
+        private long position;
+
+        Cursor(Transcript transcript, long position) {
+            this.transcript = transcript;
+            this.position = position;
+        }
+
+        public boolean hasNext() {
+            return position < transcript.length();
+        }
+
+        public String next(int maxChars) {
+            String s = transcript.read(position, maxChars);
+            position += s.length();
+            return s;
+        }
+
+        public String readAll() {
+            StringBuilder sb = new StringBuilder();
+
+            while (hasNext()) {
+                sb.append(next(8192));
+            }
+
+            return sb.toString();
+        }
+
+        public long getPosition() {
+            return position;
+        }
+    }
+
+    /**
+     * @return the tail, the whole text is available through {@link #cursor()}.
+     */
+    @Override
+    public String toString() {
+        return tail();
+    }
+}
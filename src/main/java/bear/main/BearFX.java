@@ -17,6 +17,7 @@
 package bear.main;
 
 import bear.main.event.EventToUI;
+import bear.main.event.EventToUIBus;
 import bear.main.event.EventWithId;
 import bear.main.event.NewPhaseConsoleEventToUI;
 import bear.main.phaser.SettableFuture;
@@ -51,6 +52,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.util.List;
 import java.util.Properties;
 
 import static bear.core.SessionContext.randomId;
@@ -167,6 +169,8 @@ public class BearFX {
 
         private final Mapper mapper = new JacksonMapper();
 
+        private final EventToUIBus eventBus = new EventToUIBus(64 * 1024);
+
         Bindings bindings = new Bindings();
         Stage stage;
 
@@ -238,6 +242,8 @@ public class BearFX {
                             logger.debug("[JAVA INIT] calling app JS initializer...");
                             webEngine.executeScript("Java.initApp();");
 
+                            startEventBus();
+
                             bearFX.sendMessageToUI(new NewPhaseConsoleEventToUI("status", randomId()));
 
                             logger.error("[Loggers Diagnostics]");
@@ -272,20 +278,36 @@ public class BearFX {
                 Preconditions.checkNotNull(id, "id is null for %s", eventToUI);
             }
 
-            final String s = mapper.toJSON(eventToUI);
-
-            logger.debug("sending to ui: {}", s);
+            eventBus.post(eventToUI);
+        }
 
-            Platform.runLater(new Runnable() {
+        /**
+         * Sends events to the UI in one call per frame, a frame is skipped while the previous one is being processed.
+         */
+        private void startEventBus() {
+            eventBus.start(bearFX.conf.getGlobal().getScheduler(), 50, new EventToUIBus.Sink() {
                 @Override
-                public void run() {
-                    long start = System.currentTimeMillis();
-                    webEngine.executeScript("Java.receiveEvent(" + s + ")");
-                    long finish = System.currentTimeMillis();
-
-                    if(finish - start > 15){
-                        System.out.printf("WARN (ui): %dms for command %s%n", finish - start, s);
-                    }
+                public void send(final List<EventToUI> events) {
+                    final String s = mapper.toJSON(events);
+
+                    logger.debug("sending to ui: {}", s);
+
+                    Platform.runLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                long start = System.currentTimeMillis();
+                                webEngine.executeScript("Java.receiveEvents(" + s + ")");
+                                long finish = System.currentTimeMillis();
+
+                                if(finish - start > 15){
+                                    System.out.printf("WARN (ui): %dms for %d events%n", finish - start, events.size());
+                                }
+                            } finally {
+                                eventBus.delivered();
+                            }
+                        }
+                    });
                 }
             });
         }
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.main;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A destination for the events of a run when there is no UI, i.e. a file followed by CI.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public interface EventSink extends Closeable {
+    /**
+     * Called from the writer thread of {@link EventSinkAppender}.
+     *
+     * @param lines events in JSON, one per line, without line breaks
+     */
+    void write(List<String> lines) throws IOException;
+}
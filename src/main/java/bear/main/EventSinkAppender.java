@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.main;
+
+import bear.main.event.EventToUI;
+import bear.main.event.LogEventToUI;
+import bear.maven.LoggingBooter;
+import chaschev.json.JacksonMapper;
+import chaschev.json.Mapper;
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the events which go to the UI through the <code>fx</code> logger to sinks. Session threads only put events
+ * into a bounded queue, events are serialized and written in batches by a writer thread. When the queue is full, events
+ * are dropped and the sinks receive a <code>dropped</code> event with their count.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class EventSinkAppender extends AbstractAppender {
+    private static final Logger logger = LoggerFactory.getLogger(EventSinkAppender.class);
+
+    static final int BATCH_SIZE = 512;
+
+    private final List<EventSink> sinks;
+    private final BlockingQueue<EventToUI> queue;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Mapper mapper = new JacksonMapper();
+
+    private final Thread writer;
+
+    private volatile boolean stopping;
+
+    public EventSinkAppender(String name, @Nullable Filter filter, @Nullable Layout<? extends Serializable> layout,
+                             int capacity, List<EventSink> sinks) {
+        super(name, filter, layout, true);
+
+        this.sinks = sinks;
+        this.queue = new ArrayBlockingQueue<EventToUI>(capacity);
+
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, name + "-writer");
+
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Adds an appender for messages of the <code>fx</code> logger of level INFO and above, which is what the UI shows,
+     * and flushes it when the VM exits.
+     */
+    public static EventSinkAppender install(int capacity, EventSink... sinks) {
+        final EventSinkAppender appender = new EventSinkAppender("eventSinks",
+            ThresholdRangeFilter.createFilter("INFO", "OFF", null, null),
+            PatternLayout.createLayout("%d{HH:mm:ss.S} %-5level %c{1.} - %msg%n", null, null, null, null),
+            capacity, Arrays.asList(sinks));
+
+        appender.start();
+
+        LoggingBooter.addLog4jAppender("fx", appender, null, null, false);
+
+        Runtime.getRuntime().addShutdownHook(new Thread("eventSinks-shutdown") {
+            @Override
+            public void run() {
+                appender.stop();
+            }
+        });
+
+        return appender;
+    }
+
+    @Override
+    public void append(LogEvent event) {
+        Message message = event.getMessage();
+
+        EventToUI eventToUI;
+
+        if (message instanceof EventToUI) {
+            eventToUI = (EventToUI) message;
+            eventToUI.setLevel(event.getLevel().intLevel());
+        } else {
+            String text = getLayout() == null ? message.getFormattedMessage() : new String(getLayout().toByteArray(event));
+
+            eventToUI = new LogEventToUI(event.getThreadName(), text, event.getLevel());
+        }
+
+        if (!queue.offer(eventToUI)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void start() {
+        super.start();
+        writer.start();
+    }
+
+    @Override
+    public void stop() {
+        if (stopping) return;
+
+        stopping = true;
+
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (EventSink sink : sinks) {
+            IOUtils.closeQuietly(sink);
+        }
+
+        super.stop();
+    }
+
+    private void writeLoop() {
+        List<EventToUI> batch = new ArrayList<EventToUI>(BATCH_SIZE);
+        List<String> lines = new ArrayList<String>(BATCH_SIZE + 1);
+
+        while (true) {
+            try {
+                EventToUI first = queue.poll(100, TimeUnit.MILLISECONDS);
+
+                if (first == null) {
+                    if (stopping) break;
+                    continue;
+                }
+
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            long droppedCount = dropped.getAndSet(0);
+
+            if (droppedCount > 0) {
+                lines.add("{\"type\":\"dropped\",\"count\":" + droppedCount + "}");
+            }
+
+            for (EventToUI eventToUI : batch) {
+                try {
+                    lines.add(mapper.toJSON(eventToUI));
+                } catch (Exception e) {
+                    logger.warn("could not serialize {}: {}", eventToUI.getClass().getSimpleName(), e.toString());
+                }
+            }
+
+            for (EventSink sink : sinks) {
+                try {
+                    sink.write(lines);
+                } catch (Exception e) {
+                    logger.warn("could not write events to {}: {}", sink, e.toString());
+                }
+            }
+
+            batch.clear();
+            lines.clear();
+        }
+    }
+}
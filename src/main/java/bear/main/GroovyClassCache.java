@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.main;
+
+import chaschev.util.Exceptions;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import groovy.lang.GroovySystem;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Bytecode of compiled scripts stored on disk by the hash of the script's path and source. An entry also keeps the classes of
+ * other scripts it references together with their source hashes at compile time, so an entry is valid only while the
+ * scripts it depends on haven't changed.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class GroovyClassCache {
+    private static final Logger logger = LoggerFactory.getLogger(GroovyClassCache.class);
+
+    private static final int FORMAT = 1;
+
+    private final File dir;
+
+    public static class Entry {
+        final String sourceHash;
+        final String mainClass;
+
+        /**
+         * Classes produced by the script, i.e. closures and inner classes, by name.
+         */
+        final Map<String, byte[]> classes;
+
+        /**
+         * Classes of other scripts referenced by this one mapped to their source hashes.
+         */
+        final Map<String, String> dependencies = new HashMap<String, String>();
+
+        Entry(String sourceHash, String mainClass, Map<String, byte[]> classes) {
+            this.sourceHash = sourceHash;
+            this.mainClass = mainClass;
+            this.classes = classes;
+        }
+    }
+
+    public GroovyClassCache(File buildDir) {
+        // bytecode is tied to the compiler version
+        this.dir = new File(buildDir, "groovy-cache/" + GroovySystem.getVersion());
+    }
+
+    /**
+     * @param relativePath path of the source in its dir: a script without a class declaration gets its class name from
+     *                     the file name, so the same text in two files compiles into two classes
+     */
+    public static String hash(String relativePath, File source) {
+        try {
+            Hasher hasher = Hashing.sha1().newHasher()
+                .putString(relativePath, Charsets.UTF_8)
+                .putByte((byte) 0);
+
+            Files.copy(source, Funnels.asOutputStream(hasher));
+
+            return hasher.hash().toString();
+        } catch (IOException e) {
+            throw Exceptions.runtime(e);
+        }
+    }
+
+    @Nullable
+    public Entry load(String sourceHash) {
+        File file = file(sourceHash);
+
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            if (in.readInt() != FORMAT) {
+                return null;
+            }
+
+            String mainClass = in.readUTF();
+
+            int dependencies = in.readInt();
+
+            Map<String, String> dependencyMap = new HashMap<String, String>(dependencies);
+
+            for (int i = 0; i < dependencies; i++) {
+                dependencyMap.put(in.readUTF(), in.readUTF());
+            }
+
+            int classCount = in.readInt();
+
+            Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>(classCount);
+
+            for (int i = 0; i < classCount; i++) {
+                String name = in.readUTF();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                classes.put(name, bytes);
+            }
+
+            Entry entry = new Entry(sourceHash, mainClass, classes);
+
+            entry.dependencies.putAll(dependencyMap);
+
+            return entry;
+        } catch (IOException e) {
+            logger.warn("could not read {}: {}", file, e.toString());
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    public void store(Entry entry) {
+        File file = file(entry.sourceHash);
+        File temp = new File(file.getPath() + ".tmp");
+
+        DataOutputStream out = null;
+
+        try {
+            FileUtils.forceMkdir(dir);
+
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+
+            out.writeInt(FORMAT);
+            out.writeUTF(entry.mainClass);
+
+            out.writeInt(entry.dependencies.size());
+
+            for (Map.Entry<String, String> e : entry.dependencies.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue());
+            }
+
+            out.writeInt(entry.classes.size());
+
+            for (Map.Entry<String, byte[]> e : entry.classes.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue().length);
+                out.write(e.getValue());
+            }
+
+            out.close();
+            out = null;
+
+            if (!temp.renameTo(file)) {
+                FileUtils.deleteQuietly(file);
+                FileUtils.moveFile(temp, file);
+            }
+        } catch (IOException e) {
+            logger.warn("could not cache {}: {}", entry.mainClass, e.toString());
+        } finally {
+            IOUtils.closeQuietly(out);
+            FileUtils.deleteQuietly(temp);
+        }
+    }
+
+    /**
+     * Removes entries of sources which are gone.
+     */
+    public void retainOnly(Set<String> sourceHashes) {
+        File[] files = dir.listFiles();
+
+        if (files == null) return;
+
+        for (File file : files) {
+            String name = file.getName();
+
+            if (name.endsWith(".class-cache") && !sourceHashes.contains(name.substring(0, name.length() - ".class-cache".length()))) {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+    }
+
+    private File file(String sourceHash) {
+        return new File(dir, sourceHash + ".class-cache");
+    }
+
+    /**
+     * Finds which of the <code>candidates</code> are referenced from the bytecode. A class reference is a constant pool
+     * entry with the class's internal name or a type descriptor containing it.
+     */
+    static Set<String> referencedClasses(Collection<byte[]> classes, Collection<String> candidates) {
+        Set<String> result = new HashSet<String>();
+
+        for (String candidate : candidates) {
+            String internalName = candidate.replace('.', '/');
+
+            byte[] nameBytes = internalName.getBytes(Charsets.UTF_8);
+
+            byte[] constant = new byte[nameBytes.length + 3];
+            constant[0] = 1;    // CONSTANT_Utf8
+            constant[1] = (byte) (nameBytes.length >> 8);
+            constant[2] = (byte) nameBytes.length;
+            System.arraycopy(nameBytes, 0, constant, 3, nameBytes.length);
+
+            byte[] descriptor = ("L" + internalName + ";").getBytes(Charsets.UTF_8);
+
+            for (byte[] bytes : classes) {
+                if (indexOf(bytes, constant) != -1 || indexOf(bytes, descriptor) != -1) {
+                    result.add(candidate);
+                    break;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    static int indexOf(byte[] bytes, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= bytes.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) continue outer;
+            }
+
+            return i;
+        }
+
+        return -1;
+    }
+}
@@ -17,10 +17,14 @@
 package bear.main;
 
 import bear.context.CompilationResult;
+import bear.main.GroovyClassCache.Entry;
 import chaschev.util.Exceptions;
 import com.google.common.base.Optional;
 import groovy.lang.GroovyClassLoader;
 import groovy.lang.GroovyCodeSource;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.SourceUnit;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,13 +42,20 @@ import static com.google.common.base.Optional.of;
 */
 public class GroovyCompiler extends Compiler {
     private static final Logger logger = LoggerFactory.getLogger(GroovyCompiler.class);
-    private GroovyClassLoader gcl;
-    private final Map<File,GroovyCodeSource> sourceMap = new HashMap<File, GroovyCodeSource>();
+    private CachingClassLoader gcl;
+    private final GroovyClassCache classCache;
+
+    /**
+     * Source hashes of the last successful compilation.
+     */
+    private Map<File, String> lastHashes;
+    private ClassLoader lastParentCL;
     private final Map<String,CompiledEntry> simpleNameMap = new HashMap<String, CompiledEntry>();
     private final Map<String,CompiledEntry> nameMap = new HashMap<String, CompiledEntry>();
 
     GroovyCompiler(List<File> sourcesDir, File buildDir) {
         super(sourcesDir, buildDir);
+        this.classCache = new GroovyClassCache(buildDir);
     }
 
     @Override
@@ -96,41 +107,181 @@ public class GroovyCompiler extends Compiler {
         };
     }
 
+    /**
+     * Scripts are compiled only when their source or a source they depend on has changed since they were cached,
+     * other classes are loaded from the cache. When nothing has changed since the last call, the loaded classes are
+     * reused.
+     */
     public synchronized GroovyClassLoader compileScripts(List<File> sourceDirs, ClassLoader parentCL) {
+        Map<File, String> hashes = new LinkedHashMap<File, String>();
+
+        for (File sourceDir : sourceDirs) {
+            for (File file : FileUtils.listFiles(sourceDir, extensions, true)) {
+                hashes.put(file, GroovyClassCache.hash(sourceDir.toURI().relativize(file.toURI()).getPath(), file));
+            }
+        }
+
+        if (gcl != null && parentCL == lastParentCL && hashes.equals(lastHashes)) {
+            logger.debug("scripts are up to date");
+            return gcl;
+        }
+
         nameMap.clear();
         simpleNameMap.clear();
 
-        if(gcl == null){
-            gcl = new GroovyClassLoader(parentCL);
-        }
+        // classes can't be redefined, so a changed set of scripts needs a new loader
+        CachingClassLoader cl = new CachingClassLoader(parentCL);
 
-        gcl.addClasspath(buildDir.getAbsolutePath());
+        cl.addClasspath(buildDir.getAbsolutePath());
 
-        for (File sourceDir : sourceDirs) {
-            List<File> groovySources = new ArrayList<File>(FileUtils.listFiles(sourceDir, extensions, true));
+        Map<File, Entry> valid = validEntries(hashes);
 
-            try {
-                for (File file : groovySources) {
-                    GroovyCodeSource source = sourceMap.get(file);
+        for (Entry entry : valid.values()) {
+            cl.pending.putAll(entry.classes);
+        }
 
-                    if(source == null){
-                        sourceMap.put(file, source = new GroovyCodeSource(file, "UTF-8"));
-                    }
+        Map<File, Entry> compiled = new LinkedHashMap<File, Entry>();
 
+        try {
+            for (Map.Entry<File, String> e : hashes.entrySet()) {
+                File file = e.getKey();
+                Entry cached = valid.get(file);
+
+                Class<?> aClass;
+
+                if (cached != null) {
+                    aClass = cl.loadClass(cached.mainClass);
+                } else {
                     logger.info("compiling {}...", file);
 
-                    Class aClass = gcl.parseClass(source);
+                    cl.compiled = new LinkedHashMap<String, byte[]>();
 
-                    CompiledEntry<?> e = new CompiledEntry(aClass, file, "groovy");
+                    aClass = cl.parseClass(new GroovyCodeSource(file, "UTF-8"), false);
 
-                    simpleNameMap.put(aClass.getSimpleName(), e);
-                    nameMap.put(aClass.getName(), e);
+                    compiled.put(file, new Entry(e.getValue(), aClass.getName(), cl.compiled));
+
+                    cl.compiled = null;
                 }
-            } catch (IOException e) {
-                throw Exceptions.runtime(e);
+
+                CompiledEntry<?> entry = new CompiledEntry(aClass, file, "groovy");
+
+                simpleNameMap.put(aClass.getSimpleName(), entry);
+                nameMap.put(aClass.getName(), entry);
+            }
+        } catch (IOException e) {
+            throw Exceptions.runtime(e);
+        } catch (ClassNotFoundException e) {
+            throw Exceptions.runtime(e);
+        }
+
+        logger.info("compiled {} scripts, {} loaded from cache", compiled.size(), valid.size());
+
+        Map<String, String> scriptClasses = new HashMap<String, String>();
+
+        for (Map.Entry<File, String> e : hashes.entrySet()) {
+            Entry entry = valid.containsKey(e.getKey()) ? valid.get(e.getKey()) : compiled.get(e.getKey());
+
+            scriptClasses.put(entry.mainClass, e.getValue());
+        }
+
+        for (Entry entry : compiled.values()) {
+            Set<String> others = new HashSet<String>(scriptClasses.keySet());
+
+            others.remove(entry.mainClass);
+
+            for (String dependency : GroovyClassCache.referencedClasses(entry.classes.values(), others)) {
+                entry.dependencies.put(dependency, scriptClasses.get(dependency));
             }
+
+            classCache.store(entry);
         }
 
+        classCache.retainOnly(new HashSet<String>(hashes.values()));
+
+        gcl = cl;
+        lastHashes = hashes;
+        lastParentCL = parentCL;
+
         return gcl;
     }
+
+    /**
+     * Finds cached entries which can be used: each class an entry depends on must come from a script with the
+     * recorded hash, which in turn must be valid.
+     */
+    private Map<File, Entry> validEntries(Map<File, String> hashes) {
+        Map<File, Entry> valid = new LinkedHashMap<File, Entry>();
+
+        for (Map.Entry<File, String> e : hashes.entrySet()) {
+            Entry entry = classCache.load(e.getValue());
+
+            if (entry != null) {
+                valid.put(e.getKey(), entry);
+            }
+        }
+
+        boolean changed = true;
+
+        while (changed) {
+            changed = false;
+
+            Map<String, String> validClasses = new HashMap<String, String>();
+
+            for (Entry entry : valid.values()) {
+                validClasses.put(entry.mainClass, entry.sourceHash);
+            }
+
+            for (Iterator<Entry> it = valid.values().iterator(); it.hasNext(); ) {
+                Entry entry = it.next();
+
+                for (Map.Entry<String, String> dependency : entry.dependencies.entrySet()) {
+                    if (!dependency.getValue().equals(validClasses.get(dependency.getKey()))) {
+                        it.remove();
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        return valid;
+    }
+
+    /**
+     * Defines cached classes on demand and records bytecode of the classes it compiles.
+     */
+    static class CachingClassLoader extends GroovyClassLoader {
+        final Map<String, byte[]> pending = new HashMap<String, byte[]>();
+
+        Map<String, byte[]> compiled;
+
+        CachingClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected synchronized Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = pending.remove(name);
+
+            if (bytes != null) {
+                return defineClass(name, bytes);
+            }
+
+            return super.findClass(name);
+        }
+
+        @Override
+        protected ClassCollector createCollector(CompilationUnit unit, SourceUnit su) {
+            return new ClassCollector(new InnerLoader(this), unit, su) {
+                @Override
+                protected Class createClass(byte[] code, ClassNode classNode) {
+                    if (compiled != null) {
+                        compiled.put(classNode.getName(), code);
+                    }
+
+                    return super.createClass(code, classNode);
+                }
+            };
+        }
+    }
 }
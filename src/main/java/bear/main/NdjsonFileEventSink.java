@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.main;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.util.List;
+
+/**
+ * Writes events to a file, one JSON object per line. When the file grows over <code>maxBytes</code>, it is renamed to
+ * <code>file.1</code>, older files are shifted and only <code>maxFiles</code> of them are kept.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class NdjsonFileEventSink implements EventSink {
+    private final File file;
+    private final long maxBytes;
+    private final int maxFiles;
+
+    private Writer out;
+    private long size;
+
+    public NdjsonFileEventSink(File file, long maxBytes, int maxFiles) {
+        Preconditions.checkArgument(maxBytes > 0, "maxBytes must be positive");
+        Preconditions.checkArgument(maxFiles >= 0, "maxFiles can't be negative");
+
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+    }
+
+    @Override
+    public void write(List<String> lines) throws IOException {
+        if (out == null) {
+            open();
+        }
+
+        for (String line : lines) {
+            out.write(line);
+            out.write('\n');
+
+            // close enough for JSON, which is mostly ASCII
+            size += line.length() + 1;
+        }
+
+        out.flush();
+
+        if (size >= maxBytes) {
+            rotate();
+        }
+    }
+
+    private void open() throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+
+        if (dir != null) {
+            FileUtils.forceMkdir(dir);
+        }
+
+        size = file.length();
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), Charsets.UTF_8), 64 * 1024);
+    }
+
+    private void rotate() throws IOException {
+        out.close();
+        out = null;
+
+        if (maxFiles == 0) {
+            FileUtils.deleteQuietly(file);
+            return;
+        }
+
+        FileUtils.deleteQuietly(rotated(maxFiles));
+
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            File f = rotated(i);
+
+            if (f.exists()) {
+                FileUtils.moveFile(f, rotated(i + 1));
+            }
+        }
+
+        FileUtils.moveFile(file, rotated(1));
+    }
+
+    File rotated(int i) {
+        return new File(file.getPath() + "." + i);
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOUtils.closeQuietly(out);
+        out = null;
+    }
+
+    @Override
+    public String toString() {
+        return "NdjsonFileEventSink{" + file + "}";
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.main;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Streams events as JSON lines to the clients connected to a local port, i.e. <code>nc localhost 7070</code>.
+ * A client receives events from the moment it connects. A client which stops reading holds the writer thread, so
+ * events start to be dropped by the appender.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class SocketEventSink implements EventSink {
+    private static final Logger logger = LoggerFactory.getLogger(SocketEventSink.class);
+
+    private final ServerSocket serverSocket;
+
+    private final List<Client> clients = new CopyOnWriteArrayList<Client>();
+
+    private static final class Client {
+        final Socket socket;
+        final OutputStream out;
+
+        Client(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+        }
+    }
+
+    /**
+     * @param port 0 for any free port
+     */
+    public SocketEventSink(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "eventSocket-" + serverSocket.getLocalPort());
+
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+
+                socket.setTcpNoDelay(true);
+
+                clients.add(new Client(socket));
+
+                logger.info("events client connected: {}", socket.getRemoteSocketAddress());
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    logger.warn("could not accept an events client: {}", e.toString());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void write(List<String> lines) throws IOException {
+        if (clients.isEmpty()) return;
+
+        StringBuilder sb = new StringBuilder(lines.size() * 128);
+
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+
+        byte[] bytes = sb.toString().getBytes(Charsets.UTF_8);
+
+        for (Iterator<Client> it = clients.iterator(); it.hasNext(); ) {
+            Client client = it.next();
+
+            try {
+                client.out.write(bytes);
+                client.out.flush();
+            } catch (IOException e) {
+                logger.info("events client disconnected: {}", client.socket.getRemoteSocketAddress());
+
+                IOUtils.closeQuietly(client.socket);
+                clients.remove(client);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+
+        for (Client client : clients) {
+            IOUtils.closeQuietly(client.out);
+            IOUtils.closeQuietly(client.socket);
+        }
+
+        clients.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "SocketEventSink{port=" + getPort() + "}";
+    }
+}
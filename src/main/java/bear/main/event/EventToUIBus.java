@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.main.event;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Collects events for the UI and sends them in batches, one batch per frame. Text added to a console is merged into
+ * one event until another event arrives for that console, so the order of events in a console is kept.
+ *
+ * Text waiting to be sent is limited per console. When the UI can't keep up, the oldest text is dropped and the next
+ * text of the console tells how much has been skipped. Other events are never dropped.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class EventToUIBus {
+    private static final Logger logger = LoggerFactory.getLogger(EventToUIBus.class);
+
+    public static interface Sink {
+        /**
+         * Called from the scheduler thread. {@link EventToUIBus#delivered()} must be called when the UI has processed
+         * the batch, no batches are sent until then.
+         */
+        void send(List<EventToUI> events);
+    }
+
+    private static final class PendingText {
+        final TextConsoleEventToUI event;
+        final StringBuilder text;
+
+        /**
+         * Posted events are shared with other appenders, so a changed text goes to a copy.
+         */
+        boolean changed;
+
+        PendingText(TextConsoleEventToUI event) {
+            this.event = event;
+            this.text = new StringBuilder(event.textAdded == null ? "" : event.textAdded);
+        }
+
+        boolean accepts(TextConsoleEventToUI e) {
+            return Objects.equal(event.parentId, e.parentId) && event.level == e.level;
+        }
+    }
+
+    private static final class ConsoleBuffer {
+        final ArrayDeque<PendingText> texts = new ArrayDeque<PendingText>();
+
+        /**
+         * Text which can be appended to, null when another event has been posted after it.
+         */
+        PendingText open;
+
+        int chars;
+        long skipped;
+    }
+
+    private final int maxCharsPerConsole;
+
+    /**
+     * Events and texts in the order of posting.
+     */
+    private List<Object> pending = new ArrayList<Object>();
+
+    private final Map<String, ConsoleBuffer> consoles = new HashMap<String, ConsoleBuffer>();
+
+    private final AtomicBoolean inFlight = new AtomicBoolean();
+
+    public EventToUIBus(int maxCharsPerConsole) {
+        Preconditions.checkArgument(maxCharsPerConsole > 0, "maxCharsPerConsole must be positive");
+
+        this.maxCharsPerConsole = maxCharsPerConsole;
+    }
+
+    public synchronized void post(EventToUI event) {
+        if (!(event instanceof ConsoleEventToUI)) {
+            pending.add(event);
+            return;
+        }
+
+        ConsoleBuffer buffer = console(((ConsoleEventToUI) event).console);
+
+        if (!(event instanceof TextConsoleEventToUI)) {
+            buffer.open = null;
+            pending.add(event);
+            return;
+        }
+
+        TextConsoleEventToUI textEvent = (TextConsoleEventToUI) event;
+
+        String text = textEvent.textAdded == null ? "" : textEvent.textAdded;
+
+        if (buffer.open != null && buffer.open.accepts(textEvent)) {
+            buffer.open.text.append(text);
+            buffer.open.changed = true;
+        } else {
+            buffer.open = new PendingText(textEvent);
+            buffer.texts.add(buffer.open);
+            pending.add(buffer.open);
+        }
+
+        buffer.chars += text.length();
+
+        trim(buffer);
+    }
+
+    private ConsoleBuffer console(String name) {
+        ConsoleBuffer buffer = consoles.get(name);
+
+        if (buffer == null) {
+            consoles.put(name, buffer = new ConsoleBuffer());
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Drops the oldest text of a console over the limit.
+     */
+    private void trim(ConsoleBuffer buffer) {
+        while (buffer.chars > maxCharsPerConsole) {
+            PendingText oldest = buffer.texts.peekFirst();
+
+            int excess = buffer.chars - maxCharsPerConsole;
+
+            int dropped = Math.min(excess, oldest.text.length());
+
+            oldest.text.delete(0, dropped);
+            oldest.changed = true;
+
+            buffer.chars -= dropped;
+            buffer.skipped += dropped;
+
+            if (oldest.text.length() == 0 && oldest != buffer.open) {
+                buffer.texts.pollFirst();
+            }
+        }
+    }
+
+    /**
+     * @return events posted since the last call, texts are merged
+     */
+    public synchronized List<EventToUI> drain() {
+        List<EventToUI> events = new ArrayList<EventToUI>(pending.size());
+
+        Set<String> skipNoticeAdded = new HashSet<String>();
+
+        for (Object o : pending) {
+            if (!(o instanceof PendingText)) {
+                events.add((EventToUI) o);
+                continue;
+            }
+
+            PendingText text = (PendingText) o;
+
+            if (text.text.length() == 0) continue;
+
+            String console = text.event.console;
+
+            ConsoleBuffer buffer = consoles.get(console);
+
+            if (buffer.skipped > 0 && skipNoticeAdded.add(console)) {
+                text.text.insert(0, "[... skipped " + buffer.skipped + " chars ...]\n");
+                text.changed = true;
+            }
+
+            events.add(text.changed ? copy(text.event, text.text.toString()) : text.event);
+        }
+
+        pending = new ArrayList<Object>();
+        consoles.clear();
+
+        return events;
+    }
+
+    private static TextConsoleEventToUI copy(TextConsoleEventToUI event, String text) {
+        TextConsoleEventToUI copy = new TextConsoleEventToUI(event.console, text);
+
+        copy.parentId = event.parentId;
+        copy.level = event.level;
+
+        return copy;
+    }
+
+    /**
+     * Sends a batch unless the previous one is still being processed. In this case events keep coming to the bus and
+     * text is merged and trimmed.
+     */
+    void tick(Sink sink) {
+        if (!inFlight.compareAndSet(false, true)) {
+            return;
+        }
+
+        List<EventToUI> events = drain();
+
+        if (events.isEmpty()) {
+            inFlight.set(false);
+            return;
+        }
+
+        try {
+            sink.send(events);
+        } catch (Exception e) {
+            inFlight.set(false);
+            logger.warn("could not send {} events to ui", events.size(), e);
+        }
+    }
+
+    /**
+     * Marks the last batch as processed.
+     */
+    public void delivered() {
+        inFlight.set(false);
+    }
+
+    public ScheduledFuture<?> start(ScheduledExecutorService scheduler, long frameMs, final Sink sink) {
+        return scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                tick(sink);
+            }
+        }, frameMs, frameMs, TimeUnit.MILLISECONDS);
+    }
+}
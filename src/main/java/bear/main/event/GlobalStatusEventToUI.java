@@ -17,6 +17,7 @@
 package bear.main.event;
 
 import bear.core.GlobalTaskRunner;
+import bear.main.phaser.RolloutScheduler;
 
 /**
  * @author Andrey Chaschev chaschev@gmail.com
@@ -24,14 +25,25 @@ import bear.core.GlobalTaskRunner;
 public class GlobalStatusEventToUI extends EventToUI {
     public GlobalTaskRunner.Stats stats;
 
+    /**
+     * Set when a rollout wave starts or stops.
+     */
+    public RolloutScheduler.WaveProgress wave;
+
     public GlobalStatusEventToUI(GlobalTaskRunner.Stats stats) {
         super("status", "global");
 
         this.stats = stats;
     }
 
+    public GlobalStatusEventToUI(GlobalTaskRunner.Stats stats, RolloutScheduler.WaveProgress wave) {
+        this(stats);
+
+        this.wave = wave;
+    }
+
     @Override
     public String getFormattedMessage() {
-        return "global stats: " + stats;
+        return "global stats: " + stats + (wave == null ? "" : ", wave: " + wave);
     }
 }
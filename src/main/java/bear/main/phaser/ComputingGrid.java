@@ -19,7 +19,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.common.base.Optional.of;
 
@@ -68,13 +67,19 @@ public class ComputingGrid<C, PHASE> {
             i++;
         }
 
-        phaseEntered = new boolean[phases.size()];
-
         // can't load these lazily as futures are accessed from outside
         // will probably need to split out futures for lazy init or get the futures...
         for (Phase<?, PHASE> phase : phases) {
             addPhase(phase);
         }
+
+        barriers = new PhaseBarrier[phases.size()];
+
+        for (Phase<?, PHASE> phase : phases) {
+            barriers[phase.rowIndex] = new PhaseBarrier(phase.toString(), partiesCount);
+        }
+
+        finished = new PhaseBarrier("finish", partiesCount);
     }
 
     public <V> List<ListenableFuture<V>> phaseFutures(Phase<V, PHASE> phase, int relative) {
@@ -112,18 +117,45 @@ public class ComputingGrid<C, PHASE> {
 
     ComputingGrid<C, PHASE> awaitTermination(){
         try {
-
-            aggregateSuccessful(phaseToRowIndex(lastPhase()), Object.class).get();
+            finished.await();
             return this;
         } catch (Exception e) {
             throw Exceptions.runtime(e);
         }
     }
 
-    private PHASE lastPhase() {
-        ImmutableList<PHASE> row = table.rowKeyList();
+    public PhaseBarrier barrier(Phase<?, PHASE> phase) {
+        return barriers[phase.rowIndex];
+    }
+
+    public PhaseBarrier barrier(int rowIndex) {
+        return barriers[rowIndex];
+    }
 
-        return row.get(row.size() - 1);
+    /**
+     * Arrived by each party when it has finished all its phases or broke.
+     */
+    public PhaseBarrier getFinishBarrier() {
+        return finished;
+    }
+
+    /**
+     * Blocks until all parties have finished or skipped the phase.
+     */
+    public PhaseBarrier awaitPhase(Phase<?, PHASE> phase) throws InterruptedException {
+        return barrier(phase).await();
+    }
+
+    public ComputingGrid<C, PHASE> onPhaseComplete(Phase<?, PHASE> phase, PhaseBarrier.Listener listener) {
+        barrier(phase).onComplete(listener);
+        return this;
+    }
+
+    /**
+     * @return a future done when <code>count</code> parties have finished the phase successfully
+     */
+    public ListenableFuture<PhaseBarrier> quorum(Phase<?, PHASE> phase, int count) {
+        return barrier(phase).quorum(count);
     }
 
     public <V> GridCell<C, ?, PHASE> cell(int rowKey, C columnKey) {
@@ -142,7 +174,8 @@ public class ComputingGrid<C, PHASE> {
         return (GridCell<C, V, PHASE>) table.at(rowIndex, columnIndex);
     }
 
-    private final boolean[] phaseEntered;
+    private final PhaseBarrier[] barriers;
+    private final PhaseBarrier finished;
 
     @Nonnull
     public Optional<Phase<GridCell, PHASE>> phase(String name) {
@@ -194,23 +227,24 @@ public class ComputingGrid<C, PHASE> {
 
     protected WhenAllFinished whenAllFinished;
 
-    private void checkPhaseEntered(Phase<?, PHASE> phase, PhaseParty<C, PHASE> party){
-        if(phaseEnterListener == null || phaseEntered[phase.rowIndex]){
-            return;
-        }
-
-        synchronized (phaseEntered){
-            if(phaseEntered[phase.rowIndex]) return;
+    protected RolloutScheduler<C, PHASE> rollout;
 
-            phaseEntered[phase.rowIndex] = true;
+    private void checkPhaseEntered(Phase<?, PHASE> phase, PhaseParty<C, PHASE> party){
+        if(barriers[phase.rowIndex].enter() && phaseEnterListener != null){
+            phaseEnterListener.handle(phase, party);
         }
-
-        phaseEnterListener.handle(phase, party);
     }
 
     public ComputingGrid<C, PHASE> startParties(ExecutorService service) {
-        final AtomicInteger partiesArrived = new AtomicInteger();
-        final AtomicInteger partiesFailed = new AtomicInteger();
+        if (whenAllFinished != null) {
+            finished.onComplete(new PhaseBarrier.Listener() {
+                @Override
+                public void onComplete(PhaseBarrier barrier) {
+                    whenAllFinished.run(barrier.getFailed(), partiesCount);
+                }
+            });
+        }
+
         for (int i = 0; i < partiesCount; i++) {
             final int partyIndex = i;
 
@@ -220,18 +254,27 @@ public class ComputingGrid<C, PHASE> {
                 @Override
                 public void run() {
                     Phase<?, PHASE> lastPhase = null;
+
+                    // phases below have been arrived at
+                    int nextRow = 0;
+
                     try {
                         for (Phase<?, PHASE> phase : phases) {
                             lastPhase = phase;
 
-                            GridCell cell = table.at(party.currentPhaseIndex, partyIndex)
-                                .started();
+                            GridCell cell = table.at(party.currentPhaseIndex, partyIndex);
 
                             checkPhaseEntered(phase, party);
 
                             Object result;
 
                             try {
+                                if (rollout != null) {
+                                    rollout.awaitTurn(ComputingGrid.this, phase, party);
+                                }
+
+                                cell.started();
+
                                 result = cell.callable.call(party, party.currentPhaseIndex, phase);
 
                                 party.lastResult = result;
@@ -241,12 +284,14 @@ public class ComputingGrid<C, PHASE> {
                                 if (cell.whenDone != null) {
                                     cell.whenDone.act(result, party);
                                 }
+
+                                barriers[phase.rowIndex].arrive(true);
+                                nextRow = phase.rowIndex + 1;
                             } catch (Exception e) {
                                 party.setException(
                                     e instanceof GridException ? (GridException) e :
                                         new GridException(e, phase, party)
                                 );
-                                partiesFailed.incrementAndGet();
 
                                 LoggerFactory.getLogger("log").error(e.toString(), e);
 
@@ -257,12 +302,13 @@ public class ComputingGrid<C, PHASE> {
                             }
                         }
                     } finally {
-                        partiesArrived.incrementAndGet();
-
-                        if(whenAllFinished != null && partiesArrived.get() == partiesCount){
-                            whenAllFinished.run(partiesFailed.get(), partiesCount);
+                        // the failed and the skipped phases
+                        for (int row = nextRow; row < barriers.length; row++) {
+                            barriers[row].arrive(false);
                         }
 
+                        finished.arrive(!party.failed());
+
                         if(partyFinishListener != null){
                             partyFinishListener.handle(lastPhase, party);
                         }
@@ -313,6 +359,11 @@ public class ComputingGrid<C, PHASE> {
         this.whenAllFinished = whenAllFinished;
     }
 
+    public ComputingGrid<C, PHASE> setRollout(RolloutScheduler<C, PHASE> rollout) {
+        this.rollout = rollout;
+        return this;
+    }
+
     public ImmutableList<PHASE> phases() {
         return table.rowKeyList();
     }
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.main.phaser;
+
+import chaschev.util.Exceptions;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts parties arriving at a point of a grid, i.e. finishing a phase. Arrivals are plain atomic increments, the
+ * barrier completes exactly once when the last party arrives. A broken party arrives as failed at all the phases
+ * it won't reach.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class PhaseBarrier {
+    private static final Logger logger = LoggerFactory.getLogger(PhaseBarrier.class);
+
+    public static interface Listener {
+        void onComplete(PhaseBarrier barrier);
+    }
+
+    private final String name;
+    private final int parties;
+
+    private final AtomicInteger entered = new AtomicInteger();
+    private final AtomicInteger arrived = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private final SettableFuture<PhaseBarrier> completion = new SettableFuture<PhaseBarrier>();
+
+    private final CopyOnWriteArrayList<Quorum> quorums = new CopyOnWriteArrayList<Quorum>();
+
+    private final List<Listener> listeners = new ArrayList<Listener>();
+    private boolean completed;
+
+    private static final class Quorum {
+        final int count;
+        final SettableFuture<PhaseBarrier> future = new SettableFuture<PhaseBarrier>();
+
+        Quorum(int count) {
+            this.count = count;
+        }
+    }
+
+    public PhaseBarrier(String name, int parties) {
+        this.name = name;
+        this.parties = parties;
+
+        if (parties == 0) {
+            complete();
+        }
+    }
+
+    /**
+     * @return true for the first party entering.
+     */
+    boolean enter() {
+        return entered.getAndIncrement() == 0;
+    }
+
+    void arrive(boolean ok) {
+        if (!ok) {
+            failed.incrementAndGet();
+        }
+
+        int count = arrived.incrementAndGet();
+
+        Preconditions.checkState(count <= parties, "too many arrivals at %s: %s", name, count);
+
+        if (!quorums.isEmpty()) {
+            for (Quorum quorum : quorums) {
+                checkQuorum(quorum);
+            }
+        }
+
+        if (count == parties) {
+            complete();
+        }
+    }
+
+    /**
+     * Listeners run before the completion future is set, so waiters see their effects.
+     */
+    private void complete() {
+        List<Listener> toRun;
+
+        synchronized (this) {
+            completed = true;
+            toRun = listeners;
+        }
+
+        for (Listener listener : toRun) {
+            try {
+                listener.onComplete(this);
+            } catch (Exception e) {
+                logger.error("error in a listener of " + name, e);
+            }
+        }
+
+        completion.set(this);
+    }
+
+    /**
+     * @return future done when <code>count</code> parties have arrived successfully. Fails when this can't happen
+     * anymore because of failed parties.
+     */
+    public ListenableFuture<PhaseBarrier> quorum(int count) {
+        Preconditions.checkArgument(count >= 0 && count <= parties, "quorum must be in [0, %s]", parties);
+
+        Quorum quorum = new Quorum(count);
+
+        quorums.add(quorum);
+
+        // arrivals could have happened before adding
+        checkQuorum(quorum);
+
+        return quorum.future;
+    }
+
+    private void checkQuorum(Quorum quorum) {
+        if (quorum.future.isDone()) {
+            return;
+        }
+
+        // failures are counted before arrivals, so this order never overestimates successes
+        int arrivedNow = arrived.get();
+        int failedNow = failed.get();
+
+        if (arrivedNow - failedNow >= quorum.count) {
+            quorum.future.set(this);
+        } else if (parties - failedNow < quorum.count) {
+            quorum.future.setException(new IllegalStateException("quorum of " + quorum.count + " can't be reached at " +
+                name + ": " + failedNow + " of " + parties + " parties failed"));
+        }
+    }
+
+    public void onComplete(Listener listener) {
+        synchronized (this) {
+            if (!completed) {
+                listeners.add(listener);
+                return;
+            }
+        }
+
+        listener.onComplete(this);
+    }
+
+    public ListenableFuture<PhaseBarrier> getCompletion() {
+        return completion;
+    }
+
+    public PhaseBarrier await() throws InterruptedException {
+        try {
+            return completion.get();
+        } catch (ExecutionException e) {
+            throw Exceptions.runtime(e.getCause());
+        }
+    }
+
+    public PhaseBarrier await(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        try {
+            return completion.get(timeout, unit);
+        } catch (ExecutionException e) {
+            throw Exceptions.runtime(e.getCause());
+        }
+    }
+
+    public boolean isComplete() {
+        return completion.isDone();
+    }
+
+    public int getParties() {
+        return parties;
+    }
+
+    public int getEntered() {
+        return entered.get();
+    }
+
+    public int getArrived() {
+        return arrived.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public int getOk() {
+        int arrivedNow = arrived.get();
+        return arrivedNow - failed.get();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("PhaseBarrier{");
+        sb.append("name='").append(name).append('\'');
+        sb.append(", arrived=").append(arrived).append('/').append(parties);
+        sb.append(", failed=").append(failed);
+        sb.append('}');
+        return sb.toString();
+    }
+}
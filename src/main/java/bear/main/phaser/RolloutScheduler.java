@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.main.phaser;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Rolling rollouts: parties enter a phase in waves. A party of wave <code>k</code> enters the phase only when all cells
+ * of the previous waves in this phase are done. When more parties than the failure budget have failed in the
+ * previous waves, the remaining waves are stopped with {@link RolloutAbortedException}.
+ *
+ * Waves of a phase are computed by a {@link WaveStrategy} when the first party enters it. Phases without a strategy
+ * are not throttled.
+ *
+ * Parties of later waves hold their threads while waiting, so with a bounded executor the earlier waves must come
+ * first in the party order.
+ *
+ * Waves and aborts are the state of one grid, so a scheduler kept in settings is used via {@link #newRun()}.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class RolloutScheduler<C, PHASE> {
+    /**
+     * Splits parties into waves, returns party indexes for each wave.
+     */
+    public static interface WaveStrategy<C> {
+        List<List<Integer>> waves(List<C> parties);
+    }
+
+    public static interface WaveListener {
+        void onProgress(WaveProgress progress);
+    }
+
+    public static class WaveProgress {
+        public final String phase;
+        public final int wave;
+        public final int waves;
+        public final int parties;
+        public final int failedBefore;
+        public final boolean aborted;
+
+        public WaveProgress(String phase, int wave, int waves, int parties, int failedBefore, boolean aborted) {
+            this.phase = phase;
+            this.wave = wave;
+            this.waves = waves;
+            this.parties = parties;
+            this.failedBefore = failedBefore;
+            this.aborted = aborted;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("{");
+            sb.append("phase: \"").append(phase).append('"');
+            sb.append(", wave: ").append(wave + 1).append('/').append(waves);
+            sb.append(", parties: ").append(parties);
+            sb.append(", failed: ").append(failedBefore);
+            if (aborted) sb.append(", aborted: true");
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+
+    public static class RolloutAbortedException extends RuntimeException {
+        public RolloutAbortedException(String message) {
+            super(message);
+        }
+    }
+
+    static final class Rollout<C> {
+        final WaveStrategy<C> strategy;
+        final int failureBudget;
+
+        Rollout(WaveStrategy<C> strategy, int failureBudget) {
+            Preconditions.checkArgument(failureBudget >= 0, "failure budget can't be negative");
+
+            this.strategy = strategy;
+            this.failureBudget = failureBudget;
+        }
+    }
+
+    static final class PhaseRollout {
+        final String phaseName;
+        final int failureBudget;
+        final List<List<Integer>> waves;
+        final int[] waveOfParty;
+        final boolean[] reported;
+
+        volatile boolean aborted;
+
+        PhaseRollout(String phaseName, int failureBudget, List<List<Integer>> waves, int partiesCount) {
+            this.phaseName = phaseName;
+            this.failureBudget = failureBudget;
+            this.waves = waves;
+            this.waveOfParty = new int[partiesCount];
+            this.reported = new boolean[waves.size()];
+
+            for (int w = 0; w < waves.size(); w++) {
+                for (Integer index : waves.get(w)) {
+                    waveOfParty[index] = w;
+                }
+            }
+        }
+    }
+
+    private final Map<String, Rollout<C>> rollouts = new HashMap<String, Rollout<C>>();
+
+    @Nullable
+    private Rollout<C> defaultRollout;
+
+    private final Map<Integer, PhaseRollout> phaseRollouts = new HashMap<Integer, PhaseRollout>();
+
+    @Nullable
+    private WaveListener listener;
+
+    private Predicate<Object> isFailure = Predicates.alwaysFalse();
+
+    public RolloutScheduler<C, PHASE> phase(String phaseName, WaveStrategy<C> strategy, int failureBudget) {
+        rollouts.put(phaseName, new Rollout<C>(strategy, failureBudget));
+        return this;
+    }
+
+    public RolloutScheduler<C, PHASE> allPhases(WaveStrategy<C> strategy, int failureBudget) {
+        defaultRollout = new Rollout<C>(strategy, failureBudget);
+        return this;
+    }
+
+    public RolloutScheduler<C, PHASE> setListener(@Nullable WaveListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * @return a scheduler with the same strategies, listener and failure predicate and no waves computed yet, to be
+     * set into a new grid
+     */
+    public RolloutScheduler<C, PHASE> newRun() {
+        RolloutScheduler<C, PHASE> scheduler = new RolloutScheduler<C, PHASE>();
+
+        scheduler.rollouts.putAll(rollouts);
+        scheduler.defaultRollout = defaultRollout;
+        scheduler.listener = listener;
+        scheduler.isFailure = isFailure;
+
+        return scheduler;
+    }
+
+    /**
+     * Cell results which should count as failures in addition to exceptions, i.e. failed task results.
+     */
+    public RolloutScheduler<C, PHASE> setFailurePredicate(Predicate<Object> isFailure) {
+        this.isFailure = isFailure;
+        return this;
+    }
+
+    /**
+     * Blocks until the party may enter the phase.
+     *
+     * @throws RolloutAbortedException when the failure budget has been exceeded in the previous waves
+     */
+    void awaitTurn(ComputingGrid<C, PHASE> grid, Phase<?, PHASE> phase, PhaseParty<C, PHASE> party) throws InterruptedException {
+        PhaseRollout rollout = phaseRollout(grid, phase);
+
+        if (rollout == null) {
+            return;
+        }
+
+        int wave = rollout.waveOfParty[party.index];
+
+        int failed = 0;
+
+        for (int w = 0; w < wave; w++) {
+            for (Integer index : rollout.waves.get(w)) {
+                if (awaitFailed(grid.table.at(phase.rowIndex, index).getFuture())) {
+                    failed++;
+                }
+            }
+        }
+
+        if (failed > rollout.failureBudget) {
+            if (!rollout.aborted) {
+                rollout.aborted = true;
+                report(rollout, wave, failed, true);
+            }
+
+            throw new RolloutAbortedException("rollout of " + rollout.phaseName + " stopped at wave " + (wave + 1) +
+                ": " + failed + " parties failed, budget is " + rollout.failureBudget);
+        }
+
+        report(rollout, wave, failed, false);
+    }
+
+    private boolean awaitFailed(SettableFuture<?> future) throws InterruptedException {
+        try {
+            return isFailure.apply(future.get());
+        } catch (ExecutionException e) {
+            return true;
+        }
+    }
+
+    private void report(PhaseRollout rollout, int wave, int failed, boolean aborted) {
+        synchronized (rollout) {
+            if (!aborted) {
+                if (rollout.reported[wave]) return;
+                rollout.reported[wave] = true;
+            }
+        }
+
+        if (listener != null) {
+            listener.onProgress(new WaveProgress(rollout.phaseName, wave, rollout.waves.size(),
+                rollout.waves.get(wave).size(), failed, aborted));
+        }
+    }
+
+    @Nullable
+    private synchronized PhaseRollout phaseRollout(ComputingGrid<C, PHASE> grid, Phase<?, PHASE> phase) {
+        if (phaseRollouts.containsKey(phase.rowIndex)) {
+            return phaseRollouts.get(phase.rowIndex);
+        }
+
+        Rollout<C> rollout = rollouts.get(phase.getName());
+
+        if (rollout == null) {
+            rollout = defaultRollout;
+        }
+
+        PhaseRollout phaseRollout = null;
+
+        if (rollout != null) {
+            List<List<Integer>> waves = rollout.strategy.waves(grid.parties());
+
+            checkCovers(waves, grid.parties().size());
+
+            phaseRollout = new PhaseRollout(phase.getName(), rollout.failureBudget, waves, grid.parties().size());
+        }
+
+        phaseRollouts.put(phase.rowIndex, phaseRollout);
+
+        return phaseRollout;
+    }
+
+    private static void checkCovers(List<List<Integer>> waves, int partiesCount) {
+        BitSet seen = new BitSet(partiesCount);
+
+        for (List<Integer> wave : waves) {
+            for (Integer index : wave) {
+                Preconditions.checkArgument(!seen.get(index), "party %s is in more than one wave", index);
+                seen.set(index);
+            }
+        }
+
+        Preconditions.checkArgument(seen.cardinality() == partiesCount, "waves must cover all %s parties", partiesCount);
+    }
+
+    /**
+     * Fixed number of parties per wave.
+     */
+    public static <C> WaveStrategy<C> batches(final int size) {
+        Preconditions.checkArgument(size > 0, "batch size must be positive");
+
+        return new WaveStrategy<C>() {
+            @Override
+            public List<List<Integer>> waves(List<C> parties) {
+                return split(range(0, parties.size()), size);
+            }
+        };
+    }
+
+    /**
+     * Waves of <code>percent</code> of the parties, rounded up.
+     */
+    public static <C> WaveStrategy<C> percent(final int percent) {
+        Preconditions.checkArgument(percent > 0 && percent <= 100, "percent must be in (0, 100]");
+
+        return new WaveStrategy<C>() {
+            @Override
+            public List<List<Integer>> waves(List<C> parties) {
+                int size = Math.max(1, (parties.size() * percent + 99) / 100);
+                return split(range(0, parties.size()), size);
+            }
+        };
+    }
+
+    /**
+     * A wave per group in the order of appearance, i.e. an availability zone per wave.
+     */
+    public static <C> WaveStrategy<C> groupBy(final Function<? super C, ?> key) {
+        return new WaveStrategy<C>() {
+            @Override
+            public List<List<Integer>> waves(List<C> parties) {
+                Map<Object, List<Integer>> groups = new LinkedHashMap<Object, List<Integer>>();
+
+                for (int i = 0; i < parties.size(); i++) {
+                    Object k = key.apply(parties.get(i));
+
+                    List<Integer> group = groups.get(k);
+
+                    if (group == null) {
+                        groups.put(k, group = new ArrayList<Integer>());
+                    }
+
+                    group.add(i);
+                }
+
+                return new ArrayList<List<Integer>>(groups.values());
+            }
+        };
+    }
+
+    /**
+     * The first <code>count</code> parties go alone, then the rest is split by <code>then</code>.
+     */
+    public static <C> WaveStrategy<C> canary(final int count, final WaveStrategy<C> then) {
+        Preconditions.checkArgument(count > 0, "canary count must be positive");
+
+        return new WaveStrategy<C>() {
+            @Override
+            public List<List<Integer>> waves(List<C> parties) {
+                int canaries = Math.min(count, parties.size());
+
+                List<List<Integer>> waves = new ArrayList<List<Integer>>();
+
+                waves.add(range(0, canaries));
+
+                for (List<Integer> wave : then.waves(parties.subList(canaries, parties.size()))) {
+                    List<Integer> shifted = new ArrayList<Integer>(wave.size());
+
+                    for (Integer index : wave) {
+                        shifted.add(index + canaries);
+                    }
+
+                    waves.add(shifted);
+                }
+
+                return waves;
+            }
+        };
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> list = new ArrayList<Integer>(to - from);
+
+        for (int i = from; i < to; i++) {
+            list.add(i);
+        }
+
+        return list;
+    }
+
+    private static List<List<Integer>> split(List<Integer> indexes, int size) {
+        List<List<Integer>> waves = new ArrayList<List<Integer>>();
+
+        for (int i = 0; i < indexes.size(); i += size) {
+            waves.add(new ArrayList<Integer>(indexes.subList(i, Math.min(indexes.size(), i + size))));
+        }
+
+        return waves;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.plugins;
+
+import bear.core.Bear;
+import bear.core.SessionContext;
+import bear.core.except.ValidationException;
+import bear.vcs.CommandLineResult;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed cache of downloads on a remote host. Files are stored once as <code>&lt;root&gt;/.cas/&lt;sha-256&gt;</code>
+ * and hard-linked to where they are needed, so the same archive under two names or in two releases takes space once,
+ * and a file with the same name but different content never collides. <code>.cas/index</code> maps keys (i.e. URLs)
+ * to hashes.
+ *
+ * A cached file is used only when its hash matches, so interrupted or corrupt downloads are never trusted. Lookups of
+ * several artifacts run in one remote script. When files which are no longer linked anywhere grow over the budget,
+ * least recently used of them are removed. Files still linked from releases or tools are kept: removing them would not
+ * free any space.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class ArtifactCache {
+    private static final Logger logger = LoggerFactory.getLogger(ArtifactCache.class);
+
+    static final String MARKER_PREFIX = "__BEAR_CAS_";
+
+    private static final Pattern MARKER = Pattern.compile(MARKER_PREFIX + "(\\d+):([0-9a-f]{64}|-)");
+
+    static final String MISS = "-";
+
+    private final String root;
+    private final long budgetBytes;
+    private final boolean verify;
+
+    public static class Artifact {
+        final String key;
+
+        /**
+         * Known hash of the content, i.e. of a local file. When null, the hash is taken from the index.
+         */
+        @Nullable
+        final String sha256;
+
+        final String target;
+
+        public Artifact(String key, @Nullable String sha256, String target) {
+            this.key = key;
+            this.sha256 = sha256;
+            this.target = target;
+        }
+    }
+
+    /**
+     * @param budgetBytes 0 or less for no limit
+     */
+    public ArtifactCache(String root, long budgetBytes, boolean verify) {
+        this.root = root;
+        this.budgetBytes = budgetBytes;
+        this.verify = verify;
+    }
+
+    public static ArtifactCache of(SessionContext $) {
+        Bear bear = $.bear;
+
+        return new ArtifactCache($.var(bear.downloadDirPath), $.var(bear.artifactCacheBudgetMb) * 1024L * 1024L,
+            $.var(bear.verifyCachedArtifacts));
+    }
+
+    /**
+     * Links cached artifacts to their targets in one remote call.
+     *
+     * @return hashes of the found artifacts, null for misses
+     */
+    public List<String> lookup(SessionContext $, List<Artifact> artifacts) {
+        CommandLineResult<?> result = $.sys.sendCommand($.sys.line()
+            .timeoutMs(60000 + (verify ? 60000 * artifacts.size() : 0))
+            .addRaw(lookupScript(artifacts)));
+
+        Map<Integer, String> hashes = parse(result.output);
+
+        List<String> list = new ArrayList<String>(artifacts.size());
+
+        for (int i = 0; i < artifacts.size(); i++) {
+            String hash = hashes.get(i);
+            list.add(hash == null || MISS.equals(hash) ? null : hash);
+        }
+
+        logger.debug("artifact cache lookup at {}: {}", $.getName(), list);
+
+        return list;
+    }
+
+    @Nullable
+    public String lookup(SessionContext $, Artifact artifact) {
+        return lookup($, Collections.singletonList(artifact)).get(0);
+    }
+
+    /**
+     * Moves a downloaded file into the cache and links it to the artifact's target. Evicts old files when the cache
+     * is over the budget.
+     *
+     * @return hash of the file
+     * @throws ValidationException when the hash doesn't match the expected one
+     */
+    public String add(SessionContext $, String downloadedPath, Artifact artifact) {
+        CommandLineResult<?> result = $.sys.sendCommand($.sys.line()
+            .timeoutMs(600000)
+            .addRaw(addScript(downloadedPath, artifact)));
+
+        String hash = parse(result.output).get(0);
+
+        if (hash == null || MISS.equals(hash)) {
+            throw new ValidationException("could not add " + artifact.key + " to the cache" +
+                (artifact.sha256 == null ? "" : ", expected sha-256: " + artifact.sha256) + ": " + result.output);
+        }
+
+        return hash;
+    }
+
+    String casDir() {
+        return root + "/.cas";
+    }
+
+    String lookupScript(List<Artifact> artifacts) {
+        StringBuilder sb = new StringBuilder(artifacts.size() * 512);
+
+        String cas = quote(casDir());
+
+        for (int i = 0; i < artifacts.size(); i++) {
+            Artifact artifact = artifacts.get(i);
+            String target = quote(artifact.target);
+
+            sb.append("h=").append(quote(artifact.sha256 == null ? "" : artifact.sha256)).append("; ")
+                .append("[ -z \"$h\" ] && h=$(awk -F '\\t' -v k=").append(quote(artifact.key))
+                .append(" '$1==k {h=$2} END {print h}' ").append(cas).append("/index 2>/dev/null)\n")
+                .append("if [ -n \"$h\" ] && [ -f ").append(cas).append("/$h ]");
+
+            if (verify) {
+                sb.append(" && echo \"$h  \"").append(cas).append("/$h | sha256sum -c --status");
+            }
+
+            sb.append("; then mkdir -p $(dirname ").append(target).append(") && ln -f ").append(cas).append("/$h ")
+                .append(target).append(" && touch ").append(cas).append("/$h && ").append(marker(i, "$h")).append("; ")
+                .append("else ");
+
+            if (verify) {
+                // a corrupt copy is never used again
+                sb.append("[ -n \"$h\" ] && rm -f ").append(cas).append("/$h; ");
+            }
+
+            sb.append(marker(i, MISS)).append("; fi\n");
+        }
+
+        return sb.toString();
+    }
+
+    String addScript(String downloadedPath, Artifact artifact) {
+        String cas = quote(casDir());
+        String file = quote(downloadedPath);
+        String target = quote(artifact.target);
+
+        StringBuilder sb = new StringBuilder(1024);
+
+        sb.append("h=$(sha256sum ").append(file).append(" | cut -d ' ' -f 1)\n");
+
+        if (artifact.sha256 != null) {
+            sb.append("if [ \"$h\" != ").append(quote(artifact.sha256)).append(" ]; then rm -f ").append(file)
+                .append("; h=''; fi\n");
+        }
+
+        sb.append("if [ -n \"$h\" ]; then mkdir -p ").append(cas).append(" $(dirname ").append(target).append(") && ")
+            .append("if [ -f ").append(cas).append("/$h ]; then rm -f ").append(file).append("; else mv ")
+            .append(file).append(' ').append(cas).append("/$h; fi && ")
+            .append("ln -f ").append(cas).append("/$h ").append(target).append(" && touch ").append(cas).append("/$h && ")
+            .append("printf '%s\\t%s\\n' ").append(quote(artifact.key)).append(" \"$h\" >> ").append(cas).append("/index && ")
+            .append(marker(0, "$h")).append("; else ").append(marker(0, MISS)).append("; fi\n");
+
+        if (budgetBytes > 0) {
+            sb.append(evictScript());
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * A wget into a <code>.part</code> file, which is removed when the download fails.
+     */
+    public static String downloadCommand(String url, String partPath) {
+        return "wget -O " + quote(partPath) + " " + quote(url) + " || { rm -f " + quote(partPath) + "; false; }";
+    }
+
+    /**
+     * Removes least recently used files with no links outside the cache (link count 1) until they fit the budget, then
+     * drops index entries of removed files.
+     */
+    String evictScript() {
+        Preconditions.checkState(budgetBytes > 0);
+
+        return "(cd " + quote(casDir()) + " && " +
+            "total=$(ls | grep -E '^[0-9a-f]{64}$' | xargs -r stat -c '%h %s' | awk '$1==1 {s+=$2} END {print s+0}') && " +
+            "for f in $(ls -tr | grep -E '^[0-9a-f]{64}$' | sed '$d'); do " +
+            "[ \"$total\" -le " + budgetBytes + " ] && break; " +
+            "[ \"$(stat -c %h $f)\" = 1 ] || continue; " +
+            "total=$((total - $(stat -c %s $f))); rm -f $f; done; " +
+            "awk -F '\\t' 'system(\"test -f \" $2) == 0' index > index.tmp && mv index.tmp index) >/dev/null 2>&1\n";
+    }
+
+    private static String marker(int index, String value) {
+        return "printf '\\n%s%s:%s\\n' '" + MARKER_PREFIX + "' '" + index + "' \"" + value + "\"";
+    }
+
+    static Map<Integer, String> parse(String output) {
+        Map<Integer, String> map = new HashMap<Integer, String>();
+
+        if (output == null) {
+            return map;
+        }
+
+        Matcher matcher = MARKER.matcher(output);
+
+        while (matcher.find()) {
+            map.put(Integer.valueOf(matcher.group(1)), matcher.group(2));
+        }
+
+        return map;
+    }
+
+    static String quote(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+}
@@ -8,13 +8,20 @@ import bear.session.Result;
 import bear.session.Variables;
 import bear.task.*;
 import bear.vcs.CommandLineResult;
+import chaschev.util.Exceptions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 import com.google.common.util.concurrent.ListenableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.util.concurrent.Callable;
-import java.util.concurrent.TimeUnit;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
 
 import static chaschev.lang.Predicates2.contains;
 import static com.google.common.base.Predicates.or;
@@ -25,8 +32,14 @@ import static com.google.common.collect.Iterables.find;
  * @author Andrey Chaschev chaschev@gmail.com
  */
 public class DownloadPlugin extends Plugin{
+    private static final Logger logger = LoggerFactory.getLogger(DownloadPlugin.class);
+
     public final DynamicVariable<Boolean> preferRemoteToLocal = Variables.newVar(true);
 
+    public final DynamicVariable<Integer> fanOut = Variables.newVar(2).desc("hosts served by each host which has the file, 0 to copy from one host to everyone");
+    public final DynamicVariable<Boolean> verifyCopies = Variables.newVar(true).desc("compare checksums of copied files with the source");
+    public final DynamicVariable<Integer> peerWaitMin = Variables.newVar(10).desc("wait for a source host before trying the one above it");
+
     public DownloadPlugin(GlobalContext global) {
         super(global);
     }
@@ -48,6 +61,12 @@ public class DownloadPlugin extends Plugin{
         }
 
         public boolean exists(SessionContext $){
+            ArtifactCache.Artifact artifact = artifact($);
+
+            if (artifact != null && $.var($.bear.useArtifactCache)) {
+                return ArtifactCache.of($).lookup($, artifact) != null;
+            }
+
             return $.sys.exists(absCachePath($));
         }
 
@@ -55,6 +74,13 @@ public class DownloadPlugin extends Plugin{
             return $.joinPath($.bear.downloadDirPath, relativeCachePath);
         }
 
+        /**
+         * @return the downloaded file as a cache entry, null if the download is not cached by content
+         */
+        protected ArtifactCache.Artifact artifact(SessionContext $) {
+            return null;
+        }
+
         public abstract Result download(SessionContext $);
     }
 
@@ -66,9 +92,32 @@ public class DownloadPlugin extends Plugin{
             super(relativeCachePath);
         }
 
+        private String sha256;
+
         @Override
         public Result download(SessionContext $) {
-            return $.sys.upload(absCachePath($), file);
+            Result r = $.sys.upload(absCachePath($), file);
+
+            if (r.ok() && $.var($.bear.useArtifactCache)) {
+                ArtifactCache.Artifact artifact = artifact($);
+                ArtifactCache.of($).add($, artifact.target, artifact);
+            }
+
+            return r;
+        }
+
+        // the hash of the local file finds its copy on a host under any name
+        @Override
+        protected synchronized ArtifactCache.Artifact artifact(SessionContext $) {
+            if (sha256 == null) {
+                try {
+                    sha256 = Files.hash(file, Hashing.sha256()).toString();
+                } catch (IOException e) {
+                    throw Exceptions.runtime(e);
+                }
+            }
+
+            return new ArtifactCache.Artifact("file:" + file.getName(), sha256, absCachePath($) + "/" + file.getName());
         }
     }
     
@@ -80,11 +129,22 @@ public class DownloadPlugin extends Plugin{
             this.url = url;
         }
 
+        @Override
+        protected ArtifactCache.Artifact artifact(SessionContext $) {
+            return new ArtifactCache.Artifact(url, null, absCachePath($) + "/" + url.substring(url.lastIndexOf('/') + 1));
+        }
+
         @Override
         public Result download(SessionContext $){
+            boolean cached = $.var($.bear.useArtifactCache);
+
+            ArtifactCache.Artifact artifact = artifact($);
+
+            String command = cached ? ArtifactCache.downloadCommand(url, artifact.target + ".part") : "wget " + url;
+
             CommandLineResult<?> result = $.sys.script()
                 .cd(absCachePath($))
-                .line().timeoutMin(60).addRaw("wget %s", url).build()
+                .line().timeoutMin(60).addRaw(command).build()
                 .run();
 
             CommandLineResult<?> run = result;
@@ -95,6 +155,11 @@ public class DownloadPlugin extends Plugin{
                 throw new ValidationException("Error during download of " + url +
                     ": " + find(on('\n').split(run.output), errorPredicate));
             }
+
+            if (cached && result.ok()) {
+                ArtifactCache.of($).add($, artifact.target + ".part", artifact);
+            }
+
             return result.getResult();
         }
     }
@@ -112,12 +177,65 @@ public class DownloadPlugin extends Plugin{
     private static final class PartyWithFileResult extends TaskResult<PartyWithFileResult> {
         int partyIndex;
 
+        FanOut fanOut;
+
+        /**
+         * Checksums of the seed's files, null when verification is off.
+         */
+        String manifest;
+
         private PartyWithFileResult(int partyIndex) {
             super(Result.OK);
             this.partyIndex = partyIndex;
         }
     }
 
+    /**
+     * Covers the files a copy transfers, i.e. <code>dir/*</code>: top-level, not hidden.
+     */
+    static String manifestCommand(String dir) {
+        return "cd " + dir + " && find . -maxdepth 1 -type f ! -name '.*' -exec md5sum {} + | sort -k 2";
+    }
+
+    private static String manifest(SessionContext $, DownloadSupplier supplier) {
+        return $.sys.sendCommand($.sys.line().timeoutMs((int) TimeUnit.MINUTES.toMillis(10))
+            .addRaw(manifestCommand(supplier.absCachePath($)))).output.trim();
+    }
+
+    /**
+     * Checks which parties have the file in parallel.
+     */
+    private static boolean[] probe(final List<SessionContext> parties, final DownloadSupplier supplier) throws Exception {
+        ExecutorService service = Executors.newFixedThreadPool(Math.min(16, parties.size()));
+
+        try {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(parties.size());
+
+            for (final SessionContext party : parties) {
+                futures.add(service.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return supplier.exists(party);
+                    }
+                }));
+            }
+
+            boolean[] exists = new boolean[parties.size()];
+
+            for (int i = 0; i < exists.length; i++) {
+                try {
+                    exists[i] = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    logger.warn("could not check {} on {}: {}", supplier.relativeCachePath, parties.get(i).getName(), e.getCause().toString());
+                }
+            }
+
+            return exists;
+        } finally {
+            service.shutdownNow();
+        }
+    }
+
     public final TaskDef<DownloadSupplier, TaskResult<?>> downloadTask = new TaskDef<DownloadSupplier, TaskResult<?>>(new NamedSupplier<DownloadSupplier, TaskResult<?>>("download", new SingleTaskSupplier<DownloadSupplier, TaskResult<?>>() {
         @Override
         public Task<DownloadSupplier, TaskResult<?>> createNewSession(SessionContext $, Task<Object, TaskResult<?>> parent, TaskDef<DownloadSupplier, TaskResult<?>> def) {
@@ -131,11 +249,12 @@ public class DownloadPlugin extends Plugin{
                     ListenableFuture<PartyWithFileResult> future = task.callOnce(new Callable<PartyWithFileResult>() {
                         @Override
                         public PartyWithFileResult call() throws Exception {
+                            boolean[] exists = probe(parties, downloadSupplier);
+
                             int i;
-                            for (i = 0; i < parties.size(); i++) {
-                                SessionContext party = parties.get(i);
 
-                                if (downloadSupplier.exists(party)) {
+                            for (i = 0; i < parties.size(); i++) {
+                                if (exists[i]) {
                                     break;
                                 }
                             }
@@ -148,28 +267,63 @@ public class DownloadPlugin extends Plugin{
                                 i = task.getPhaseParty().getIndex();
                             }
 
-                            return new PartyWithFileResult(i);
+                            PartyWithFileResult result = new PartyWithFileResult(i);
+
+                            result.fanOut = new FanOut(parties.size(), i, $.var(fanOut),
+                                TimeUnit.MINUTES.toMillis($.var(peerWaitMin)));
+
+                            for (int j = 0; j < exists.length; j++) {
+                                if (exists[j]) {
+                                    result.fanOut.markReady(j);
+                                }
+                            }
+
+                            if ($.var(verifyCopies)) {
+                                result.manifest = manifest(parties.get(i), downloadSupplier);
+                            }
+
+                            return result;
                         }
                     });
 
-                    PartyWithFileResult result = future.get(10, TimeUnit.MINUTES);
+                    final PartyWithFileResult result = future.get(10, TimeUnit.MINUTES);
 
                     if (!result.ok()) {
                         return result;
                     }
 
-                    if (result.partyIndex == task.getPhaseParty().getIndex()) {
-                        return TaskResult.OK;
-                    }
+                    final int me = task.getPhaseParty().getIndex();
 
-                    if (downloadSupplier.exists($)) {
+                    if (result.fanOut.isReady(me)) {
                         return TaskResult.OK;
                     }
 
-                    Result r = $.sys.scpFrom(parties.get(result.partyIndex), downloadSupplier.relativeCachePath, null,
-                        downloadSupplier.relativeCachePath + "/*");
+                    result.fanOut.receive(me, new FanOut.Hosts() {
+                        @Override
+                        public void copy(int from, int to) throws Exception {
+                            logger.info("{}: copying {} from {}", $.getName(), downloadSupplier.relativeCachePath, parties.get(from).getName());
+
+                            String dir = downloadSupplier.absCachePath($);
+
+                            // a failed copy from another host may have left files which would fail the verification
+                            $.sys.rm(dir).run();
+                            $.sys.mkdirs(dir).run();
+
+                            Result r = $.sys.scpFrom(parties.get(from), dir, null,
+                                downloadSupplier.absCachePath(parties.get(from)) + "/*");
+
+                            if (r.nok()) {
+                                throw new ValidationException("could not copy " + downloadSupplier.relativeCachePath + " from " + parties.get(from).getName());
+                            }
+                        }
+
+                        @Override
+                        public boolean verify(int host) throws Exception {
+                            return result.manifest == null || result.manifest.equals(manifest($, downloadSupplier));
+                        }
+                    });
 
-                    return new TaskResult(r);
+                    return TaskResult.OK;
                 }
             };
             return new Task<DownloadSupplier, TaskResult<?>>(parent, taskCallable);
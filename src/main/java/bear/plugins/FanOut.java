@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.plugins;
+
+import bear.main.phaser.SettableFuture;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Spreads a copy of a file from a seed host over a tree of hosts: a host which has received the file serves it to
+ * <code>fanOut</code> children, so the seed's uplink is not a bottleneck and the spread takes a logarithmic number of
+ * rounds. A host copies from its parent when the parent is ready. When the parent fails or doesn't become ready in time,
+ * the host goes up the tree, the seed is the last resort.
+ *
+ * A received copy is verified, when copying from a peer fails or the copy doesn't match, it is copied once more
+ * directly from the seed.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class FanOut {
+    private static final Logger logger = LoggerFactory.getLogger(FanOut.class);
+
+    public static interface Hosts {
+        void copy(int from, int to) throws Exception;
+
+        /**
+         * @return true when the host's copy matches the seed's
+         */
+        boolean verify(int host) throws Exception;
+    }
+
+    private final int seed;
+    private final int fanOut;
+    private final long waitMs;
+
+    /**
+     * Hosts in tree order, the seed is the root.
+     */
+    private final int[] order;
+    private final int[] position;
+
+    private final SettableFuture<Boolean>[] ready;
+
+    /**
+     * @param fanOut children per host, 0 or less means everyone copies from the seed
+     * @param waitMs how long to wait for a parent before going up the tree
+     */
+    public FanOut(int hosts, int seed, int fanOut, long waitMs) {
+        Preconditions.checkArgument(seed >= 0 && seed < hosts, "seed out of range: %s", seed);
+
+        this.seed = seed;
+        this.fanOut = fanOut <= 0 ? Math.max(1, hosts - 1) : fanOut;
+        this.waitMs = waitMs;
+
+        order = new int[hosts];
+        position = new int[hosts];
+
+        order[0] = seed;
+
+        for (int host = 0, p = 1; host < hosts; host++) {
+            if (host != seed) {
+                order[p++] = host;
+            }
+        }
+
+        ready = new SettableFuture[hosts];
+
+        for (int p = 0; p < hosts; p++) {
+            position[order[p]] = p;
+            ready[order[p]] = new SettableFuture<Boolean>();
+        }
+
+        ready[seed].set(true);
+    }
+
+    /**
+     * Marks a host which already has the file as a source.
+     */
+    public void markReady(int host) {
+        ready[host].set(true);
+    }
+
+    public int parentOf(int host) {
+        int p = position[host];
+
+        Preconditions.checkArgument(p != 0, "seed has no parent");
+
+        return order[(p - 1) / fanOut];
+    }
+
+    public int getSeed() {
+        return seed;
+    }
+
+    public boolean isReady(int host) {
+        return ready[host].isDone() && ready[host].getException() == null;
+    }
+
+    /**
+     * Copies the file to the host, blocks until the source is ready. Called from the host's own thread.
+     */
+    public void receive(int host, Hosts hosts) throws Exception {
+        if (ready[host].isDone()) {
+            return;
+        }
+
+        try {
+            int source = awaitSource(host);
+
+            if (source == seed || !copyFromPeer(source, host, hosts)) {
+                source = seed;
+                hosts.copy(seed, host);
+            }
+
+            if (!hosts.verify(host)) {
+                if (source == seed) {
+                    throw new IllegalStateException("copy from the seed didn't pass verification on " + host);
+                }
+
+                logger.warn("copy from {} didn't pass verification on {}, copying from the seed", source, host);
+
+                hosts.copy(seed, host);
+
+                if (!hosts.verify(host)) {
+                    throw new IllegalStateException("copy from the seed didn't pass verification on " + host);
+                }
+            }
+
+            ready[host].set(true);
+        } catch (Exception e) {
+            ready[host].setException(e);
+            throw e;
+        }
+    }
+
+    private static boolean copyFromPeer(int source, int host, Hosts hosts) {
+        try {
+            hosts.copy(source, host);
+            return true;
+        } catch (Exception e) {
+            logger.warn("could not copy from {} to {}, copying from the seed: {}", source, host, e.toString());
+            return false;
+        }
+    }
+
+    int awaitSource(int host) throws InterruptedException {
+        int ancestor = parentOf(host);
+
+        while (ancestor != seed) {
+            try {
+                if (ready[ancestor].get(waitMs, TimeUnit.MILLISECONDS)) {
+                    return ancestor;
+                }
+            } catch (ExecutionException e) {
+                logger.info("source {} for {} failed, going up", ancestor, host);
+            } catch (TimeoutException e) {
+                logger.info("source {} for {} is not ready, going up", ancestor, host);
+            }
+
+            ancestor = parentOf(ancestor);
+        }
+
+        return seed;
+    }
+}
@@ -17,11 +17,11 @@
 package bear.plugins;
 
 import bear.context.DependencyInjection;
+import bear.context.InjectionPlan;
 import bear.core.GlobalContext;
 import bear.core.SessionContext;
 import bear.plugins.graph.DirectedGraph;
 import bear.task.*;
-import chaschev.lang.OpenBean;
 import chaschev.util.Exceptions;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicates;
@@ -137,7 +137,7 @@ public class Plugins {
             List<Class<?>> pluginsToAdd = new ArrayList<Class<?>>();
 
             for (Class<?> pluginClass : plugins) {
-                for (Field field : OpenBean.fieldsOfType(pluginClass, Plugin.class)) {
+                for (Field field : InjectionPlan.of(pluginClass).pluginFields) {
                     Class<?> type = field.getType();
                     if (!pluginClasses.contains(type)) {
                         pluginsToAdd.add(type);
@@ -182,26 +182,30 @@ public class Plugins {
                 }
             }
 
-            for (Plugin plugin : plugins) {
-                for (int i = 0; i < OpenBean.getClassDesc(plugin.getClass()).fields.length; i++) {
-                    Field field = OpenBean.getClassDesc(plugin.getClass()).fields[i];
+            Map<Class<?>, Plugin> resolvedDeps = new HashMap<Class<?>, Plugin>();
 
+            for (Plugin plugin : plugins) {
+                for (Field field : InjectionPlan.of(plugin.getClass()).pluginFields) {
                     Class<?> dependantPluginClass = field.getType();
 
-                    if(Plugin.class.isAssignableFrom(dependantPluginClass)){
-                        Plugin resolvedDep = Iterables.find(plugins, Predicates.instanceOf(dependantPluginClass));
-                        try {
-                            pluginsGraph.addEdge(plugin, resolvedDep);
-
-                            //DI
-                            field.set(plugin, resolvedDep);
-                        }
-                        catch (DirectedGraph.NoSuchNodeException e){
-                            throw new RuntimeException("plugin was not loaded: " + e.node);
-                        }
-                        catch (IllegalAccessException e) {
-                            throw Exceptions.runtime(e);
-                        }
+                    Plugin resolvedDep = resolvedDeps.get(dependantPluginClass);
+
+                    if(resolvedDep == null){
+                        resolvedDeps.put(dependantPluginClass,
+                            resolvedDep = Iterables.find(plugins, Predicates.instanceOf(dependantPluginClass)));
+                    }
+
+                    try {
+                        pluginsGraph.addEdge(plugin, resolvedDep);
+
+                        //DI
+                        field.set(plugin, resolvedDep);
+                    }
+                    catch (DirectedGraph.NoSuchNodeException e){
+                        throw new RuntimeException("plugin was not loaded: " + e.node);
+                    }
+                    catch (IllegalAccessException e) {
+                        throw Exceptions.runtime(e);
                     }
                 }
             }
@@ -124,10 +124,24 @@ public abstract class ServerToolPlugin extends ZippedToolPlugin {
         startupTimeoutMs = equalTo(bear.buildTimeoutMs);
 
     public final DynamicVariable<Boolean>
-        useWatchDog = newVar(true);
+        useWatchDog = newVar(true),
+        useStartupProbes = newVar(true).desc("wait for instances to start with one remote command per host instead of tailing each log");
 
     public final DynamicVariable<List<String>> portsSplit = split(instancePorts, COMMA_SPLITTER);
 
+    public final DynamicVariable<List<String>> instanceLogPaths = dynamic(new Fun<SessionContext, List<String>>() {
+        @Override
+        public List<String> apply(SessionContext $) {
+            List<String> paths = new ArrayList<String>();
+
+            for (String port : $.var(portsSplit)) {
+                paths.add(path(instanceLogsPath, port, $));
+            }
+
+            return paths;
+        }
+    }).pure().desc("log dirs of the instances, searched by watchDog.grepLogs");
+
 
     public final DynamicVariable<Boolean>
         clean = Variables.equalTo(bear.clean).desc("clean project before build");
@@ -140,6 +154,7 @@ public abstract class ServerToolPlugin extends ZippedToolPlugin {
     public void initPlugin() {
         super.initPlugin();
         instancePath.setEqualTo(concat(releases.currentReleaseLinkPath, "/instances/", toolname, "-%s"));
+        watchDog.addLogPaths(instanceLogPaths);
     }
 
     public void resetConsolePath(SessionContext $, String logPath) {
@@ -189,7 +204,14 @@ public abstract class ServerToolPlugin extends ZippedToolPlugin {
                     }
 
                     if ($(useWatchDog)) {
-                        spawnStartWatchDogs($, $(portsSplit));
+                        Optional<List<StartupProbe>> probes = $(useStartupProbes) ?
+                            startupProbes($, $(portsSplit)) : Optional.<List<StartupProbe>>absent();
+
+                        if (probes.isPresent()) {
+                            spawnStartupProbes($, probes.get());
+                        } else {
+                            spawnStartWatchDogs($, $(portsSplit));
+                        }
                     }
 
                     r = serviceCommand($, "start");
@@ -215,6 +237,40 @@ public abstract class ServerToolPlugin extends ZippedToolPlugin {
 
     protected abstract void spawnStartWatchDogs(final SessionContext $, List<String> ports);
 
+    /**
+     * @return readiness checks for instances, absent when a plugin can only be watched with watch dogs
+     */
+    protected Optional<List<StartupProbe>> startupProbes(SessionContext $, List<String> ports) {
+        return Optional.absent();
+    }
+
+    protected void spawnStartupProbes(final SessionContext $, List<StartupProbe> probes) {
+        final WatchDogGroup watchDogGroup = new WatchDogGroup(probes.size(), watchStartDogGroup);
+
+        for (StartupProbe probe : probes) {
+            if (probe.getLogPath() != null) {
+                // to make sure there are no old start entries
+                resetConsolePath($, probe.getLogPath());
+            }
+        }
+
+        watchDogGroup.add(new StartupProbes($, probes, $.var(startupTimeoutMs)) {
+            @Override
+            protected void onReady(StartupProbe probe) {
+                sendMessage(Level.INFO, newStartedMessage($, probe.getName()), $);
+            }
+
+            @Override
+            protected String onFailed(StartupProbe probe, String reason) {
+                return sendMessage(Level.ERROR, newCantStartMessage($, probe.getName()) + ": " + reason, $);
+            }
+        });
+
+        watchDogGroup.startThreads();
+
+        watchDogGroup.scheduleForcedShutdown($.getGlobal().getScheduler(), $.var(bear.appStartTimeoutSec), TimeUnit.SECONDS);
+    }
+
     public final TaskDef<Object, TaskResult<?>> stop = new TaskDef<Object, TaskResult<?>>(new NamedSupplier<Object, TaskResult<?>>("server.stop", new SingleTaskSupplier<Object, TaskResult<?>>() {
         @Override
         public Task<Object, TaskResult<?>> createNewSession(SessionContext $, Task<Object, TaskResult<?>> parent, TaskDef<Object, TaskResult<?>> def) {
@@ -67,7 +67,8 @@ public class ZippedToolPlugin extends Plugin<TaskDef<Object, TaskResult<?>>> {
     myDirPath,
         buildPath,
 
-    distrWwwAddress = dynamic("distribution download address");
+    distrWwwAddress = dynamic("distribution download address"),
+    distrSha256 = undefined("expected sha-256 of the distribution, optional");
 
     public ZippedToolPlugin(GlobalContext global) {
         super(global);
@@ -186,19 +187,48 @@ public class ZippedToolPlugin extends Plugin<TaskDef<Object, TaskResult<?>>> {
         }
 
         protected void download() {
-            if (!$.sys.exists($.sys.joinPath($(myDirPath), $(distrFilename)))) {
-                String url = $(distrWwwAddress);
-                CommandLineResult<?> run = $.sys.script()
-                    .cd($(myDirPath))
-                    .line().timeoutMin(60).addRaw("wget %s", url).build()
-                    .run();
-
-                Predicate<String> errorPredicate = or(contains("404 Not Found"), contains("ERROR"));
-
-                if (errorPredicate.apply(run.output)) {
-                    throw new RuntimeException("Error during download of " + url +
-                        ": " + find(on('\n').split(run.output), errorPredicate));
+            String distrPath = $.sys.joinPath($(myDirPath), $(distrFilename));
+
+            if (!$(bear.useArtifactCache)) {
+                if (!$.sys.exists(distrPath)) {
+                    wget($(myDirPath), null);
                 }
+
+                return;
+            }
+
+            ArtifactCache cache = ArtifactCache.of($);
+
+            ArtifactCache.Artifact artifact = new ArtifactCache.Artifact($(distrWwwAddress),
+                $.isDefined(distrSha256) ? $(distrSha256) : null, distrPath);
+
+            if (cache.lookup($, artifact) != null) {
+                $.log("%s is taken from the download cache", $(distrFilename));
+                return;
+            }
+
+            String partPath = distrPath + ".part";
+
+            wget($(myDirPath), partPath);
+
+            cache.add($, partPath, artifact);
+        }
+
+        private void wget(String dir, String outputPath) {
+            String url = $(distrWwwAddress);
+
+            String command = outputPath == null ? "wget " + url : ArtifactCache.downloadCommand(url, outputPath);
+
+            CommandLineResult<?> run = $.sys.script()
+                .cd(dir)
+                .line().timeoutMin(60).addRaw(command).build()
+                .run();
+
+            Predicate<String> errorPredicate = or(contains("404 Not Found"), contains("ERROR"));
+
+            if (errorPredicate.apply(run.output)) {
+                throw new RuntimeException("Error during download of " + url +
+                    ": " + find(on('\n').split(run.output), errorPredicate));
             }
         }
 
@@ -31,7 +31,6 @@ import bear.task.TaskResult;
 import chaschev.lang.OpenBean;
 import chaschev.util.CatchyCallable;
 import groovy.lang.Binding;
-import groovy.lang.GroovyClassLoader;
 import groovy.lang.GroovyShell;
 import org.apache.logging.log4j.LogManager;
 import org.slf4j.Logger;
@@ -39,6 +38,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 /**
@@ -59,6 +59,8 @@ public class GroovyShellMode extends PluginShellMode<GroovyShellPlugin> implemen
     private final Binding binding;
     private final GroovyShell shell;
 
+    private final ScriptClassCache scripts = new ScriptClassCache(256, 10, TimeUnit.MINUTES);
+
     public GroovyShellMode(GroovyShellPlugin plugin, String cmd) {
         super(plugin, cmd);
 
@@ -111,8 +113,7 @@ public class GroovyShellMode extends PluginShellMode<GroovyShellPlugin> implemen
                         public TaskResult<?> call() {
                             try {
                                 if (SCRIPT_PATTERN.matcher(command).matches()) {
-                                    GroovyClassLoader gcl = new GroovyClassLoader();
-                                    Class clazz = gcl.parseClass(command);
+                                    Class clazz = scripts.compile(command);
                                     Object aScript = clazz.newInstance();
                                     Script script = (Script) aScript;
                                     script.setParent(_parent);
@@ -121,9 +122,11 @@ public class GroovyShellMode extends PluginShellMode<GroovyShellPlugin> implemen
                                     script.configure();
                                     script.global = global;
                                     return script.run();
+                                } else if (isLocal()) {
+                                    getShell().evaluate(command);
                                 } else {
-                                    GroovyShell shell = getShell(runner);
-                                    shell.evaluate(command);
+                                    // compiled once for all hosts
+                                    scripts.newScript(command, newBinding(runner)).run();
                                 }
                             } catch (Throwable e) {
                                 return TaskResult.of(e);
@@ -162,32 +165,38 @@ public class GroovyShellMode extends PluginShellMode<GroovyShellPlugin> implemen
                 return result;
             }
 
-            private GroovyShell getShell(SessionRunner runner) {
-                boolean isLocal = !$(plugin.sendToHosts);
-
-                Binding $binding;
-
-                if (isLocal) {
-                    $binding = binding;
-                } else {
-                    $binding = new Binding();
-                    $binding.setVariable("_", $);
-                    $binding.setVariable("sys", $.sys);
-                    $binding.setVariable("parent", getParent());
-                    $binding.setVariable("bear", bear);
-                    $binding.setVariable("global", global);
-                    $binding.setVariable("tasks", global.tasks);
-                    $binding.setVariable("taskDef", taskDef);
-                    $binding.setVariable("runner", runner);
-                    $binding.setVariable("executionContext", getExecutionContext());
-                    $binding.setVariable("task", this);
-                    $binding.setVariable("_command", command);
-                }
+            private boolean isLocal() {
+                return !$(plugin.sendToHosts);
+            }
+
+            /**
+             * The local shell keeps its classes and variables between commands, so it is not cached.
+             */
+            private GroovyShell getShell() {
+                binding.setVariable("logger", logger);
+                binding.setVariable("ui", ui);
+
+                return shell;
+            }
 
+            private Binding newBinding(SessionRunner runner) {
+                Binding $binding = new Binding();
+
+                $binding.setVariable("_", $);
+                $binding.setVariable("sys", $.sys);
+                $binding.setVariable("parent", getParent());
+                $binding.setVariable("bear", bear);
+                $binding.setVariable("global", global);
+                $binding.setVariable("tasks", global.tasks);
+                $binding.setVariable("taskDef", taskDef);
+                $binding.setVariable("runner", runner);
+                $binding.setVariable("executionContext", getExecutionContext());
+                $binding.setVariable("task", this);
+                $binding.setVariable("_command", command);
                 $binding.setVariable("logger", logger);
                 $binding.setVariable("ui", ui);
 
-                return isLocal ? shell : new GroovyShell($binding);
+                return $binding;
             }
         };
 
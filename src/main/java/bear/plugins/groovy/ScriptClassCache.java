@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.plugins.groovy;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.cache.*;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import groovy.lang.Binding;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyCodeSource;
+import groovy.lang.GroovySystem;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classes of scripts sent to hosts by the hash of their text. A script is compiled once for all sessions, each session
+ * gets a new instance with its own binding. Each script has its own class loader, so a class which hasn't been used
+ * for a while is evicted together with its loader.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class ScriptClassCache {
+    private static final Logger logger = LoggerFactory.getLogger(ScriptClassCache.class);
+
+    private static final class Compiled {
+        final GroovyClassLoader loader;
+        final Class<?> clazz;
+
+        Compiled(GroovyClassLoader loader, Class<?> clazz) {
+            this.loader = loader;
+            this.clazz = clazz;
+        }
+    }
+
+    private final Cache<String, Compiled> cache;
+
+    public ScriptClassCache(int maxScripts, long expireAfterAccess, TimeUnit unit) {
+        cache = CacheBuilder.newBuilder()
+            .maximumSize(maxScripts)
+            .expireAfterAccess(expireAfterAccess, unit)
+            .removalListener(new RemovalListener<String, Compiled>() {
+                @Override
+                public void onRemoval(RemovalNotification<String, Compiled> notification) {
+                    unload(notification.getValue());
+                }
+            })
+            .build();
+    }
+
+    /**
+     * Compiles the text unless it has been compiled before. Concurrent calls for the same text wait for one compilation.
+     */
+    public Class<?> compile(final String text) {
+        final String hash = Hashing.sha1().hashString(text, Charsets.UTF_8).toString();
+
+        try {
+            return cache.get(hash, new Callable<Compiled>() {
+                @Override
+                public Compiled call() throws Exception {
+                    long start = System.currentTimeMillis();
+
+                    GroovyClassLoader loader = new GroovyClassLoader();
+
+                    Class<?> clazz = loader.parseClass(new GroovyCodeSource(text, "Script_" + hash, "/groovy/shell"));
+
+                    logger.debug("compiled script {} in {}ms", hash, System.currentTimeMillis() - start);
+
+                    return new Compiled(loader, clazz);
+                }
+            }).clazz;
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * @return a new instance of a script, which is code without a class declaration
+     */
+    public groovy.lang.Script newScript(String text, Binding binding) {
+        return InvokerHelper.createScript(compile(text), binding);
+    }
+
+    public long size() {
+        cache.cleanUp();
+        return cache.size();
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    private static void unload(Compiled compiled) {
+        for (Class aClass : compiled.loader.getLoadedClasses()) {
+            GroovySystem.getMetaClassRegistry().removeMetaClass(aClass);
+        }
+
+        compiled.loader.clearCache();
+    }
+}
@@ -36,6 +36,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -211,6 +212,20 @@ public class PlayPlugin extends ServerToolPlugin {
         return install;
     }
 
+    @Override
+    protected Optional<List<StartupProbe>> startupProbes(SessionContext $, List<String> ports) {
+        List<StartupProbe> probes = new ArrayList<StartupProbe>(ports.size());
+
+        for (String port : ports) {
+            probes.add(new StartupProbe(port)
+                .log(consoleLogPath(port, $))
+                .readyWhenLogContains("Listening for HTTP on")
+                .failedWhenLogContains("Oops, cannot start the server."));
+        }
+
+        return Optional.of(probes);
+    }
+
     @Override
     protected void spawnStartWatchDogs(final SessionContext $, List<String> ports) {
         final WatchDogGroup watchDogGroup = new WatchDogGroup(ports.size(), watchStartDogGroup);
@@ -30,9 +30,11 @@ import bear.session.DynamicVariable;
 import bear.session.Variables;
 import bear.task.*;
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import org.apache.commons.io.FilenameUtils;
 
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -136,6 +138,20 @@ public class TomcatPlugin extends ServerToolPlugin {
     }
 
 
+    @Override
+    protected Optional<List<StartupProbe>> startupProbes(SessionContext $, List<String> ports) {
+        List<StartupProbe> probes = new ArrayList<StartupProbe>(ports.size());
+
+        for (String port : ports) {
+            probes.add(new StartupProbe(port)
+                .log(consoleLogPath(port, $))
+                .readyWhenLogContains("Server startup in")
+                .failedWhenLogContains("app crashed - waiting for file"));
+        }
+
+        return Optional.of(probes);
+    }
+
     // copied from NodePlugin!!
     @Override
     protected void spawnStartWatchDogs(final SessionContext $, List<String> ports) {
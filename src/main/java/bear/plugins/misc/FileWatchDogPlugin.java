@@ -3,19 +3,25 @@ package bear.plugins.misc;
 import bear.console.AbstractConsole;
 import bear.console.ConsoleCallback;
 import bear.console.ConsoleCallbackResult;
+import bear.context.Fun;
 import bear.core.GlobalContext;
 import bear.core.SessionContext;
 import bear.plugins.Plugin;
 import bear.plugins.sh.CommandLine;
 import bear.session.DynamicVariable;
 import bear.session.Variables;
-import bear.task.InstallationTask;
-import bear.task.InstallationTaskDef;
+import bear.task.*;
 import bear.vcs.CommandLineResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * @author Andrey Chaschev chaschev@gmail.com
@@ -29,6 +35,34 @@ public class FileWatchDogPlugin extends Plugin {
     public final DynamicVariable<Boolean>
         reportJavaExceptions = Variables.newVar(true);
 
+    private final List<DynamicVariable<List<String>>> logSources = new CopyOnWriteArrayList<DynamicVariable<List<String>>>();
+
+    public final DynamicVariable<List<String>> logPaths = Variables.dynamic(new Fun<SessionContext, List<String>>() {
+        @Override
+        public List<String> apply(SessionContext $) {
+            if (logSources.isEmpty()) {
+                return Collections.singletonList($.var(bear.appLogsPath));
+            }
+
+            Set<String> paths = new LinkedHashSet<String>();
+
+            for (DynamicVariable<List<String>> source : logSources) {
+                paths.addAll($.var(source));
+            }
+
+            return new ArrayList<String>(paths);
+        }
+    }).desc("files and dirs searched by grepLogs, app logs dir or paths added by plugins");
+
+    public final DynamicVariable<LogQuery> logQuery = Variables.<LogQuery>undefined("query to run with grepLogs");
+
+    public final DynamicVariable<LogQueryResults> logQueryResults = Variables.dynamic(new Fun<SessionContext, LogQueryResults>() {
+        @Override
+        public LogQueryResults apply(SessionContext $) {
+            return new LogQueryResults();
+        }
+    }).memoizeIn(GlobalContext.class).desc("lines found by grepLogs on all hosts, put a new instance to run another query");
+
 
     public FileWatchDogPlugin(GlobalContext global) {
         super(global);
@@ -72,6 +106,56 @@ public class FileWatchDogPlugin extends Plugin {
     }
 
 
+    /**
+     * Adds paths to search by {@link #grepLogs}, i.e. log dirs of a server.
+     */
+    public void addLogPaths(DynamicVariable<List<String>> paths) {
+        logSources.add(paths);
+    }
+
+    /**
+     * Runs the query on the host and adds matching lines to <code>results</code> as they arrive.
+     */
+    public CommandLineResult<?> grep(SessionContext $, LogQuery query, LogQueryResults results) {
+        List<String> paths = query.paths.isEmpty() ? $.var(logPaths) : query.paths;
+
+        final LogQueryResults.Collector collector = results.collector($.getName());
+
+        CommandLineResult<?> result = $.sys.sendCommand($.sys.line().timeoutMs($.var(timeoutMs))
+            .addRaw(query.script(paths))
+            .setCallback(new ConsoleCallback() {
+                @Override
+                @Nonnull
+                public ConsoleCallbackResult progress(AbstractConsole.Terminal console, String buffer, String wholeText) {
+                    collector.append(buffer);
+
+                    return ConsoleCallbackResult.CONTINUE;
+                }
+            }));
+
+        collector.finish();
+
+        $.log("found {} lines in {}", collector.getCount(), paths);
+
+        return result;
+    }
+
+    /**
+     * Runs {@link #logQuery} on each host of a stage, the hosts are queried in parallel and the lines are collected in
+     * {@link #logQueryResults}.
+     */
+    public final TaskDef<Object, TaskResult<?>> grepLogs = new TaskDef<Object, TaskResult<?>>(new NamedSupplier<Object, TaskResult<?>>("watchDog.grepLogs", new SingleTaskSupplier<Object, TaskResult<?>>() {
+        @Override
+        public Task<Object, TaskResult<?>> createNewSession(SessionContext $, Task<Object, TaskResult<?>> parent, TaskDef<Object, TaskResult<?>> def) {
+            return new Task<Object, TaskResult<?>>(parent, def, $) {
+                @Override
+                protected TaskResult<?> exec(SessionRunner runner) {
+                    return grep($, $.var(logQuery), $.var(logQueryResults));
+                }
+            };
+        }
+    }));
+
     @Override
     public InstallationTaskDef<? extends InstallationTask> getInstall() {
         return InstallationTaskDef.EMPTY;
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.plugins.misc;
+
+/**
+ * A line found by a {@link LogQuery}.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class LogLine {
+    public final String host;
+    public final String path;
+
+    /**
+     * Timestamp of the entry the line belongs to, empty when there is none.
+     */
+    public final String timestamp;
+
+    public final String text;
+
+    public LogLine(String host, String path, String timestamp, String text) {
+        this.host = host;
+        this.path = path;
+        this.timestamp = timestamp;
+        this.text = text;
+    }
+
+    @Override
+    public String toString() {
+        return host + " " + path + ": " + text;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.plugins.misc;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import org.joda.time.ReadableInstant;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A filter for log files which is applied on a remote host, so only matching lines are sent back. Patterns are
+ * extended regular expressions, as in <code>grep -E</code>.
+ *
+ * A line which starts with a timestamp starts an entry, the lines which follow it, i.e. a stack trace, belong to the
+ * same entry and have its timestamp and level. Timestamps are compared as strings, so the time range works for sortable
+ * timestamps like <code>2013-10-18 12:00:00</code> written in the host's time zone.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class LogQuery {
+    static final String MARKER_PREFIX = "__BEAR_LOG\t";
+
+    public static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * <code>yyyy-MM-dd HH:mm:ss</code> or <code>yyyy-MM-ddTHH:mm:ss</code>, intervals are not used as old awks don't
+     * support them.
+     */
+    public static final String ISO_TIMESTAMP = "[0-9][0-9][0-9][0-9]-[0-9][0-9]-[0-9][0-9][ T][0-9][0-9]:[0-9][0-9]:[0-9][0-9]";
+
+    @Nullable
+    String pattern;
+
+    final List<String> levels = new ArrayList<String>();
+
+    @Nullable
+    String since;
+
+    @Nullable
+    String until;
+
+    @Nullable
+    String timestampPattern = ISO_TIMESTAMP;
+
+    int maxLines = 10000;
+
+    /**
+     * Files or dirs to search, when empty {@link FileWatchDogPlugin#logPaths} are used.
+     */
+    final List<String> paths = new ArrayList<String>();
+
+    public LogQuery matching(String pattern) {
+        this.pattern = pattern;
+        return this;
+    }
+
+    public LogQuery containing(String text) {
+        return matching(escape(text));
+    }
+
+    public LogQuery levels(String... levels) {
+        this.levels.addAll(Arrays.asList(levels));
+        return this;
+    }
+
+    public LogQuery since(ReadableInstant since) {
+        return since(TIMESTAMP_FORMAT.print(since));
+    }
+
+    public LogQuery since(String since) {
+        this.since = since;
+        return this;
+    }
+
+    public LogQuery until(ReadableInstant until) {
+        return until(TIMESTAMP_FORMAT.print(until));
+    }
+
+    public LogQuery until(String until) {
+        this.until = until;
+        return this;
+    }
+
+    /**
+     * @param timestampPattern null when logs don't have timestamps
+     */
+    public LogQuery timestampPattern(@Nullable String timestampPattern) {
+        this.timestampPattern = timestampPattern;
+        return this;
+    }
+
+    /**
+     * @param maxLines limit of lines sent by each host
+     */
+    public LogQuery maxLines(int maxLines) {
+        Preconditions.checkArgument(maxLines > 0, "maxLines must be positive");
+        this.maxLines = maxLines;
+        return this;
+    }
+
+    public LogQuery paths(String... paths) {
+        this.paths.addAll(Arrays.asList(paths));
+        return this;
+    }
+
+    /**
+     * Finds the files under <code>paths</code> and filters them with one awk process for many files. Filter values are
+     * passed in the environment, so awk doesn't process escapes in them.
+     */
+    String script(List<String> paths) {
+        Preconditions.checkArgument(!paths.isEmpty(), "no log paths to search");
+        Preconditions.checkArgument(timestampPattern != null || (since == null && until == null),
+            "time range needs a timestamp pattern");
+
+        StringBuilder sb = new StringBuilder(1024);
+
+        sb.append("BEAR_Q_TS=").append(quote(nullToEmpty(timestampPattern)))
+            .append(" BEAR_Q_SINCE=").append(quote(nullToEmpty(since)))
+            .append(" BEAR_Q_UNTIL=").append(quote(nullToEmpty(until)))
+            .append(" BEAR_Q_LEVEL=").append(quote(levelPattern()))
+            .append(" BEAR_Q_PATTERN=").append(quote(nullToEmpty(pattern)))
+            .append(" LC_ALL=C find");
+
+        for (String path : paths) {
+            sb.append(' ').append(quote(path));
+        }
+
+        sb.append(" -type f ! -name '*.gz' ! -name '*.zip' -exec awk ").append(quote(awkProgram()))
+            .append(" {} + 2>/dev/null | head -n ").append(maxLines);
+
+        return sb.toString();
+    }
+
+    private static String awkProgram() {
+        return "BEGIN { tsre = ENVIRON[\"BEAR_Q_TS\"]; since = ENVIRON[\"BEAR_Q_SINCE\"]; until = ENVIRON[\"BEAR_Q_UNTIL\"];\n" +
+            "  lvl = ENVIRON[\"BEAR_Q_LEVEL\"]; pat = ENVIRON[\"BEAR_Q_PATTERN\"]; p = \"__BEAR\" \"_LOG\\t\" }\n" +
+            "FNR == 1 { ts = \"\"; keep = (lvl == \"\") }\n" +
+            "tsre != \"\" && match($0, tsre) {\n" +
+            "  ts = substr($0, RSTART, RLENGTH); if (length(ts) == 19) ts = substr(ts, 1, 10) \" \" substr(ts, 12)\n" +
+            "  if (lvl != \"\") keep = ($0 ~ lvl) }\n" +
+            "!keep { next }\n" +
+            "since != \"\" && ts < since { next }\n" +
+            "until != \"\" && ts > until { next }\n" +
+            "pat != \"\" && $0 !~ pat { next }\n" +
+            "{ print p FILENAME \"\\t\" ts \"\\t\" $0 }";
+    }
+
+    private String levelPattern() {
+        if (levels.isEmpty()) return "";
+
+        return "(^|[^A-Za-z])(" + Joiner.on('|').join(levels) + ")([^A-Za-z]|$)";
+    }
+
+    /**
+     * @return null when the line is not a match
+     */
+    @Nullable
+    static LogLine parse(String host, String line) {
+        if (!line.startsWith(MARKER_PREFIX)) {
+            return null;
+        }
+
+        int pathEnd = line.indexOf('\t', MARKER_PREFIX.length());
+        int timestampEnd = pathEnd == -1 ? -1 : line.indexOf('\t', pathEnd + 1);
+
+        if (timestampEnd == -1) {
+            return null;
+        }
+
+        return new LogLine(host,
+            line.substring(MARKER_PREFIX.length(), pathEnd),
+            line.substring(pathEnd + 1, timestampEnd),
+            line.substring(timestampEnd + 1));
+    }
+
+    static String escape(String text) {
+        StringBuilder sb = new StringBuilder(text.length() + 8);
+
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+
+            if ("\\^$.|?*+()[]{}".indexOf(ch) != -1) {
+                sb.append('\\');
+            }
+
+            sb.append(ch);
+        }
+
+        return sb.toString();
+    }
+
+    private static String nullToEmpty(@Nullable String s) {
+        return s == null ? "" : s;
+    }
+
+    static String quote(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("LogQuery{");
+        sb.append("pattern='").append(pattern).append('\'');
+        sb.append(", levels=").append(levels);
+        sb.append(", since='").append(since).append('\'');
+        sb.append(", until='").append(until).append('\'');
+        sb.append(", paths=").append(paths);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.plugins.misc;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Lines found by a query on several hosts. Hosts add lines as they arrive and {@link #merged()} orders them by
+ * timestamp, lines of an entry stay together as the sort is stable.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class LogQueryResults {
+    public static interface Listener {
+        /**
+         * Called from session threads as soon as a line arrives.
+         */
+        void found(LogLine line);
+    }
+
+    private static final Comparator<LogLine> BY_TIMESTAMP = new Comparator<LogLine>() {
+        @Override
+        public int compare(LogLine o1, LogLine o2) {
+            return o1.timestamp.compareTo(o2.timestamp);
+        }
+    };
+
+    private final List<LogLine> lines = new ArrayList<LogLine>();
+
+    @Nullable
+    private final Listener listener;
+
+    public LogQueryResults() {
+        this(null);
+    }
+
+    public LogQueryResults(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    public void add(LogLine line) {
+        synchronized (lines) {
+            lines.add(line);
+        }
+
+        if (listener != null) {
+            listener.found(line);
+        }
+    }
+
+    /**
+     * @return lines found so far ordered by timestamp
+     */
+    public List<LogLine> merged() {
+        List<LogLine> copy;
+
+        synchronized (lines) {
+            copy = new ArrayList<LogLine>(lines);
+        }
+
+        Collections.sort(copy, BY_TIMESTAMP);
+
+        return copy;
+    }
+
+    public int size() {
+        synchronized (lines) {
+            return lines.size();
+        }
+    }
+
+    public Collector collector(String host) {
+        return new Collector(host);
+    }
+
+    /**
+     * Splits the output of a host into lines as it arrives.
+     */
+    public class Collector {
+        final String host;
+
+        private final StringBuilder pending = new StringBuilder();
+
+        private int count;
+
+        Collector(String host) {
+            this.host = host;
+        }
+
+        public void append(String text) {
+            pending.append(text);
+
+            int start = 0;
+            int end;
+
+            while ((end = pending.indexOf("\n", start)) != -1) {
+                addLine(pending.substring(start, end));
+                start = end + 1;
+            }
+
+            pending.delete(0, start);
+        }
+
+        public void finish() {
+            if (pending.length() > 0) {
+                addLine(pending.toString());
+                pending.setLength(0);
+            }
+        }
+
+        private void addLine(String line) {
+            if (line.endsWith("\r")) {
+                line = line.substring(0, line.length() - 1);
+            }
+
+            LogLine logLine = LogQuery.parse(host, line);
+
+            if (logLine != null) {
+                count++;
+                add(logLine);
+            }
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+}
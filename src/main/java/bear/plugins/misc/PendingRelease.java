@@ -1,9 +1,12 @@
 package bear.plugins.misc;
 
+import bear.plugins.sh.DeltaUpload;
 import bear.vcs.BranchInfo;
 import bear.vcs.VcsLogInfo;
 import com.google.common.base.Optional;
 
+import java.io.File;
+
 /**
 * @author Andrey Chaschev chaschev@gmail.com
 */
@@ -19,4 +22,11 @@ public class PendingRelease extends Release{
     public Release activate(){
         return releases.activatePending(this);
     }
+
+    /**
+     * Uploads a local build as the contents of this release, sending only the difference with the current release.
+     */
+    public DeltaUpload.Stats upload(File localDir){
+        return releases.uploadDelta(this, localDir);
+    }
 }
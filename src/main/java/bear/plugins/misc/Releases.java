@@ -20,6 +20,7 @@ import bear.context.HavingContext;
 import bear.core.Bear;
 import bear.core.SessionContext;
 import bear.core.except.PermissionsException;
+import bear.plugins.sh.DeltaUpload;
 import bear.session.DynamicVariable;
 import bear.session.Variables;
 import bear.task.BearException;
@@ -37,6 +38,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
 
@@ -45,7 +47,7 @@ import static com.bethecoder.table.ASCIITableHeader.h;
 import static com.google.common.base.Optional.*;
 
 /**
- * Releases are saved as JSON cache in root releases folders.
+ * Releases are saved as JSON records in a journal in the root releases folder, see {@link ReleasesJournal}.
  *
  * @author Andrey Chaschev chaschev@gmail.com
  */
@@ -53,6 +55,7 @@ public class Releases extends HavingContext<Releases, SessionContext>{
     private static final Logger logger = LoggerFactory.getLogger(Releases.class);
 
     static final JacksonMapper JACKSON_MAPPER = new JacksonMapper().prettyPrint(true);
+    static final JacksonMapper RECORD_MAPPER = new JacksonMapper();
 
     ReleasesPlugin releases;
 
@@ -70,6 +73,15 @@ public class Releases extends HavingContext<Releases, SessionContext>{
     private boolean loaded;
     private final ObjectMapper mapper;
 
+    ReleasesJournal journal;
+    ReleasesJournal.Probe probe;
+
+    /**
+     * Records known to be in the journal, path to json.
+     */
+    Map<String, String> saved = new HashMap<String, String>();
+    int journalRecords;
+
     public Releases(SessionContext $, ReleasesPlugin releases) {
         super($);
         this.releases = releases;
@@ -152,8 +164,13 @@ public class Releases extends HavingContext<Releases, SessionContext>{
     }
 
     public Releases load(){
+        journal = new ReleasesJournal($(releases.path), $(releases.releasesJournalPath),
+            $(releases.releasesJsonPath), $(releases.currentReleaseLinkPath));
+
+        probe = journal.probe($);
+
         loadCache();
-        current = $.sys.readLink($(releases.currentReleaseLinkPath));
+        current = probe.link;
         loaded = true;
 
 //        if(logger.isDebugEnabled()){
@@ -223,6 +240,15 @@ public class Releases extends HavingContext<Releases, SessionContext>{
         return release;
     }
 
+    public DeltaUpload.Stats uploadDelta(PendingRelease pendingRelease, File localDir){
+        Optional<Release> current = getCurrentRelease();
+
+        return new DeltaUpload($, localDir)
+            .basedOn(current.isPresent() ? current.get().path : null)
+            .to(pendingRelease.path)
+            .run();
+    }
+
     public void rollbackTo(Release release){
         rollbackTo(ReleaseRef.path(release.path));
     }
@@ -336,11 +362,42 @@ public class Releases extends HavingContext<Releases, SessionContext>{
         folders.remove(s);
     }
 
+    /**
+     * Appends records of changed and removed releases to the journal.
+     */
     void saveJson() {
         try {
-            $.sys.writeString(JACKSON_MAPPER.toJSON(folderMap)).toPath($(releases.releasesJsonPath)).run();
+            Map<String, String> now = new LinkedHashMap<String, String>();
+            List<String> records = new ArrayList<String>();
+
+            for (Map.Entry<String, Release> e : folderMap.entrySet()) {
+                if(e.getValue() == null) continue;
+
+                String json = RECORD_MAPPER.toJSON(e.getValue());
+
+                now.put(e.getKey(), json);
+
+                if(!json.equals(saved.get(e.getKey()))){
+                    records.add(ReleasesJournal.put(e.getKey(), json));
+                }
+            }
+
+            for (String path : saved.keySet()) {
+                if(!now.containsKey(path)){
+                    records.add(ReleasesJournal.delete(path));
+                }
+            }
+
+            if(records.isEmpty()) return;
+
+            boolean compact = journalRecords + records.size() > 2 * now.size() + 16;
+
+            journal.append($, records, compact);
+
+            saved = now;
+            journalRecords = compact ? now.size() : journalRecords + records.size();
         } catch (Exception e) {
-            logger.warn("unable to save JSON", e);
+            logger.warn("unable to save the journal", e);
         }
     }
 
@@ -381,22 +438,34 @@ public class Releases extends HavingContext<Releases, SessionContext>{
 
     protected Map<String, Release> loadMap() {
         try {
-            String json = $.sys.readString($(releases.releasesJsonPath), null);
-            if(json == null) return new LinkedHashMap<String, Release>();
-            return mapper.readValue(json, new TypeReference<Map<String, Release>>() {});
+            journalRecords = probe.recordCount;
+
+            if(probe.legacyJson != null){
+                // nothing is saved in the journal yet, the first save writes all records
+                return mapper.readValue(probe.legacyJson, new TypeReference<Map<String, Release>>() {});
+            }
+
+            Map<String, Release> map = new LinkedHashMap<String, Release>();
+
+            for (Map.Entry<String, String> e : probe.records.entrySet()) {
+                map.put(e.getKey(), mapper.readValue(e.getValue(), Release.class));
+                saved.put(e.getKey(), e.getValue());
+            }
+
+            return map;
         } catch (IOException e) {
             throw Exceptions.runtime(e);
         }
-//        return JACKSON_MAPPER.fromJSON(, Map.class);
     }
 
 
     List<String> ls() {
-        return $.sys.ls($(releases.path)).absolutePaths().run().getLines();
+        return probe.folders;
     }
 
     Optional<Release> computeRelease(String folder) {
-        if(!$.sys.exists(folder)){
+        // folders listed by the probe are known to exist
+        if(!folders.contains(folder) && !$.sys.exists(folder)){
             return absent();
         }
 
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.plugins.misc;
+
+import bear.core.SessionContext;
+import bear.task.BearException;
+import bear.vcs.CommandLineResult;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Append-only registry of releases on a remote host. Each line of the journal is either <code>P&lt;tab&gt;path&lt;tab&gt;json</code>
+ * for a saved release or <code>D&lt;tab&gt;path</code> for a removed one, the last line for a path wins. Writes append
+ * changed records only, and when the journal grows much larger than the number of live records, it is compacted by
+ * a background process on the host.
+ *
+ * A probe gets the listing of the releases dir, the journal and the target of the current link in one call.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class ReleasesJournal {
+    static final String MARKER_PREFIX = "__BEAR_RELEASES_";
+
+    final String dir;
+    final String journalPath;
+    final String legacyJsonPath;
+    final String currentLinkPath;
+
+    public static class Probe {
+        final List<String> folders = new ArrayList<String>();
+
+        @Nullable
+        String link;
+
+        /**
+         * Live records, path to json.
+         */
+        final Map<String, String> records = new LinkedHashMap<String, String>();
+
+        /**
+         * Lines in the journal, including overwritten ones.
+         */
+        int recordCount;
+
+        /**
+         * Content of releases.json when there is no journal yet.
+         */
+        @Nullable
+        String legacyJson;
+    }
+
+    public ReleasesJournal(String dir, String journalPath, String legacyJsonPath, String currentLinkPath) {
+        this.dir = dir;
+        this.journalPath = journalPath;
+        this.legacyJsonPath = legacyJsonPath;
+        this.currentLinkPath = currentLinkPath;
+    }
+
+    public Probe probe(SessionContext $) {
+        return parse($.sys.sendCommand($.sys.line().addRaw(probeScript())).output);
+    }
+
+    public void append(SessionContext $, List<String> records, boolean compact) {
+        CommandLineResult<?> result = $.sys.sendCommand($.sys.line().addRaw(appendScript(records, compact)));
+
+        if (!result.ok()) {
+            throw new BearException("could not append to " + journalPath + ": " + result.output);
+        }
+    }
+
+    static String put(String path, String json) {
+        return "P\t" + path + "\t" + json;
+    }
+
+    static String delete(String path) {
+        return "D\t" + path;
+    }
+
+    String probeScript() {
+        String journal = quote(journalPath);
+
+        return marker("LS") + "; for f in " + quote(dir) + "/*; do [ -d \"$f\" ] && [ ! -L \"$f\" ] && printf '%s\\n' \"$f\"; done\n" +
+            marker("LINK") + "; readlink " + quote(currentLinkPath) + "\n" +
+            marker("JOURNAL") + "; cat " + journal + " 2>/dev/null\n" +
+            marker("LEGACY") + "; [ -f " + journal + " ] || cat " + quote(legacyJsonPath) + " 2>/dev/null\n" +
+            marker("END");
+    }
+
+    String appendScript(List<String> records, boolean compact) {
+        String script = "mkdir -p " + quote(dir) + " && " +
+            locked("printf '%s\\n' \"$0\" >> \"$1\"", Joiner.on('\n').join(records), journalPath);
+
+        if (compact) {
+            script += "\nnohup sh -c " + quote(compactScript()) + " >/dev/null 2>&1 </dev/null &";
+        }
+
+        return script;
+    }
+
+    /**
+     * Keeps the last record for each path and drops removed ones.
+     */
+    String compactScript() {
+        return locked("tac \"$0\" | awk -F '\\t' '!seen[$2]++ && $1 == \"P\"' | tac > \"$0.tmp\" && mv \"$0.tmp\" \"$0\"",
+            journalPath);
+    }
+
+    /**
+     * Appends and compaction exclude each other with <code>flock</code> when it's there.
+     */
+    private String locked(String script, String... args) {
+        StringBuilder sb = new StringBuilder(" sh -c ").append(quote(script));
+
+        for (String arg : args) {
+            sb.append(' ').append(quote(arg));
+        }
+
+        return "if command -v flock >/dev/null 2>&1; then flock -w 60 " + quote(journalPath + ".lock") + sb +
+            "; else" + sb + "; fi";
+    }
+
+    static Probe parse(String output) {
+        Probe probe = new Probe();
+
+        if (output == null) {
+            throw new BearException("releases probe returned no output");
+        }
+
+        String section = null;
+
+        StringBuilder legacy = null;
+
+        for (String line : Splitter.on('\n').split(output.replace("\r", ""))) {
+            if (line.startsWith(MARKER_PREFIX)) {
+                section = line.substring(MARKER_PREFIX.length()).trim();
+
+                if ("LEGACY".equals(section)) {
+                    legacy = new StringBuilder();
+                }
+
+                continue;
+            }
+
+            if (section == null || line.isEmpty()) continue;
+
+            if ("LS".equals(section)) {
+                probe.folders.add(line);
+            } else if ("LINK".equals(section)) {
+                probe.link = line.trim();
+            } else if ("JOURNAL".equals(section)) {
+                List<String> fields = Splitter.on('\t').limit(3).splitToList(line);
+
+                if (fields.size() < 2) continue;
+
+                probe.recordCount++;
+
+                if ("P".equals(fields.get(0)) && fields.size() == 3) {
+                    // a re-saved record moves to the end
+                    probe.records.remove(fields.get(1));
+                    probe.records.put(fields.get(1), fields.get(2));
+                } else if ("D".equals(fields.get(0))) {
+                    probe.records.remove(fields.get(1));
+                }
+            } else if ("LEGACY".equals(section)) {
+                legacy.append(line).append('\n');
+            }
+        }
+
+        if (!"END".equals(section)) {
+            throw new BearException("incomplete releases probe output: " + output);
+        }
+
+        if (legacy != null && legacy.length() > 0) {
+            probe.legacyJson = legacy.toString();
+        }
+
+        return probe;
+    }
+
+    private static String marker(String section) {
+        return "printf '\\n%s%s\\n' '" + MARKER_PREFIX + "' '" + section + "'";
+    }
+
+    static String quote(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+}
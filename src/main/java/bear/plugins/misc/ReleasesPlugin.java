@@ -50,6 +50,7 @@ public class ReleasesPlugin extends Plugin {
         pendingReleaseName = concat("pending_", releaseName),
         path = joinPath(bear.applicationPath, dirName),
         releasesJsonPath = joinPath(path, "releases.json"),
+        releasesJournalPath = joinPath(path, "releases.journal"),
         currentReleaseLinkPath = joinPath(path, currentDirName),
         releasePath = joinPath(path, releaseName),
         pendingReleasePath = concat(path, "/pending_", releaseName);
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.plugins.misc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Readiness checks of a single instance. An instance is ready when all of the configured checks pass: its port
+ * accepts connections, the health URL responds with success and one of the ready patterns appears in its log. It has
+ * failed when one of the failure patterns appears in the log.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class StartupProbe {
+    final String name;
+
+    String logPath;
+    final List<String> readyPatterns = new ArrayList<String>();
+    final List<String> failurePatterns = new ArrayList<String>();
+
+    int port = -1;
+    String healthUrl;
+
+    public StartupProbe(String name) {
+        this.name = name;
+    }
+
+    public StartupProbe log(String logPath) {
+        this.logPath = logPath;
+        return this;
+    }
+
+    public StartupProbe readyWhenLogContains(String... patterns) {
+        readyPatterns.addAll(Arrays.asList(patterns));
+        return this;
+    }
+
+    public StartupProbe failedWhenLogContains(String... patterns) {
+        failurePatterns.addAll(Arrays.asList(patterns));
+        return this;
+    }
+
+    public StartupProbe readyWhenPortOpen(int port) {
+        this.port = port;
+        return this;
+    }
+
+    public StartupProbe readyWhenHealthy(String healthUrl) {
+        this.healthUrl = healthUrl;
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getLogPath() {
+        return logPath;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("StartupProbe{");
+        sb.append("name='").append(name).append('\'');
+        sb.append(", logPath='").append(logPath).append('\'');
+        sb.append(", readyPatterns=").append(readyPatterns);
+        sb.append(", port=").append(port);
+        sb.append(", healthUrl='").append(healthUrl).append('\'');
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.plugins.misc;
+
+import bear.console.AbstractConsole;
+import bear.console.ConsoleCallback;
+import bear.console.ConsoleCallbackResult;
+import bear.core.SessionContext;
+import bear.task.TaskResult;
+import bear.vcs.CommandLineResult;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Waits for instances on a host to start with one remote command instead of a <code>tail -f</code> per instance.
+ * The command checks all instances in a loop, wakes up on log changes with <code>inotifywait</code> when it is installed
+ * and prints a line as soon as an instance is ready or has failed, which arrives to the group right away.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class StartupProbes implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(StartupProbes.class);
+
+    static final String MARKER_PREFIX = "__BEAR_PROBE_";
+
+    private static final Pattern MARKER = Pattern.compile(MARKER_PREFIX + "(\\d+):(OK|FAILED|TIMEOUT)");
+
+    public Thread thread;
+
+    final SessionContext $;
+    final List<StartupProbe> probes;
+    final int timeoutMs;
+
+    WatchDogGroup group;
+
+    private final boolean[] arrived;
+
+    public StartupProbes(SessionContext $, List<StartupProbe> probes, int timeoutMs) {
+        this.$ = $;
+        this.probes = probes;
+        this.timeoutMs = timeoutMs;
+        this.arrived = new boolean[probes.size()];
+    }
+
+    /**
+     * Called when an instance is ready, from the probe thread.
+     */
+    protected void onReady(StartupProbe probe) {
+
+    }
+
+    /**
+     * Called when an instance has failed or did not start in time, from the probe thread.
+     *
+     * @return error message
+     */
+    protected String onFailed(StartupProbe probe, String reason) {
+        return probe.name + ": " + reason;
+    }
+
+    @Override
+    public void run() {
+        try {
+            CommandLineResult<?> result = $.sys.sendCommand($.sys.line()
+                .timeoutMs(timeoutMs + 10000)
+                .addRaw("bash -c " + quote(script()))
+                .setCallback(new ConsoleCallback() {
+                    @Nonnull
+                    @Override
+                    public ConsoleCallbackResult progress(AbstractConsole.Terminal console, String buffer, String wholeText) {
+                        parse(wholeText);
+
+                        return ConsoleCallbackResult.CONTINUE;
+                    }
+                }));
+
+            parse(result.output);
+
+            arriveAll("probe has finished: " + result.getResult());
+        } finally {
+            arriveAll("probe has been interrupted");
+        }
+    }
+
+    synchronized void parse(String text) {
+        if (text == null) return;
+
+        Matcher matcher = MARKER.matcher(text);
+
+        while (matcher.find()) {
+            int i = Integer.parseInt(matcher.group(1));
+
+            if (i >= probes.size() || arrived[i]) continue;
+
+            StartupProbe probe = probes.get(i);
+
+            String status = matcher.group(2);
+
+            if ("OK".equals(status)) {
+                onReady(probe);
+                arrive(i, TaskResult.OK);
+            } else {
+                arrive(i, TaskResult.error(onFailed(probe,
+                    "FAILED".equals(status) ? "failure found in " + probe.logPath : "did not start in " + timeoutMs + "ms")));
+            }
+        }
+    }
+
+    private synchronized void arriveAll(String reason) {
+        for (int i = 0; i < arrived.length; i++) {
+            if (!arrived[i]) {
+                arrive(i, TaskResult.error(onFailed(probes.get(i), reason)));
+            }
+        }
+    }
+
+    private void arrive(int i, TaskResult<?> result) {
+        arrived[i] = true;
+
+        logger.debug("{} at {}: {}", probes.get(i).name, $.getName(), result);
+
+        if (group != null) {
+            group.arrived(result);
+        }
+    }
+
+    String script() {
+        StringBuilder sb = new StringBuilder(2048);
+
+        StringBuilder logs = new StringBuilder();
+
+        sb.append("check() {\ncase $1 in\n");
+
+        for (int i = 0; i < probes.size(); i++) {
+            StartupProbe probe = probes.get(i);
+
+            Preconditions.checkArgument(!probe.readyPatterns.isEmpty() || probe.port > 0 || probe.healthUrl != null,
+                "no checks for %s", probe);
+
+            sb.append(i).append(")\n");
+
+            if (probe.logPath != null) {
+                String log = quote(probe.logPath);
+
+                if (!probe.failurePatterns.isEmpty()) {
+                    sb.append("grep -qF").append(patterns(probe.failurePatterns)).append(' ').append(log)
+                        .append(" 2>/dev/null && return 2\n");
+                }
+
+                if (!probe.readyPatterns.isEmpty()) {
+                    sb.append("grep -qF").append(patterns(probe.readyPatterns)).append(' ').append(log)
+                        .append(" 2>/dev/null || return 1\n");
+                }
+
+                logs.append(' ').append(log);
+            }
+
+            if (probe.port > 0) {
+                sb.append("(echo > /dev/tcp/127.0.0.1/").append(probe.port).append(") >/dev/null 2>&1 || return 1\n");
+            }
+
+            if (probe.healthUrl != null) {
+                String url = quote(probe.healthUrl);
+
+                sb.append("if command -v curl >/dev/null 2>&1; then curl -sf -o /dev/null --max-time 2 ").append(url)
+                    .append("; else wget -q -O /dev/null -T 2 ").append(url).append("; fi >/dev/null 2>&1 || return 1\n");
+            }
+
+            sb.append("return 0;;\n");
+        }
+
+        sb.append("esac\n}\n");
+
+        sb.append("p=' ");
+
+        for (int i = 0; i < probes.size(); i++) {
+            sb.append(i).append(' ');
+        }
+
+        sb.append("'\nend=$(( $(date +%s) + ").append((timeoutMs + 999) / 1000).append(" ))\n")
+            .append("while [ -n \"${p// /}\" ]; do\n")
+            .append("for i in $p; do check $i; r=$?\n")
+            .append("if [ $r -eq 0 ]; then ").append(marker("$i", "OK")).append("; p=\"${p/ $i / }\"\n")
+            .append("elif [ $r -eq 2 ]; then ").append(marker("$i", "FAILED")).append("; p=\"${p/ $i / }\"; fi\n")
+            .append("done\n")
+            .append("[ -z \"${p// /}\" ] && break\n")
+            .append("if [ $(date +%s) -ge $end ]; then for i in $p; do ").append(marker("$i", "TIMEOUT")).append("; done; break; fi\n");
+
+        if (logs.length() > 0) {
+            // wakes up on a log change, port and URL checks are repeated every second
+            sb.append("inotifywait -qq -t 1 -e modify,create").append(logs).append(" >/dev/null 2>&1; r=$?\n")
+                .append("[ $r -ne 0 ] && [ $r -ne 2 ] && sleep 0.5\n");
+        } else {
+            sb.append("sleep 0.5\n");
+        }
+
+        sb.append("done\n");
+
+        return sb.toString();
+    }
+
+    private static String patterns(List<String> patterns) {
+        StringBuilder sb = new StringBuilder();
+
+        for (String pattern : patterns) {
+            sb.append(" -e ").append(quote(pattern));
+        }
+
+        return sb.toString();
+    }
+
+    private static String marker(String index, String status) {
+        return "printf '\\n%s%s:%s\\n' '" + MARKER_PREFIX + "' \"" + index + "\" '" + status + "'";
+    }
+
+    static String quote(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+}
@@ -10,6 +10,7 @@ import com.google.common.util.concurrent.ListenableScheduledFuture;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -19,6 +20,8 @@ import java.util.concurrent.TimeUnit;
 */
 public class WatchDogGroup {
     final List<WatchDogRunnable> runnables;
+    final List<StartupProbes> probes = new ArrayList<StartupProbes>();
+    private final List<TaskResult<?>> probeResults = Collections.synchronizedList(new ArrayList<TaskResult<?>>());
     private final CountDownLatch arrivalLatch;
     final DynamicVariable<WatchDogGroup> watchDogGroup;
     private volatile ListenableScheduledFuture<?> forcedShutdownFuture;
@@ -36,6 +39,10 @@ public class WatchDogGroup {
                 runnable.thread.interrupt();
             }
         }
+
+        for (StartupProbes probe : probes) {
+            probe.thread.interrupt();
+        }
     }
 
     public void add(WatchDogRunnable runnable) {
@@ -49,6 +56,18 @@ public class WatchDogGroup {
         runnable.group = this;
     }
 
+    /**
+     * Adds probes of several instances, each of them counts as an arrival.
+     */
+    public void add(StartupProbes probes) {
+        if($== null){
+            $ = probes.$;
+        }
+
+        this.probes.add(probes);
+        probes.group = this;
+    }
+
     public void startThreads() {
         $.putConst(watchDogGroup, this);
 
@@ -59,6 +78,12 @@ public class WatchDogGroup {
             runnable.thread.setName(myName + "-dog-" + i);
             i++;
         }
+
+        for (StartupProbes probe : probes) {
+            (probe.thread = new GlobalContext.AwareThread(new CatchyRunnable(probe))).start();
+            probe.thread.setName(myName + "-probe-" + i);
+            i++;
+        }
     }
 
     public CountDownLatch latch() {
@@ -77,9 +102,20 @@ public class WatchDogGroup {
     }
 
     public void whenArrived(WatchDogRunnable watchDogRunnable) {
+        countDown();
+    }
+
+    void arrived(TaskResult<?> result) {
+        probeResults.add(result);
+
+        countDown();
+    }
+
+    private void countDown() {
         arrivalLatch.countDown();
 
-        if(arrivalLatch.getCount() == 0){
+        // probes may arrive before the shutdown is scheduled
+        if(arrivalLatch.getCount() == 0 && forcedShutdownFuture != null){
             forcedShutdownFuture.cancel(true);
         }
     }
@@ -91,6 +127,10 @@ public class WatchDogGroup {
             temp.add(runnable.getResult() == null ? TaskResult.error("null result for watch dog") : runnable.getResult());
         }
 
+        synchronized (probeResults){
+            temp.addAll(probeResults);
+        }
+
         return Tasks.and(temp);
     }
 }
@@ -187,7 +187,7 @@ public class MongoDbPlugin extends Plugin {
     public Version computeInstalledClientVersion(SystemSession system) {
         String version;
         try {
-            final String s = system.capture("mongo --version");
+            final String s = system.usesHostFacts() ? system.getFacts().version("mongo") : system.capture("mongo --version");
             if (s != null) {
                 //MongoDB shell version: 2.4.8
 
@@ -150,11 +150,17 @@ public class MySqlPlugin extends Plugin<TaskDef<Object, TaskResult<?>>> {
     }
 
     public Version computeInstalledClientVersion(SystemSession system) {
-        final CommandLineResult<?> result = system.sendCommand(system.newCommandLine().a("mysql", "--version"));
+        final String output;
+
+        if (system.usesHostFacts()) {
+            output = system.getFacts().version("mysql");
+        } else {
+            output = system.sendCommand(system.newCommandLine().a("mysql", "--version")).output;
+        }
 
         final String version;
-        if (result.output != null) {
-            final Matcher matcher = Pattern.compile(".*Distrib\\s+([0-9.]+).*").matcher(result.output);
+        if (output != null) {
+            final Matcher matcher = Pattern.compile(".*Distrib\\s+([0-9.]+).*").matcher(output);
             if (matcher.matches()) {
                 version = matcher.group(1);
             } else {
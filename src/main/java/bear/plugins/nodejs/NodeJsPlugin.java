@@ -37,6 +37,7 @@ import com.google.common.base.Function;
 import com.google.common.base.Optional;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -146,6 +147,23 @@ public class NodeJsPlugin extends ServerToolPlugin {
     }
 
 
+    /**
+     * Node has no message to tell it has started, so an instance is ready when it accepts connections.
+     */
+    @Override
+    protected Optional<List<StartupProbe>> startupProbes(SessionContext $, List<String> ports) {
+        List<StartupProbe> probes = new ArrayList<StartupProbe>(ports.size());
+
+        for (String port : ports) {
+            probes.add(new StartupProbe(port)
+                .log(consoleLogPath(port, $))
+                .readyWhenPortOpen(Integer.parseInt(port.trim()))
+                .failedWhenLogContains("app crashed - waiting for file", "throw er; // Unhandled 'error' event"));
+        }
+
+        return Optional.of(probes);
+    }
+
     //copied from play
     //todo extract common things
     @Override
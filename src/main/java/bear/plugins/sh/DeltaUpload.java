@@ -0,0 +1,553 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.plugins.sh;
+
+import bear.core.SessionContext;
+import bear.task.BearException;
+import bear.vcs.CommandLineResult;
+import chaschev.util.Exceptions;
+import com.google.common.base.Preconditions;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Uploads a local directory to a new remote directory sending only what differs from a base directory on the host,
+ * i.e. from the current release:
+ *
+ * <ul>
+ *     <li>files with the same content as in the base are hard-linked from it, even when moved;</li>
+ *     <li>a changed file is assembled from the blocks of its base version which are still there and the changed
+ *     blocks, only the latter are sent;</li>
+ *     <li>the rest is uploaded as is.</li>
+ * </ul>
+ *
+ * Base signatures are computed with one remote script, the new directory is assembled with another one. Assembled
+ * files are checked against local md5 and uploaded whole on a mismatch. Linked files share inodes with the base, so
+ * they must not be modified in place.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class DeltaUpload {
+    private static final Logger logger = LoggerFactory.getLogger(DeltaUpload.class);
+
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    static final String MARKER_PREFIX = "__BEAR_DELTA_";
+
+    private static final Pattern MARKER = Pattern.compile(MARKER_PREFIX + "(\\d+)");
+
+    private final SessionContext $;
+    private final File localDir;
+
+    @Nullable
+    private String base;
+    private String dest;
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+
+    public DeltaUpload(SessionContext $, File localDir) {
+        Preconditions.checkArgument(localDir.isDirectory(), "not a directory: %s", localDir);
+
+        this.$ = $;
+        this.localDir = localDir;
+    }
+
+    /**
+     * @param base remote directory to take unchanged content from, null to upload everything
+     */
+    public DeltaUpload basedOn(@Nullable String base) {
+        this.base = base;
+        return this;
+    }
+
+    public DeltaUpload to(String dest) {
+        this.dest = dest;
+        return this;
+    }
+
+    public DeltaUpload blockSize(int blockSize) {
+        Preconditions.checkArgument(blockSize >= 1024, "block size is too small: %s", blockSize);
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    public static class Stats {
+        public int linked;
+        public int patched;
+        public int uploaded;
+        public int repaired;
+
+        public long bytesTotal;
+        public long bytesSent;
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("Stats{");
+            sb.append("linked=").append(linked);
+            sb.append(", patched=").append(patched);
+            sb.append(", uploaded=").append(uploaded);
+            if (repaired > 0) sb.append(", repaired=").append(repaired);
+            sb.append(", sent=").append(FileUtils.byteCountToDisplaySize(bytesSent));
+            sb.append(" of ").append(FileUtils.byteCountToDisplaySize(bytesTotal));
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+
+    static final class FileSignature {
+        final String path;
+        final long size;
+        final boolean executable;
+        String md5;
+        final List<String> blocks = new ArrayList<String>();
+
+        FileSignature(String path, long size, boolean executable, String md5) {
+            this.path = path;
+            this.size = size;
+            this.executable = executable;
+            this.md5 = md5;
+        }
+
+        static FileSignature of(File file, String path, int blockSize) throws IOException {
+            MessageDigest whole = md5();
+            MessageDigest block = md5();
+
+            FileSignature signature = new FileSignature(path, file.length(), file.canExecute(), null);
+
+            InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+
+            try {
+                byte[] buffer = new byte[blockSize];
+
+                int n;
+
+                while ((n = readBlock(in, buffer)) > 0) {
+                    whole.update(buffer, 0, n);
+                    block.update(buffer, 0, n);
+
+                    signature.blocks.add(hex(block.digest()));
+                }
+            } finally {
+                in.close();
+            }
+
+            signature.md5 = hex(whole.digest());
+
+            return signature;
+        }
+    }
+
+    enum Kind {
+        LINK, PATCH, UPLOAD
+    }
+
+    /**
+     * Consecutive blocks taken either from the base version of a file or from the file's patch.
+     */
+    static final class Run {
+        final boolean fromBase;
+        final int block;
+        int count = 1;
+
+        Run(boolean fromBase, int block) {
+            this.fromBase = fromBase;
+            this.block = block;
+        }
+    }
+
+    static final class Entry {
+        final Kind kind;
+        final File file;
+        final FileSignature signature;
+
+        /**
+         * A base file to link or to take blocks from.
+         */
+        @Nullable
+        final String source;
+
+        final List<Run> runs = new ArrayList<Run>();
+
+        Entry(Kind kind, File file, FileSignature signature, @Nullable String source) {
+            this.kind = kind;
+            this.file = file;
+            this.signature = signature;
+            this.source = source;
+        }
+
+        int literalBlocks() {
+            int count = 0;
+
+            for (Run run : runs) {
+                if (!run.fromBase) count += run.count;
+            }
+
+            return count;
+        }
+    }
+
+    public Stats run() {
+        Preconditions.checkNotNull(dest, "destination is not set");
+
+        try {
+            Map<String, FileSignature> baseSignatures = base == null ? Collections.<String, FileSignature>emptyMap() :
+                parseSignatures(send(signatureScript(base, blockSize), 600000));
+
+            List<Entry> entries = plan(localDir, baseSignatures, blockSize);
+
+            return transfer(entries);
+        } catch (IOException e) {
+            throw Exceptions.runtime(e);
+        }
+    }
+
+    private Stats transfer(List<Entry> entries) throws IOException {
+        Stats stats = new Stats();
+
+        File localStage = Files.createTempDir();
+        String stage = dest + ".upload";
+
+        try {
+            $.sys.mkdirs(stage).run();
+
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+
+                stats.bytesTotal += entry.signature.size;
+
+                switch (entry.kind) {
+                    case LINK:
+                        stats.linked++;
+                        break;
+                    case PATCH:
+                        File patch = new File(localStage, String.valueOf(i));
+                        writePatch(entry, patch, blockSize);
+                        upload(stage + "/" + i, patch);
+                        stats.bytesSent += patch.length();
+                        stats.patched++;
+                        break;
+                    case UPLOAD:
+                        upload(stage + "/" + i, entry.file);
+                        stats.bytesSent += entry.signature.size;
+                        stats.uploaded++;
+                        break;
+                }
+            }
+
+            Set<Integer> failed = parseFailed(send(assembleScript(base, dest, stage, entries, blockSize), 600000));
+
+            if (!failed.isEmpty()) {
+                // a linked file shares its inode with the base, writing through it would change the live release
+                StringBuilder rm = new StringBuilder("rm -f");
+
+                for (Integer i : failed) {
+                    rm.append(' ').append(quote(dest + "/" + entries.get(i).signature.path));
+                }
+
+                send(rm.toString(), 60000);
+            }
+
+            for (Integer i : failed) {
+                Entry entry = entries.get(i);
+
+                logger.warn("{} didn't pass verification after {}, uploading it", entry.signature.path, entry.kind);
+
+                upload(dest + "/" + entry.signature.path, entry.file);
+
+                stats.bytesSent += entry.signature.size;
+                stats.repaired++;
+            }
+        } finally {
+            send("rm -rf " + quote(stage), 60000);
+            FileUtils.deleteQuietly(localStage);
+        }
+
+        logger.info("uploaded {} to {}: {}", localDir, dest, stats);
+
+        return stats;
+    }
+
+    private void upload(String path, File file) {
+        if ($.sys.upload(path, file).nok()) {
+            throw new BearException("could not upload " + file + " to " + path);
+        }
+    }
+
+    private String send(String script, int timeoutMs) {
+        CommandLineResult<?> result = $.sys.sendCommand($.sys.line().timeoutMs(timeoutMs).addRaw(script));
+        return result.output;
+    }
+
+    static String signatureScript(String base, int blockSize) {
+        return "cd " + quote(base) + " && find . -type f | while IFS= read -r f; do " +
+            "s=$(stat -c '%s %a' \"$f\"); m=$(md5sum < \"$f\" | cut -d ' ' -f 1); " +
+            "printf 'F %s %s %s\\n' \"$m\" \"$s\" \"$f\"; " +
+            "if [ \"${s% *}\" -gt " + blockSize + " ]; then " +
+            "split -b " + blockSize + " --filter='md5sum' \"$f\" | sed 's/ .*//; s/^/B /'; fi; done";
+    }
+
+    static Map<String, FileSignature> parseSignatures(String output) {
+        Map<String, FileSignature> map = new HashMap<String, FileSignature>();
+
+        FileSignature last = null;
+
+        for (String line : output.split("\r?\n")) {
+            if (line.startsWith("F ")) {
+                String[] parts = line.split(" ", 5);
+
+                if (parts.length < 5) continue;
+
+                String path = parts[4].startsWith("./") ? parts[4].substring(2) : parts[4];
+                boolean executable = (Integer.parseInt(parts[3], 8) & 0100) != 0;
+
+                last = new FileSignature(path, Long.parseLong(parts[2]), executable, parts[1]);
+
+                map.put(path, last);
+            } else if (line.startsWith("B ") && last != null) {
+                last.blocks.add(line.substring(2).trim());
+            }
+        }
+
+        return map;
+    }
+
+    static List<Entry> plan(File localDir, Map<String, FileSignature> base, int blockSize) throws IOException {
+        Map<String, FileSignature> baseByContent = new HashMap<String, FileSignature>();
+
+        for (FileSignature signature : base.values()) {
+            baseByContent.put(signature.md5 + signature.executable, signature);
+        }
+
+        List<Entry> entries = new ArrayList<Entry>();
+
+        for (File file : FileUtils.listFiles(localDir, null, true)) {
+            String path = localDir.toURI().relativize(file.toURI()).getPath();
+
+            FileSignature signature = FileSignature.of(file, path, blockSize);
+
+            FileSignature same = base.get(path);
+
+            if (same != null && same.md5.equals(signature.md5) && same.executable == signature.executable) {
+                entries.add(new Entry(Kind.LINK, file, signature, path));
+                continue;
+            }
+
+            FileSignature moved = baseByContent.get(signature.md5 + signature.executable);
+
+            if (moved != null) {
+                entries.add(new Entry(Kind.LINK, file, signature, moved.path));
+                continue;
+            }
+
+            if (same != null && !same.blocks.isEmpty() && signature.blocks.size() > 1) {
+                Entry entry = patch(file, signature, same);
+
+                if (entry != null) {
+                    entries.add(entry);
+                    continue;
+                }
+            }
+
+            entries.add(new Entry(Kind.UPLOAD, file, signature, null));
+        }
+
+        return entries;
+    }
+
+    /**
+     * @return null when no blocks can be reused
+     */
+    @Nullable
+    private static Entry patch(File file, FileSignature signature, FileSignature base) {
+        Map<String, Integer> baseBlocks = new HashMap<String, Integer>();
+
+        for (int i = base.blocks.size() - 1; i >= 0; i--) {
+            baseBlocks.put(base.blocks.get(i), i);
+        }
+
+        Entry entry = new Entry(Kind.PATCH, file, signature, base.path);
+
+        int literals = 0;
+        int reused = 0;
+
+        Run run = null;
+
+        for (String hash : signature.blocks) {
+            Integer baseBlock = baseBlocks.get(hash);
+
+            boolean fromBase = baseBlock != null;
+            int block = fromBase ? baseBlock : literals++;
+
+            if (fromBase) reused++;
+
+            if (run != null && run.fromBase == fromBase && run.block + run.count == block) {
+                run.count++;
+            } else {
+                entry.runs.add(run = new Run(fromBase, block));
+            }
+        }
+
+        return reused == 0 ? null : entry;
+    }
+
+    /**
+     * Writes blocks which are not in the base version, in order. Only the last block of a file can be short, so
+     * patch blocks stay aligned.
+     */
+    static void writePatch(Entry entry, File patch, int blockSize) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(entry.file, "r");
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(patch), 64 * 1024);
+
+        try {
+            byte[] buffer = new byte[blockSize];
+
+            int block = 0;
+
+            for (Run run : entry.runs) {
+                if (!run.fromBase) {
+                    for (int i = 0; i < run.count; i++) {
+                        in.seek((long) (block + i) * blockSize);
+
+                        int n = in.read(buffer, 0, (int) Math.min(blockSize, in.length() - in.getFilePointer()));
+
+                        out.write(buffer, 0, n);
+                    }
+                }
+
+                block += run.count;
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    static String assembleScript(@Nullable String base, String dest, String stage, List<Entry> entries, int blockSize) {
+        StringBuilder sb = new StringBuilder(entries.size() * 160);
+
+        String qBase = base == null ? null : quote(base);
+        String qStage = quote(stage);
+
+        sb.append("mkdir -p ").append(quote(dest)).append(" && cd ").append(quote(dest)).append(" || exit 1\n");
+
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+
+            String path = entry.signature.path;
+            String qPath = quote(path);
+
+            if (path.contains("/")) {
+                sb.append("mkdir -p ").append(quote(path.substring(0, path.lastIndexOf('/')))).append("; ");
+            }
+
+            switch (entry.kind) {
+                case LINK:
+                    sb.append("ln -f ").append(qBase).append('/').append(quote(entry.source)).append(' ').append(qPath);
+                    break;
+                case UPLOAD:
+                    sb.append("mv ").append(qStage).append("/").append(i).append(' ').append(qPath);
+                    break;
+                case PATCH:
+                    sb.append("{ ");
+
+                    int literal = 0;
+
+                    for (Run run : entry.runs) {
+                        sb.append("dd bs=").append(blockSize).append(" count=").append(run.count).append(" if=");
+
+                        if (run.fromBase) {
+                            sb.append(qBase).append('/').append(quote(entry.source)).append(" skip=").append(run.block);
+                        } else {
+                            sb.append(qStage).append('/').append(i).append(" skip=").append(literal);
+                            literal += run.count;
+                        }
+
+                        sb.append(" 2>/dev/null; ");
+                    }
+
+                    sb.append("} > ").append(qPath);
+                    break;
+            }
+
+            if (entry.kind != Kind.LINK) {
+                sb.append("; chmod ").append(entry.signature.executable ? "+x " : "-x ").append(qPath);
+            }
+
+            sb.append("; [ \"$(md5sum < ").append(qPath).append(" | cut -d ' ' -f 1)\" = ").append(entry.signature.md5)
+                .append(" ] || echo ").append(MARKER_PREFIX).append(i).append('\n');
+        }
+
+        return sb.toString();
+    }
+
+    static Set<Integer> parseFailed(String output) {
+        Set<Integer> set = new TreeSet<Integer>();
+
+        Matcher matcher = MARKER.matcher(output == null ? "" : output);
+
+        while (matcher.find()) {
+            set.add(Integer.valueOf(matcher.group(1)));
+        }
+
+        return set;
+    }
+
+    private static int readBlock(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+
+        while (total < buffer.length) {
+            int n = in.read(buffer, total, buffer.length - total);
+
+            if (n == -1) break;
+
+            total += n;
+        }
+
+        return total;
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw Exceptions.runtime(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+
+        return sb.toString();
+    }
+
+    static String quote(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+}
@@ -20,21 +20,13 @@ import bear.annotations.Shell;
 import bear.core.*;
 import bear.session.Address;
 import bear.session.SshAddress;
+import bear.ssh.SshConnectionPool;
 import bear.task.Task;
-import chaschev.util.CatchyCallable;
-import net.schmizz.sshj.SSHClient;
-import net.schmizz.sshj.connection.ConnectionException;
 import net.schmizz.sshj.connection.channel.direct.Session;
-import net.schmizz.sshj.transport.TransportException;
-import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.SystemUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
-import java.io.File;
-import java.util.concurrent.Callable;
-import java.util.concurrent.Future;
 
 /**
  * @author Andrey Chaschev chaschev@gmail.com
@@ -71,57 +63,24 @@ public class GenericUnixRemoteEnvironmentPlugin extends SystemEnvironmentPlugin
         return new RemoteSystemSession(this, parent, $);
     }
 
+    /**
+     * Remote commands of a session. Connections and channels are borrowed from {@link GlobalContext#getSshPool()},
+     * so they are shared across sessions and tasks of the same host.
+     */
     public static class SshSession {
-        private SSHClient ssh;
-        private Future<SSHClient> sshFuture;
-
-        SshAddress sshAddress;
-
-        boolean reuseSession = false;
-        private Session session;
+        final SshAddress sshAddress;
+        final GlobalContext global;
 
         public SshSession(final SshAddress sshAddress, GlobalContext global) {
             this.sshAddress = sshAddress;
-
-            sshFuture = global.getSessionsExecutor().submit(new CatchyCallable<SSHClient>(new Callable<SSHClient>() {
-                @Override
-                public SSHClient call() throws Exception {
-                    try {
-                        logger.info("connecting to {}", sshAddress.address);
-
-                        SSHClient ssh = new SSHClient();
-                        ssh.loadKnownHosts(new File(SystemUtils.getUserHome(), ".ssh/known_hosts"));
-                        ssh.connect(sshAddress.address);
-                        ssh.authPassword(sshAddress.username, sshAddress.password);
-
-                        return ssh;
-                    } catch (Exception e) {
-                        final String fingerprint = StringUtils.substringBetween(
-                            e.toString(), "fingerprint `", "`");
-
-                        SSHClient ssh = new SSHClient();
-
-                        ssh.loadKnownHosts(new File(SystemUtils.getUserHome(), ".ssh/known_hosts"));
-                        ssh.addHostKeyVerifier(fingerprint);
-                        ssh.connect(sshAddress.address);
-                        ssh.authPassword(sshAddress.username, sshAddress.password);
-
-                        return ssh;
-                    }
-                }
-            }));
+            this.global = global;
         }
 
-        public synchronized SSHClient getSsh() {
-            if (ssh == null) {
-                try {
-                    ssh = sshFuture.get();
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-            }
-
-            return ssh;
+        /**
+         * The lease must be closed when the transfer is done.
+         */
+        public SshConnectionPool.Lease leaseClient() {
+            return global.getSshPool().leaseClient(sshAddress);
         }
 
         abstract static class WithLowLevelSession {
@@ -136,41 +95,16 @@ public class GenericUnixRemoteEnvironmentPlugin extends SystemEnvironmentPlugin
         }
 
         public void withSession(WithLowLevelSession withSession) {
-            try {
-                final Session s = getSession();
-//                final Session.Shell shell = s.startShell();
-                withSession.act(s, null);
+            final SshConnectionPool.Lease lease = global.getSshPool().openSession(sshAddress);
 
-                if (!reuseSession) {
-                    s.close();
-                }
+            try {
+                withSession.act(lease.getSession(), null);
             } catch (Exception e) {
                 throw new RuntimeException(e);
+            } finally {
+                lease.close();
             }
         }
-
-        synchronized Session getSession() throws ConnectionException, TransportException {
-            if (reuseSession) {
-                if (session == null) {
-                    session = newSession();
-                }
-                return session;
-            } else {
-                return newSession();
-            }
-        }
-
-        private Session newSession() throws ConnectionException, TransportException {
-            final Session s = getSsh().startSession();
-            s.allocateDefaultPTY();
-//            try {
-//                s.getOutputStream().write("ls\n".getBytes(IOUtils.UTF8));
-//                s.getOutputStream().flush();
-//            } catch (IOException e) {
-//                throw new RuntimeException(e);
-//            }
-            return s;
-        }
     }
 
 
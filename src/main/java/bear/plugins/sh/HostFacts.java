@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.plugins.sh;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * State of a host which plugins check before doing their job: OS, paths and versions of tools, disk and memory. All of
+ * it is collected by one script, so a host is probed in a single round trip instead of a command per check.
+ *
+ * Tools are probed by running their version command, plugins can add their tools with
+ * {@link #probeVersion(String, String)}.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class HostFacts {
+    public static final String BEGIN = "__BEAR_FACTS_BEGIN";
+    public static final String END = "__BEAR_FACTS_END";
+
+    private static final Map<String, String> versionProbes = new LinkedHashMap<String, String>();
+
+    static {
+        probeVersion("java", "java -version");
+        probeVersion("mvn", "mvn --version");
+        probeVersion("git", "git --version");
+        probeVersion("svn", "svn --version");
+        probeVersion("mysql", "mysql --version");
+        probeVersion("mongo", "mongo --version");
+        probeVersion("node", "node --version");
+        probeVersion("npm", "npm --version");
+        probeVersion("ruby", "ruby --version");
+        probeVersion("python", "python --version");
+    }
+
+    final Map<String, String> values;
+
+    final long gatheredAt;
+
+    public HostFacts(Map<String, String> values, long gatheredAt) {
+        this.values = Collections.unmodifiableMap(new LinkedHashMap<String, String>(values));
+        this.gatheredAt = gatheredAt;
+    }
+
+    public static synchronized void probeVersion(String tool, String command) {
+        versionProbes.put(tool, command);
+    }
+
+    static synchronized Map<String, String> versionProbes() {
+        return new LinkedHashMap<String, String>(versionProbes);
+    }
+
+    public static String script() {
+        return script(versionProbes());
+    }
+
+    /**
+     * Prints facts as <code>key=value</code> lines between {@link #BEGIN} and {@link #END}. Each value is the first line
+     * of its command's output.
+     */
+    public static String script(Map<String, String> versionProbes) {
+        StringBuilder sb = new StringBuilder(2048);
+
+        sb.append("f() { printf '%s=%s\\n' \"$1\" \"$(eval \"$2\" 2>/dev/null | head -n 1 | tr -d '\\r')\"; }\n");
+
+        // markers are split so that an echo of the command is not taken for them
+        sb.append(marker(BEGIN));
+
+        fact(sb, "issue", "head -n 3 /etc/issue | tr '\\n' ' '");
+        fact(sb, "kernel", "uname -sr");
+        fact(sb, "arch", "uname -m");
+        fact(sb, "cpus", "grep -c ^processor /proc/cpuinfo");
+        fact(sb, "memTotalKb", "awk '/^MemTotal:/ {print $2}' /proc/meminfo");
+        fact(sb, "memAvailableKb", "awk '/^MemAvailable:/ {a=$2} /^MemFree:/ {f=$2} END {print a ? a : f}' /proc/meminfo");
+        fact(sb, "diskTotalKb", "df -Pk / | awk 'NR==2 {print $2}'");
+        fact(sb, "diskFreeKb", "df -Pk / | awk 'NR==2 {print $4}'");
+
+        for (Map.Entry<String, String> e : versionProbes.entrySet()) {
+            String tool = e.getKey();
+
+            fact(sb, "path." + tool, "command -v " + tool);
+            fact(sb, "version." + tool, "command -v " + tool + " >/dev/null && " + e.getValue() + " 2>&1");
+        }
+
+        sb.append(marker(END));
+
+        return sb.toString();
+    }
+
+    /**
+     * Cached facts are gathered again when the probes change.
+     */
+    public static String probesHash() {
+        return Hashing.sha1().hashString(script(), Charsets.UTF_8).toString();
+    }
+
+    private static String marker(String marker) {
+        int i = marker.lastIndexOf('_');
+
+        return "printf '%s_%s\\n' " + marker.substring(0, i) + " " + marker.substring(i + 1) + "\n";
+    }
+
+    private static void fact(StringBuilder sb, String key, String command) {
+        sb.append("f ").append(key).append(' ').append(quote(command)).append('\n');
+    }
+
+    @Nullable
+    public static HostFacts parse(@Nullable String output, long time) {
+        if (output == null) return null;
+
+        int begin = output.indexOf(BEGIN);
+        int end = output.indexOf(END, begin + 1);
+
+        if (begin == -1 || end == -1) return null;
+
+        Map<String, String> values = new LinkedHashMap<String, String>();
+
+        for (String line : output.substring(begin + BEGIN.length(), end).split("\n")) {
+            int i = line.indexOf('=');
+
+            if (i <= 0) continue;
+
+            values.put(line.substring(0, i).trim(), line.substring(i + 1).trim());
+        }
+
+        return new HostFacts(values, time);
+    }
+
+    @Nullable
+    public String get(String key) {
+        return Strings.emptyToNull(values.get(key));
+    }
+
+    public String getIssue() {
+        return get("issue");
+    }
+
+    public String getKernel() {
+        return get("kernel");
+    }
+
+    public String getArch() {
+        return get("arch");
+    }
+
+    public int getCpus() {
+        return intValue("cpus");
+    }
+
+    public int getMemTotalMb() {
+        return intValue("memTotalKb") / 1024;
+    }
+
+    public int getMemAvailableMb() {
+        return intValue("memAvailableKb") / 1024;
+    }
+
+    public int getDiskTotalMb() {
+        return (int) (longValue("diskTotalKb") / 1024);
+    }
+
+    public int getDiskFreeMb() {
+        return (int) (longValue("diskFreeKb") / 1024);
+    }
+
+    /**
+     * @return the path of a probed tool or null when it is not installed
+     */
+    @Nullable
+    public String path(String tool) {
+        return get("path." + tool);
+    }
+
+    public boolean isInstalled(String tool) {
+        return path(tool) != null;
+    }
+
+    /**
+     * @return the first line of the tool's version command, null when the tool is not installed
+     */
+    @Nullable
+    public String version(String tool) {
+        return isInstalled(tool) ? get("version." + tool) : null;
+    }
+
+    /**
+     * @return true if the tool is probed by this set of facts, otherwise it should be checked separately
+     */
+    public boolean isProbed(String tool) {
+        return values.containsKey("path." + tool);
+    }
+
+    public long getGatheredAt() {
+        return gatheredAt;
+    }
+
+    private int intValue(String key) {
+        return (int) longValue(key);
+    }
+
+    private long longValue(String key) {
+        String s = get(key);
+
+        if (s == null) return 0;
+
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static String quote(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+
+    @Override
+    public String toString() {
+        return "HostFacts" + values;
+    }
+}
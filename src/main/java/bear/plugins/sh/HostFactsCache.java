@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.plugins.sh;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Facts of hosts stored locally, one properties file per host. Facts expire after a TTL, when the probes change or
+ * when something is installed on the host.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class HostFactsCache {
+    private static final Logger logger = LoggerFactory.getLogger(HostFactsCache.class);
+
+    private static final String GATHERED_AT = "bear.gatheredAt";
+    private static final String PROBES = "bear.probes";
+
+    private final File dir;
+    private final long ttlMs;
+
+    public HostFactsCache(File dir, long ttlMs) {
+        this.dir = dir;
+        this.ttlMs = ttlMs;
+    }
+
+    @Nullable
+    public HostFacts load(String host, String probesHash) {
+        File file = file(host);
+
+        if (ttlMs <= 0 || !file.exists()) return null;
+
+        Properties properties = new Properties();
+
+        InputStream in = null;
+
+        try {
+            in = new BufferedInputStream(new FileInputStream(file));
+
+            properties.load(in);
+        } catch (IOException e) {
+            logger.warn("could not read {}: {}", file, e.toString());
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+
+        long gatheredAt;
+
+        try {
+            gatheredAt = Long.parseLong(properties.getProperty(GATHERED_AT, "0"));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        if (System.currentTimeMillis() - gatheredAt > ttlMs || !probesHash.equals(properties.getProperty(PROBES))) {
+            return null;
+        }
+
+        Map<String, String> values = new LinkedHashMap<String, String>();
+
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.equals(GATHERED_AT) && !key.equals(PROBES)) {
+                values.put(key, properties.getProperty(key));
+            }
+        }
+
+        return new HostFacts(values, gatheredAt);
+    }
+
+    public void store(String host, HostFacts facts, String probesHash) {
+        if (ttlMs <= 0) return;
+
+        File file = file(host);
+        File temp = new File(file.getPath() + ".tmp");
+
+        Properties properties = new Properties();
+
+        properties.putAll(facts.values);
+        properties.setProperty(GATHERED_AT, String.valueOf(facts.gatheredAt));
+        properties.setProperty(PROBES, probesHash);
+
+        OutputStream out = null;
+
+        try {
+            FileUtils.forceMkdir(dir);
+
+            out = new BufferedOutputStream(new FileOutputStream(temp));
+
+            properties.store(out, "facts of " + host);
+
+            out.close();
+            out = null;
+
+            if (!temp.renameTo(file)) {
+                FileUtils.deleteQuietly(file);
+                FileUtils.moveFile(temp, file);
+            }
+        } catch (IOException e) {
+            logger.warn("could not store facts of {}: {}", host, e.toString());
+        } finally {
+            IOUtils.closeQuietly(out);
+            FileUtils.deleteQuietly(temp);
+        }
+    }
+
+    public void invalidate(String host) {
+        FileUtils.deleteQuietly(file(host));
+    }
+
+    File file(String host) {
+        return new File(dir, host.replaceAll("[^A-Za-z0-9._-]", "_") + ".properties");
+    }
+}
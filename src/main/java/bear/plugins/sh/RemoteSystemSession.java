@@ -3,13 +3,18 @@ package bear.plugins.sh;
 import bear.console.AbstractConsoleCommand;
 import bear.console.ConsoleCallback;
 import bear.console.ConsoleCallbackResult;
+import bear.console.ConsoleCallbackResultType;
 import bear.core.AbstractConsole;
 import bear.core.GlobalContext;
 import bear.core.MarkedBuffer;
 import bear.core.SessionContext;
 import bear.core.except.NoSuchFileException;
+import bear.main.event.TransferProgressEventToUI;
 import bear.session.Result;
 import bear.session.SshAddress;
+import bear.ssh.PersistentShell;
+import bear.ssh.SftpTransfers;
+import bear.ssh.SshConnectionPool;
 import bear.task.BearException;
 import bear.task.Task;
 import bear.task.TaskResult;
@@ -24,6 +29,7 @@ import net.schmizz.sshj.xfer.FileSystemFile;
 import net.schmizz.sshj.xfer.scp.SCPFileTransfer;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,6 +38,7 @@ import javax.annotation.Nonnull;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -52,6 +59,8 @@ public class RemoteSystemSession extends SystemSession {
 
     GenericUnixRemoteEnvironmentPlugin.SshSession sshSession;
 
+    PersistentShell persistentShell;
+
     public RemoteSystemSession(GenericUnixRemoteEnvironmentPlugin remotePlugin, Task parent, SessionContext $) {
         super(parent, remotePlugin.getTaskDefMixin(), $);
         this.remotePlugin = remotePlugin;
@@ -71,6 +80,121 @@ public class RemoteSystemSession extends SystemSession {
         }
     }
 
+    private PersistentShell persistentShell() {
+        if (persistentShell == null || persistentShell.isClosed()) {
+            final SshConnectionPool.Lease lease = global.getSshPool().openSession((SshAddress) address);
+
+            try {
+                Session.Shell shell = lease.getSession().startShell();
+                persistentShell = new PersistentShell(shell.getOutputStream(), shell.getInputStream(), lease);
+            } catch (Exception e) {
+                lease.close();
+                throw Exceptions.runtime(e);
+            }
+        }
+
+        return persistentShell;
+    }
+
+    @Override
+    public void releaseResources() {
+        if (persistentShell != null) {
+            persistentShell.close();
+            persistentShell = null;
+        }
+    }
+
+    private <T extends CommandLineResult<?>> T sendCommandViaShell(AbstractConsoleCommand<T> command) {
+        PersistentShell shell = persistentShell();
+
+        // i.e. used by a watchdog thread of this session
+        if (!shell.tryAcquire()) {
+            return null;
+        }
+
+        try {
+            String text = command.asText();
+
+            // the wrapper callback is always there, so stdin is kept only for commands with their own callback
+            boolean interactive = PersistentShell.isInteractive(text, command.getCallback());
+
+            return toResult(command, shell.run(text, shellCallback(command), interactive, getTimeout(command)));
+        } finally {
+            shell.release();
+        }
+    }
+
+    private <T extends CommandLineResult<?>> T toResult(AbstractConsoleCommand<T> command, PersistentShell.Response response) {
+        final T t = ((CommandLine<T, ?>) command).parseResult($, response.output.trim());
+
+        // like with exec, null means the command has been stopped by a callback
+        int exitStatus = response.exitCode == null ? 0 : response.exitCode;
+
+        Result result = exitStatus == 0 && response.error == null ? Result.OK : Result.ERROR;
+
+        t.setResult(Result.and(t.getResult(), result));
+
+        if (response.error != null) {
+            t.setException(response.error);
+        }
+
+        if (response.lastCallbackError != null) {
+            t.setException(new Exception("last callback error: " + response.lastCallbackError.object));
+        }
+
+        logger.debug("response: {}", t.output);
+
+        return t;
+    }
+
+    private ConsoleCallback shellCallback(final AbstractConsoleCommand<?> command) {
+        final ConsoleCallback userCallback = command.getCallback();
+
+        return new ConsoleCallback() {
+            @Nonnull
+            @Override
+            public ConsoleCallbackResult progress(bear.console.AbstractConsole.Terminal console, String textAdded, String wholeText) {
+                logText(textAdded);
+
+                command.append(textAdded);
+
+                if (userCallback != null) {
+                    try {
+                        ConsoleCallbackResult progress = userCallback.progress(console, textAdded, wholeText);
+
+                        if (progress.type == ConsoleCallbackResultType.WARNING) {
+                            logger.warn("warning during console processing: {}", progress.object);
+                        } else {
+                            return progress;
+                        }
+                    } catch (Exception e) {
+                        logger.error("", e);
+                    }
+                } else {
+                    if (wholeText.contains("sudo") && wholeText.contains("password")) {
+                        ((PersistentShell.ShellTerminal) console).markStart();
+
+                        console.println($.var(global.bear.sshPassword));
+                    }
+                }
+
+                return ConsoleCallbackResult.CONTINUE;
+            }
+        };
+    }
+
+    private void logText(String textAdded) {
+        $.logOutput(textAdded);
+
+        if(printToConsole){
+            System.out.print(textAdded);
+        }else{
+            if(!StringUtils.isBlank(textAdded)){
+                logger.debug("text: {}", textAdded);
+            }
+        }
+    }
+
     @Override
     protected  <T extends CommandLineResult<?>> T sendCommandImpl(
         final AbstractConsoleCommand<T> command) {
@@ -79,6 +203,14 @@ public class RemoteSystemSession extends SystemSession {
 
         Preconditions.checkArgument(command instanceof CommandLine<?, ?>);
 
+        if ($(global.bear.sshPersistentShell)) {
+            T t = sendCommandViaShell(command);
+
+            if (t != null) {
+                return t;
+            }
+        }
+
         checkConnection();
 
         final int[] exitStatus = {0};
@@ -96,27 +228,19 @@ public class RemoteSystemSession extends SystemSession {
                     @Nonnull
                     @Override
                     public ConsoleCallbackResult textAdded(String textAdded, MarkedBuffer buffer) throws Exception {
-                        $.logOutput(textAdded);
-
-                        if(printToConsole){
-                            System.out.print(textAdded);
-                        }else{
-                            if(!StringUtils.isBlank(textAdded)){
-                                logger.debug("text: {}", textAdded);
-                            }
-                        }
+                        logText(textAdded);
 
                         if (Strings.isNullOrEmpty(textAdded)) {
                             return ConsoleCallbackResult.CONTINUE;
                         }
 
-                        final String text = buffer.wholeText();
+                        command.append(textAdded);
 
-                        command.append(text);
+                        final String text = buffer.window();
 
                         if (userCallback != null) {
                             try {
-                                ConsoleCallbackResult progress = userCallback.progress(console, textAdded, buffer.wholeText());
+                                ConsoleCallbackResult progress = userCallback.progress(console, textAdded, text);
                                 switch (progress.type) {
                                     case CONTINUE:
                                         break;
@@ -143,73 +267,82 @@ public class RemoteSystemSession extends SystemSession {
                     }
                 })
                     .bufSize(session.getRemoteMaxPacketSize())
-                    .spawn(global.getLocalExecutor(), (int) getTimeout(command), TimeUnit.MILLISECONDS);
+                    .spawn(global.getStreamMultiplexer(), (int) getTimeout(command), TimeUnit.MILLISECONDS);
 
-                Stopwatch sw = Stopwatch.createStarted();
+                try {
+                    Stopwatch sw = Stopwatch.createStarted();
 
-                boolean wasInterrupted = false;
-                Exception error = null;
+                    boolean wasInterrupted = false;
+                    Exception error = null;
 
-                try {
-                    execSshCommand.join((int) getTimeout(command), TimeUnit.MILLISECONDS);
+                    try {
+                        execSshCommand.join((int) getTimeout(command), TimeUnit.MILLISECONDS);
 
-                    if(!remoteConsole.awaitStreamCopiers(20, TimeUnit.MILLISECONDS)){
-    //                            logger.debug("WAAARN, NOT ALL FINISHED!!!");
-                        remoteConsole.stopStreamCopiers();
-    //                            logger.debug("stopStreamCopiers timing: {}", sw.elapsed(TimeUnit.MILLISECONDS));
-                    }
+                        if(!remoteConsole.awaitStreamCopiers(20, TimeUnit.MILLISECONDS)){
+        //                            logger.debug("WAAARN, NOT ALL FINISHED!!!");
+                            remoteConsole.stopStreamCopiers();
+        //                            logger.debug("stopStreamCopiers timing: {}", sw.elapsed(TimeUnit.MILLISECONDS));
+                        }
 
-                    if(logger.isDebugEnabled()){
-                        logger.debug("join timing: {} ms, cmd: {}", sw.elapsed(TimeUnit.MILLISECONDS), command.asText(false));
-                    }
-                } catch (ConnectionException e){
-                    if(logger.isDebugEnabled()){
-                        logger.debug("(exception) join timing: {} ms, cmd: {}, ex: {}", sw.elapsed(TimeUnit.MILLISECONDS), command.asText(false),
-                            Throwables.getStackTraceAsString(e));
-                    }
-                    // can be interrupted by self:
-                    // callback returns done|exception
-                    //
-                    error = e;
-                    if(Throwables.getRootCause(e) instanceof InterruptedException){
-                        wasInterrupted = true;
+                        if(logger.isDebugEnabled()){
+                            logger.debug("join timing: {} ms, cmd: {}", sw.elapsed(TimeUnit.MILLISECONDS), command.asText(false));
+                        }
+                    } catch (ConnectionException e){
+                        if(logger.isDebugEnabled()){
+                            logger.debug("(exception) join timing: {} ms, cmd: {}, ex: {}", sw.elapsed(TimeUnit.MILLISECONDS), command.asText(false),
+                                Throwables.getStackTraceAsString(e));
+                        }
+                        // can be interrupted by self:
+                        // callback returns done|exception
+                        //
+                        error = e;
+                        if(Throwables.getRootCause(e) instanceof InterruptedException){
+                            wasInterrupted = true;
+                        }
                     }
-                }
-                finally {
-                    if(!remoteConsole.allFinished()){
-                        remoteConsole.stopStreamCopiers();
+                    finally {
+                        if(!remoteConsole.allFinished()){
+                            remoteConsole.stopStreamCopiers();
+                        }
                     }
-                }
 
-//                        logger.debug("awaitStreamCopiers timing: {}", sw.elapsed(TimeUnit.MILLISECONDS));
+    //                        logger.debug("awaitStreamCopiers timing: {}", sw.elapsed(TimeUnit.MILLISECONDS));
 
-                Integer code = execSshCommand.getExitStatus();
+                    Integer code = execSshCommand.getExitStatus();
 
-                if(code == null){
-                    logger.info("command has been preliminarily stopped (null code for {})", command.asText(false));
-                }
+                    if(code == null){
+                        logger.info("command has been preliminarily stopped (null code for {})", command.asText(false));
+                    }
 
-                // it returns null when connection is closed on our side
-                // connection can be closed in a callback by returning DONE
-                exitStatus[0] = code == null ? 0 : code;
+                    // it returns null when connection is closed on our side
+                    // connection can be closed in a callback by returning DONE
+                    exitStatus[0] = code == null ? 0 : code;
 
-                if (exitStatus[0] == 0) {
-                    result[0].setResult(Result.OK);
-                }
+                    if (exitStatus[0] == 0) {
+                        result[0].setResult(Result.OK);
+                    }
 
-                if(error != null){
-                    result[0].setException(error);
-                }
+                    if(error != null){
+                        result[0].setException(error);
+                    }
 
-                Optional<ConsoleCallbackResult> lastCallbackError = remoteConsole.getLastError();
+                    Optional<ConsoleCallbackResult> lastCallbackError = remoteConsole.getLastError();
 
-                if(lastCallbackError.isPresent()){
-                    result[0].setException(new Exception("last callback error: " + lastCallbackError.get().object));
-                }
+                    if(lastCallbackError.isPresent()){
+                        result[0].setException(new Exception("last callback error: " + lastCallbackError.get().object));
+                    }
 
-//                logger.debug("OOOOOOOOOOOOPS, error in sendImpl: {}", lastCallbackError);
+    //                logger.debug("OOOOOOOOOOOOPS, error in sendImpl: {}", lastCallbackError);
 
-                text = remoteConsole.concatOutputs().toString().trim();
+                    text = remoteConsole.concatOutputs().toString().trim();
+
+                    if (exitStatus[0] != 0 && logger.isDebugEnabled()) {
+                        logger.debug("output of a failed command, {}:\n{}", command.asText(false), remoteConsole.getJournal().text(true));
+                    }
+                } finally {
+                    // output is taken, the journal would keep a second copy of it
+                    remoteConsole.releaseJournal();
+                }
 
                 logger.debug("response: {}", text);
             }
@@ -277,9 +410,15 @@ public class RemoteSystemSession extends SystemSession {
 
         checkConnection();
 
-        final SCPFileTransfer transfer = sshSession.getSsh().newSCPFileTransfer();
+        final SshConnectionPool.Lease lease = sshSession.leaseClient();
 
         try {
+            if ($(global.bear.sftpTransfers)) {
+                global.getSftpTransfers().upload(lease.getSsh(), dest, Arrays.asList(files), transferProgress("upload"));
+                return Result.OK;
+            }
+
+            final SCPFileTransfer transfer = lease.getSsh().newSCPFileTransfer();
 
             if (files.length == 1) {
                 logger.info("transferring {} to {}", files[0], dest);
@@ -296,9 +435,20 @@ public class RemoteSystemSession extends SystemSession {
             return Result.OK;
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            lease.close();
         }
     }
 
+    private SftpTransfers.ProgressListener transferProgress(final String direction) {
+        return new SftpTransfers.ProgressListener() {
+            @Override
+            public void progress(String path, long bytes, long total, boolean done) {
+                SessionContext.ui.info(new TransferProgressEventToUI(direction, $.getName(), path, bytes, total, done));
+            }
+        };
+    }
+
     @Override
     public Result scp(String dest, String[] args, String... paths) {
         logger.info("uploading {} files to {}", paths.length, dest);
@@ -397,8 +547,17 @@ public class RemoteSystemSession extends SystemSession {
 
         checkConnection();
 
+        final SshConnectionPool.Lease lease = sshSession.leaseClient();
+
+        SFTPClient sftpClient = null;
+
         try {
-            SFTPClient sftpClient = sshSession.getSsh().newSFTPClient();
+            if ($(global.bear.sftpTransfers)) {
+                return new DownloadResult(global.getSftpTransfers().download(lease.getSsh(), paths, destParentDir,
+                    transferProgress("download")));
+            }
+
+            sftpClient = lease.getSsh().newSFTPClient();
             List<File> files = new ArrayList<File>(paths.size());
 
             for (String path : paths) {
@@ -414,6 +573,9 @@ public class RemoteSystemSession extends SystemSession {
             return new DownloadResult(files);
         } catch (IOException e) {
             return new DownloadResult(e);
+        } finally {
+            IOUtils.closeQuietly(sftpClient);
+            lease.close();
         }
 
 //        final SCPFileTransfer transfer = sshSession.getSsh().newSCPFileTransfer();
@@ -55,6 +55,8 @@ public abstract class SystemSession extends Task<Object, TaskResult<?>> implemen
 
     protected OSInfo osInfo;
 
+    protected HostFacts facts;
+
     SystemSession(Task parent, SystemEnvironmentPlugin.SystemSessionDef definition, SessionContext $) {
         super(parent, definition, $);
     }
@@ -74,6 +76,13 @@ public abstract class SystemSession extends Task<Object, TaskResult<?>> implemen
         return result;
     }
 
+    /**
+     * Called when the session has finished all its tasks.
+     */
+    public void releaseResources() {
+
+    }
+
     public <T extends CommandLineResult<?>> T run(Script<T, ?> script) {
         StringBuilder sb = new StringBuilder(1024);
 
@@ -357,12 +366,14 @@ public abstract class SystemSession extends Task<Object, TaskResult<?>> implemen
 
 
     protected OSInfo computeUnixFlavour() {
+        return parseUnixFlavour(capture("cat /etc/issue"));
+    }
+
+    protected OSInfo parseUnixFlavour(String text) {
 
 //        versionScheme.parseVersion();
 
         try {
-            final String text = capture("cat /etc/issue");
-
             if (text == null) return null;
 
             UnixFlavour flavour = null;
@@ -404,12 +415,67 @@ public abstract class SystemSession extends Task<Object, TaskResult<?>> implemen
 
     public OSInfo getOsInfo() {
         if (osInfo == null) {
-            osInfo = computeUnixFlavour();
+            osInfo = usesHostFacts() ? parseUnixFlavour(getFacts().getIssue()) : computeUnixFlavour();
         }
 
         return osInfo;
     }
 
+    public boolean usesHostFacts() {
+        return $.var($.bear.useHostFacts);
+    }
+
+    /**
+     * Facts are gathered once per session, or taken from the local cache while they are fresh.
+     */
+    public HostFacts getFacts() {
+        if (facts == null) {
+            facts = gatherFacts();
+        }
+
+        return facts;
+    }
+
+    protected HostFacts gatherFacts() {
+        HostFactsCache cache = $.var($.bear.hostFactsCache);
+
+        String probesHash = HostFacts.probesHash();
+
+        HostFacts cached = cache.load(getAddress(), probesHash);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        CommandLineResult<?> result = sendCommand(line()
+            .timeoutSec(60)
+            .addRaw("bash -c " + HostFacts.quote(HostFacts.script())));
+
+        HostFacts facts = HostFacts.parse(result.output, System.currentTimeMillis());
+
+        if (facts == null) {
+            throw new ValidationException("could not gather facts of " + getAddress() + ": " + result.output);
+        }
+
+        cache.store(getAddress(), facts, probesHash);
+
+        return facts;
+    }
+
+    /**
+     * Called after a change to the host, i.e. an installation, so that the facts are gathered again and dependencies
+     * are checked again.
+     */
+    public void invalidateFacts() {
+        facts = null;
+
+        $.runner.getDependencyChecks().invalidate();
+
+        if (usesHostFacts()) {
+            $.var($.bear.hostFactsCache).invalidate(getAddress());
+        }
+    }
+
     public SystemEnvironmentPlugin.PackageManager getPackageManager() {
 
         //todo move into os info
@@ -452,6 +518,8 @@ public abstract class SystemSession extends Task<Object, TaskResult<?>> implemen
             final CommandLineResult<?> result = sys.sendCommand(
                 sys.line().timeoutForInstallation().sudo().a(command(), "install", packageName, "-y"));
 
+            sys.invalidateFacts();
+
             final String text = result.output;
 
             if (text.contains("Complete!") ||
@@ -493,6 +561,8 @@ public abstract class SystemSession extends Task<Object, TaskResult<?>> implemen
             final CommandLineResult<?> result = sys.sendCommand(
                 sys.line().timeoutForInstallation().sudo().a(command(), "install", packageName, "-y"));
 
+            sys.invalidateFacts();
+
             final String text = result.output;
 
             if (text.contains("is already the newest version")) {
@@ -57,6 +57,10 @@ public class DynamicVariable<T> implements Nameable<T> {
 
     Class<? extends AbstractContext> memoizeIn;
 
+    private transient int id = -1;
+
+    private boolean pure;
+
     public DynamicVariable(String name, String desc) {
         this.name = name;
         this.desc = desc;
@@ -94,6 +98,19 @@ public class DynamicVariable<T> implements Nameable<T> {
         return name;
     }
 
+    /**
+     * @return dense id of the name, see {@link VariableIds}
+     */
+    public final int id() {
+        int i = id;
+
+        if(i == -1){
+            id = i = VariableIds.of(name);
+        }
+
+        return i;
+    }
+
     public final T apply(AbstractContext $) {
         return (T) apply($, defaultValue);
     }
@@ -156,6 +173,8 @@ public class DynamicVariable<T> implements Nameable<T> {
         T oldValue = this.defaultValue;
         this.defaultValue = newValue;
 
+        written();
+
         onValueChange(oldValue, newValue);
 
         return this;
@@ -164,6 +183,7 @@ public class DynamicVariable<T> implements Nameable<T> {
     public DynamicVariable<T> setDynamic(Fun<? extends AbstractContext, T> impl) {
         Fun<? extends AbstractContext, T> oldFun = this.fun;
         this.fun = impl;
+        this.pure = false;
 
         if (impl instanceof VarFun<?, ?>) {
             VarFun<T, ?> varFun = (VarFun<T, ?>) impl;
@@ -173,6 +193,8 @@ public class DynamicVariable<T> implements Nameable<T> {
 
         defaultValue = null;
 
+        written();
+
         if(listeners != null){
             for (ChangeListener<T> listener : listeners) {
                 listener.changedDynamic(this, oldFun, impl);
@@ -242,14 +264,39 @@ public class DynamicVariable<T> implements Nameable<T> {
                 return $.var(variable);
             }
         });
-        return this;
+        return pure();
     }
 
     public DynamicVariable<T> setName(String name) {
         this.name = name;
+        this.id = -1;
+        written();
         return this;
     }
 
+    /**
+     * Marks the implementation as a function of other variables only. Values of pure variables are cached per layer
+     * and are recalculated when one of the variables read during the evaluation is written.
+     */
+    public DynamicVariable<T> pure() {
+        this.pure = true;
+        return this;
+    }
+
+    public boolean isPure() {
+        return pure;
+    }
+
+    public boolean isDynamic() {
+        return fun != null;
+    }
+
+    private void written() {
+        if(isNameSet() && !isTemporal()){
+            VariableIds.written(id());
+        }
+    }
+
     public DynamicVariable<T> addListener(ChangeListener<T> listener){
         if(this.listeners == null){
             this.listeners = new ArrayList<ChangeListener<T>>(2);
@@ -287,6 +334,7 @@ public class DynamicVariable<T> implements Nameable<T> {
 
     public DynamicVariable<T> temp() {
         name = TEMP_VAR;
+        id = -1;
         return this;
     }
 
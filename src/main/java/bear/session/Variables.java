@@ -104,7 +104,7 @@ public class Variables {
             public T apply(AbstractContext $) {
                 return function.apply($.var(var));
             }
-        }).temp();
+        }).pure().temp();
     }
 
     public static <T> DynamicVariable<Boolean> isEql(final DynamicVariable<T> variable, final String to) {
@@ -113,7 +113,7 @@ public class Variables {
                 final T v = $.var(variable);
                 return v == null ? to == null : String.valueOf(v).equals(to);
             }
-        }).temp();
+        }).pure().temp();
     }
 
     public static <T> DynamicVariable<Boolean> isSet(final DynamicVariable<T> var) {
@@ -137,7 +137,7 @@ public class Variables {
             public T apply(AbstractContext $) {
                 return $.varB(condition) ? $.var(trueVar) : $.var(falseVar);
             }
-        }).temp();
+        }).pure().temp();
     }
 
     public static <T> DynamicVariable<T> equalTo(final DynamicVariable<T> variable) {
@@ -145,7 +145,7 @@ public class Variables {
             public T apply(AbstractContext $) {
                 return $.var(variable);
             }
-        }).temp();
+        }).pure().temp();
     }
 
     public static DynamicVariable<Boolean> and(final DynamicVariable... bools) {
@@ -157,7 +157,7 @@ public class Variables {
 
                 return true;
             }
-        }).temp();
+        }).pure().temp();
     }
 
     public static DynamicVariable<Boolean> or(String name, final DynamicVariable... bools) {
@@ -169,7 +169,7 @@ public class Variables {
 
                 return false;
             }
-        });
+        }).pure();
     }
 
     public static DynamicVariable<String> concat(final Object... varsAndStrings) {
@@ -177,7 +177,7 @@ public class Variables {
             public String apply(AbstractContext $) {
                 return Variables.concat($, varsAndStrings);
             }
-        }).temp();
+        }).pure().temp();
     }
 
     public static String concat(AbstractContext $, Object... varsAndStrings) {
@@ -195,7 +195,7 @@ public class Variables {
             public List<String> apply(AbstractContext $) {
                 return splitter.splitToList($.var(str));
             }
-        }).temp();
+        }).pure().temp();
     }
 
     public static DynamicVariable<String> format(final String s, final Object... varsAndStrings){
@@ -203,7 +203,7 @@ public class Variables {
             public String apply(SessionContext $) {
                 return String.format(s, resolveVars($, varsAndStrings));
             }
-        }).temp();
+        }).pure().temp();
     }
 
     public static Object[] resolveVars(AbstractContext $, Object... varsAndStrings) {
@@ -22,6 +22,7 @@ import chaschev.lang.OpenBean;
 import chaschev.util.CatchyCallable;
 import chaschev.util.Exceptions;
 import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,6 +47,7 @@ public class MyStreamCopier {
     private long count;
     private volatile long finishAtMs;
     private Field eofField;
+    private byte[] copyBuf;
 
     public void triggerCopy() {
         try {
@@ -185,6 +187,10 @@ public class MyStreamCopier {
         }));
     }
 
+    public ListenableFuture<TaskResult<?>> spawn(StreamMultiplexer multiplexer, long finishAtMs) {
+        return multiplexer.register(this, finishAtMs);
+    }
+
     public long nonBlockingCopy() throws Exception {
         final byte[] buf = new byte[bufSize];
         count = 0;
@@ -214,6 +220,44 @@ public class MyStreamCopier {
         return count;
     }
 
+    /**
+     * Copies only what is already buffered in the stream, never blocks. Used by {@link StreamMultiplexer}.
+     */
+    long copyAvailable() throws Exception {
+        if(copyBuf == null || copyBuf.length != bufSize){
+            copyBuf = new byte[bufSize];
+        }
+
+        count = 0;
+        int available;
+
+        while ((available = in.available()) > 0){
+            int read = in.read(copyBuf, 0, Math.min(available, copyBuf.length));
+
+            if(read <= 0) break;
+
+            count = write(copyBuf, count, read);
+        }
+
+        if (!keepFlushing){
+            out.flush();
+        }
+
+        return count;
+    }
+
+    boolean isEof() throws Exception {
+        return (Boolean) eofField.get(in) && in.available() == 0;
+    }
+
+    void reportIdle() throws Exception {
+        listener.reportProgress(count, null, -1);
+    }
+
+    void markFinished() {
+        finished = true;
+    }
+
     private long write(byte[] buf, long count, int read) throws Exception {
         out.write(buf, 0, read);
         count += read;
@@ -245,6 +289,10 @@ public class MyStreamCopier {
         return finished;
     }
 
+    public long getFinishAtMs() {
+        return finishAtMs;
+    }
+
     public void setFinishAtMs(long finishAtMs) {
         this.finishAtMs = finishAtMs;
     }
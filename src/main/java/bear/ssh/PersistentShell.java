@@ -0,0 +1,459 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.ssh;
+
+import bear.console.AbstractConsole;
+import bear.console.ConsoleCallback;
+import bear.console.ConsoleCallbackResult;
+import bear.core.MarkedBuffer;
+import chaschev.util.Exceptions;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs many commands over one long-lived shell. Each command is followed by a unique end marker carrying its exit code,
+ * so several commands can be written at once and their outputs are split back from the shell's stdout.
+ *
+ * Commands run in a child <code>sh -c</code>, so like with <code>exec</code> they don't share cwd or variables.
+ * A command is interactive when it has a callback or uses sudo: it keeps the shell's stdin and is never pipelined,
+ * others get <code>/dev/null</code> as stdin so they can't eat the commands written after them.
+ *
+ * When a callback finishes a command early (DONE, FINISHED, EXCEPTION) or a command times out, the command is
+ * still running in the shell, so the shell is closed.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class PersistentShell implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(PersistentShell.class);
+
+    static final String MARKER_PREFIX = "__BEAR_END_";
+
+    private static final String[] BRACKETED_PASTE = {"\u001b[?2004h", "\u001b[?2004l"};
+
+    private final OutputStream stdin;
+    private final InputStream stdout;
+    private final Reader reader;
+    private final Closeable channel;
+
+    private final String shellId = Long.toString(System.nanoTime(), 36);
+    private long seq;
+
+    private final Deque<Pending> queue = new ArrayDeque<Pending>();
+    private final StringBuilder received = new StringBuilder();
+    private final char[] cbuf = new char[8192];
+
+    private final AtomicBoolean inUse = new AtomicBoolean();
+
+    private volatile boolean closed;
+
+    /**
+     * @param channel closed together with the shell, i.e. an ssh session or a process
+     */
+    public PersistentShell(OutputStream stdin, InputStream stdout, @Nullable Closeable channel) {
+        this.stdin = stdin;
+        this.stdout = stdout;
+        this.reader = new InputStreamReader(stdout, Charsets.UTF_8);
+        this.channel = channel;
+
+        // prompts, echo and the banner before the first marker are discarded
+        Pending init = new Pending("init", null);
+
+        synchronized (this) {
+            queue.add(init);
+            write("stty -echo 2>/dev/null; PS1=''; PS2=''; export PS1 PS2; exec 2>&1; " +
+                "case $- in *i*) bind 'set enable-bracketed-paste off' 2>/dev/null; set +H;; esac; " + marker(init.id));
+        }
+    }
+
+    public static class Response {
+        public String output;
+
+        /**
+         * Null when the command has been interrupted before its end.
+         */
+        public Integer exitCode;
+
+        public ConsoleCallbackResult lastCallbackError;
+
+        public Exception error;
+
+        public boolean ok() {
+            return error == null && lastCallbackError == null && exitCode != null && exitCode == 0;
+        }
+    }
+
+    public class Pending {
+        final String id;
+        final ConsoleCallback callback;
+        final StringBuilder output = new StringBuilder();
+        final Response response = new Response();
+
+        int startPosition;
+        boolean done;
+
+        final ShellTerminal terminal = new ShellTerminal(this);
+
+        Pending(String id, ConsoleCallback callback) {
+            this.id = id;
+            this.callback = callback;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        void complete(Integer exitCode) {
+            done = true;
+            response.exitCode = exitCode;
+            response.output = output.toString();
+        }
+
+        void fail(Exception e) {
+            done = true;
+            response.error = e;
+            response.output = output.toString();
+        }
+    }
+
+    public class ShellTerminal extends AbstractConsole.Terminal {
+        final Pending pending;
+
+        ShellTerminal(Pending pending) {
+            this.pending = pending;
+        }
+
+        @Override
+        public void print(String s) {
+            synchronized (PersistentShell.this) {
+                write(s);
+            }
+        }
+
+        /**
+         * Text before this point won't be given to the callback as wholeText anymore, i.e. after answering a prompt.
+         */
+        public void markStart() {
+            pending.startPosition = pending.output.length();
+        }
+
+        @Override
+        public void finishWithResult(ConsoleCallbackResult callbackResult) {
+            abort(pending, callbackResult);
+        }
+
+        @Override
+        public boolean isDone() {
+            return pending.done;
+        }
+    }
+
+    public static boolean isInteractive(String command, @Nullable ConsoleCallback callback) {
+        return callback != null || command.contains("sudo");
+    }
+
+    /**
+     * Writes a command without waiting for the previous ones.
+     */
+    public Pending send(String command, @Nullable ConsoleCallback callback) {
+        return send(command, callback, isInteractive(command, callback));
+    }
+
+    /**
+     * @param interactive when false, the command's stdin is <code>/dev/null</code>. Callers which wrap callbacks, i.e.
+     *                    for logging, should decide it by the original callback
+     */
+    public synchronized Pending send(String command, @Nullable ConsoleCallback callback, boolean interactive) {
+        Preconditions.checkState(!closed, "shell is closed");
+
+        Pending pending = new Pending(shellId + "_" + (++seq), callback);
+
+        String stdinRedirect = interactive ? "" : " </dev/null";
+
+        queue.add(pending);
+
+        // the marker goes on the same line: a command reading stdin must not get it as input
+        write("sh -c '" + command.replace("'", "'\\''") + "'" + stdinRedirect + "; " + marker(pending.id));
+
+        return pending;
+    }
+
+    public Response run(String command, @Nullable ConsoleCallback callback, long timeoutMs) {
+        return await(send(command, callback), timeoutMs);
+    }
+
+    public Response run(String command, @Nullable ConsoleCallback callback, boolean interactive, long timeoutMs) {
+        return await(send(command, callback, interactive), timeoutMs);
+    }
+
+    public Response await(Pending pending, long timeoutMs) {
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+
+        while (true) {
+            synchronized (this) {
+                if (pending.done) {
+                    return pending.response;
+                }
+
+                boolean read;
+
+                try {
+                    read = pump();
+                } catch (IOException e) {
+                    failAll(e);
+                    close();
+                    continue;
+                }
+
+                if (pending.done) {
+                    return pending.response;
+                }
+
+                if (!read && System.currentTimeMillis() > deadline) {
+                    logger.info("timeout for a command in a persistent shell, closing it");
+                    failAll(new TimeoutException("timeout " + timeoutMs + "ms"));
+                    close();
+                    continue;
+                }
+
+                if (read) {
+                    continue;
+                }
+            }
+
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Marks the shell as used by a caller. Only one caller should pipeline commands at a time.
+     */
+    public boolean tryAcquire() {
+        return !closed && inUse.compareAndSet(false, true);
+    }
+
+    public void release() {
+        inUse.set(false);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Printed in two parts, so that an echoed command line never looks like a marker.
+     */
+    private static String marker(String id) {
+        return "printf '\\n%s%s:%d\\n' '" + MARKER_PREFIX + "' '" + id + "' $?\n";
+    }
+
+    private void write(String s) {
+        try {
+            stdin.write(s.getBytes(Charsets.UTF_8));
+            stdin.flush();
+        } catch (IOException e) {
+            throw Exceptions.runtime(e);
+        }
+    }
+
+    private boolean pump() throws IOException {
+        int total = 0;
+
+        while (stdout.available() > 0 || reader.ready()) {
+            int read = reader.read(cbuf);
+
+            if (read == -1) {
+                throw new EOFException("shell closed the stream");
+            }
+
+            received.append(cbuf, 0, read);
+            total += read;
+        }
+
+        stripBracketedPaste();
+
+        if (total > 0) {
+            dispatch();
+        }
+
+        return total > 0;
+    }
+
+    private void dispatch() {
+        while (!queue.isEmpty()) {
+            Pending head = queue.peek();
+
+            String marker = MARKER_PREFIX + head.id + ":";
+
+            int markerIndex = received.indexOf(marker);
+
+            if (markerIndex == -1) {
+                int safe = safeLength();
+
+                if (safe > 0) {
+                    String text = received.substring(0, safe);
+                    received.delete(0, safe);
+                    addText(head, text);
+                }
+
+                return;
+            }
+
+            int eol = received.indexOf("\n", markerIndex);
+
+            if (eol == -1) {
+                return;
+            }
+
+            int end = markerIndex;
+
+            // the newline printed before the marker
+            if (end > 0 && received.charAt(end - 1) == '\n') end--;
+            if (end > 0 && received.charAt(end - 1) == '\r') end--;
+
+            String text = received.substring(0, end);
+            String code = received.substring(markerIndex + marker.length(), eol).trim();
+
+            received.delete(0, eol + 1);
+
+            if (!text.isEmpty()) {
+                addText(head, text);
+            }
+
+            if (!head.done) {
+                queue.poll();
+                head.complete(code.matches("\\d+") ? Integer.valueOf(code) : null);
+            }
+        }
+
+        // not expected to happen
+        received.setLength(0);
+    }
+
+    /**
+     * Readline on a PTY wraps every line it reads into these, even when switched off after the first line.
+     */
+    private void stripBracketedPaste() {
+        for (String seq : BRACKETED_PASTE) {
+            int i;
+
+            while ((i = received.indexOf(seq)) != -1) {
+                received.delete(i, i + seq.length());
+            }
+        }
+    }
+
+    /**
+     * @return length of text which can't be a part of the next end marker or of a split escape sequence
+     */
+    private int safeLength() {
+        int esc = received.lastIndexOf("\u001b");
+
+        if (esc != -1 && BRACKETED_PASTE[0].startsWith(received.substring(esc))) {
+            return Math.min(esc, markerSafeLength());
+        }
+
+        return markerSafeLength();
+    }
+
+    private int markerSafeLength() {
+        int lastNl = received.lastIndexOf("\n");
+
+        if (lastNl == -1) {
+            return received.length();
+        }
+
+        String after = received.substring(lastNl + 1);
+
+        if (after.length() >= MARKER_PREFIX.length() || !MARKER_PREFIX.startsWith(after)) {
+            return received.length();
+        }
+
+        return lastNl > 0 && received.charAt(lastNl - 1) == '\r' ? lastNl - 1 : lastNl;
+    }
+
+    private void addText(Pending pending, String text) {
+        if (pending.done) {
+            return;
+        }
+
+        pending.output.append(text);
+
+        if (pending.callback == null) {
+            return;
+        }
+
+        int length = pending.output.length();
+        String window = pending.output.substring(Math.max(pending.startPosition, length - MarkedBuffer.DEFAULT_WINDOW));
+
+        ConsoleCallbackResult result = pending.callback.progress(pending.terminal, text, window);
+
+        switch (result.type) {
+            case DONE:
+            case FINISHED:
+            case EXCEPTION:
+                abort(pending, result);
+                break;
+        }
+    }
+
+    private synchronized void abort(Pending pending, ConsoleCallbackResult result) {
+        if (pending.done) return;
+
+        if (result.type.isError()) {
+            pending.response.lastCallbackError = result;
+        }
+
+        queue.remove(pending);
+        pending.complete(null);
+
+        // the command is still running, so the shell can't be used anymore
+        failAll(new IllegalStateException("shell has been closed by a callback"));
+        close();
+    }
+
+    private void failAll(Exception e) {
+        for (Pending pending : queue) {
+            pending.fail(e);
+        }
+
+        queue.clear();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+
+        closed = true;
+
+        failAll(new IllegalStateException("shell is closed"));
+
+        IOUtils.closeQuietly(stdin);
+        IOUtils.closeQuietly(channel);
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.ssh;
+
+import chaschev.util.Exceptions;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.*;
+import net.schmizz.concurrent.Promise;
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.sftp.*;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Moves files over SFTP. A subsystem is opened for each upload or download call and closed when it's done, so it
+ * never outlives the caller's lease of the connection. A transfer keeps
+ * <code>requestsInFlight</code> read or write requests outstanding instead of waiting for each reply, and up to
+ * <code>parallelFiles</code> files move at once over each connection, so hosts don't wait for each other. All transfers
+ * share an optional bandwidth budget.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class SftpTransfers implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(SftpTransfers.class);
+
+    public static final int CHUNK_SIZE = 32 * 1024;
+
+    public static interface ProgressListener {
+        /**
+         * Called from transfer threads, at most every <code>progressIntervalMs</code> for a file and once when it's done.
+         */
+        void progress(String path, long bytes, long total, boolean done);
+    }
+
+    /**
+     * Transfer threads of each connection.
+     */
+    private final ConcurrentHashMap<SSHClient, ListeningExecutorService> executors = new ConcurrentHashMap<SSHClient, ListeningExecutorService>();
+
+    private final int requestsInFlight;
+    private final int parallelFiles;
+
+    @Nullable
+    private final RateLimiter bandwidth;
+
+    private long progressIntervalMs = 500;
+
+    /**
+     * @param bytesPerSecond 0 or less for no limit
+     */
+    public SftpTransfers(int requestsInFlight, int parallelFiles, long bytesPerSecond) {
+        Preconditions.checkArgument(requestsInFlight > 0, "requestsInFlight must be positive");
+        Preconditions.checkArgument(parallelFiles > 0, "parallelFiles must be positive");
+
+        this.requestsInFlight = requestsInFlight;
+        this.parallelFiles = parallelFiles;
+        this.bandwidth = bytesPerSecond > 0 ? RateLimiter.create(bytesPerSecond) : null;
+    }
+
+    public SftpTransfers setProgressIntervalMs(long progressIntervalMs) {
+        this.progressIntervalMs = progressIntervalMs;
+        return this;
+    }
+
+    ListeningExecutorService executor(SSHClient ssh) {
+        ListeningExecutorService executor = executors.get(ssh);
+
+        if (executor != null) {
+            return executor;
+        }
+
+        synchronized (executors) {
+            purgeClosed();
+
+            executor = executors.get(ssh);
+
+            if (executor == null) {
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(parallelFiles, parallelFiles, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder().setNameFormat("sftp-%d").setDaemon(true).build());
+
+                pool.allowCoreThreadTimeOut(true);
+
+                executor = MoreExecutors.listeningDecorator(pool);
+
+                executors.put(ssh, executor);
+            }
+
+            return executor;
+        }
+    }
+
+    private void purgeClosed() {
+        for (Iterator<Map.Entry<SSHClient, ListeningExecutorService>> it = executors.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<SSHClient, ListeningExecutorService> e = it.next();
+
+            if (!e.getKey().isConnected()) {
+                e.getValue().shutdown();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Downloads files into a dir, all at once.
+     *
+     * @return local files in the order of paths
+     */
+    public List<File> download(SSHClient ssh, List<String> paths, File destDir, @Nullable ProgressListener listener) throws IOException {
+        SFTPEngine engine = new SFTPEngine(ssh).init();
+
+        try {
+            return download(ssh, engine, paths, destDir, listener);
+        } finally {
+            IOUtils.closeQuietly(engine);
+        }
+    }
+
+    List<File> download(SSHClient ssh, final Requester sftp, List<String> paths, File destDir, @Nullable final ProgressListener listener) throws IOException {
+        ListeningExecutorService executor = executor(ssh);
+
+        List<ListenableFuture<File>> futures = new ArrayList<ListenableFuture<File>>(paths.size());
+
+        for (final String path : paths) {
+            final File dest = new File(destDir, FilenameUtils.getName(path));
+
+            futures.add(executor.submit(new Callable<File>() {
+                @Override
+                public File call() throws Exception {
+                    download(sftp, path, dest, listener);
+                    return dest;
+                }
+            }));
+        }
+
+        return await(futures);
+    }
+
+    /**
+     * Uploads files at once. When <code>dest</code> is an existing dir, files are put into it, otherwise it is the
+     * path of the only file.
+     */
+    public void upload(SSHClient ssh, String dest, List<File> files, @Nullable ProgressListener listener) throws IOException {
+        SFTPEngine engine = new SFTPEngine(ssh).init();
+
+        try {
+            upload(ssh, engine, engine.getSubsystem().getRemoteMaxPacketSize(), dest, files, listener);
+        } finally {
+            IOUtils.closeQuietly(engine);
+        }
+    }
+
+    void upload(SSHClient ssh, final Requester sftp, final int maxPacketSize, String dest, List<File> files,
+                @Nullable final ProgressListener listener) throws IOException {
+        boolean toDir = files.size() > 1 || isDir(sftp, dest);
+
+        ListeningExecutorService executor = executor(ssh);
+
+        List<ListenableFuture<File>> futures = new ArrayList<ListenableFuture<File>>(files.size());
+
+        for (final File file : files) {
+            final String path = toDir ? dest + "/" + file.getName() : dest;
+
+            futures.add(executor.submit(new Callable<File>() {
+                @Override
+                public File call() throws Exception {
+                    upload(sftp, maxPacketSize, file, path, listener);
+                    return file;
+                }
+            }));
+        }
+
+        await(futures);
+    }
+
+    private static boolean isDir(Requester sftp, String path) throws IOException {
+        try {
+            return sftp.request(sftp.newRequest(PacketType.STAT).putString(path))
+                .retrieve(sftp.getTimeoutMs(), TimeUnit.MILLISECONDS)
+                .ensurePacketTypeIs(PacketType.ATTRS)
+                .readFileAttributes()
+                .getType() == FileMode.Type.DIRECTORY;
+        } catch (SFTPException e) {
+            if (e.getStatusCode() == Response.StatusCode.NO_SUCH_FILE) {
+                return false;
+            }
+
+            throw e;
+        }
+    }
+
+    private static <T> List<T> await(List<ListenableFuture<T>> futures) throws IOException {
+        try {
+            return Futures.allAsList(futures).get();
+        } catch (InterruptedException e) {
+            for (ListenableFuture<T> future : futures) {
+                future.cancel(true);
+            }
+
+            throw Exceptions.runtime(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+
+            throw Exceptions.runtime(cause);
+        }
+    }
+
+    private static final class PendingRead {
+        final long offset;
+        final int length;
+        final Promise<Response, SFTPException> promise;
+
+        PendingRead(long offset, int length, Promise<Response, SFTPException> promise) {
+            this.offset = offset;
+            this.length = length;
+            this.promise = promise;
+        }
+    }
+
+    void download(Requester sftp, String path, File dest, @Nullable ProgressListener listener) throws IOException {
+        logger.debug("downloading {} to {}", path, dest);
+
+        PipelinedFile file = PipelinedFile.open(sftp, path, EnumSet.of(OpenMode.READ), FileAttributes.EMPTY);
+        RandomAccessFile out = new RandomAccessFile(dest, "rw");
+
+        Progress progress = new Progress(path, listener);
+
+        try {
+            out.setLength(0);
+
+            long length = file.length();
+            long next = 0;
+
+            Deque<PendingRead> inFlight = new ArrayDeque<PendingRead>(requestsInFlight);
+
+            while (next < length || !inFlight.isEmpty()) {
+                while (inFlight.size() < requestsInFlight && next < length) {
+                    int len = (int) Math.min(CHUNK_SIZE, length - next);
+
+                    throttle(len);
+
+                    inFlight.add(new PendingRead(next, len, file.asyncRead(next, len)));
+
+                    next += len;
+                }
+
+                PendingRead read = inFlight.poll();
+
+                Response res = read.promise.retrieve(sftp.getTimeoutMs(), TimeUnit.MILLISECONDS);
+
+                if (res.getType() == PacketType.DATA) {
+                    int n = res.readUInt32AsInt();
+
+                    out.seek(read.offset);
+                    out.write(res.array(), res.rpos(), n);
+
+                    progress.add(n, length);
+
+                    // servers may send less than asked
+                    if (n < read.length) {
+                        inFlight.add(new PendingRead(read.offset + n, read.length - n,
+                            file.asyncRead(read.offset + n, read.length - n)));
+                    }
+                } else {
+                    // the file has been truncated while reading
+                    res.ensureStatusIs(Response.StatusCode.EOF);
+                    next = length;
+                }
+            }
+
+            progress.done(length);
+        } finally {
+            IOUtils.closeQuietly(out);
+            file.close();
+        }
+    }
+
+    void upload(Requester sftp, int maxPacketSize, File src, String path, @Nullable ProgressListener listener) throws IOException {
+        logger.debug("uploading {} to {}", src, path);
+
+        FileAttributes attributes = new FileAttributes.Builder()
+            .withPermissions(src.canExecute() ? 0755 : 0644)
+            .build();
+
+        PipelinedFile file = PipelinedFile.open(sftp, path,
+            EnumSet.of(OpenMode.WRITE, OpenMode.CREAT, OpenMode.TRUNC), attributes);
+
+        InputStream in = new BufferedInputStream(new FileInputStream(src), CHUNK_SIZE);
+
+        Progress progress = new Progress(path, listener);
+
+        try {
+            int chunk = Math.min(CHUNK_SIZE, maxPacketSize - file.getOutgoingPacketOverhead());
+
+            byte[] buffer = new byte[chunk];
+
+            long length = src.length();
+            long offset = 0;
+
+            Deque<Promise<Response, SFTPException>> inFlight = new ArrayDeque<Promise<Response, SFTPException>>(requestsInFlight);
+
+            int n;
+
+            while ((n = in.read(buffer)) > 0) {
+                if (inFlight.size() >= requestsInFlight) {
+                    awaitWrite(sftp, inFlight.poll());
+                }
+
+                throttle(n);
+
+                // the request copies the data, so the buffer can be reused
+                inFlight.add(file.asyncWrite(offset, buffer, 0, n));
+
+                offset += n;
+
+                progress.add(n, length);
+            }
+
+            while (!inFlight.isEmpty()) {
+                awaitWrite(sftp, inFlight.poll());
+            }
+
+            progress.done(offset);
+        } finally {
+            IOUtils.closeQuietly(in);
+            file.close();
+        }
+    }
+
+    private static void awaitWrite(Requester sftp, Promise<Response, SFTPException> promise) throws IOException {
+        promise.retrieve(sftp.getTimeoutMs(), TimeUnit.MILLISECONDS).ensureStatusPacketIsOK();
+    }
+
+    private void throttle(int bytes) {
+        if (bandwidth != null) {
+            bandwidth.acquire(bytes);
+        }
+    }
+
+    private final class Progress {
+        final String path;
+        @Nullable
+        final ProgressListener listener;
+
+        long bytes;
+        long lastReportMs = System.currentTimeMillis();
+
+        Progress(String path, @Nullable ProgressListener listener) {
+            this.path = path;
+            this.listener = listener;
+        }
+
+        void add(int n, long total) {
+            bytes += n;
+
+            if (listener == null) return;
+
+            long now = System.currentTimeMillis();
+
+            if (now - lastReportMs >= progressIntervalMs) {
+                lastReportMs = now;
+                listener.progress(path, bytes, total, false);
+            }
+        }
+
+        void done(long total) {
+            if (listener != null) {
+                listener.progress(path, bytes, total, true);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (executors) {
+            for (ListeningExecutorService executor : executors.values()) {
+                executor.shutdownNow();
+            }
+
+            executors.clear();
+        }
+    }
+
+    /**
+     * A remote file which exposes asynchronous reads and writes.
+     */
+    static final class PipelinedFile extends RemoteFile {
+        PipelinedFile(Requester requester, String path, String handle) {
+            super(requester, path, handle);
+        }
+
+        static PipelinedFile open(Requester sftp, String path, Set<OpenMode> modes, FileAttributes attributes) throws IOException {
+            String handle = sftp.request(sftp.newRequest(PacketType.OPEN)
+                .putString(path)
+                .putUInt32(OpenMode.toMask(modes))
+                .putFileAttributes(attributes))
+                .retrieve(sftp.getTimeoutMs(), TimeUnit.MILLISECONDS)
+                .ensurePacketTypeIs(PacketType.HANDLE)
+                .readString();
+
+            return new PipelinedFile(sftp, path, handle);
+        }
+
+        Promise<Response, SFTPException> asyncRead(long offset, int length) throws IOException {
+            // newRequest() has already put the handle
+            return requester.request(newRequest(PacketType.READ)
+                .putUInt64(offset)
+                .putUInt32(length));
+        }
+
+        @Override
+        protected Promise<Response, SFTPException> asyncWrite(long offset, byte[] data, int off, int len) throws IOException {
+            return super.asyncWrite(offset, data, off, len);
+        }
+    }
+}
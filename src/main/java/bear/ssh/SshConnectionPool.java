@@ -0,0 +1,435 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.ssh;
+
+import bear.session.SshAddress;
+import bear.task.BearException;
+import com.google.common.base.Preconditions;
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.connection.channel.direct.Session;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.SystemUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-address pool of SSH transport connections. A connection is shared by up to <code>maxChannelsPerConnection</code>
+ * concurrent sessions (channels), a host gets up to <code>maxConnectionsPerHost</code> connections. Idle and broken
+ * connections are evicted periodically, live ones are kept alive with transport heartbeats.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class SshConnectionPool implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(SshConnectionPool.class);
+
+    private final ConcurrentHashMap<String, HostPool> hosts = new ConcurrentHashMap<String, HostPool>();
+
+    private final int maxConnectionsPerHost;
+    private final int maxChannelsPerConnection;
+    private final long idleTimeoutMs;
+    private final int keepAliveSec;
+
+    private ScheduledFuture<?> evictionFuture;
+    private volatile boolean closed;
+
+    public SshConnectionPool(int maxConnectionsPerHost, int maxChannelsPerConnection, long idleTimeoutMs, int keepAliveSec) {
+        Preconditions.checkArgument(maxConnectionsPerHost > 0, "maxConnectionsPerHost must be positive");
+        Preconditions.checkArgument(maxChannelsPerConnection > 0, "maxChannelsPerConnection must be positive");
+
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.maxChannelsPerConnection = maxChannelsPerConnection;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.keepAliveSec = keepAliveSec;
+    }
+
+    public SshConnectionPool scheduleEviction(ScheduledExecutorService scheduler) {
+        long periodMs = Math.max(1000, idleTimeoutMs / 4);
+
+        evictionFuture = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    evictIdle();
+                } catch (Exception e) {
+                    logger.warn("eviction error", e);
+                }
+            }
+        }, periodMs, periodMs, TimeUnit.MILLISECONDS);
+
+        return this;
+    }
+
+    /**
+     * A session opened on a pooled connection, or a connection borrowed for a file transfer. Closing it closes the
+     * session and returns the channel slot to the pool.
+     */
+    public static class Lease implements Closeable {
+        private final HostPool hostPool;
+        private final PooledConnection connection;
+        private final Session session;
+        private boolean released;
+
+        Lease(HostPool hostPool, PooledConnection connection, Session session) {
+            this.hostPool = hostPool;
+            this.connection = connection;
+            this.session = session;
+        }
+
+        /**
+         * @return the session, null for a lease obtained with {@link SshConnectionPool#leaseClient(SshAddress)}
+         */
+        public Session getSession() {
+            return session;
+        }
+
+        public SSHClient getSsh() {
+            return connection.ssh;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (released) return;
+
+            released = true;
+
+            IOUtils.closeQuietly(session);
+
+            hostPool.release(connection);
+        }
+    }
+
+    static final class PooledConnection {
+        final SSHClient ssh;
+        final long createdAt = System.currentTimeMillis();
+
+        int activeChannels;
+        long lastUsedAt = createdAt;
+        long channelsOpened;
+
+        PooledConnection(SSHClient ssh) {
+            this.ssh = ssh;
+        }
+
+        boolean isHealthy() {
+            return ssh.isConnected() && ssh.isAuthenticated();
+        }
+    }
+
+    public Lease openSession(SshAddress address) {
+        return hostPool(address).openSession(address);
+    }
+
+    /**
+     * Borrows a connection for channels which are opened by the caller, i.e. SFTP and SCP. The lease counts as a
+     * channel, so the connection is not closed as idle while a transfer is running.
+     */
+    public Lease leaseClient(SshAddress address) {
+        HostPool pool = hostPool(address);
+
+        return new Lease(pool, pool.acquire(address), null);
+    }
+
+    private HostPool hostPool(SshAddress address) {
+        Preconditions.checkState(!closed, "pool is closed");
+
+        String key = key(address);
+
+        HostPool pool = hosts.get(key);
+
+        if (pool == null) {
+            HostPool newPool = new HostPool(key);
+            pool = hosts.putIfAbsent(key, newPool);
+
+            if (pool == null) {
+                pool = newPool;
+            }
+        }
+
+        return pool;
+    }
+
+    private static String key(SshAddress address) {
+        return address.username + "@" + address.address;
+    }
+
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+
+        for (HostPool pool : hosts.values()) {
+            pool.evict(now);
+        }
+    }
+
+    public Map<String, HostStats> getStats() {
+        Map<String, HostStats> map = new LinkedHashMap<String, HostStats>();
+
+        for (HostPool pool : hosts.values()) {
+            map.put(pool.key, pool.stats());
+        }
+
+        return map;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+
+        if (evictionFuture != null) {
+            evictionFuture.cancel(false);
+        }
+
+        for (HostPool pool : hosts.values()) {
+            pool.closeAll();
+        }
+
+        hosts.clear();
+    }
+
+    public static class HostStats {
+        public int connections;
+        public int healthyConnections;
+        public int activeChannels;
+        public int capacity;
+        public long channelsOpened;
+        public long connectFailures;
+        public long evicted;
+        public long waits;
+
+        public double getUtilisation() {
+            return capacity == 0 ? 0 : activeChannels * 1.0 / capacity;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("{");
+            sb.append("connections=").append(connections);
+            sb.append(", healthy=").append(healthyConnections);
+            sb.append(", activeChannels=").append(activeChannels).append('/').append(capacity);
+            sb.append(", channelsOpened=").append(channelsOpened);
+            sb.append(", connectFailures=").append(connectFailures);
+            sb.append(", evicted=").append(evicted);
+            sb.append(", waits=").append(waits);
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+
+    class HostPool {
+        final String key;
+        final List<PooledConnection> connections = new ArrayList<PooledConnection>();
+
+        /**
+         * Connections being established outside of the monitor.
+         */
+        int connecting;
+
+        long connectFailures;
+        long evicted;
+        long waits;
+
+        HostPool(String key) {
+            this.key = key;
+        }
+
+        Lease openSession(SshAddress address) {
+            PooledConnection connection = acquire(address);
+
+            try {
+                Session session = connection.ssh.startSession();
+                session.allocateDefaultPTY();
+
+                return new Lease(this, connection, session);
+            } catch (Exception e) {
+                release(connection);
+                throw new BearException("unable to open session to " + key, e);
+            }
+        }
+
+        /**
+         * A new connection is established outside of the monitor, so a slow handshake doesn't hold other sessions of
+         * the host which could use existing connections.
+         */
+        PooledConnection acquire(SshAddress address) {
+            synchronized (this) {
+                while (true) {
+                    removeBroken();
+
+                    PooledConnection best = null;
+
+                    for (PooledConnection c : connections) {
+                        if (c.activeChannels < maxChannelsPerConnection && (best == null || c.activeChannels < best.activeChannels)) {
+                            best = c;
+                        }
+                    }
+
+                    if (best != null) {
+                        return use(best);
+                    }
+
+                    if (connections.size() + connecting < maxConnectionsPerHost) {
+                        connecting++;
+                        break;
+                    }
+
+                    waits++;
+
+                    try {
+                        wait(1000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new BearException("interrupted while waiting for a connection to " + key, e);
+                    }
+
+                    Preconditions.checkState(!closed, "pool is closed");
+                }
+            }
+
+            SSHClient ssh;
+
+            try {
+                ssh = newClient(address);
+            } catch (Exception e) {
+                synchronized (this) {
+                    connecting--;
+                    connectFailures++;
+                    notifyAll();
+                }
+
+                throw new BearException("unable to connect to " + key, e);
+            }
+
+            synchronized (this) {
+                connecting--;
+
+                PooledConnection c = new PooledConnection(ssh);
+
+                connections.add(c);
+
+                notifyAll();
+
+                return use(c);
+            }
+        }
+
+        private PooledConnection use(PooledConnection c) {
+            c.activeChannels++;
+            c.channelsOpened++;
+            c.lastUsedAt = System.currentTimeMillis();
+            return c;
+        }
+
+        synchronized void release(PooledConnection connection) {
+            connection.activeChannels--;
+            connection.lastUsedAt = System.currentTimeMillis();
+            notifyAll();
+        }
+
+        private SSHClient newClient(SshAddress sshAddress) throws Exception {
+            logger.info("connecting to {}", sshAddress.address);
+
+            SSHClient ssh;
+
+            try {
+                ssh = new SSHClient();
+                ssh.loadKnownHosts(new File(SystemUtils.getUserHome(), ".ssh/known_hosts"));
+                ssh.connect(sshAddress.address);
+                ssh.authPassword(sshAddress.username, sshAddress.password);
+            } catch (Exception e) {
+                final String fingerprint = StringUtils.substringBetween(
+                    e.toString(), "fingerprint `", "`");
+
+                ssh = new SSHClient();
+
+                ssh.loadKnownHosts(new File(SystemUtils.getUserHome(), ".ssh/known_hosts"));
+                ssh.addHostKeyVerifier(fingerprint);
+                ssh.connect(sshAddress.address);
+                ssh.authPassword(sshAddress.username, sshAddress.password);
+            }
+
+            if (keepAliveSec > 0) {
+                ssh.getTransport().setHeartbeatInterval(keepAliveSec);
+            }
+
+            return ssh;
+        }
+
+        private void removeBroken() {
+            for (Iterator<PooledConnection> it = connections.iterator(); it.hasNext(); ) {
+                PooledConnection c = it.next();
+
+                if (!c.isHealthy()) {
+                    logger.info("removing broken connection to {}", key);
+                    IOUtils.closeQuietly(c.ssh);
+                    it.remove();
+                    evicted++;
+                }
+            }
+        }
+
+        synchronized void evict(long now) {
+            removeBroken();
+
+            for (Iterator<PooledConnection> it = connections.iterator(); it.hasNext(); ) {
+                PooledConnection c = it.next();
+
+                if (c.activeChannels == 0 && now - c.lastUsedAt > idleTimeoutMs) {
+                    logger.debug("closing idle connection to {}", key);
+                    IOUtils.closeQuietly(c.ssh);
+                    it.remove();
+                    evicted++;
+                }
+            }
+        }
+
+        synchronized HostStats stats() {
+            HostStats stats = new HostStats();
+
+            stats.connections = connections.size();
+            stats.capacity = maxConnectionsPerHost * maxChannelsPerConnection;
+            stats.connectFailures = connectFailures;
+            stats.evicted = evicted;
+            stats.waits = waits;
+
+            for (PooledConnection c : connections) {
+                if (c.isHealthy()) stats.healthyConnections++;
+                stats.activeChannels += c.activeChannels;
+                stats.channelsOpened += c.channelsOpened;
+            }
+
+            return stats;
+        }
+
+        synchronized void closeAll() {
+            for (PooledConnection c : connections) {
+                IOUtils.closeQuietly(c.ssh);
+            }
+
+            connections.clear();
+
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.ssh;
+
+import bear.core.GlobalContext;
+import bear.task.TaskResult;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drains many stream copiers with a small fixed set of I/O threads instead of a pooled thread per stream.
+ *
+ * sshj channel streams are not selectable, so each I/O thread polls <code>available()</code> of the copiers it owns,
+ * copies whatever has arrived and parks when nothing moved during a whole pass. Copiers are distributed round-robin.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class StreamMultiplexer {
+    private static final Logger logger = LoggerFactory.getLogger(StreamMultiplexer.class);
+
+    private final IOThread[] threads;
+    private final AtomicInteger next = new AtomicInteger();
+    private final long idleParkNanos;
+
+    private volatile boolean shutdown;
+
+    public StreamMultiplexer(int threadCount, long idlePeriod, TimeUnit unit) {
+        Preconditions.checkArgument(threadCount > 0, "threadCount must be positive");
+
+        idleParkNanos = Math.max(1, unit.toNanos(idlePeriod));
+        threads = new IOThread[threadCount];
+
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new IOThread("stream-mux-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    static final class Registration {
+        final MyStreamCopier copier;
+        final SettableFuture<TaskResult<?>> future = SettableFuture.create();
+
+        Registration(MyStreamCopier copier) {
+            this.copier = copier;
+        }
+    }
+
+    /**
+     * @param finishAtMs absolute time to stop copying, -1 for no limit
+     * @return a future which completes when the stream reaches EOF, is stopped or times out.
+     *         Cancelling it drops the copier and closes the stream.
+     */
+    public ListenableFuture<TaskResult<?>> register(MyStreamCopier copier, long finishAtMs) {
+        Preconditions.checkState(!shutdown, "multiplexer is shut down");
+
+        copier.setFinishAtMs(finishAtMs);
+
+        Registration registration = new Registration(copier);
+
+        IOThread thread = threads[(next.getAndIncrement() & Integer.MAX_VALUE) % threads.length];
+
+        thread.incoming.add(registration);
+
+        LockSupport.unpark(thread);
+
+        return registration.future;
+    }
+
+    /**
+     * Makes all I/O threads do a pass right away, i.e. when a caller expects the output to be drained soon.
+     */
+    public void wakeUp() {
+        for (IOThread thread : threads) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public void shutdown() {
+        shutdown = true;
+
+        for (IOThread thread : threads) {
+            thread.interrupt();
+        }
+    }
+
+    public int getThreadCount() {
+        return threads.length;
+    }
+
+    class IOThread extends GlobalContext.AwareThread {
+        final ConcurrentLinkedQueue<Registration> incoming = new ConcurrentLinkedQueue<Registration>();
+        final List<Registration> active = new ArrayList<Registration>();
+
+        IOThread(String name) {
+            super(name);
+        }
+
+        @Override
+        public void run() {
+            while (!shutdown) {
+                Registration r;
+
+                while ((r = incoming.poll()) != null) {
+                    active.add(r);
+                }
+
+                boolean moved = false;
+
+                for (Iterator<Registration> it = active.iterator(); it.hasNext(); ) {
+                    if (!pass(it.next())) {
+                        it.remove();
+                    } else {
+                        moved |= lastPassMoved;
+                    }
+                }
+
+                if (!moved) {
+                    LockSupport.parkNanos(this, active.isEmpty() ? TimeUnit.MILLISECONDS.toNanos(100) : idleParkNanos);
+                }
+            }
+
+            for (Registration r : active) {
+                r.future.cancel(false);
+                IOUtils.closeQuietly(r.copier.getIn());
+            }
+
+            for (Registration r : incoming) {
+                r.future.cancel(false);
+            }
+        }
+
+        private boolean lastPassMoved;
+
+        /**
+         * @return false when the registration is complete and should be removed
+         */
+        private boolean pass(Registration r) {
+            final MyStreamCopier copier = r.copier;
+
+            lastPassMoved = false;
+
+            if (r.future.isCancelled()) {
+                IOUtils.closeQuietly(copier.getIn());
+                return false;
+            }
+
+            try {
+                long finishAtMs = copier.getFinishAtMs();
+
+                if (copier.stopFlag || (finishAtMs != -1 && finishAtMs < System.currentTimeMillis())) {
+                    copier.copyAvailable();
+
+                    if (copier.stopFlag) {
+                        IOUtils.closeQuietly(copier.getIn());
+                    }
+
+                    return complete(r, TaskResult.OK);
+                }
+
+                long copied = copier.copyAvailable();
+
+                if (copied > 0) {
+                    lastPassMoved = true;
+                } else {
+                    if (copier.isEof()) {
+                        return complete(r, TaskResult.OK);
+                    }
+
+                    copier.reportIdle();
+                }
+
+                return true;
+            } catch (Exception e) {
+                logger.error("", e);
+
+                return complete(r, TaskResult.of(e));
+            }
+        }
+
+        private boolean complete(Registration r, TaskResult<?> result) {
+            r.copier.markFinished();
+            r.future.set(result);
+            return false;
+        }
+    }
+}
@@ -24,7 +24,9 @@ import bear.vcs.CommandLineResult;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -88,6 +90,11 @@ public class Dependency extends Task<Object, TaskResult<?>> {
             return installer.call($, this);
         } catch (Exception e) {
             return TaskResult.of(e);
+        } finally {
+            // a failed check must not be served from the cache after an installation
+            if ($ != null) {
+                $.runner.getDependencyChecks().invalidate(this);
+            }
         }
     }
 
@@ -97,6 +104,25 @@ public class Dependency extends Task<Object, TaskResult<?>> {
         public abstract boolean check();
 
         public abstract String message();
+
+        /**
+         * @return a shell snippet to run this check in a {@link DependencyCheckBatch}, null if it can't be batched.
+         */
+        @Nullable
+        public String asShell() {
+            return null;
+        }
+
+        /**
+         * Evaluates the exit code and the output of {@link #asShell()}.
+         */
+        public boolean accept(int exitCode, String output) {
+            return exitCode == 0;
+        }
+
+        public String cacheKey() {
+            return toString() + ": " + message();
+        }
     }
 
     public static final Dependency NONE = new Dependency("NONE");
@@ -111,9 +137,13 @@ public class Dependency extends Task<Object, TaskResult<?>> {
 
         @Override
         public boolean check() {
-            return $.sys.sendCommand($.sys.line().addRaw(
-                "test -d " + path
-                    + (checkWritable ? " && test -x " + path : ""))).result.ok();
+            return $.sys.sendCommand($.sys.line().addRaw(asShell())).result.ok();
+        }
+
+        @Override
+        public String asShell() {
+            return "test -d " + path
+                + (checkWritable ? " && test -x " + path : "");
         }
 
         @Override
@@ -164,9 +194,13 @@ public class Dependency extends Task<Object, TaskResult<?>> {
 
         @Override
         public boolean check() {
-            return $.sys.sendCommand($.sys.line().addRaw(
-                "test -t " + path
-                    + (checkWritable ? (" && test -w " + path) : ""))).result.ok();
+            return $.sys.sendCommand($.sys.line().addRaw(asShell())).result.ok();
+        }
+
+        @Override
+        public String asShell() {
+            return "test -t " + path
+                + (checkWritable ? (" && test -w " + path) : "");
         }
 
         @Override
@@ -212,6 +246,23 @@ public class Dependency extends Task<Object, TaskResult<?>> {
             return run.ok() && matcher.apply(run.output);
         }
 
+        @Override
+        public String asShell() {
+            // password prompts need a console
+            if (script.callback() != null) {
+                return null;
+            }
+
+            String text = script.asTextScript();
+
+            return text.contains("sudo") ? null : text;
+        }
+
+        @Override
+        public boolean accept(int exitCode, String output) {
+            return exitCode == 0 && matcher.apply(output);
+        }
+
         @Override
         public String message() {
             return message;
@@ -231,6 +282,10 @@ public class Dependency extends Task<Object, TaskResult<?>> {
 
     @Override
     protected TaskResult<?> exec(SessionRunner runner) {
+        if ($.var($.bear.batchDependencyChecks)) {
+            return runner.getDependencyChecks().check($, Collections.singletonList(this));
+        }
+
         return checkDeps();
     }
 
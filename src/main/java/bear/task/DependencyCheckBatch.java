@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.task;
+
+import bear.core.SessionContext;
+import bear.session.Result;
+import bear.vcs.CommandLineResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks dependencies of a session with a single remote script. Each batchable check runs in its own subshell and
+ * is followed by a result line <code>__BEAR_CHECK_&lt;index&gt;:&lt;exit code&gt;</code>, the output before the line is
+ * the check's output. Checks which can't be batched or have no result line are run one by one.
+ *
+ * Outcomes are cached until {@link #invalidate()}, i.e. after an installation or a package installed by
+ * {@link bear.plugins.sh.SystemSession}.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class DependencyCheckBatch {
+    private static final Logger logger = LoggerFactory.getLogger(DependencyCheckBatch.class);
+
+    static final String MARKER_PREFIX = "__BEAR_CHECK_";
+
+    private static final Pattern MARKER = Pattern.compile("\\r?\\n?" + MARKER_PREFIX + "(\\d+):(\\d+)\\r?\\n?");
+
+    private final Map<String, Boolean> cache = new HashMap<String, Boolean>();
+
+    public synchronized DependencyResult check(SessionContext $, Iterable<Dependency> dependencies) {
+        List<Dependency.Check> pending = new ArrayList<Dependency.Check>();
+
+        for (Dependency dependency : dependencies) {
+            for (Dependency.Check check : dependency.checks) {
+                if (!cache.containsKey(check.cacheKey()) && check.asShell() != null) {
+                    pending.add(check);
+                }
+            }
+        }
+
+        if (!pending.isEmpty()) {
+            runBatch($, pending);
+        }
+
+        DependencyResult r = new DependencyResult(Result.OK);
+
+        for (Dependency dependency : dependencies) {
+            DependencyResult result = new DependencyResult(Result.OK);
+
+            for (Dependency.Check check : dependency.checks) {
+                if (!passed(check)) {
+                    result.add(check.message());
+                }
+            }
+
+            r.join(result);
+        }
+
+        return r;
+    }
+
+    public synchronized void invalidate() {
+        cache.clear();
+    }
+
+    /**
+     * Forgets outcomes of the dependency's checks, i.e. after it has been installed.
+     */
+    public synchronized void invalidate(Dependency dependency) {
+        for (Dependency.Check check : dependency.checks) {
+            cache.remove(check.cacheKey());
+        }
+    }
+
+    private boolean passed(Dependency.Check check) {
+        String key = check.cacheKey();
+
+        Boolean passed = cache.get(key);
+
+        if (passed == null) {
+            passed = check.check();
+            cache.put(key, passed);
+        }
+
+        return passed;
+    }
+
+    private void runBatch(SessionContext $, List<Dependency.Check> checks) {
+        CommandLineResult<?> result = $.sys.sendCommand($.sys.line()
+            .timeoutMs(30000 + 1000 * checks.size())
+            .addRaw(script(checks)));
+
+        Map<Integer, CheckOutput> outputs = parse(result.output);
+
+        logger.debug("batched {} dependency checks, {} results", checks.size(), outputs.size());
+
+        for (int i = 0; i < checks.size(); i++) {
+            CheckOutput output = outputs.get(i);
+
+            // left for a one by one check
+            if (output == null) continue;
+
+            Dependency.Check check = checks.get(i);
+
+            cache.put(check.cacheKey(), check.accept(output.exitCode, output.text));
+        }
+    }
+
+    static String script(List<Dependency.Check> checks) {
+        StringBuilder sb = new StringBuilder(checks.size() * 128);
+
+        for (int i = 0; i < checks.size(); i++) {
+            sb.append("( ").append(checks.get(i).asShell()).append("\n) </dev/null 2>&1; ")
+                .append("printf '\\n%s%s:%d\\n' '").append(MARKER_PREFIX).append("' '").append(i).append("' $?\n");
+        }
+
+        return sb.toString();
+    }
+
+    static class CheckOutput {
+        final int exitCode;
+        final String text;
+
+        CheckOutput(int exitCode, String text) {
+            this.exitCode = exitCode;
+            this.text = text;
+        }
+    }
+
+    static Map<Integer, CheckOutput> parse(String output) {
+        Map<Integer, CheckOutput> map = new HashMap<Integer, CheckOutput>();
+
+        if (output == null) {
+            return map;
+        }
+
+        Matcher matcher = MARKER.matcher(output);
+
+        int start = 0;
+
+        while (matcher.find()) {
+            map.put(Integer.valueOf(matcher.group(1)),
+                new CheckOutput(Integer.parseInt(matcher.group(2)), output.substring(start, matcher.start())));
+
+            start = matcher.end();
+        }
+
+        return map;
+    }
+}
@@ -46,6 +46,9 @@ public abstract class InstallationTask<TASK_DEF extends InstallationTaskDef> ext
         if(!wasInsideInstallationBefore){
             $.removeConst(getBear().installationInProgress);
         }
+
+        // installed tools change the outcome of dependency checks
+        $.runner.getDependencyChecks().invalidate();
     }
 
     private static final InstallationTask<?> NOP_TASK = new InstallationTask<InstallationTaskDef>(null, null, null) {
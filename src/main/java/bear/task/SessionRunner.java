@@ -49,6 +49,8 @@ public class SessionRunner extends HavingContext<SessionRunner, SessionContext>{
 
     private State state = State.NOT_RUNNING;
 
+    private final DependencyCheckBatch dependencyChecks = new DependencyCheckBatch();
+
     //
     private static enum State{
         NOT_RUNNING, // -> RUNNING
@@ -203,13 +205,15 @@ public class SessionRunner extends HavingContext<SessionRunner, SessionContext>{
         $.setCurrentTask(taskSession);
 
         if($(bear.checkDependencies)){
-            result = taskSession.getDependencies().check();
+            result = checkDependencies(taskSession);
 
             if(!result.ok() && $(bear.autoInstallPlugins)){
                 result = taskSession.getDependencies().tryInstall();
 
+                dependencyChecks.invalidate();
+
                 if(result.ok()){
-                    result = taskSession.getDependencies().check();
+                    result = checkDependencies(taskSession);
                 }
             }
         }
@@ -229,6 +233,18 @@ public class SessionRunner extends HavingContext<SessionRunner, SessionContext>{
         return myResult;
     }
 
+    private DependencyResult checkDependencies(Task<?, ?> taskSession) {
+        if($(bear.batchDependencyChecks)){
+            return dependencyChecks.check($, taskSession.getDependencies().getDependencies());
+        }
+
+        return taskSession.getDependencies().check();
+    }
+
+    public DependencyCheckBatch getDependencyChecks() {
+        return dependencyChecks;
+    }
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder("SessionRunner{");
@@ -0,0 +1,33 @@
+package bear;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+import java.io.File;
+
+/**
+ * Runs scripts in a local bash, which stands in for a remote shell in tests.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public final class LocalBash {
+    private LocalBash() {
+    }
+
+    public static boolean isAvailable() {
+        return new File("/bin/bash").exists();
+    }
+
+    /**
+     * @return stdout and stderr of the script
+     */
+    public static String run(String script) throws Exception {
+        Process process = new ProcessBuilder("/bin/bash", "-c", script).redirectErrorStream(true).start();
+
+        String output = new String(ByteStreams.toByteArray(process.getInputStream()), Charsets.UTF_8);
+
+        process.waitFor();
+
+        return output;
+    }
+}
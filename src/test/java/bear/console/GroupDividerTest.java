@@ -0,0 +1,66 @@
+package bear.console;
+
+import com.google.common.base.Function;
+import org.junit.Test;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class GroupDividerTest {
+    // host|key|text
+    static final Function<String, String> ID = new Function<String, String>() {
+        public String apply(String input) {
+            return input.split("\\|")[0];
+        }
+    };
+
+    static final Function<String, String> KEY = new Function<String, String>() {
+        public String apply(String input) {
+            String key = input.split("\\|")[1];
+            return key.isEmpty() ? null : key;
+        }
+    };
+
+    static final Function<String, String> TEXT = new Function<String, String>() {
+        public String apply(String input) {
+            return input.split("\\|")[2];
+        }
+    };
+
+    @Test
+    public void testSameTextDifferentKeys() throws Exception {
+        List<String> entries = asList("h1|k1|ok", "h2|k1|ok", "h3|k2|ok");
+
+        List<GroupDivider.EqualityGroup> groups = divide(entries, KEY);
+
+        assertThat(groups).hasSize(2);
+        assertThat(groups.get(0).size()).isEqualTo(1);
+        assertThat(groups.get(1).size()).isEqualTo(2);
+        assertThat(groups.get(0).text).isEqualTo("ok");
+    }
+
+    @Test
+    public void testNoKeyGroupsByText() throws Exception {
+        List<String> entries = asList("h1||ok", "h2||ok", "h3|k2|ok");
+
+        assertThat(divide(entries, null)).hasSize(1);
+        assertThat(divide(entries, KEY)).hasSize(2);
+    }
+
+    private static List<GroupDivider.EqualityGroup> divide(List<String> entries, Function<String, String> key) {
+        GroupDivider<String> divider = new GroupDivider<String>(ID, ID, TEXT).setEntryKey(key);
+
+        divider.init(entries);
+
+        for (int i = 0; i < entries.size(); i++) {
+            divider.addArrival(i, entries.get(i));
+        }
+
+        return divider.divideIntoGroups();
+    }
+}
@@ -3,6 +3,7 @@ package bear.context;
 import bear.core.BearApp;
 import bear.session.DynamicVariable;
 import chaschev.util.Exceptions;
+import com.google.common.base.Function;
 import org.junit.Test;
 
 import java.util.concurrent.CountDownLatch;
@@ -114,6 +115,110 @@ public class AbstractContextTest extends HavingContext<AbstractContextTest, Abst
         assertThat(global.var(bear.varDynamicConcat)).isEqualTo("var1/dynamic");
     }
 
+    @Test
+    public void testCachedLookupsSeeChanges() throws Exception {
+        final TestContext $1 = new TestContext(global, "test session 1");
+
+        for (int i = 0; i < 3; i++) {
+            assertThat($1.var(bear.varDynamicConcat)).isEqualTo("var1/dynamic");
+        }
+
+        // a change in a fallback layer
+        global.put(bear.varDynamic, newVar("overridden"));
+
+        assertThat($1.var(bear.varDynamicConcat)).isEqualTo("var1/overridden");
+
+        global.putConst(bear.varDynamic, "const");
+
+        assertThat($1.var(bear.varDynamicConcat)).isEqualTo("var1/const");
+
+        global.removeConst(bear.varDynamic);
+        global.putConst(bear.var1, "global");
+
+        assertThat($1.var(bear.varDynamicConcat)).isEqualTo("global/dynamic");
+
+        $1.putConst(bear.var1, "$1");
+
+        assertThat($1.<String>varByName(bear.var1.name())).isEqualTo("$1");
+        assertThat($1.var(bear.varDynamicConcat)).isEqualTo("$1/dynamic");
+        assertThat($.var(bear.varDynamicConcat)).isEqualTo("global/dynamic");
+
+        global.removeConst(bear.var1);
+        $1.removeConst(bear.var1);
+
+        assertThat($1.var(bear.varDynamicConcat)).isEqualTo("var1/dynamic");
+    }
+
+    @Test
+    public void testCachedLookupsSeeRelinkedAncestors() throws Exception {
+        TestContext p1 = new TestContext(global, "p1");
+        TestContext p2 = new TestContext(global, "p2");
+
+        p1.putConst(bear.var1, "p1");
+        p1.putConst(bear.varDynamic, "p1");
+        p2.putConst(bear.var1, "p2");
+
+        TestContext middle = new TestContext(p1, "middle");
+        TestContext child = new TestContext(middle, "child");
+
+        assertThat(child.var(bear.var1)).isEqualTo("p1");
+
+        // p2 has one change less than p1, so the sum of generations along the chain stays the same
+        middle.setParent(p2);
+
+        assertThat(child.var(bear.var1)).isEqualTo("p2");
+    }
+
+    @Test
+    public void testPureVarsAreCachedUntilDependenciesChange() throws Exception {
+        final int[] evaluations = {0};
+
+        Function<String, String> toUpperCase = new Function<String, String>() {
+            public String apply(String s) {
+                evaluations[0]++;
+                return s.toUpperCase();
+            }
+        };
+
+        DynamicVariable<String> upper = convert(bear.var1, toUpperCase).setName("upper");
+
+        for (int i = 0; i < 3; i++) {
+            assertThat($(upper)).isEqualTo("VAR1");
+        }
+
+        assertThat(evaluations[0]).isEqualTo(1);
+
+        // not a dependency
+        $.putConst(bear.computationTime, 10);
+
+        assertThat($(upper)).isEqualTo("VAR1");
+        assertThat(evaluations[0]).isEqualTo(1);
+
+        global.putConst(bear.var1, "global");
+
+        assertThat($(upper)).isEqualTo("GLOBAL");
+
+        $.putConst(bear.var1, "session");
+
+        assertThat($(upper)).isEqualTo("SESSION");
+        assertThat($(upper)).isEqualTo("SESSION");
+        assertThat(evaluations[0]).isEqualTo(3);
+
+        $.removeConst(bear.var1);
+        global.removeConst(bear.var1);
+        bear.var1.defaultTo("changed");
+
+        assertThat($(upper)).isEqualTo("CHANGED");
+        assertThat(evaluations[0]).isEqualTo(4);
+
+        // a dynamic var may read anything, so its dependents are not cached
+        DynamicVariable<String> upperDynamic = convert(bear.varDynamic, toUpperCase).setName("upperDynamic");
+
+        assertThat($(upperDynamic)).isEqualTo("DYNAMIC");
+        assertThat($(upperDynamic)).isEqualTo("DYNAMIC");
+        assertThat(evaluations[0]).isEqualTo(6);
+    }
+
     @Test
     public void testFreezes() throws Exception {
         // no freezes! :-)
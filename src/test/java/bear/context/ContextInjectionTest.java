@@ -7,6 +7,10 @@ import bear.session.Variables;
 import org.junit.Test;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static bear.session.Variables.dynamic;
 import static java.util.Collections.singletonList;
@@ -122,7 +126,7 @@ public class ContextInjectionTest {
             .setDynamic(new Fun<InjectingContext<TestSessionContext>, Map<String, String>>() {
                 @Override
                 public Map<String, String> apply(InjectingContext<TestSessionContext> $) {
-                    if (!Map.class.isAssignableFrom($.field.getType())) {
+                    if (!Map.class.isAssignableFrom($.getField().getType())) {
                         throw new UndefinedException();
                     }
 
@@ -200,4 +204,65 @@ public class ContextInjectionTest {
     public void testAutowires4_InjectImplementation_MultipleChoice() {
 
     }
+
+    private static class VarHolder {
+        final DynamicVariable<String> greeting;
+
+        VarHolder(DynamicVariable<String> greeting) {
+            this.greeting = greeting;
+        }
+    }
+
+    @Test
+    public void wiringAgain_DoesNotRegisterVariablesAgain() {
+        DynamicVariable<String> greeting = Variables.newVar("hi");
+
+        $.wire(new VarHolder(greeting));
+
+        assertThat(greeting.name()).isEqualTo("varHolder.greeting");
+
+        int version = global.variableRegistry.version;
+
+        $.wire(new VarHolder(greeting));
+        $.wire(new VarHolder(greeting));
+
+        assertThat(global.variableRegistry.version).isEqualTo(version);
+    }
+
+    @Test
+    public void injection_ConcurrentWiring() throws Exception {
+        global.injectors.add(new InjectingVariable<Map<String, String>>()
+            .restrictDeclaringClasses(AutoWired3.class)
+            .setDynamic(new Fun<InjectingContext<TestSessionContext>, Map<String, String>>() {
+                @Override
+                public Map<String, String> apply(InjectingContext<TestSessionContext> $) {
+                    if (!Map.class.isAssignableFrom($.getField().getType())) {
+                        throw new UndefinedException();
+                    }
+
+                    return sampleMap("injected");
+                }
+            }));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            List<Future<AutoWired3>> futures = new ArrayList<Future<AutoWired3>>();
+
+            for (int i = 0; i < 200; i++) {
+                futures.add(executor.submit(new Callable<AutoWired3>() {
+                    @Override
+                    public AutoWired3 call() throws Exception {
+                        return $.wire(new AutoWired3());
+                    }
+                }));
+            }
+
+            for (Future<AutoWired3> future : futures) {
+                assertThat(future.get().injectedMap.keySet()).containsExactly("injected");
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.context;
+
+import bear.session.DynamicVariable;
+
+import static bear.session.Variables.concat;
+
+/**
+ * Compares cached lookups with the layered walk for a session reading a constant of its own, a global constant, a
+ * registered variable and a pure variable derived from the last two. Run with <code>main</code>, warm-up rounds are not reported.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class VariablesLayerBenchmark {
+    static final int ROUNDS = 10;
+    static final int READS = 1000000;
+
+    public static void main(String[] args) {
+        AbstractContextTest.TestBearApp bear = new AbstractContextTest.TestBearApp();
+        AppGlobalContext<AppGlobalContext, AbstractContextTest.TestBearApp> global =
+            new AppGlobalContext<AppGlobalContext, AbstractContextTest.TestBearApp>(bear);
+
+        AbstractContextTest.TestContext $ = new AbstractContextTest.TestContext(global, "session");
+
+        $.putConst(bear.computationTime, 0);
+        global.putConst(bear.varUndefined, "global");
+
+        DynamicVariable<String> derived = concat(bear.var1, "/", bear.varUndefined, "/", bear.var1).setName("derived");
+
+        for (boolean cache : new boolean[]{false, true, false, true}) {
+            VariablesLayer.cacheLookups = cache;
+
+            long best = Long.MAX_VALUE;
+
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+
+                int sum = 0;
+
+                for (int i = 0; i < READS; i++) {
+                    sum += $.var(bear.computationTime);
+                    sum += $.var(bear.varUndefined).length();
+                    sum += $.var(bear.var1).length();
+                    sum += $.var(derived).length();
+                }
+
+                if (sum < 0) throw new AssertionError();
+
+                best = Math.min(best, System.nanoTime() - start);
+            }
+
+            System.out.printf("%s: %d ns per 4 reads%n", cache ? "cached" : "layered", best / READS);
+        }
+    }
+}
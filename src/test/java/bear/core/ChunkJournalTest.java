@@ -0,0 +1,114 @@
+package bear.core;
+
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class ChunkJournalTest {
+    @Test
+    public void testInterleaving() throws Exception {
+        ChunkJournal journal = new ChunkJournal();
+
+        OutputStream out = journal.asOutputStream(false);
+        OutputStream err = journal.asOutputStream(true);
+
+        out.write("compiling\n".getBytes());
+        err.write("warning: deprecated\n".getBytes());
+        out.write("done\n".getBytes());
+
+        assertThat(journal.text()).isEqualTo("compiling\nwarning: deprecated\ndone\n");
+
+        String withTimestamps = journal.text(true);
+
+        assertThat(withTimestamps).matches("(?s)\\d\\d:\\d\\d:\\d\\d\\.\\d{3} out\\| compiling\n" +
+            "\\d\\d:\\d\\d:\\d\\d\\.\\d{3} err\\| warning: deprecated\n" +
+            "\\d\\d:\\d\\d:\\d\\d\\.\\d{3} out\\| done\n");
+
+        Iterator<ChunkJournal.Chunk> it = journal.iterator();
+
+        ChunkJournal.Chunk first = it.next();
+        ChunkJournal.Chunk second = it.next();
+
+        assertThat(first.seq).isLessThan(second.seq);
+        assertThat(second.stdErr).isTrue();
+
+        ByteBuffer bytes = first.bytes();
+        assertThat(bytes.isReadOnly()).isTrue();
+        assertThat(bytes.remaining()).isEqualTo("compiling\n".length());
+
+        journal.close();
+    }
+
+    @Test
+    public void testSplitCharsInInterleavedStreams() throws Exception {
+        ChunkJournal journal = new ChunkJournal();
+
+        byte[] out = "Сборка\n".getBytes(Charset.defaultCharset());
+        byte[] err = "Ошибка\n".getBytes(Charset.defaultCharset());
+
+        // multibyte default charset only
+        assumeTrue(out.length > "Сборка\n".length());
+
+        // the first char of stdout is split by a stderr chunk
+        journal.append(false, out, 0, 1);
+        journal.append(true, err, 0, err.length);
+        journal.append(false, out, 1, out.length - 1);
+
+        assertThat(journal.text()).isEqualTo("Ошибка\nСборка\n");
+
+        journal.close();
+    }
+
+    @Test
+    public void testTextFromMark() throws Exception {
+        ChunkJournal journal = new ChunkJournal();
+
+        journal.asOutputStream(false).write("[sudo] password for bear: ".getBytes());
+
+        long mark = journal.mark();
+
+        journal.asOutputStream(true).write("warning\n".getBytes());
+        journal.asOutputStream(false).write("installed\n".getBytes());
+
+        assertThat(journal.hasFrom(mark)).isTrue();
+        assertThat(journal.text(mark, false)).isEqualTo("warning\ninstalled\n");
+
+        journal.close();
+
+        assertThat(journal.hasFrom(mark)).isFalse();
+    }
+
+    @Test
+    public void testBoundedAndPooled() throws Exception {
+        ChunkJournal journal = new ChunkJournal(4 * ChunkJournal.BLOCK_SIZE);
+
+        byte[] line = "[INFO] Downloading: https://repo.maven.apache.org/maven2/org/apache/maven/\n".getBytes();
+
+        for (int i = 0; i < 20000; i++) {
+            journal.append(i % 10 == 0, line, 0, line.length);
+        }
+
+        assertThat(journal.getBytes()).isLessThanOrEqualTo(4 * ChunkJournal.BLOCK_SIZE);
+        assertThat(journal.getDroppedChunks()).isGreaterThan(0);
+        assertThat(journal.hasFrom(0)).isFalse();
+
+        int freeBefore = ChunkJournal.POOL.freeCount();
+
+        journal.close();
+
+        assertThat(ChunkJournal.POOL.freeCount()).isGreaterThan(freeBefore);
+
+        // closed journals ignore late writes
+        journal.append(false, line, 0, line.length);
+        assertThat(journal.iterator().hasNext()).isFalse();
+    }
+}
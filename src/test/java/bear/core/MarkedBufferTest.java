@@ -0,0 +1,101 @@
+package bear.core;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class MarkedBufferTest {
+    @Test
+    public void testMarks() throws Exception {
+        MarkedBuffer buffer = new MarkedBuffer(false);
+
+        append(buffer, "[sudo] password for andrey: ");
+        buffer.markInterim();
+        buffer.putMark("pw");
+
+        assertThat(buffer.wholeText()).isEqualTo("[sudo] password for andrey: ");
+        assertThat(buffer.interimText()).isEmpty();
+
+        buffer.markStart();
+
+        append(buffer, "ok\n");
+        buffer.putMark("ok");
+
+        assertThat(buffer.interimText()).isEqualTo("ok\n");
+        assertThat(buffer.wholeText()).isEqualTo("ok\n");
+        assertThat(buffer.subText("pw", "ok")).isEqualTo("ok\n");
+        assertThat(buffer.length()).isEqualTo(31);
+    }
+
+    @Test
+    public void testSplitMultibyteChars() throws Exception {
+        String text = "Скачивание артефактов: 100% ✓\n";
+        byte[] bytes = text.getBytes(Charset.defaultCharset());
+
+        MarkedBuffer buffer = new MarkedBuffer(false);
+
+        for (byte b : bytes) {
+            buffer.append(new byte[]{b}, 0, 1);
+        }
+
+        assertThat(buffer.wholeText()).isEqualTo(new String(bytes, Charset.defaultCharset()));
+    }
+
+    @Test
+    public void testWindowAndViews() throws Exception {
+        MarkedBuffer buffer = new MarkedBuffer(false);
+
+        StringBuilder expected = new StringBuilder();
+
+        // several segments
+        for (int i = 0; i < 5000; i++) {
+            String line = "[INFO] Downloading: org/apache/maven/" + i + "\n";
+            expected.append(line);
+            append(buffer, line);
+        }
+
+        assertThat(buffer.length()).isEqualTo(expected.length());
+        assertThat(buffer.wholeText()).isEqualTo(expected.toString());
+
+        CharSequence view = buffer.wholeView();
+
+        assertThat(view.charAt(10000)).isEqualTo(expected.charAt(10000));
+        assertThat(view.subSequence(8190, 8200).toString()).isEqualTo(expected.substring(8190, 8200));
+
+        assertThat(buffer.window(100)).isEqualTo(expected.substring(expected.length() - 100));
+        assertThat(buffer.window()).hasSize(MarkedBuffer.DEFAULT_WINDOW);
+    }
+
+    @Test
+    public void testMultiMegabyteOutput() throws Exception {
+        MarkedBuffer buffer = new MarkedBuffer(false);
+
+        byte[] chunk = ("npm http GET https://registry.npmjs.org/express\n" +
+            "npm http 304 https://registry.npmjs.org/express\n").getBytes();
+
+        int chunks = 8 * 1024 * 1024 / chunk.length;
+        long total = 0;
+
+        for (int i = 0; i < chunks; i++) {
+            buffer.append(chunk, 0, chunk.length);
+
+            // what AbstractConsole does for every read
+            assertThat(buffer.interimText().length()).isEqualTo(chunk.length);
+
+            buffer.markInterim();
+            total += chunk.length;
+        }
+
+        assertThat((long) buffer.length()).isEqualTo(total);
+    }
+
+    private static void append(MarkedBuffer buffer, String s) {
+        byte[] bytes = s.getBytes();
+        buffer.append(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,90 @@
+package bear.core;
+
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class PartyExecutionTest {
+    @Test
+    public void testThreadPerParty() throws Exception {
+        final int parties = 300;
+
+        ListeningExecutorService executor = PartyExecution.THREAD_PER_PARTY.newExecutor(0);
+
+        final CountDownLatch started = new CountDownLatch(parties);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger awareThreads = new AtomicInteger();
+
+        for (int i = 0; i < parties; i++) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (Thread.currentThread() instanceof GlobalContext.AwareThread) {
+                        awareThreads.incrementAndGet();
+                    }
+
+                    started.countDown();
+
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+
+        // all parties are blocked at once
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(awareThreads.get()).isEqualTo(parties);
+
+        release.countDown();
+
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+        ListeningExecutorService executor = PartyExecution.BOUNDED.newExecutor(4);
+
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch finished = new CountDownLatch(50);
+
+        for (int i = 0; i < 50; i++) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    int now = running.incrementAndGet();
+
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), now));
+                    }
+
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+
+                    running.decrementAndGet();
+                    finished.countDown();
+                }
+            });
+        }
+
+        assertThat(finished.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(maxRunning.get()).isLessThanOrEqualTo(4);
+
+        executor.shutdown();
+    }
+}
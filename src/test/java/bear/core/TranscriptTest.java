@@ -0,0 +1,94 @@
+package bear.core;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class TranscriptTest {
+    File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File(FileUtils.getTempDirectory(), "bear-transcript-" + System.nanoTime());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    @Test
+    public void testSpillAndCursor() throws Exception {
+        Transcript transcript = new Transcript(new File(dir, "host.log"), 100);
+
+        StringBuilder expected = new StringBuilder();
+
+        for (int i = 0; i < 200; i++) {
+            String line = "line " + i + " - строка\n";
+            expected.append(line);
+            transcript.append(line);
+        }
+
+        assertThat(transcript.getSpillFile()).exists();
+        assertThat(transcript.length()).isEqualTo(expected.length());
+        assertThat(transcript.tail(10)).isEqualTo(expected.substring(expected.length() - 10));
+        assertThat(transcript.tail().length()).isLessThanOrEqualTo(200);
+
+        assertThat(transcript.cursor().readAll()).isEqualTo(expected.toString());
+        assertThat(transcript.cursor(1000).readAll()).isEqualTo(expected.substring(1000));
+
+        Transcript.Cursor cursor = transcript.cursor(5);
+        assertThat(cursor.next(7)).isEqualTo(expected.substring(5, 12));
+        assertThat(cursor.getPosition()).isEqualTo(12);
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        Transcript transcript = new Transcript(new File(dir, "phase.log"), 10);
+
+        transcript.append("0123456789012345678901234567890");
+        transcript.clear();
+
+        assertThat(transcript.length()).isEqualTo(0);
+        assertThat(transcript.getSpillFile()).doesNotExist();
+
+        transcript.append("abc");
+
+        assertThat(transcript.cursor().readAll()).isEqualTo("abc");
+    }
+
+    @Test
+    public void testDigestCoversSpilledText() throws Exception {
+        Transcript a = new Transcript(new File(dir, "a.log"), 10);
+        Transcript b = new Transcript(new File(dir, "b.log"), 10);
+
+        a.append("host-a: started\n");
+        b.append("host-b: started\n");
+
+        for (int i = 0; i < 10; i++) {
+            a.append("same line " + i + "\n");
+            b.append("same line " + i + "\n");
+        }
+
+        assertThat(a.tail()).isEqualTo(b.tail());
+        assertThat(a.isTailComplete()).isFalse();
+        assertThat(a.digest()).isNotEqualTo(b.digest());
+
+        b.clear();
+        b.append("host-a: started\n");
+
+        for (int i = 0; i < 10; i++) {
+            b.append("same line " + i + "\n");
+        }
+
+        assertThat(b.digest()).isEqualTo(a.digest());
+    }
+}
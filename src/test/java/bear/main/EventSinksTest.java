@@ -0,0 +1,73 @@
+package bear.main;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class EventSinksTest {
+    @Test
+    public void testNdjsonFileIsRotated() throws Exception {
+        File dir = Files.createTempDir();
+
+        try {
+            File file = new File(dir, "events.ndjson");
+
+            NdjsonFileEventSink sink = new NdjsonFileEventSink(file, 10, 2);
+
+            sink.write(Arrays.asList("{\"a\":1}", "{\"a\":2}"));
+            sink.write(Collections.singletonList("{\"a\":3}"));
+            sink.write(Collections.singletonList("{\"a\":4}"));
+            sink.write(Collections.singletonList("{\"a\":5}"));
+            sink.write(Collections.singletonList("{\"a\":6}"));
+            sink.write(Collections.singletonList("{\"a\":7}"));
+            sink.close();
+
+            assertThat(Files.readLines(file, Charsets.UTF_8)).containsExactly("{\"a\":7}");
+            assertThat(Files.readLines(sink.rotated(1), Charsets.UTF_8)).containsExactly("{\"a\":5}", "{\"a\":6}");
+            assertThat(Files.readLines(sink.rotated(2), Charsets.UTF_8)).containsExactly("{\"a\":3}", "{\"a\":4}");
+            assertThat(sink.rotated(3).exists()).isFalse();
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    @Test
+    public void testSocketClientReceivesLines() throws Exception {
+        SocketEventSink sink = new SocketEventSink(0);
+
+        Socket socket = new Socket("127.0.0.1", sink.getPort());
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), Charsets.UTF_8));
+
+            long until = System.currentTimeMillis() + 5000;
+
+            // the client is registered by the acceptor thread
+            while (System.currentTimeMillis() < until) {
+                sink.write(Collections.singletonList("{\"ping\":true}"));
+
+                if (reader.ready()) break;
+
+                Thread.sleep(20);
+            }
+
+            assertThat(reader.readLine()).isEqualTo("{\"ping\":true}");
+        } finally {
+            socket.close();
+            sink.close();
+        }
+    }
+}
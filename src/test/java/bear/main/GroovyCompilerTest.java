@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.main;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import groovy.lang.GroovyClassLoader;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class GroovyCompilerTest {
+    File root;
+    File libDir;
+    File scriptsDir;
+    File buildDir;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDir();
+
+        libDir = new File(root, "lib");
+        scriptsDir = new File(root, "scripts");
+        buildDir = new File(root, "classes");
+
+        write(libDir, "B.groovy", "class B { static String x() { 'b1' } }");
+        write(scriptsDir, "A.groovy", "class A { static String y() { B.x() + { 'a' }.call() } }");
+        write(scriptsDir, "C.groovy", "class C { static String z() { 'c' } }");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(root);
+    }
+
+    @Test
+    public void testWarmStartLoadsFromCache() throws Exception {
+        assertThat(compiled(newCompiler(), "A")).isTrue();
+
+        GroovyCompiler compiler = newCompiler();
+
+        assertThat(compiled(compiler, "A")).isFalse();
+        assertThat(compiled(compiler, "B")).isFalse();
+        assertThat(call(compiler, "A", "y")).isEqualTo("b1a");
+
+        // nothing has changed, the same classes are returned
+        Class<?> a = compiler.compile(getClass().getClassLoader()).byName("A").get().aClass;
+
+        assertThat(compiler.compile(getClass().getClassLoader()).byName("A").get().aClass).isSameAs(a);
+    }
+
+    @Test
+    public void testChangeRecompilesDependents() throws Exception {
+        newCompiler().compile(getClass().getClassLoader());
+
+        write(libDir, "B.groovy", "class B { static String x() { 'b2' } }");
+
+        GroovyCompiler compiler = newCompiler();
+
+        assertThat(compiled(compiler, "B")).isTrue();
+        assertThat(compiled(compiler, "A")).isTrue();
+        assertThat(compiled(compiler, "C")).isFalse();
+        assertThat(call(compiler, "A", "y")).isEqualTo("b2a");
+    }
+
+    @Test
+    public void testSameTextInTwoFiles() throws Exception {
+        // scripts without a class are named after their files
+        write(scriptsDir, "D.groovy", "'same'");
+        write(scriptsDir, "E.groovy", "'same'");
+
+        newCompiler().compile(getClass().getClassLoader());
+
+        GroovyCompiler compiler = newCompiler();
+
+        assertThat(compiled(compiler, "D")).isFalse();
+        assertThat(compiled(compiler, "E")).isFalse();
+    }
+
+    private GroovyCompiler newCompiler() {
+        return new GroovyCompiler(Arrays.asList(libDir, scriptsDir), buildDir);
+    }
+
+    /**
+     * Compiled classes are defined by an inner loader, cached ones by the script loader itself.
+     */
+    private boolean compiled(GroovyCompiler compiler, String name) {
+        Class<?> aClass = compiler.compile(getClass().getClassLoader()).byName(name).get().aClass;
+
+        return aClass.getClassLoader() instanceof GroovyClassLoader.InnerLoader;
+    }
+
+    private Object call(GroovyCompiler compiler, String name, String method) throws Exception {
+        return compiler.compile(getClass().getClassLoader()).byName(name).get().aClass.getMethod(method).invoke(null);
+    }
+
+    private static void write(File dir, String name, String text) throws Exception {
+        dir.mkdirs();
+        Files.write(text, new File(dir, name), Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,77 @@
+package bear.main.event;
+
+import chaschev.json.JacksonMapper;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class EventToUIBusTest {
+    @Test
+    public void testMergesTextInOrder() throws Exception {
+        EventToUIBus bus = new EventToUIBus(1000);
+
+        bus.post(new TextConsoleEventToUI("host1", "a"));
+        bus.post(new TextConsoleEventToUI("host2", "x"));
+        bus.post(new TextConsoleEventToUI("host1", "b"));
+        bus.post(new CommandConsoleEventToUI("host1", "ls"));
+        bus.post(new TextConsoleEventToUI("host1", "c"));
+        bus.post(new TextConsoleEventToUI("host2", "y"));
+
+        List<EventToUI> events = bus.drain();
+
+        assertThat(events).hasSize(4);
+        assertThat(((TextConsoleEventToUI) events.get(0)).textAdded).isEqualTo("ab");
+        assertThat(((TextConsoleEventToUI) events.get(1)).textAdded).isEqualTo("xy");
+        assertThat(events.get(2)).isInstanceOf(CommandConsoleEventToUI.class);
+        assertThat(((TextConsoleEventToUI) events.get(3)).textAdded).isEqualTo("c");
+
+        assertThat(bus.drain()).isEmpty();
+
+        String json = new JacksonMapper().toJSON(events);
+
+        assertThat(json).startsWith("[").contains("\"textAdded\":\"ab\"");
+    }
+
+    @Test
+    public void testDropsOldTextWhenUIIsBehind() throws Exception {
+        EventToUIBus bus = new EventToUIBus(10);
+
+        final List<List<EventToUI>> batches = new ArrayList<List<EventToUI>>();
+
+        EventToUIBus.Sink sink = new EventToUIBus.Sink() {
+            @Override
+            public void send(List<EventToUI> events) {
+                batches.add(events);
+            }
+        };
+
+        bus.post(new TextConsoleEventToUI("host1", "0123"));
+        bus.tick(sink);
+
+        bus.post(new TextConsoleEventToUI("host1", "456789"));
+        bus.post(new CommandConsoleEventToUI("host1", "ls"));
+        bus.post(new TextConsoleEventToUI("host1", "abcdefgh"));
+
+        // the first batch has not been delivered yet
+        bus.tick(sink);
+
+        assertThat(batches).hasSize(1);
+
+        bus.delivered();
+        bus.tick(sink);
+
+        assertThat(batches).hasSize(2);
+
+        List<EventToUI> events = batches.get(1);
+
+        assertThat(events).hasSize(3);
+        assertThat(((TextConsoleEventToUI) events.get(0)).textAdded).isEqualTo("[... skipped 4 chars ...]\n89");
+        assertThat(((TextConsoleEventToUI) events.get(2)).textAdded).isEqualTo("abcdefgh");
+    }
+}
@@ -16,6 +16,7 @@ import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
 
 /**
  * @author Andrey Chaschev chaschev@gmail.com
@@ -101,6 +102,214 @@ public class ComputingGridTest {
     }
 
 
+    @Test
+    public void rolloutWavesTest() throws ExecutionException, InterruptedException {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        Phase<String, Integer> phase1 = new Phase<String, Integer>(0, new Function<Integer, PhaseCallable<Integer, String, Integer>>() {
+            public PhaseCallable<Integer, String, Integer> apply(@Nullable Integer input) {
+                return new PhaseCallable<Integer, String, Integer>() {
+                    @Override
+                    public String call(PhaseParty<Integer, Integer> party, int phaseIndex, Phase<String, Integer> phase) throws Exception {
+                        int now = running.incrementAndGet();
+
+                        synchronized (maxRunning) {
+                            maxRunning.set(Math.max(maxRunning.get(), now));
+                        }
+
+                        Thread.sleep(50);
+
+                        running.decrementAndGet();
+
+                        return party.getName(phaseIndex);
+                    }
+                };
+            }
+        });
+
+        final List<RolloutScheduler.WaveProgress> progress = new CopyOnWriteArrayList<RolloutScheduler.WaveProgress>();
+
+        List<String> strings = sampleGrid(phase1, 6)
+            .setRollout(new RolloutScheduler<Integer, Integer>()
+                .allPhases(RolloutScheduler.<Integer>canary(1, RolloutScheduler.<Integer>batches(2)), 0)
+                .setListener(new RolloutScheduler.WaveListener() {
+                    @Override
+                    public void onProgress(RolloutScheduler.WaveProgress p) {
+                        progress.add(p);
+                    }
+                }))
+            .startParties(service)
+            .aggregateSuccessful(phase1)
+            .get();
+
+        assertThat(strings).doesNotContainNull();
+        assertThat(maxRunning.get()).isLessThanOrEqualTo(2);
+
+        // 1 + 2 + 2 + 1
+        assertThat(progress).hasSize(4);
+        assertThat(progress.get(3).waves).isEqualTo(4);
+    }
+
+    @Test
+    public void rolloutFailureBudgetTest() throws ExecutionException, InterruptedException {
+        Phase<String, Integer> phase1 = new Phase<String, Integer>(0, new Function<Integer, PhaseCallable<Integer, String, Integer>>() {
+            public PhaseCallable<Integer, String, Integer> apply(@Nullable Integer input) {
+                return new PhaseCallable<Integer, String, Integer>() {
+                    @Override
+                    public String call(PhaseParty<Integer, Integer> party, int phaseIndex, Phase<String, Integer> phase) throws Exception {
+                        if (party.index == 0) {
+                            throw new RuntimeException("canary failed");
+                        }
+
+                        return party.getName(phaseIndex);
+                    }
+                };
+            }
+        });
+
+        ComputingGrid<Integer, Integer> grid = sampleGrid(phase1, 5)
+            .setRollout(new RolloutScheduler<Integer, Integer>()
+                .allPhases(RolloutScheduler.<Integer>canary(1, RolloutScheduler.<Integer>percent(50)), 0));
+
+        List<String> strings = grid
+            .startParties(service)
+            .aggregateSuccessful(phase1)
+            .get();
+
+        for (int i = 0; i < strings.size(); i++) {
+            assertThat(strings.get(i)).isNull();
+        }
+
+        assertThat(grid.parties.get(3).exception.getCause())
+            .isInstanceOf(RolloutScheduler.RolloutAbortedException.class);
+    }
+
+    @Test
+    public void rolloutNewRunTest() throws ExecutionException, InterruptedException {
+        final AtomicInteger failingParty = new AtomicInteger(0);
+
+        Phase<String, Integer> phase1 = new Phase<String, Integer>(0, new Function<Integer, PhaseCallable<Integer, String, Integer>>() {
+            public PhaseCallable<Integer, String, Integer> apply(@Nullable Integer input) {
+                return new PhaseCallable<Integer, String, Integer>() {
+                    @Override
+                    public String call(PhaseParty<Integer, Integer> party, int phaseIndex, Phase<String, Integer> phase) throws Exception {
+                        if (party.index == failingParty.get()) {
+                            throw new RuntimeException("canary failed");
+                        }
+
+                        return party.getName(phaseIndex);
+                    }
+                };
+            }
+        });
+
+        RolloutScheduler<Integer, Integer> settings = new RolloutScheduler<Integer, Integer>()
+            .allPhases(RolloutScheduler.<Integer>canary(1, RolloutScheduler.<Integer>batches(2)), 0);
+
+        ComputingGrid<Integer, Integer> grid = sampleGrid(phase1, 5).setRollout(settings.newRun());
+
+        grid.startParties(service).aggregateSuccessful(phase1).get();
+
+        assertThat(grid.parties.get(4).exception.getCause())
+            .isInstanceOf(RolloutScheduler.RolloutAbortedException.class);
+
+        // the abort and the waves of five parties are not seen by the next run
+        failingParty.set(-1);
+
+        List<String> strings = sampleGrid(phase1, 3)
+            .setRollout(settings.newRun())
+            .startParties(service)
+            .aggregateSuccessful(phase1)
+            .get();
+
+        assertThat(strings).hasSize(3).doesNotContainNull();
+    }
+
+    @Test
+    public void barriersTest() throws Exception {
+        final CountDownLatch slowParty = new CountDownLatch(1);
+
+        Phase<String, Integer> phase1 = new Phase<String, Integer>(0, new Function<Integer, PhaseCallable<Integer, String, Integer>>() {
+            public PhaseCallable<Integer, String, Integer> apply(@Nullable Integer input) {
+                return new PhaseCallable<Integer, String, Integer>() {
+                    @Override
+                    public String call(PhaseParty<Integer, Integer> party, int phaseIndex, Phase<String, Integer> phase) throws Exception {
+                        if (party.index == 0) {
+                            throw new RuntimeException("party 0 failed");
+                        }
+
+                        if (party.index == 3) {
+                            slowParty.await();
+                        }
+
+                        return party.getName(phaseIndex);
+                    }
+                };
+            }
+        });
+
+        Phase<String, Integer> phase2 = new Phase<String, Integer>(1, new Function<Integer, PhaseCallable<Integer, String, Integer>>() {
+            public PhaseCallable<Integer, String, Integer> apply(@Nullable Integer input) {
+                return new PhaseCallable<Integer, String, Integer>() {
+                    @Override
+                    public String call(PhaseParty<Integer, Integer> party, int phaseIndex, Phase<String, Integer> phase) throws Exception {
+                        return party.getName(phaseIndex);
+                    }
+                };
+            }
+        });
+
+        final AtomicInteger allFinished = new AtomicInteger();
+        final AtomicInteger phase2Completed = new AtomicInteger();
+
+        ComputingGrid<Integer, Integer> grid = sampleGrid(phase1, phase2, 4);
+
+        grid.setWhenAllFinished(new ComputingGrid.WhenAllFinished() {
+            @Override
+            public void run(int failedParties, int okParties) {
+                allFinished.incrementAndGet();
+                assertThat(failedParties).isEqualTo(1);
+            }
+        });
+
+        grid.onPhaseComplete(phase2, new PhaseBarrier.Listener() {
+            @Override
+            public void onComplete(PhaseBarrier barrier) {
+                phase2Completed.incrementAndGet();
+            }
+        });
+
+        ListenableFuture<PhaseBarrier> twoOfFour = grid.quorum(phase1, 2);
+        ListenableFuture<PhaseBarrier> allOfFour = grid.quorum(phase1, 4);
+
+        grid.startParties(service);
+
+        // parties 1 and 2 are done, 3 is waiting
+        assertThat(twoOfFour.get(1, TimeUnit.SECONDS).getOk()).isGreaterThanOrEqualTo(2);
+        assertThat(grid.barrier(phase1).isComplete()).isFalse();
+
+        try {
+            allOfFour.get(1, TimeUnit.SECONDS);
+            fail("party 0 has failed");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+        }
+
+        slowParty.countDown();
+
+        // the broken party arrives at phase 2 as failed
+        PhaseBarrier barrier = grid.awaitPhase(phase2);
+
+        assertThat(barrier.getFailed()).isEqualTo(1);
+        assertThat(barrier.getOk()).isEqualTo(3);
+
+        grid.awaitTermination();
+
+        assertThat(allFinished.get()).isEqualTo(1);
+        assertThat(phase2Completed.get()).isEqualTo(1);
+    }
+
     //exception thrown
     //aggregate results
 
@@ -0,0 +1,144 @@
+package bear.plugins;
+
+import bear.LocalBash;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+
+import static bear.LocalBash.run;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs the cache scripts with a local shell.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class ArtifactCacheTest {
+    File root;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(LocalBash.isAvailable() && run("sha256sum --version").contains("sha256sum"));
+
+        root = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (root != null) {
+            run("rm -rf " + root.getPath());
+        }
+    }
+
+    @Test
+    public void testAddAndLookup() throws Exception {
+        ArtifactCache cache = new ArtifactCache(root.getPath(), 0, true);
+
+        ArtifactCache.Artifact tomcat = artifact("http://host/tomcat-7.0.tar.gz", null, "tools/tomcat-7.0.tar.gz");
+
+        assertThat(lookup(cache, tomcat)).isNull();
+
+        File part = write("downloads/tomcat.part", "tomcat 7.0");
+
+        String hash = parse(run(cache.addScript(part.getPath(), tomcat))).get(0);
+
+        assertThat(hash).isEqualTo(Hashing.sha256().hashString("tomcat 7.0", Charsets.UTF_8).toString());
+        assertThat(part.exists()).isFalse();
+        assertThat(read("tools/tomcat-7.0.tar.gz")).isEqualTo("tomcat 7.0");
+
+        // the same content for another release is a hard link to the cached file
+        ArtifactCache.Artifact sameContent = artifact("other-key", hash, "releases/2/tomcat.tar.gz");
+
+        assertThat(lookup(cache, sameContent)).isEqualTo(hash);
+        assertThat(run("stat -c %h " + root + "/.cas/" + hash).trim()).isEqualTo("3");
+
+        // a different file with the same name is a miss
+        assertThat(lookup(cache, artifact("http://host2/tomcat-7.0.tar.gz", null, "tools/tomcat-7.0.tar.gz"))).isNull();
+    }
+
+    @Test
+    public void testCorruptedIsNotTrusted() throws Exception {
+        ArtifactCache cache = new ArtifactCache(root.getPath(), 0, true);
+
+        ArtifactCache.Artifact node = artifact("http://host/node.tar.gz", null, "tools/node.tar.gz");
+
+        String hash = parse(run(cache.addScript(write("node.part", "node").getPath(), node))).get(0);
+
+        Files.write("nod", new File(root, ".cas/" + hash), Charsets.UTF_8);
+
+        assertThat(lookup(cache, node)).isNull();
+        assertThat(new File(root, ".cas/" + hash).exists()).isFalse();
+
+        // an unexpected hash is rejected
+        ArtifactCache.Artifact expected = artifact("http://host/node.tar.gz", hash, "tools/node.tar.gz");
+
+        assertThat(parse(run(cache.addScript(write("node.part", "truncated").getPath(), expected))).get(0))
+            .isEqualTo(ArtifactCache.MISS);
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        ArtifactCache cache = new ArtifactCache(root.getPath(), 10, true);
+
+        for (int i = 0; i < 3; i++) {
+            if (i == 2) {
+                // v0 is linked from nowhere else now, v1 is still in use
+                assertThat(new File(root, "tools/v0").delete()).isTrue();
+            }
+
+            run(cache.addScript(write("v" + i + ".part", "version-" + i + "-0123456").getPath(),
+                artifact("v" + i, null, "tools/v" + i)));
+
+            // mtime resolution
+            Thread.sleep(1100);
+        }
+
+        assertThat(lookup(cache, artifact("v0", null, "x/v0"))).isNull();
+        assertThat(lookup(cache, artifact("v1", null, "x/v1"))).isNotNull();
+        assertThat(lookup(cache, artifact("v2", null, "x/v2"))).isNotNull();
+
+        assertThat(Files.toString(new File(root, ".cas/index"), Charsets.UTF_8)).startsWith("v1\t");
+    }
+
+    @Test
+    public void testFailedDownloadIsRemoved() throws Exception {
+        File part = write("tools/node.tar.gz.part", "partial");
+
+        // false stands in for a failed wget
+        run(ArtifactCache.downloadCommand("http://127.0.0.1:1/node.tar.gz", part.getPath()).replaceFirst("^wget", "false"));
+
+        assertThat(part.exists()).isFalse();
+    }
+
+    private ArtifactCache.Artifact artifact(String key, String sha256, String target) {
+        return new ArtifactCache.Artifact(key, sha256, new File(root, target).getPath());
+    }
+
+    private String lookup(ArtifactCache cache, ArtifactCache.Artifact artifact) throws Exception {
+        String hash = parse(run(cache.lookupScript(Arrays.asList(artifact)))).get(0);
+        return ArtifactCache.MISS.equals(hash) ? null : hash;
+    }
+
+    private static Map<Integer, String> parse(String output) {
+        return ArtifactCache.parse(output);
+    }
+
+    private File write(String path, String text) throws Exception {
+        File file = new File(root, path);
+        Files.createParentDirs(file);
+        Files.write(text, file, Charsets.UTF_8);
+        return file;
+    }
+
+    private String read(String path) throws Exception {
+        return Files.toString(new File(root, path), Charsets.UTF_8);
+    }
+}
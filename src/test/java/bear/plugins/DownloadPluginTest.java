@@ -0,0 +1,57 @@
+package bear.plugins;
+
+import bear.LocalBash;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static bear.LocalBash.run;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class DownloadPluginTest {
+    File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(LocalBash.isAvailable());
+
+        dir = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    @Test
+    public void testManifestCoversCopiedFilesOnly() throws Exception {
+        File seed = new File(dir, "seed");
+        File copy = new File(dir, "copy");
+
+        FileUtils.writeStringToFile(new File(seed, "app.tar.gz"), "archive");
+        FileUtils.writeStringToFile(new File(seed, "app.tar.gz.sha256"), "sum");
+
+        // not copied by dir/*
+        FileUtils.writeStringToFile(new File(seed, ".lock"), "");
+        FileUtils.writeStringToFile(new File(seed, "unpacked/bin/app"), "binary");
+
+        run("mkdir -p " + copy + " && cp " + seed + "/* " + copy + " 2>/dev/null");
+
+        String expected = run(DownloadPlugin.manifestCommand(seed.getPath()));
+
+        assertThat(expected).contains("./app.tar.gz").doesNotContain(".lock").doesNotContain("unpacked");
+        assertThat(run(DownloadPlugin.manifestCommand(copy.getPath()))).isEqualTo(expected);
+
+        FileUtils.writeStringToFile(new File(copy, "app.tar.gz.part"), "stale");
+
+        assertThat(run(DownloadPlugin.manifestCommand(copy.getPath()))).isNotEqualTo(expected);
+    }
+}
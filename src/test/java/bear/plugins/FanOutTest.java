@@ -0,0 +1,147 @@
+package bear.plugins;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class FanOutTest {
+    /**
+     * In-memory hosts, a copy takes the source's bytes.
+     */
+    static class Hosts implements FanOut.Hosts {
+        final byte[][] files;
+        final byte[] original;
+        final List<String> copies = Collections.synchronizedList(new ArrayList<String>());
+
+        int corruptedHost = -1;
+        int brokenHost = -1;
+
+        Hosts(int count, int seed, byte[] original) {
+            this.files = new byte[count][];
+            this.original = original;
+            files[seed] = original.clone();
+        }
+
+        @Override
+        public void copy(int from, int to) throws Exception {
+            if (from == brokenHost) {
+                throw new IllegalStateException("connection refused");
+            }
+
+            copies.add(from + "->" + to);
+
+            byte[] bytes = files[from].clone();
+
+            if (from == corruptedHost) {
+                bytes[0]++;
+            }
+
+            files[to] = bytes;
+        }
+
+        @Override
+        public boolean verify(int host) throws Exception {
+            return Arrays.equals(files[host], original);
+        }
+    }
+
+    @Test
+    public void testTree() throws Exception {
+        FanOut fanOut = new FanOut(7, 3, 2, 1000);
+
+        assertThat(fanOut.parentOf(0)).isEqualTo(3);
+        assertThat(fanOut.parentOf(1)).isEqualTo(3);
+        assertThat(fanOut.parentOf(2)).isEqualTo(0);
+        assertThat(fanOut.parentOf(4)).isEqualTo(0);
+        assertThat(fanOut.parentOf(5)).isEqualTo(1);
+        assertThat(fanOut.parentOf(6)).isEqualTo(1);
+
+        FanOut star = new FanOut(5, 0, 0, 1000);
+
+        for (int i = 1; i < 5; i++) {
+            assertThat(star.parentOf(i)).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void testSpread() throws Exception {
+        Hosts hosts = new Hosts(15, 0, "artifact".getBytes());
+
+        run(new FanOut(15, 0, 2, 5000), hosts, 15);
+
+        for (int i = 0; i < 15; i++) {
+            assertThat(hosts.verify(i)).isTrue();
+        }
+
+        int fromSeed = 0;
+
+        for (String copy : hosts.copies) {
+            if (copy.startsWith("0->")) fromSeed++;
+        }
+
+        assertThat(hosts.copies).hasSize(14);
+        assertThat(fromSeed).isEqualTo(2);
+    }
+
+    @Test
+    public void testCorruptedAndBrokenSources() throws Exception {
+        Hosts hosts = new Hosts(7, 0, "artifact".getBytes());
+
+        // 1 serves broken copies to 3 and 4, 2 can't serve 5 and 6
+        hosts.corruptedHost = 1;
+        hosts.brokenHost = 2;
+
+        FanOut fanOut = new FanOut(7, 0, 2, 5000);
+
+        run(fanOut, hosts, 7);
+
+        for (int i = 1; i < 7; i++) {
+            assertThat(hosts.verify(i)).isTrue();
+        }
+
+        assertThat(hosts.copies).contains("1->3", "0->3", "1->4", "0->4", "0->5", "0->6");
+        assertThat(hosts.copies).doesNotContain("2->5", "2->6");
+    }
+
+    private static void run(FanOut fanOut, Hosts hosts, int count) throws Exception {
+        for (Future<Void> future : start(fanOut, hosts, count)) {
+            future.get();
+        }
+    }
+
+    private static List<Future<Void>> start(final FanOut fanOut, final Hosts hosts, int count) {
+        ExecutorService service = Executors.newFixedThreadPool(count);
+
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+        for (int i = 0; i < count; i++) {
+            final int host = i;
+
+            futures.add(service.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    if (host != fanOut.getSeed()) {
+                        fanOut.receive(host, hosts);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        service.shutdown();
+
+        return futures;
+    }
+}
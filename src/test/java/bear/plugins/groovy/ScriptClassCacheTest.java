@@ -0,0 +1,74 @@
+package bear.plugins.groovy;
+
+import groovy.lang.Binding;
+import org.junit.Test;
+
+import java.util.concurrent.*;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class ScriptClassCacheTest {
+    @Test
+    public void testScriptIsCompiledOnceAndBoundPerSession() throws Exception {
+        ScriptClassCache cache = new ScriptClassCache(10, 1, TimeUnit.MINUTES);
+
+        String text = "host + ':' + (counter += 1)";
+
+        Binding b1 = new Binding();
+        b1.setVariable("host", "a");
+        b1.setVariable("counter", 0);
+
+        Binding b2 = new Binding();
+        b2.setVariable("host", "b");
+        b2.setVariable("counter", 10);
+
+        assertThat(cache.newScript(text, b1).run()).isEqualTo("a:1");
+        assertThat(cache.newScript(text, b2).run()).isEqualTo("b:11");
+        assertThat(cache.newScript(text, b1).run()).isEqualTo("a:2");
+
+        assertThat((Object) cache.compile(text)).isSameAs(cache.compile(text));
+        assertThat(cache.size()).isEqualTo(1);
+
+        cache.compile("1 + 1");
+
+        assertThat(cache.size()).isEqualTo(2);
+
+        cache.clear();
+
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testConcurrentSessionsShareOneClass() throws Exception {
+        final ScriptClassCache cache = new ScriptClassCache(10, 1, TimeUnit.MINUTES);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+
+            Future<?>[] futures = new Future<?>[16];
+
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = executor.submit(new Callable<Class<?>>() {
+                    @Override
+                    public Class<?> call() throws Exception {
+                        start.await();
+                        return cache.compile("class Greeter { String hi() { 'hi' } }; new Greeter().hi()");
+                    }
+                });
+            }
+
+            start.countDown();
+
+            for (Future<?> future : futures) {
+                assertThat(future.get()).isSameAs(futures[0].get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
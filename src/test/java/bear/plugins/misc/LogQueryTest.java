@@ -0,0 +1,113 @@
+package bear.plugins.misc;
+
+import bear.LocalBash;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import static bear.LocalBash.run;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs the query script with a local shell.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class LogQueryTest {
+    File root;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(LocalBash.isAvailable());
+
+        root = Files.createTempDir();
+
+        File logs = new File(root, "tomcat-8080");
+        logs.mkdirs();
+
+        Files.write(
+            "2013-10-18 12:00:01 INFO  started\n" +
+            "2013-10-18 12:00:05 ERROR failed to connect\n" +
+            "java.net.ConnectException: Connection refused\n" +
+            "\tat Main.main(Main.java:10)\n" +
+            "2013-10-18 12:00:09 WARN  retrying (1/3)\n" +
+            "2013-10-18T12:10:00 ERROR failed to connect\n",
+            new File(logs, "app.log"), Charsets.UTF_8);
+
+        Files.write("2013-10-18 12:00:07 ERROR disk is full\n", new File(root, "other.log"), Charsets.UTF_8);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (root != null) {
+            run("rm -rf " + root.getPath());
+        }
+    }
+
+    @Test
+    public void testFilters() throws Exception {
+        List<LogLine> lines = query("host1", new LogQuery().levels("ERROR"));
+
+        assertThat(lines).hasSize(5);
+        assertThat(lines.get(0).text).isEqualTo("2013-10-18 12:00:05 ERROR failed to connect");
+        // the stack trace belongs to the entry
+        assertThat(lines.get(1).timestamp).isEqualTo("2013-10-18 12:00:05");
+        assertThat(lines.get(2).text).isEqualTo("\tat Main.main(Main.java:10)");
+        assertThat(lines.get(3).text).isEqualTo("2013-10-18 12:00:07 ERROR disk is full");
+        assertThat(lines.get(4).timestamp).isEqualTo("2013-10-18 12:10:00");
+
+        lines = query("host1", new LogQuery().containing("(1/3)"));
+
+        assertThat(lines).hasSize(1);
+        assertThat(lines.get(0).path).endsWith("tomcat-8080/app.log");
+
+        lines = query("host1", new LogQuery().matching("failed|full").since("2013-10-18 12:00:06").until("2013-10-18 12:05:00"));
+
+        assertThat(lines).hasSize(1);
+        assertThat(lines.get(0).text).contains("disk is full");
+
+        assertThat(query("host1", new LogQuery().levels("ERROR").maxLines(2))).hasSize(2);
+    }
+
+    @Test
+    public void testMergesHosts() throws Exception {
+        LogQueryResults results = new LogQueryResults();
+
+        collect(results, "host1", new LogQuery().levels("WARN").paths(root + "/tomcat-8080"));
+        collect(results, "host2", new LogQuery().levels("ERROR").paths(root + "/other.log"));
+
+        List<LogLine> merged = results.merged();
+
+        assertThat(merged).hasSize(2);
+        assertThat(merged.get(0).host).isEqualTo("host2");
+        assertThat(merged.get(1).host).isEqualTo("host1");
+    }
+
+    private List<LogLine> query(String host, LogQuery query) throws Exception {
+        LogQueryResults results = new LogQueryResults();
+
+        collect(results, host, query);
+
+        return results.merged();
+    }
+
+    private void collect(LogQueryResults results, String host, LogQuery query) throws Exception {
+        String output = run(query.script(query.paths.isEmpty() ? Collections.singletonList(root.getPath()) : query.paths));
+
+        LogQueryResults.Collector collector = results.collector(host);
+
+        // arrives in chunks
+        for (int i = 0; i < output.length(); i += 7) {
+            collector.append(output.substring(i, Math.min(output.length(), i + 7)));
+        }
+
+        collector.finish();
+    }
+}
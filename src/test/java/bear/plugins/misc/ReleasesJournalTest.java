@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.plugins.misc;
+
+import bear.LocalBash;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static bear.LocalBash.run;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs the journal scripts with a local shell.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class ReleasesJournalTest {
+    File root;
+    ReleasesJournal journal;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(LocalBash.isAvailable());
+
+        root = Files.createTempDir();
+
+        journal = new ReleasesJournal(root.getPath(), root + "/releases.journal", root + "/releases.json", root + "/current");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (root != null) {
+            run("rm -rf " + root.getPath());
+        }
+    }
+
+    @Test
+    public void testProbe() throws Exception {
+        new File(root, "20131001.120000.GMT").mkdirs();
+        new File(root, "20131002.120000.GMT").mkdirs();
+
+        run("ln -s " + root + "/20131002.120000.GMT " + root + "/current");
+
+        Files.write("{\"" + root + "/20131001.120000.GMT\": {\"status\": \"inactive\"}}", new File(root, "releases.json"), Charsets.UTF_8);
+
+        ReleasesJournal.Probe probe = ReleasesJournal.parse(run(journal.probeScript()));
+
+        assertThat(probe.folders).containsExactly(root + "/20131001.120000.GMT", root + "/20131002.120000.GMT");
+        assertThat(probe.link).isEqualTo(root + "/20131002.120000.GMT");
+        assertThat(probe.legacyJson).contains("inactive");
+        assertThat(probe.records).isEmpty();
+
+        // the journal takes over releases.json
+        run(journal.appendScript(Arrays.asList(ReleasesJournal.put("r1", "{\"status\":\"active\"}")), false));
+
+        probe = ReleasesJournal.parse(run(journal.probeScript()));
+
+        assertThat(probe.legacyJson).isNull();
+        assertThat(probe.records).containsKey("r1");
+    }
+
+    @Test
+    public void testAppendAndCompact() throws Exception {
+        run(journal.appendScript(Arrays.asList(
+            ReleasesJournal.put("r1", "{\"status\":\"active\"}"),
+            ReleasesJournal.put("r2", "{\"status\":\"pending\"}")), false));
+
+        run(journal.appendScript(Arrays.asList(
+            ReleasesJournal.put("r1", "{\"status\":\"inactive\"}"),
+            ReleasesJournal.delete("r2"),
+            ReleasesJournal.put("r3", "{\"status\":\"it's active\"}")), false));
+
+        ReleasesJournal.Probe probe = ReleasesJournal.parse(run(journal.probeScript()));
+
+        assertThat(probe.recordCount).isEqualTo(5);
+        assertThat(probe.records.keySet()).containsExactly("r1", "r3");
+        assertThat(probe.records.get("r1")).isEqualTo("{\"status\":\"inactive\"}");
+        assertThat(probe.records.get("r3")).isEqualTo("{\"status\":\"it's active\"}");
+
+        run(journal.compactScript());
+
+        ReleasesJournal.Probe compacted = ReleasesJournal.parse(run(journal.probeScript()));
+
+        assertThat(compacted.recordCount).isEqualTo(2);
+        assertThat(compacted.records).isEqualTo(probe.records);
+    }
+}
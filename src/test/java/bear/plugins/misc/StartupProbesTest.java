@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2013 Andrey Chaschev.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package bear.plugins.misc;
+
+import bear.LocalBash;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.util.Arrays;
+
+import static bear.LocalBash.run;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs the probe script with a local shell.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class StartupProbesTest {
+    File root;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(LocalBash.isAvailable());
+
+        root = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (root != null) {
+            run("rm -rf " + root.getPath());
+        }
+    }
+
+    @Test
+    public void testProbes() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+
+        try {
+            Files.write("INFO: Server startup in 1020 ms\n", new File(root, "started.log"), Charsets.UTF_8);
+            Files.write("Oops, cannot start the server.\n", new File(root, "failed.log"), Charsets.UTF_8);
+
+            StartupProbes probes = new StartupProbes(null, Arrays.asList(
+                new StartupProbe("8080").log(root + "/started.log").readyWhenLogContains("Server startup in"),
+                new StartupProbe("8081").log(root + "/failed.log").readyWhenLogContains("Listening for HTTP on")
+                    .failedWhenLogContains("Oops, cannot start the server."),
+                new StartupProbe("port").readyWhenPortOpen(socket.getLocalPort()),
+                new StartupProbe("8083").log(root + "/missing.log").readyWhenLogContains("Server startup in")
+            ), 1000);
+
+            String output = run(probes.script());
+
+            assertThat(output).contains(StartupProbes.MARKER_PREFIX + "0:OK");
+            assertThat(output).contains(StartupProbes.MARKER_PREFIX + "1:FAILED");
+            assertThat(output).contains(StartupProbes.MARKER_PREFIX + "2:OK");
+            assertThat(output).contains(StartupProbes.MARKER_PREFIX + "3:TIMEOUT");
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testWaitsForLog() throws Exception {
+        final File log = new File(root, "app.log");
+
+        StartupProbes probes = new StartupProbes(null, Arrays.asList(
+            new StartupProbe("9000").log(log.getPath()).readyWhenLogContains("Listening for HTTP on")
+        ), 10000);
+
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(1000);
+                    Files.write("Listening for HTTP on /0.0.0.0:9000\n", log, Charsets.UTF_8);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }.start();
+
+        long start = System.currentTimeMillis();
+
+        assertThat(run(probes.script())).contains(StartupProbes.MARKER_PREFIX + "0:OK");
+        assertThat(System.currentTimeMillis() - start).isLessThan(5000);
+    }
+}
@@ -0,0 +1,161 @@
+package bear.plugins.sh;
+
+import bear.LocalBash;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static bear.LocalBash.run;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Plans a delta against a base directory and assembles the new directory with a local shell standing for the host.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class DeltaUploadTest {
+    static final int BLOCK = 1024;
+
+    File root;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(LocalBash.isAvailable() && run("split --help").contains("--filter"));
+
+        root = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (root != null) {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    @Test
+    public void testDelta() throws Exception {
+        Random random = new Random(7);
+
+        byte[] jar = new byte[BLOCK * 10 + 100];
+        random.nextBytes(jar);
+
+        write("base/lib/app.jar", jar);
+        write("base/lib/guava.jar", bytes(random, 3000));
+        write("base/config/app.conf", "port=8080".getBytes());
+        write("base/removed.txt", "gone".getBytes());
+
+        // one block of app.jar is changed, guava.jar is moved, app.conf is changed, run.sh is new
+        jar[BLOCK * 4 + 10]++;
+
+        File local = new File(root, "local");
+
+        write("local/lib/app.jar", jar);
+        Files.copy(new File(root, "base/lib/guava.jar"), newFile("local/lib/ext/guava.jar"));
+        write("local/config/app.conf", "port=9090".getBytes());
+        write("local/bin/run.sh", "#!/bin/sh".getBytes());
+        new File(root, "local/bin/run.sh").setExecutable(true);
+
+        String base = new File(root, "base").getPath();
+
+        Map<String, DeltaUpload.FileSignature> signatures = DeltaUpload.parseSignatures(
+            run(DeltaUpload.signatureScript(base, BLOCK)));
+
+        assertThat(signatures.keySet()).containsOnly("lib/app.jar", "lib/guava.jar", "config/app.conf", "removed.txt");
+        assertThat(signatures.get("lib/app.jar").blocks).hasSize(11);
+
+        List<DeltaUpload.Entry> entries = DeltaUpload.plan(local, signatures, BLOCK);
+
+        File stage = new File(root, "stage");
+        stage.mkdirs();
+
+        for (int i = 0; i < entries.size(); i++) {
+            DeltaUpload.Entry entry = entries.get(i);
+            String path = entry.signature.path;
+
+            if (path.equals("lib/app.jar")) {
+                assertThat(entry.kind).isEqualTo(DeltaUpload.Kind.PATCH);
+                assertThat(entry.literalBlocks()).isEqualTo(1);
+            } else if (path.equals("lib/ext/guava.jar")) {
+                assertThat(entry.kind).isEqualTo(DeltaUpload.Kind.LINK);
+                assertThat(entry.source).isEqualTo("lib/guava.jar");
+            } else {
+                assertThat(entry.kind).isEqualTo(DeltaUpload.Kind.UPLOAD);
+            }
+
+            // stands for the upload
+            if (entry.kind == DeltaUpload.Kind.PATCH) {
+                DeltaUpload.writePatch(entry, new File(stage, String.valueOf(i)), BLOCK);
+                assertThat(new File(stage, String.valueOf(i)).length()).isEqualTo(BLOCK);
+            } else if (entry.kind == DeltaUpload.Kind.UPLOAD) {
+                Files.copy(entry.file, new File(stage, String.valueOf(i)));
+            }
+        }
+
+        File dest = new File(root, "dest");
+
+        String output = run(DeltaUpload.assembleScript(base, dest.getPath(), stage.getPath(), entries, BLOCK));
+
+        assertThat(DeltaUpload.parseFailed(output)).isEmpty();
+
+        for (String path : new String[]{"lib/app.jar", "lib/ext/guava.jar", "config/app.conf", "bin/run.sh"}) {
+            assertThat(Files.equal(new File(local, path), new File(dest, path))).isTrue();
+        }
+
+        assertThat(new File(dest, "removed.txt").exists()).isFalse();
+        assertThat(new File(dest, "bin/run.sh").canExecute()).isTrue();
+        assertThat(run("stat -c %h " + new File(dest, "lib/ext/guava.jar")).trim()).isEqualTo("2");
+    }
+
+    @Test
+    public void testCorruptedBaseIsReported() throws Exception {
+        byte[] jar = bytes(new Random(3), BLOCK * 3);
+
+        write("base/app.jar", jar);
+        jar[10]++;
+        write("local/app.jar", jar);
+
+        String base = new File(root, "base").getPath();
+
+        List<DeltaUpload.Entry> entries = DeltaUpload.plan(new File(root, "local"),
+            DeltaUpload.parseSignatures(run(DeltaUpload.signatureScript(base, BLOCK))), BLOCK);
+
+        assertThat(entries.get(0).kind).isEqualTo(DeltaUpload.Kind.PATCH);
+
+        File stage = new File(root, "stage");
+        stage.mkdirs();
+
+        DeltaUpload.writePatch(entries.get(0), new File(stage, "0"), BLOCK);
+
+        // the base changes after its signature was taken
+        jar[BLOCK * 2]++;
+        write("base/app.jar", jar);
+
+        String output = run(DeltaUpload.assembleScript(base, new File(root, "dest").getPath(), stage.getPath(), entries, BLOCK));
+
+        assertThat(DeltaUpload.parseFailed(output)).containsOnly(0);
+    }
+
+    private static byte[] bytes(Random random, int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private File newFile(String path) throws Exception {
+        File file = new File(root, path);
+        Files.createParentDirs(file);
+        return file;
+    }
+
+    private void write(String path, byte[] bytes) throws Exception {
+        Files.write(bytes, newFile(path));
+    }
+}
@@ -0,0 +1,86 @@
+package bear.plugins.sh;
+
+import bear.LocalBash;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static bear.LocalBash.run;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs the probe script with a local shell standing for the host.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class HostFactsTest {
+    @Test
+    public void testFactsAreGatheredInOneScript() throws Exception {
+        assumeTrue(LocalBash.isAvailable() && new File("/proc/meminfo").exists());
+
+        Map<String, String> probes = new LinkedHashMap<String, String>();
+
+        probes.put("bash", "bash --version");
+        probes.put("noSuchTool42", "noSuchTool42 --version");
+
+        String script = HostFacts.script(probes);
+
+        // the shell echoes the command, this must not be taken for the facts
+        String output = script + "\n" + run(script);
+
+        HostFacts facts = HostFacts.parse(output, 1L);
+
+        assertThat(facts).isNotNull();
+        assertThat(facts.getKernel()).startsWith("Linux");
+        assertThat(facts.getCpus()).isGreaterThan(0);
+        assertThat(facts.getMemTotalMb()).isGreaterThan(0);
+        assertThat(facts.getDiskTotalMb()).isGreaterThan(0);
+
+        assertThat(facts.isInstalled("bash")).isTrue();
+        assertThat(facts.version("bash")).contains("bash");
+
+        assertThat(facts.isProbed("noSuchTool42")).isTrue();
+        assertThat(facts.isInstalled("noSuchTool42")).isFalse();
+        assertThat(facts.version("noSuchTool42")).isNull();
+    }
+
+    @Test
+    public void testCacheExpiresAndIsInvalidated() throws Exception {
+        File dir = Files.createTempDir();
+
+        try {
+            Map<String, String> values = new LinkedHashMap<String, String>();
+
+            values.put("cpus", "4");
+            values.put("path.java", "/usr/bin/java");
+
+            HostFactsCache cache = new HostFactsCache(dir, 60000);
+
+            cache.store("user@host:22", new HostFacts(values, System.currentTimeMillis()), "probes1");
+
+            HostFacts loaded = cache.load("user@host:22", "probes1");
+
+            assertThat(loaded).isNotNull();
+            assertThat(loaded.getCpus()).isEqualTo(4);
+            assertThat(loaded.path("java")).isEqualTo("/usr/bin/java");
+
+            assertThat(cache.load("user@host:22", "probes2")).isNull();
+            assertThat(cache.load("other", "probes1")).isNull();
+
+            cache.invalidate("user@host:22");
+
+            assertThat(cache.load("user@host:22", "probes1")).isNull();
+
+            cache.store("old", new HostFacts(values, System.currentTimeMillis() - 120000), "probes1");
+
+            assertThat(cache.load("old", "probes1")).isNull();
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+}
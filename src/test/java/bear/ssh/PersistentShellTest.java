@@ -0,0 +1,182 @@
+package bear.ssh;
+
+import bear.console.AbstractConsole;
+import bear.console.ConsoleCallback;
+import bear.console.ConsoleCallbackResult;
+import bear.console.ConsoleCallbackResultType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assume.assumeTrue;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * A local shell process stands in for a remote host: plain sh, bash, and an interactive bash on a PTY like the one
+ * of an ssh session.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+@RunWith(Parameterized.class)
+public class PersistentShellTest {
+    final String[] command;
+    final boolean pty;
+
+    Process process;
+    PersistentShell shell;
+
+    public PersistentShellTest(String name, String[] command) {
+        this.command = command;
+        this.pty = command[0].endsWith("script");
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> shells() {
+        return Arrays.asList(new Object[][]{
+            {"sh", new String[]{"sh"}},
+            {"bash", new String[]{"/bin/bash"}},
+            {"bash on a pty", new String[]{"/usr/bin/script", "-qfc", "/bin/bash", "/dev/null"}}
+        });
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(command[0].indexOf('/') == -1 || new File(command[0]).canExecute());
+
+        process = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+        shell = new PersistentShell(process.getOutputStream(), process.getInputStream(), new Closeable() {
+            @Override
+            public void close() {
+                process.destroy();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (shell != null) {
+            shell.close();
+        }
+    }
+
+    /**
+     * A PTY translates newlines.
+     */
+    private String out(PersistentShell.Response r) {
+        return pty ? r.output.replace("\r\n", "\n") : r.output;
+    }
+
+    @Test
+    public void testExitCodesAndOutput() throws Exception {
+        PersistentShell.Response r1 = shell.run("echo hi; echo 'it''s quoted'", null, 5000);
+
+        assertThat(out(r1)).isEqualTo("hi\nits quoted\n");
+        assertThat(r1.exitCode).isEqualTo(0);
+        assertThat(r1.ok()).isTrue();
+
+        PersistentShell.Response r2 = shell.run("echo err >&2; exit 3", null, 5000);
+
+        assertThat(out(r2)).isEqualTo("err\n");
+        assertThat(r2.exitCode).isEqualTo(3);
+
+        assertThat(out(shell.run("printf 'no newline'", null, 5000))).isEqualTo("no newline");
+        assertThat(out(shell.run("true", null, 5000))).isEmpty();
+    }
+
+    @Test
+    public void testPipelining() throws Exception {
+        List<PersistentShell.Pending> pendings = new ArrayList<PersistentShell.Pending>();
+
+        for (int i = 0; i < 50; i++) {
+            pendings.add(shell.send("echo line " + i + "; test " + (i % 2) + " -eq 0", null));
+        }
+
+        for (int i = 0; i < 50; i++) {
+            PersistentShell.Response r = shell.await(pendings.get(i), 5000);
+
+            assertThat(out(r)).isEqualTo("line " + i + "\n");
+            assertThat(r.exitCode).isEqualTo(i % 2);
+        }
+    }
+
+    @Test
+    public void testPrompt() throws Exception {
+        final List<String> prompts = new ArrayList<String>();
+
+        PersistentShell.Response r = shell.run("printf 'password: '; read pw; echo \"got $pw\"", new ConsoleCallback() {
+            @Nonnull
+            @Override
+            public ConsoleCallbackResult progress(AbstractConsole.Terminal console, String buffer, String wholeText) {
+                if (wholeText.contains("password:")) {
+                    prompts.add(wholeText);
+                    ((PersistentShell.ShellTerminal) console).markStart();
+                    console.println("secret");
+                }
+
+                return ConsoleCallbackResult.CONTINUE;
+            }
+        }, 5000);
+
+        assertThat(prompts).hasSize(1);
+        assertThat(out(r)).isEqualTo("password: got secret\n");
+        assertThat(out(shell.run("echo after", null, 5000))).isEqualTo("after\n");
+    }
+
+    @Test
+    public void testCallbackOfNonInteractiveCommand() throws Exception {
+        final List<String> texts = new ArrayList<String>();
+
+        // without the redirect read would eat the next command from the shell's stdin
+        PersistentShell.Pending reading = shell.send("read line; echo \"read [$line]\"", new ConsoleCallback() {
+            @Nonnull
+            @Override
+            public ConsoleCallbackResult progress(AbstractConsole.Terminal console, String buffer, String wholeText) {
+                texts.add(buffer);
+
+                return ConsoleCallbackResult.CONTINUE;
+            }
+        }, false);
+
+        PersistentShell.Pending next = shell.send("echo next", null);
+
+        assertThat(out(shell.await(reading, 5000))).isEqualTo("read []\n");
+        assertThat(texts).isNotEmpty();
+        assertThat(out(shell.await(next, 5000))).isEqualTo("next\n");
+    }
+
+    @Test
+    public void testCallbackClosesShell() throws Exception {
+        PersistentShell.Response r = shell.run("echo started; sleep 10", new ConsoleCallback() {
+            @Nonnull
+            @Override
+            public ConsoleCallbackResult progress(AbstractConsole.Terminal console, String buffer, String wholeText) {
+                return wholeText.contains("started") ?
+                    new ConsoleCallbackResult(ConsoleCallbackResultType.DONE, null) : ConsoleCallbackResult.CONTINUE;
+            }
+        }, 5000);
+
+        assertThat(out(r)).startsWith("started");
+        assertThat(r.exitCode).isNull();
+        assertThat(shell.isClosed()).isTrue();
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        PersistentShell.Response r = shell.run("sleep 10", null, 200);
+
+        assertThat(r.error).isNotNull();
+        assertThat(r.ok()).isFalse();
+        assertThat(shell.isClosed()).isTrue();
+    }
+}
@@ -0,0 +1,352 @@
+package bear.ssh;
+
+import com.google.common.io.Files;
+import net.schmizz.concurrent.Promise;
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.common.Buffer;
+import net.schmizz.sshj.sftp.*;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.util.Arrays.asList;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Transfers run against an in-memory SFTP server which answers a request only when its reply is awaited, so the
+ * number of outstanding requests can be checked.
+ *
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class SftpTransfersTest {
+    File dir;
+    SftpTransfers transfers;
+
+    SSHClient ssh1 = new ConnectedClient();
+    SSHClient ssh2 = new ConnectedClient();
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDir();
+        transfers = new SftpTransfers(4, 2, 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        transfers.close();
+        FileUtils.deleteQuietly(dir);
+    }
+
+    @Test
+    public void testShortReadsAreRequestedAgain() throws Exception {
+        FakeSftp sftp = new FakeSftp();
+
+        sftp.maxReadBytes = 1000;
+
+        byte[] data = randomBytes(300 * 1000);
+        sftp.files.put("/remote/a.bin", data);
+
+        List<File> files = transfers.download(ssh1, sftp, asList("/remote/a.bin"), dir, null);
+
+        assertThat(files).containsExactly(new File(dir, "a.bin"));
+        assertThat(FileUtils.readFileToByteArray(files.get(0))).isEqualTo(data);
+        assertThat(sftp.maxInFlight).isEqualTo(4);
+    }
+
+    @Test
+    public void testTruncatedFileEndsAtEof() throws Exception {
+        FakeSftp sftp = new FakeSftp();
+
+        byte[] data = randomBytes(100 * 1000);
+        sftp.files.put("/remote/a.log", data);
+
+        // the file is truncated after its size has been read
+        sftp.reportedSize.put("/remote/a.log", 500 * 1000L);
+
+        File file = transfers.download(ssh1, sftp, asList("/remote/a.log"), dir, null).get(0);
+
+        assertThat(FileUtils.readFileToByteArray(file)).isEqualTo(data);
+    }
+
+    @Test
+    public void testUploadKeepsRequestsInFlight() throws Exception {
+        FakeSftp sftp = new FakeSftp();
+
+        byte[] data = randomBytes(SftpTransfers.CHUNK_SIZE * 10 + 5);
+        File src = new File(dir, "app.jar");
+        FileUtils.writeByteArrayToFile(src, data);
+
+        transfers.upload(ssh1, sftp, 64 * 1024, "/remote/app.jar", asList(src), null);
+
+        assertThat(sftp.files.get("/remote/app.jar")).isEqualTo(data);
+        assertThat(sftp.maxInFlight).isEqualTo(4);
+    }
+
+    @Test
+    public void testUploadIntoDirOrOntoFile() throws Exception {
+        FakeSftp sftp = new FakeSftp();
+
+        sftp.dirs.add("/remote/dir");
+
+        File a = new File(dir, "a.txt");
+        File b = new File(dir, "b.txt");
+
+        FileUtils.writeStringToFile(a, "a");
+        FileUtils.writeStringToFile(b, "b");
+
+        transfers.upload(ssh1, sftp, 64 * 1024, "/remote/dir", asList(a), null);
+        transfers.upload(ssh1, sftp, 64 * 1024, "/remote/renamed.txt", asList(a), null);
+        transfers.upload(ssh1, sftp, 64 * 1024, "/remote/many", asList(a, b), null);
+
+        assertThat(sftp.files.keySet()).containsOnly(
+            "/remote/dir/a.txt", "/remote/renamed.txt", "/remote/many/a.txt", "/remote/many/b.txt");
+
+        assertThat(new String(sftp.files.get("/remote/many/b.txt"))).isEqualTo("b");
+    }
+
+    @Test
+    public void testConnectionsDontWaitForEachOther() throws Exception {
+        assertThat(transfers.executor(ssh1)).isSameAs(transfers.executor(ssh1));
+        assertThat(transfers.executor(ssh1)).isNotSameAs(transfers.executor(ssh2));
+
+        final FakeSftp slow = new FakeSftp();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        slow.openLatch = release;
+
+        final File a = new File(dir, "a.txt");
+        final File b = new File(dir, "b.txt");
+        final File c = new File(dir, "c.txt");
+
+        for (File file : asList(a, b, c)) {
+            FileUtils.writeStringToFile(file, file.getName());
+        }
+
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+
+        try {
+            // both threads of the first connection are blocked
+            Future<?> blocked = caller.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    transfers.upload(ssh1, slow, 64 * 1024, "/remote", asList(a, b), null);
+                    return null;
+                }
+            });
+
+            FakeSftp fast = new FakeSftp();
+
+            transfers.upload(ssh2, fast, 64 * 1024, "/remote/c.txt", asList(c), null);
+
+            assertThat(fast.files.keySet()).containsOnly("/remote/c.txt");
+            assertThat(blocked.isDone()).isFalse();
+
+            release.countDown();
+
+            blocked.get(5, TimeUnit.SECONDS);
+
+            assertThat(slow.files.keySet()).containsOnly("/remote/a.txt", "/remote/b.txt");
+        } finally {
+            caller.shutdownNow();
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    static class ConnectedClient extends SSHClient {
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+    }
+
+    /**
+     * Serves OPEN, STAT, FSTAT, READ, WRITE and CLOSE from memory.
+     */
+    static class FakeSftp implements Requester {
+        final Map<String, byte[]> files = new ConcurrentHashMap<String, byte[]>();
+        final Map<String, Long> reportedSize = new ConcurrentHashMap<String, Long>();
+        final Set<String> dirs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        int maxReadBytes = Integer.MAX_VALUE;
+
+        volatile CountDownLatch openLatch;
+
+        private final Map<String, String> handles = new ConcurrentHashMap<String, String>();
+
+        private long requestId;
+        private int inFlight;
+        int maxInFlight;
+
+        @Override
+        public PathHelper getPathHelper() {
+            return null;
+        }
+
+        @Override
+        public synchronized Request newRequest(PacketType type) {
+            return new Request(type, ++requestId);
+        }
+
+        @Override
+        public Promise<Response, SFTPException> request(final Request request) {
+            final boolean counted = request.getType() == PacketType.READ || request.getType() == PacketType.WRITE;
+
+            if (counted) {
+                synchronized (this) {
+                    maxInFlight = Math.max(maxInFlight, ++inFlight);
+                }
+            }
+
+            return new Promise<Response, SFTPException>("fake", SFTPException.chainer) {
+                Response response;
+
+                @Override
+                public synchronized Response retrieve(long timeout, TimeUnit unit) throws SFTPException {
+                    if (response == null) {
+                        if (counted) {
+                            synchronized (FakeSftp.this) {
+                                inFlight--;
+                            }
+                        }
+
+                        response = handle(request);
+                    }
+
+                    return response;
+                }
+            };
+        }
+
+        @Override
+        public int getTimeoutMs() {
+            return 5000;
+        }
+
+        private Response handle(Request request) throws SFTPException {
+            try {
+                request.rpos(0);
+
+                PacketType type = request.readType();
+                long id = request.readUInt32();
+
+                switch (type) {
+                    case OPEN: {
+                        String path = request.readString();
+                        long mask = request.readUInt32();
+
+                        CountDownLatch latch = openLatch;
+
+                        if (latch != null) {
+                            latch.await();
+                        }
+
+                        if ((mask & OpenMode.toMask(EnumSet.of(OpenMode.TRUNC))) != 0) {
+                            files.put(path, new byte[0]);
+                        } else if (!files.containsKey(path)) {
+                            return status(id, Response.StatusCode.NO_SUCH_FILE);
+                        }
+
+                        String handle = "h" + id;
+                        handles.put(handle, path);
+
+                        return response(packet(PacketType.HANDLE, id).putString(handle));
+                    }
+                    case STAT: {
+                        String path = request.readString();
+
+                        if (dirs.contains(path)) {
+                            return attrs(id, new FileAttributes.Builder().withType(FileMode.Type.DIRECTORY).build());
+                        }
+
+                        if (files.containsKey(path)) {
+                            return attrs(id, new FileAttributes.Builder().withType(FileMode.Type.REGULAR)
+                                .withSize(files.get(path).length).build());
+                        }
+
+                        return status(id, Response.StatusCode.NO_SUCH_FILE);
+                    }
+                    case FSTAT: {
+                        String path = handles.get(request.readString());
+                        Long size = reportedSize.get(path);
+
+                        return attrs(id, new FileAttributes.Builder().withType(FileMode.Type.REGULAR)
+                            .withSize(size != null ? size : files.get(path).length).build());
+                    }
+                    case READ: {
+                        byte[] data = files.get(handles.get(request.readString()));
+                        long offset = request.readUInt64();
+                        int length = Math.min(request.readUInt32AsInt(), maxReadBytes);
+
+                        if (offset >= data.length) {
+                            return status(id, Response.StatusCode.EOF);
+                        }
+
+                        int n = (int) Math.min(length, data.length - offset);
+
+                        return response(packet(PacketType.DATA, id).putString(Arrays.copyOfRange(data, (int) offset, (int) offset + n)));
+                    }
+                    case WRITE: {
+                        String path = handles.get(request.readString());
+                        long offset = request.readUInt64();
+                        byte[] chunk = request.readStringAsBytes();
+
+                        synchronized (files) {
+                            byte[] data = files.get(path);
+                            byte[] updated = Arrays.copyOf(data, Math.max(data.length, (int) offset + chunk.length));
+                            System.arraycopy(chunk, 0, updated, (int) offset, chunk.length);
+                            files.put(path, updated);
+                        }
+
+                        return status(id, Response.StatusCode.OK);
+                    }
+                    case CLOSE:
+                        handles.remove(request.readString());
+                        return status(id, Response.StatusCode.OK);
+                    default:
+                        return status(id, Response.StatusCode.OP_UNSUPPORTED);
+                }
+            } catch (Exception e) {
+                throw new SFTPException(e);
+            }
+        }
+
+        /**
+         * A reply has the same layout as a request: type, id, payload.
+         */
+        private static Request packet(PacketType type, long id) {
+            return new Request(type, id);
+        }
+
+        private static Response attrs(long id, FileAttributes attributes) throws SFTPException {
+            return response(packet(PacketType.ATTRS, id).putFileAttributes(attributes));
+        }
+
+        private static Response status(long id, Response.StatusCode code) throws SFTPException {
+            return response(packet(PacketType.STATUS, id).putUInt32(code(code)).putString(code.name()).putString(""));
+        }
+
+        private static int code(Response.StatusCode code) {
+            int i = 0;
+
+            while (Response.StatusCode.fromInt(i) != code) {
+                i++;
+            }
+
+            return i;
+        }
+
+        private static Response response(Request packet) throws SFTPException {
+            return new Response(new Buffer<Response>(packet.getCompactData()), 3);
+        }
+    }
+}
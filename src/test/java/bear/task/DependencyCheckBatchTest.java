@@ -0,0 +1,127 @@
+package bear.task;
+
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * @author Andrey Chaschev chaschev@gmail.com
+ */
+public class DependencyCheckBatchTest {
+    @Test
+    public void testScriptAndParse() throws Exception {
+        Dependency dependency = new Dependency("test");
+
+        List<Dependency.Check> checks = new ArrayList<Dependency.Check>();
+
+        checks.add(check(dependency, "test -d /"));
+        checks.add(check(dependency, "echo java version 1.7.0_45"));
+        checks.add(check(dependency, "nosuchcommand_bear --version"));
+        checks.add(check(dependency, "exit 3"));
+
+        Process process = new ProcessBuilder("sh", "-c", DependencyCheckBatch.script(checks))
+            .redirectErrorStream(true)
+            .start();
+
+        String output = read(process.getInputStream());
+
+        process.waitFor();
+
+        Map<Integer, DependencyCheckBatch.CheckOutput> outputs = DependencyCheckBatch.parse(output);
+
+        assertThat(outputs).hasSize(4);
+
+        assertThat(outputs.get(0).exitCode).isEqualTo(0);
+        assertThat(outputs.get(0).text).isEmpty();
+
+        assertThat(outputs.get(1).exitCode).isEqualTo(0);
+        assertThat(outputs.get(1).text).isEqualTo("java version 1.7.0_45\n");
+
+        assertThat(outputs.get(2).exitCode).isEqualTo(127);
+        assertThat(outputs.get(2).text).contains("not found");
+
+        // exit in a check doesn't stop the script
+        assertThat(outputs.get(3).exitCode).isEqualTo(3);
+    }
+
+    @Test
+    public void testParseTruncated() throws Exception {
+        Map<Integer, DependencyCheckBatch.CheckOutput> outputs = DependencyCheckBatch.parse(
+            "\r\n__BEAR_CHECK_0:0\r\nok\r\n__BEAR_CHECK_1:1\r\npartial");
+
+        assertThat(outputs).hasSize(2);
+        assertThat(outputs.get(0).text).isEmpty();
+        assertThat(outputs.get(1).text).isEqualTo("ok");
+        assertThat(outputs.get(1).exitCode).isEqualTo(1);
+    }
+
+    @Test
+    public void testInvalidateDependency() throws Exception {
+        final boolean[] installed = {false};
+
+        Dependency dependency = new Dependency("test");
+
+        dependency.add(dependency.new Check() {
+            @Override
+            public boolean check() {
+                return installed[0];
+            }
+
+            @Override
+            public String message() {
+                return "not installed";
+            }
+        });
+
+        DependencyCheckBatch batch = new DependencyCheckBatch();
+
+        List<Dependency> dependencies = Collections.singletonList(dependency);
+
+        assertThat(batch.check(null, dependencies).ok()).isFalse();
+
+        installed[0] = true;
+
+        // cached until the dependency is installed
+        assertThat(batch.check(null, dependencies).ok()).isFalse();
+
+        batch.invalidate(dependency);
+
+        assertThat(batch.check(null, dependencies).ok()).isTrue();
+    }
+
+    private static Dependency.Check check(Dependency dependency, final String shell) {
+        return dependency.new Check() {
+            @Override
+            public boolean check() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public String message() {
+                return shell;
+            }
+
+            @Override
+            public String asShell() {
+                return shell;
+            }
+        };
+    }
+
+    private static String read(InputStream is) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        int ch;
+
+        while ((ch = is.read()) != -1) {
+            sb.append((char) ch);
+        }
+
+        return sb.toString();
+    }
+}